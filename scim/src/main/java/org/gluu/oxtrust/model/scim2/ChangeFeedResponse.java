@@ -0,0 +1,85 @@
+/*
+ * oxTrust is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2017, Gluu
+ */
+
+package org.gluu.oxtrust.model.scim2;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.codehaus.jackson.annotate.JsonAutoDetect;
+import org.codehaus.jackson.annotate.JsonAutoDetect.Visibility;
+import org.codehaus.jackson.annotate.JsonProperty;
+import org.codehaus.jackson.annotate.JsonPropertyOrder;
+
+/**
+ * Users and groups changed since watermark of previous response
+ */
+@JsonPropertyOrder({ "schemas", "watermark", "hasMore", "Resources", "deleted" })
+@JsonAutoDetect(fieldVisibility = Visibility.ANY, getterVisibility = Visibility.NONE, setterVisibility = Visibility.NONE)
+public class ChangeFeedResponse implements Serializable {
+
+	private static final long serialVersionUID = -2571305539617325487L;
+
+	private List<String> schemas;
+
+	private String watermark;
+
+	private boolean hasMore;
+
+	@JsonProperty
+	private List<Resource> Resources;
+
+	private List<DeletedResource> deleted;
+
+	public ChangeFeedResponse() {
+		schemas = new ArrayList<String>();
+		schemas.add(Constants.CHANGE_FEED_RESPONSE_SCHEMA_ID);
+		Resources = new ArrayList<Resource>();
+		deleted = new ArrayList<DeletedResource>();
+	}
+
+	public List<String> getSchemas() {
+		return schemas;
+	}
+
+	public void setSchemas(List<String> schemas) {
+		this.schemas = schemas;
+	}
+
+	public String getWatermark() {
+		return watermark;
+	}
+
+	public void setWatermark(String watermark) {
+		this.watermark = watermark;
+	}
+
+	public boolean isHasMore() {
+		return hasMore;
+	}
+
+	public void setHasMore(boolean hasMore) {
+		this.hasMore = hasMore;
+	}
+
+	public List<Resource> getResources() {
+		return Resources;
+	}
+
+	public void setResources(List<Resource> resources) {
+		Resources = resources;
+	}
+
+	public List<DeletedResource> getDeleted() {
+		return deleted;
+	}
+
+	public void setDeleted(List<DeletedResource> deleted) {
+		this.deleted = deleted;
+	}
+
+}
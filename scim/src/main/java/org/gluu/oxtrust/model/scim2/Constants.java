@@ -43,6 +43,8 @@ public interface Constants {
 
     String ERROR_RESPONSE_URI = "urn:ietf:params:scim:api:messages:2.0:Error";
 
+    String CHANGE_FEED_RESPONSE_SCHEMA_ID = "urn:ietf:params:scim:api:messages:gluu:2.0:ChangeFeedResponse";
+
     int DEFAULT_COUNT = 0;
     int MAX_COUNT = 200;    //Do not remove. This is used in SCIM-client project
 
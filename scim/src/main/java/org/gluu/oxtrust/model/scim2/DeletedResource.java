@@ -0,0 +1,61 @@
+/*
+ * oxTrust is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2017, Gluu
+ */
+
+package org.gluu.oxtrust.model.scim2;
+
+import java.io.Serializable;
+
+import org.codehaus.jackson.annotate.JsonPropertyOrder;
+
+/**
+ * Tombstone of deleted user or group in change feed
+ */
+@JsonPropertyOrder({ "resourceType", "id", "deleted" })
+public class DeletedResource implements Serializable {
+
+	private static final long serialVersionUID = 6092775160427513316L;
+
+	private String resourceType;
+	private String id;
+	private String deleted;
+
+	public DeletedResource() {
+	}
+
+	public DeletedResource(String resourceType, String id, String deleted) {
+		this.resourceType = resourceType;
+		this.id = id;
+		this.deleted = deleted;
+	}
+
+	public String getResourceType() {
+		return resourceType;
+	}
+
+	public void setResourceType(String resourceType) {
+		this.resourceType = resourceType;
+	}
+
+	public String getId() {
+		return id;
+	}
+
+	public void setId(String id) {
+		this.id = id;
+	}
+
+	/**
+	 * @return deletion time in ISO 8601 UTC format
+	 */
+	public String getDeleted() {
+		return deleted;
+	}
+
+	public void setDeleted(String deleted) {
+		this.deleted = deleted;
+	}
+
+}
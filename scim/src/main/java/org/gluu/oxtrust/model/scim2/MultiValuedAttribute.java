@@ -22,7 +22,7 @@ import com.google.common.base.Strings;
  * </p>
  */
 @JsonInclude(Include.NON_EMPTY)
-public abstract class MultiValuedAttribute {
+public abstract class MultiValuedAttribute implements Cloneable {
 
     private String operation;
     private String value;
@@ -189,6 +189,18 @@ public abstract class MultiValuedAttribute {
         return true;
     }
 
+    /**
+     * Fields are strings and immutable types, so copy doesn't share state with this attribute
+     */
+    @Override
+    public MultiValuedAttribute clone() {
+        try {
+            return (MultiValuedAttribute) super.clone();
+        } catch (CloneNotSupportedException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
     @Override
     public String toString() {
         return "MultiValuedAttribute [operation=" + operation + ", value=" + value + ", display=" + display
@@ -22,6 +22,7 @@ public class SearchRequest implements Serializable {
     private String sortBy;
     private String sortOrder;
     private String attributesArray;
+    private String excludedAttributesArray;
 
     public SearchRequest() {
         schemas.add(Constants.SEARCH_REQUEST_SCHEMA_ID);
@@ -82,4 +83,12 @@ public class SearchRequest implements Serializable {
     public void setAttributesArray(String attributesArray) {
         this.attributesArray = attributesArray;
     }
+
+    public String getExcludedAttributesArray() {
+        return excludedAttributesArray;
+    }
+
+    public void setExcludedAttributesArray(String excludedAttributesArray) {
+        this.excludedAttributesArray = excludedAttributesArray;
+    }
 }
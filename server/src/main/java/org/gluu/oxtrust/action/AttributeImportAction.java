@@ -10,6 +10,7 @@ import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.Serializable;
+import java.util.List;
 
 import javax.annotation.PreDestroy;
 import javax.enterprise.context.ConversationScoped;
@@ -22,6 +23,8 @@ import org.gluu.jsf2.message.FacesMessages;
 import org.gluu.jsf2.service.ConversationService;
 import org.gluu.oxtrust.ldap.service.AttributeService;
 import org.gluu.oxtrust.ldap.service.LdifService;
+import org.gluu.oxtrust.model.LdifImportResult;
+import org.gluu.oxtrust.model.LdifImportResult.EntryError;
 import org.gluu.oxtrust.util.OxTrustConstants;
 import org.richfaces.event.FileUploadEvent;
 import org.richfaces.model.UploadedFile;
@@ -44,6 +47,8 @@ public class AttributeImportAction implements Serializable {
 
 	private static final long serialVersionUID = 8755036208872218664L;
 
+	private static final int MAX_REPORTED_ERRORS = 10;
+
 	@Inject
 	private Logger log;
 	
@@ -82,25 +87,37 @@ public class AttributeImportAction implements Serializable {
 			return OxTrustConstants.RESULT_FAILURE;
 		}
 
-		InputStream is = new ByteArrayInputStream(fileDataToImport.getData());
-		ResultCode result = null;
-		try {
-			result = ldifService.importLdifFileInLdap(is);
-		} catch (LDAPException ex) {
-			facesMessages.add(FacesMessage.SEVERITY_ERROR, "Failed to import LDIF file");
-		} finally {
-			IOUtils.closeQuietly(is);
-		}
-		
+		LdifImportResult result = ldifService.importLdifFileInLdap(fileDataToImport.getData());
+
 		removeFileToImport();
 
-		if ((result != null) && result.equals(ResultCode.SUCCESS)) {
-			facesMessages.add(FacesMessage.SEVERITY_INFO,"Attributes added successfully");
-			return OxTrustConstants.RESULT_SUCCESS;
-		} else {
+		if (result == null) {
 			facesMessages.add(FacesMessage.SEVERITY_ERROR, "Failed to import LDIF file");
 			return OxTrustConstants.RESULT_FAILURE;
 		}
+
+		if (result.getResumedFrom() > 0) {
+			facesMessages.add(FacesMessage.SEVERITY_INFO, "Import was resumed after %s already processed LDIF records", result.getResumedFrom());
+		}
+
+		if (result.isSuccess()) {
+			facesMessages.add(FacesMessage.SEVERITY_INFO, "Attributes imported successfully. Added or updated: %s, already existing: %s",
+					result.getImported(), result.getSkipped());
+			return OxTrustConstants.RESULT_SUCCESS;
+		}
+
+		facesMessages.add(FacesMessage.SEVERITY_ERROR, "Failed to import %s LDIF records. Added or updated: %s, already existing: %s",
+				result.getErrors().size(), result.getImported(), result.getSkipped());
+
+		List<EntryError> errors = result.getErrors();
+		for (EntryError error : errors.subList(0, Math.min(MAX_REPORTED_ERRORS, errors.size()))) {
+			facesMessages.add(FacesMessage.SEVERITY_ERROR, "Record %s '%s': %s", error.getIndex() + 1, error.getDn(), error.getMessage());
+		}
+		if (errors.size() > MAX_REPORTED_ERRORS) {
+			facesMessages.add(FacesMessage.SEVERITY_ERROR, "%s more errors are in server log", errors.size() - MAX_REPORTED_ERRORS);
+		}
+
+		return OxTrustConstants.RESULT_FAILURE;
 	}
 
 	public void validateFileToImport() {
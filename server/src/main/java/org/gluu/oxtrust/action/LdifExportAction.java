@@ -0,0 +1,137 @@
+/*
+ * oxTrust is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2017, Gluu
+ */
+
+package org.gluu.oxtrust.action;
+
+import java.io.Serializable;
+
+import javax.enterprise.context.RequestScoped;
+import javax.faces.application.FacesMessage;
+import javax.faces.context.ExternalContext;
+import javax.faces.context.FacesContext;
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletResponse;
+
+import org.gluu.jsf2.message.FacesMessages;
+import org.gluu.oxtrust.ldap.service.ClientService;
+import org.gluu.oxtrust.ldap.service.IGroupService;
+import org.gluu.oxtrust.ldap.service.IPersonService;
+import org.gluu.oxtrust.ldap.service.LdifService;
+import org.slf4j.Logger;
+import org.xdi.service.security.Secure;
+import org.xdi.util.io.FileDownloader;
+
+import com.unboundid.ldap.sdk.Filter;
+
+/**
+ * Action class for downloading people, groups or clients subtree as LDIF
+ */
+@RequestScoped
+@Named
+@Secure("#{permissionService.hasPermission('configuration', 'access')}")
+public class LdifExportAction implements Serializable {
+
+	private static final long serialVersionUID = -2215869423171538516L;
+
+	public static final String SUBTREE_PEOPLE = "people";
+	public static final String SUBTREE_GROUPS = "groups";
+	public static final String SUBTREE_CLIENTS = "clients";
+
+	@Inject
+	private Logger log;
+
+	@Inject
+	private FacesMessages facesMessages;
+
+	@Inject
+	private FacesContext facesContext;
+
+	@Inject
+	private ExternalContext externalContext;
+
+	@Inject
+	private LdifService ldifService;
+
+	@Inject
+	private IPersonService personService;
+
+	@Inject
+	private IGroupService groupService;
+
+	@Inject
+	private ClientService clientService;
+
+	private String subtree = SUBTREE_PEOPLE;
+
+	private boolean compress = true;
+
+	public String export() {
+		String baseDn = getBaseDn();
+		if (baseDn == null) {
+			facesMessages.add(FacesMessage.SEVERITY_ERROR, "Unknown subtree");
+			return null;
+		}
+
+		HttpServletResponse response = (HttpServletResponse) externalContext.getResponse();
+		String fileName = subtree + (compress ? ".ldif.gz" : ".ldif");
+		response.setContentType(compress ? "application/gzip" : "text/plain");
+		response.addHeader("Content-disposition", "attachment; filename=\"" + fileName + "\"");
+		try {
+			ServletOutputStream os = response.getOutputStream();
+			long exported = ldifService.exportLdifSubtree(baseDn, Filter.createPresenceFilter("objectClass"), compress, os);
+			os.flush();
+			os.close();
+
+			log.info("Exported {} entries of '{}' to LDIF", exported, subtree);
+		} catch (Exception ex) {
+			log.error("Failed to export '{}' to LDIF", subtree, ex);
+			if (!response.isCommitted()) {
+				response.reset();
+				FileDownloader.sendError(response, "Failed to export LDIF");
+			}
+		} finally {
+			// Response is written directly, JSF mustn't render page into it
+			facesContext.responseComplete();
+		}
+
+		return null;
+	}
+
+	private String getBaseDn() {
+		if (SUBTREE_PEOPLE.equals(subtree)) {
+			return personService.getDnForPerson(null);
+		} else if (SUBTREE_GROUPS.equals(subtree)) {
+			return groupService.getDnForGroup(null);
+		} else if (SUBTREE_CLIENTS.equals(subtree)) {
+			return clientService.getDnForClient(null);
+		}
+
+		return null;
+	}
+
+	public String[] getSubtrees() {
+		return new String[] { SUBTREE_PEOPLE, SUBTREE_GROUPS, SUBTREE_CLIENTS };
+	}
+
+	public String getSubtree() {
+		return subtree;
+	}
+
+	public void setSubtree(String subtree) {
+		this.subtree = subtree;
+	}
+
+	public boolean isCompress() {
+		return compress;
+	}
+
+	public void setCompress(boolean compress) {
+		this.compress = compress;
+	}
+
+}
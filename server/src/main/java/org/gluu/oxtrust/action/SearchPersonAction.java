@@ -67,7 +67,7 @@ public class SearchPersonAction implements Serializable {
 		}
 
 		try {
-			this.personList = personService.searchPersons(this.searchPattern);
+			this.personList = personService.searchPersons(this.searchPattern, OxTrustConstants.searchPersonsSizeLimit);
 			this.oldSearchPattern = this.searchPattern;
 		} catch (Exception ex) {
 			log.error("Failed to find persons", ex);
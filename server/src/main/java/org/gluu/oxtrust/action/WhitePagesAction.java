@@ -9,8 +9,10 @@ package org.gluu.oxtrust.action;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
-import java.util.Set;
+import java.util.Map;
 
 import javax.annotation.PostConstruct;
 import javax.enterprise.context.ConversationScoped;
@@ -25,6 +27,7 @@ import org.gluu.oxtrust.ldap.service.IPersonService;
 import org.gluu.oxtrust.ldap.service.ImageService;
 import org.gluu.oxtrust.model.GluuCustomAttribute;
 import org.gluu.oxtrust.model.GluuCustomPerson;
+import org.gluu.oxtrust.model.WhitePagesDataModel;
 import org.gluu.oxtrust.util.OxTrustConstants;
 import org.slf4j.Logger;
 import org.xdi.model.GluuAttribute;
@@ -32,6 +35,8 @@ import org.xdi.model.GluuImage;
 import org.xdi.model.GluuUserRole;
 import org.xdi.service.security.Secure;
 
+import com.unboundid.ldap.sdk.Filter;
+
 /**
  * Action class for view white pages
  * 
@@ -45,6 +50,8 @@ public class WhitePagesAction implements Serializable {
 	private static final long serialVersionUID = 6730313815008211305L;
 
 	private static final String PHOTO_NAME = "photo1";
+	private static final String OPT_OUTS_NAME = "gluuOptOuts";
+	private static final int MAX_PHOTO_THUMBS = 500;
 
 	private List<String> tableAttributes;
 
@@ -68,8 +75,11 @@ public class WhitePagesAction implements Serializable {
 
 	private String tableState;
 
-	private List<GluuCustomPerson> persons;
-	private Set<Integer> selectedPersons;
+	private WhitePagesDataModel persons;
+	private Collection<Object> selectedPersons;
+
+	// Thumbnails of rendered persons by DN
+	private Map<String, byte[]> photoThumbs = new HashMap<String, byte[]>();
 
 	@PostConstruct
 	public void init() {
@@ -88,9 +98,8 @@ public class WhitePagesAction implements Serializable {
 	@Secure("#{permissionService.hasPermission(applianceService.appliance, 'whitePagesEnabled')}")
 	public String search() {
 		try {
-			GluuCustomPerson person = new GluuCustomPerson();
-			person.setGluuAllowPublication("true");
-			this.persons = personService.findPersons(person, 0);
+			this.persons = new WhitePagesDataModel(personService, Filter.createEqualityFilter("gluuAllowPublication", "true"));
+			this.photoThumbs.clear();
 		} catch (Exception ex) {
 			log.error("Failed to find persons", ex);
 
@@ -103,7 +112,7 @@ public class WhitePagesAction implements Serializable {
 		return OxTrustConstants.RESULT_SUCCESS;
 	}
 
-	public List<GluuCustomPerson> getPersons() {
+	public WhitePagesDataModel getPersons() {
 		return persons;
 	}
 
@@ -115,11 +124,11 @@ public class WhitePagesAction implements Serializable {
 		this.tableState = tableState;
 	}
 
-	public Set<Integer> getSelectedPersons() {
+	public Collection<Object> getSelectedPersons() {
 		return selectedPersons;
 	}
 
-	public void setSelectedPersons(Set<Integer> selectedPersons) {
+	public void setSelectedPersons(Collection<Object> selectedPersons) {
 		this.selectedPersons = selectedPersons;
 	}
 
@@ -127,18 +136,42 @@ public class WhitePagesAction implements Serializable {
 		if ((this.selectedPersons == null) || (this.selectedPersons.isEmpty())) {
 			return null;
 		} else {
-			int index = this.selectedPersons.iterator().next();
-			return this.persons.get(index);
+			// Table rows have minimal set of attributes, details need whole entry
+			String dn = (String) this.selectedPersons.iterator().next();
+			return personService.getPersonByDn(dn);
 		}
 	}
 
 	public byte[] getPhotoThumbData(GluuCustomPerson person) {
+		if ((person == null) || (person.getDn() == null)) {
+			return imageService.getBlankPhotoData();
+		}
+
+		byte[] thumbData = photoThumbs.get(person.getDn());
+		if (thumbData == null) {
+			if (photoThumbs.size() >= MAX_PHOTO_THUMBS) {
+				photoThumbs.clear();
+			}
+			thumbData = loadPhotoThumbData(person.getDn());
+			photoThumbs.put(person.getDn(), thumbData);
+		}
+
+		return thumbData;
+	}
+
+	private byte[] loadPhotoThumbData(String dn) {
+		// Photo isn't loaded with table page, so read it for each rendered row only
+		GluuCustomPerson person = personService.findPersonByDn(dn, PHOTO_NAME, OPT_OUTS_NAME);
+		if ((person == null) || (person.getGluuOptOuts() != null && person.getGluuOptOuts().contains(PHOTO_NAME))) {
+			return imageService.getBlankPhotoData();
+		}
+
 		List<GluuAttribute> attributes = attributeService.getAllPersonAttributes(GluuUserRole.USER);
 		GluuAttribute photoAttribute = attributeService.getAttributeByName(PHOTO_NAME, attributes);
 		GluuCustomAttribute customAttribute = new GluuCustomAttribute(PHOTO_NAME, person.getAttribute(PHOTO_NAME));
 		customAttribute.setMetadata(photoAttribute);
 		GluuImage image = imageService.getImage(customAttribute);
-		if (image == null || (person.getGluuOptOuts() != null && person.getGluuOptOuts().contains(PHOTO_NAME))) {
+		if (image == null) {
 			return imageService.getBlankPhotoData();
 		}
 		return imageService.getThumImageData(image);
@@ -6,6 +6,7 @@
 
 package org.gluu.oxtrust.ldap.cache.service;
 
+import static org.gluu.oxtrust.ldap.service.AppInitializer.LDAP_BATCH_ENTRY_MANAGER_NAME;
 import static org.gluu.oxtrust.ldap.service.AppInitializer.LDAP_ENTRY_MANAGER_NAME;
 
 import java.net.InetAddress;
@@ -108,7 +109,7 @@ public class CacheRefreshTimer {
 	@Inject
 	private IPersonService personService;
 
-	@Inject
+	@Inject @Named(LDAP_BATCH_ENTRY_MANAGER_NAME)
 	private LdapEntryManager ldapEntryManager;
 	@Inject
 	private ApplianceService applianceService;
@@ -0,0 +1,97 @@
+/*
+ * oxTrust is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2017, Gluu
+ */
+
+package org.gluu.oxtrust.ldap.load;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads rows of CSV file. Supports quoted values with separators, quotes and line breaks
+ */
+public class CsvRowReader implements RowReader {
+
+	private static final char SEPARATOR = ',';
+	private static final char QUOTE = '"';
+	private static final char BOM = '\uFEFF';
+
+	private final BufferedReader reader;
+	private boolean firstRow = true;
+
+	public CsvRowReader(InputStream is) throws IOException {
+		this.reader = new BufferedReader(new InputStreamReader(is, "UTF-8"));
+	}
+
+	@Override
+	public String[] readRow() throws IOException {
+		String line = reader.readLine();
+		if (line == null) {
+			return null;
+		}
+
+		if (firstRow) {
+			firstRow = false;
+			if ((line.length() > 0) && (line.charAt(0) == BOM)) {
+				line = line.substring(1);
+			}
+		}
+
+		List<String> values = new ArrayList<String>();
+		StringBuilder value = new StringBuilder();
+		boolean quoted = false;
+		int i = 0;
+		while (true) {
+			if (i == line.length()) {
+				if (!quoted) {
+					break;
+				}
+
+				// Line break inside quoted value
+				line = reader.readLine();
+				if (line == null) {
+					throw new IOException("Unexpected end of CSV file inside quoted value");
+				}
+				value.append('\n');
+				i = 0;
+				continue;
+			}
+
+			char ch = line.charAt(i++);
+			if (quoted) {
+				if (ch == QUOTE) {
+					if ((i < line.length()) && (line.charAt(i) == QUOTE)) {
+						value.append(QUOTE);
+						i++;
+					} else {
+						quoted = false;
+					}
+				} else {
+					value.append(ch);
+				}
+			} else if (ch == QUOTE) {
+				quoted = true;
+			} else if (ch == SEPARATOR) {
+				values.add(value.toString());
+				value.setLength(0);
+			} else {
+				value.append(ch);
+			}
+		}
+		values.add(value.toString());
+
+		return values.toArray(new String[values.size()]);
+	}
+
+	@Override
+	public void close() throws IOException {
+		reader.close();
+	}
+
+}
@@ -0,0 +1,169 @@
+/*
+ * oxTrust is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2017, Gluu
+ */
+
+package org.gluu.oxtrust.ldap.load;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Serializable;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Progress and errors of running person import
+ */
+public class PersonImportJob implements Serializable {
+
+	private static final long serialVersionUID = 3519473712345298112L;
+
+	public enum Status {
+		RUNNING, COMPLETED, FAILED, CANCELLED
+	}
+
+	private final String id;
+	private final String fileName;
+
+	private volatile Status status = Status.RUNNING;
+	private volatile String message;
+	private volatile boolean cancelRequested;
+	private volatile long finishTime;
+
+	private final AtomicLong processed = new AtomicLong();
+	private final AtomicLong imported = new AtomicLong();
+	private final AtomicLong failed = new AtomicLong();
+
+	// Guarded by this
+	private final List<ImportError> errors = new ArrayList<ImportError>();
+
+	public PersonImportJob(String id, String fileName) {
+		this.id = id;
+		this.fileName = fileName;
+	}
+
+	public void addImported() {
+		imported.incrementAndGet();
+		processed.incrementAndGet();
+	}
+
+	public void addError(long row, String uid, String message) {
+		synchronized (this) {
+			errors.add(new ImportError(row, uid, message));
+		}
+		failed.incrementAndGet();
+		processed.incrementAndGet();
+	}
+
+	public synchronized List<ImportError> getErrors() {
+		return new ArrayList<ImportError>(errors);
+	}
+
+	public void writeErrorReport(OutputStream os) throws IOException {
+		Writer writer = new OutputStreamWriter(os, "UTF-8");
+		writer.write("row,uid,error\r\n");
+		for (ImportError error : getErrors()) {
+			writer.write(error.getRow() + "," + escapeCsv(error.getUid()) + "," + escapeCsv(error.getMessage()) + "\r\n");
+		}
+		writer.flush();
+	}
+
+	private String escapeCsv(String value) {
+		if (value == null) {
+			return "";
+		}
+
+		return "\"" + value.replace("\"", "\"\"") + "\"";
+	}
+
+	public boolean isRunning() {
+		return Status.RUNNING.equals(status);
+	}
+
+	public void cancel() {
+		this.cancelRequested = true;
+	}
+
+	public boolean isCancelRequested() {
+		return cancelRequested;
+	}
+
+	public String getId() {
+		return id;
+	}
+
+	public String getFileName() {
+		return fileName;
+	}
+
+	public Status getStatus() {
+		return status;
+	}
+
+	public void setStatus(Status status) {
+		if (!Status.RUNNING.equals(status)) {
+			this.finishTime = System.currentTimeMillis();
+		}
+		this.status = status;
+	}
+
+	/**
+	 * @return time when job was finished or 0 if it's running
+	 */
+	public long getFinishTime() {
+		return finishTime;
+	}
+
+	public String getMessage() {
+		return message;
+	}
+
+	public void setMessage(String message) {
+		this.message = message;
+	}
+
+	public long getProcessed() {
+		return processed.get();
+	}
+
+	public long getImported() {
+		return imported.get();
+	}
+
+	public long getFailed() {
+		return failed.get();
+	}
+
+	public static class ImportError implements Serializable {
+
+		private static final long serialVersionUID = -4521036713372460918L;
+
+		private final long row;
+		private final String uid;
+		private final String message;
+
+		public ImportError(long row, String uid, String message) {
+			this.row = row;
+			this.uid = uid;
+			this.message = message;
+		}
+
+		public long getRow() {
+			return row;
+		}
+
+		public String getUid() {
+			return uid;
+		}
+
+		public String getMessage() {
+			return message;
+		}
+
+	}
+
+}
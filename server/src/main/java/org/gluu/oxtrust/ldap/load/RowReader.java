@@ -0,0 +1,22 @@
+/*
+ * oxTrust is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2017, Gluu
+ */
+
+package org.gluu.oxtrust.ldap.load;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Reads table rows one by one without loading whole file into memory
+ */
+public interface RowReader extends Closeable {
+
+	/**
+	 * @return cell values of next row or null at end of file
+	 */
+	String[] readRow() throws IOException;
+
+}
@@ -0,0 +1,55 @@
+/*
+ * oxTrust is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2017, Gluu
+ */
+
+package org.gluu.oxtrust.ldap.load;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import jxl.Cell;
+import jxl.Sheet;
+import jxl.Workbook;
+import jxl.read.biff.BiffException;
+
+/**
+ * Reads rows of first sheet of Excel 97-2003 file. Format doesn't allow streaming, so rows are read from loaded workbook
+ */
+public class XlsRowReader implements RowReader {
+
+	private final Workbook workbook;
+	private final Sheet sheet;
+	private int row;
+
+	public XlsRowReader(InputStream is) throws IOException {
+		try {
+			this.workbook = Workbook.getWorkbook(is);
+		} catch (BiffException ex) {
+			throw new IOException("Failed to read Excel file", ex);
+		}
+		this.sheet = workbook.getSheet(0);
+	}
+
+	@Override
+	public String[] readRow() {
+		if (row >= sheet.getRows()) {
+			return null;
+		}
+
+		Cell[] cells = sheet.getRow(row++);
+		String[] values = new String[cells.length];
+		for (int i = 0; i < cells.length; i++) {
+			values[i] = cells[i].getContents();
+		}
+
+		return values;
+	}
+
+	@Override
+	public void close() {
+		workbook.close();
+	}
+
+}
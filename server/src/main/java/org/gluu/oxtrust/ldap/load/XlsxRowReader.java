@@ -0,0 +1,272 @@
+/*
+ * oxTrust is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2017, Gluu
+ */
+
+package org.gluu.oxtrust.ldap.load;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.apache.commons.io.IOUtils;
+
+/**
+ * Reads rows of first sheet of Excel 2007+ file. Sheet XML is parsed with StAX, so only shared strings table is kept in
+ * memory. Empty rows are omitted from sheet XML, so they are skipped. First sheet is resolved through workbook and its
+ * relationships, because sheet file names don't follow sheet order after sheets were reordered or removed
+ */
+public class XlsxRowReader implements RowReader {
+
+	private static final String SHARED_STRINGS_ENTRY = "xl/sharedStrings.xml";
+	private static final String WORKBOOK_ENTRY = "xl/workbook.xml";
+	private static final String WORKBOOK_RELATIONSHIPS_ENTRY = "xl/_rels/workbook.xml.rels";
+	private static final String WORKBOOK_FOLDER = "xl/";
+	private static final String DEFAULT_FIRST_SHEET_ENTRY = "xl/worksheets/sheet1.xml";
+
+	private final ZipFile zipFile;
+	private final List<String> sharedStrings;
+	private final InputStream sheetStream;
+	private final XMLStreamReader sheetReader;
+
+	public XlsxRowReader(File file) throws IOException {
+		this.zipFile = new ZipFile(file);
+		try {
+			XMLInputFactory xmlInputFactory = createXmlInputFactory();
+			ZipEntry sheetEntry = zipFile.getEntry(getFirstSheetEntryName(xmlInputFactory));
+			if (sheetEntry == null) {
+				throw new IOException("Excel file doesn't contain sheets");
+			}
+
+			this.sharedStrings = readSharedStrings(xmlInputFactory);
+			this.sheetStream = zipFile.getInputStream(sheetEntry);
+			this.sheetReader = xmlInputFactory.createXMLStreamReader(sheetStream, "UTF-8");
+		} catch (XMLStreamException ex) {
+			zipFile.close();
+			throw new IOException("Failed to parse Excel file", ex);
+		} catch (IOException ex) {
+			zipFile.close();
+			throw ex;
+		}
+	}
+
+	@Override
+	public String[] readRow() throws IOException {
+		try {
+			while (sheetReader.hasNext()) {
+				if ((sheetReader.next() == XMLStreamConstants.START_ELEMENT) && "row".equals(sheetReader.getLocalName())) {
+					return readRowElement();
+				}
+			}
+		} catch (XMLStreamException ex) {
+			throw new IOException("Failed to parse Excel sheet", ex);
+		}
+
+		return null;
+	}
+
+	private String[] readRowElement() throws XMLStreamException {
+		List<String> values = new ArrayList<String>();
+		while (sheetReader.hasNext()) {
+			int event = sheetReader.next();
+			if (event == XMLStreamConstants.END_ELEMENT && "row".equals(sheetReader.getLocalName())) {
+				break;
+			}
+
+			if ((event == XMLStreamConstants.START_ELEMENT) && "c".equals(sheetReader.getLocalName())) {
+				// Empty cells are omitted from sheet XML too
+				int column = parseColumn(sheetReader.getAttributeValue(null, "r"), values.size());
+				while (values.size() < column) {
+					values.add("");
+				}
+				values.add(readCellElement());
+			}
+		}
+
+		return values.toArray(new String[values.size()]);
+	}
+
+	private String readCellElement() throws XMLStreamException {
+		String type = sheetReader.getAttributeValue(null, "t");
+
+		StringBuilder value = new StringBuilder();
+		while (sheetReader.hasNext()) {
+			int event = sheetReader.next();
+			if (event == XMLStreamConstants.END_ELEMENT && "c".equals(sheetReader.getLocalName())) {
+				break;
+			}
+
+			if ((event == XMLStreamConstants.START_ELEMENT) && ("v".equals(sheetReader.getLocalName()) || "t".equals(sheetReader.getLocalName()))) {
+				value.append(sheetReader.getElementText());
+			}
+		}
+
+		if ("s".equals(type)) {
+			int index = parseInt(value.toString(), -1);
+			return (index >= 0) && (index < sharedStrings.size()) ? sharedStrings.get(index) : "";
+		} else if ("b".equals(type)) {
+			return "1".equals(value.toString()) ? "true" : "false";
+		}
+
+		return value.toString();
+	}
+
+	private List<String> readSharedStrings(XMLInputFactory xmlInputFactory) throws IOException, XMLStreamException {
+		List<String> result = new ArrayList<String>();
+
+		ZipEntry sharedStringsEntry = zipFile.getEntry(SHARED_STRINGS_ENTRY);
+		if (sharedStringsEntry == null) {
+			return result;
+		}
+
+		InputStream is = zipFile.getInputStream(sharedStringsEntry);
+		try {
+			XMLStreamReader reader = xmlInputFactory.createXMLStreamReader(is, "UTF-8");
+			StringBuilder value = null;
+			while (reader.hasNext()) {
+				int event = reader.next();
+				if (event == XMLStreamConstants.START_ELEMENT) {
+					if ("si".equals(reader.getLocalName())) {
+						value = new StringBuilder();
+					} else if ("t".equals(reader.getLocalName()) && (value != null)) {
+						// Rich text value consists of several runs
+						value.append(reader.getElementText());
+					}
+				} else if ((event == XMLStreamConstants.END_ELEMENT) && "si".equals(reader.getLocalName())) {
+					result.add(value.toString());
+					value = null;
+				}
+			}
+			reader.close();
+		} finally {
+			IOUtils.closeQuietly(is);
+		}
+
+		return result;
+	}
+
+	private String getFirstSheetEntryName(XMLInputFactory xmlInputFactory) throws IOException, XMLStreamException {
+		String relationshipId = readFirstSheetRelationshipId(xmlInputFactory);
+		if (relationshipId == null) {
+			return DEFAULT_FIRST_SHEET_ENTRY;
+		}
+
+		ZipEntry relationshipsEntry = zipFile.getEntry(WORKBOOK_RELATIONSHIPS_ENTRY);
+		if (relationshipsEntry == null) {
+			return DEFAULT_FIRST_SHEET_ENTRY;
+		}
+
+		InputStream is = zipFile.getInputStream(relationshipsEntry);
+		try {
+			XMLStreamReader reader = xmlInputFactory.createXMLStreamReader(is, "UTF-8");
+			try {
+				while (reader.hasNext()) {
+					if ((reader.next() == XMLStreamConstants.START_ELEMENT) && "Relationship".equals(reader.getLocalName())
+							&& relationshipId.equals(reader.getAttributeValue(null, "Id"))) {
+						String target = reader.getAttributeValue(null, "Target");
+						if (target == null) {
+							break;
+						}
+
+						// Target is relative to workbook folder unless it's absolute part name
+						return target.startsWith("/") ? target.substring(1) : WORKBOOK_FOLDER + target;
+					}
+				}
+			} finally {
+				reader.close();
+			}
+		} finally {
+			IOUtils.closeQuietly(is);
+		}
+
+		return DEFAULT_FIRST_SHEET_ENTRY;
+	}
+
+	private String readFirstSheetRelationshipId(XMLInputFactory xmlInputFactory) throws IOException, XMLStreamException {
+		ZipEntry workbookEntry = zipFile.getEntry(WORKBOOK_ENTRY);
+		if (workbookEntry == null) {
+			return null;
+		}
+
+		InputStream is = zipFile.getInputStream(workbookEntry);
+		try {
+			XMLStreamReader reader = xmlInputFactory.createXMLStreamReader(is, "UTF-8");
+			try {
+				while (reader.hasNext()) {
+					if ((reader.next() == XMLStreamConstants.START_ELEMENT) && "sheet".equals(reader.getLocalName())) {
+						// Relationship namespace differs in transitional and strict formats
+						for (int i = 0; i < reader.getAttributeCount(); i++) {
+							if ("id".equals(reader.getAttributeLocalName(i)) && (reader.getAttributeNamespace(i) != null)) {
+								return reader.getAttributeValue(i);
+							}
+						}
+
+						return null;
+					}
+				}
+			} finally {
+				reader.close();
+			}
+		} finally {
+			IOUtils.closeQuietly(is);
+		}
+
+		return null;
+	}
+
+	private XMLInputFactory createXmlInputFactory() {
+		XMLInputFactory xmlInputFactory = XMLInputFactory.newInstance();
+		xmlInputFactory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+		xmlInputFactory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+
+		return xmlInputFactory;
+	}
+
+	private static int parseColumn(String cellReference, int defaultValue) {
+		if (cellReference == null) {
+			return defaultValue;
+		}
+
+		int column = 0;
+		for (int i = 0; i < cellReference.length(); i++) {
+			char ch = cellReference.charAt(i);
+			if ((ch < 'A') || (ch > 'Z')) {
+				break;
+			}
+			column = column * 26 + (ch - 'A' + 1);
+		}
+
+		return column - 1;
+	}
+
+	private static int parseInt(String value, int defaultValue) {
+		try {
+			return Integer.parseInt(value.trim());
+		} catch (Exception ex) {
+			return defaultValue;
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		try {
+			sheetReader.close();
+		} catch (XMLStreamException ex) {
+			throw new IOException("Failed to close Excel sheet", ex);
+		} finally {
+			IOUtils.closeQuietly(sheetStream);
+			zipFile.close();
+		}
+	}
+
+}
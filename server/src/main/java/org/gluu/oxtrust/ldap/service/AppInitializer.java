@@ -33,9 +33,12 @@ import org.apache.logging.log4j.core.LoggerContext;
 import org.gluu.oxtrust.config.ConfigurationFactory;
 import org.gluu.oxtrust.ldap.cache.service.CacheRefreshTimer;
 import org.gluu.oxtrust.service.MetricService;
+import org.gluu.oxtrust.service.cdi.event.BatchLdap;
 import org.gluu.oxtrust.service.cdi.event.CentralLdap;
+import org.gluu.oxtrust.service.cdi.event.ScimLdap;
 import org.gluu.oxtrust.service.custom.LdapCentralConfigurationReload;
 import org.gluu.oxtrust.service.logger.LoggerService;
+import org.gluu.oxtrust.service.scim2.ScimScriptOutboxService;
 import org.gluu.oxtrust.service.status.ldap.LdapStatusTimer;
 import org.gluu.oxtrust.util.BuildVersion;
 import org.gluu.site.ldap.OperationsFacade;
@@ -81,6 +84,17 @@ public class AppInitializer {
 
     public static final String LDAP_ENTRY_MANAGER_NAME = "ldapEntryManager";
     public static final String LDAP_CENTRAL_ENTRY_MANAGER_NAME = "centralLdapEntryManager";
+    public static final String LDAP_SCIM_ENTRY_MANAGER_NAME = "scimLdapEntryManager";
+    public static final String LDAP_BATCH_ENTRY_MANAGER_NAME = "batchLdapEntryManager";
+
+    private static final String MAX_CONNECTIONS_PROPERTY = "maxconnections";
+    private static final String SCIM_MAX_CONNECTIONS_PROPERTY = "scimMaxConnections";
+    private static final String BATCH_MAX_CONNECTIONS_PROPERTY = "batchMaxConnections";
+
+    // Default sizes of workload pools. Connections are opened in addition to main pool
+    private static final int SCIM_CONNECTIONS_DIVISOR = 4;
+    private static final int MIN_SCIM_CONNECTIONS = 2;
+    private static final int DEFAULT_BATCH_CONNECTIONS = 2;
 
     @Inject
     private Logger log;
@@ -100,6 +114,12 @@ public class AppInitializer {
     @Inject @Named(LDAP_CENTRAL_ENTRY_MANAGER_NAME) @CentralLdap
     private Instance<LdapEntryManager> ldapCentralEntryManagerInstance;
 
+    @Inject @Named(LDAP_SCIM_ENTRY_MANAGER_NAME) @ScimLdap
+    private Instance<LdapEntryManager> ldapScimEntryManagerInstance;
+
+    @Inject @Named(LDAP_BATCH_ENTRY_MANAGER_NAME) @BatchLdap
+    private Instance<LdapEntryManager> ldapBatchEntryManagerInstance;
+
     @Inject
     private Instance<EncryptionService> encryptionServiceInstance;
 
@@ -169,10 +189,21 @@ public class AppInitializer {
     @Inject
     private LoggerService loggerService;
 
+    @Inject
+    private ScimScriptOutboxService scimScriptOutboxService;
+
+    @Inject
+    private PersonSearchIndexService personSearchIndexService;
+
+    @Inject
+    private ThumbnailRegenerationService thumbnailRegenerationService;
+
     private FileConfiguration ldapConfig;
     private FileConfiguration ldapCentralConfig;
     private LdapConnectionService connectionProvider;
     private LdapConnectionService centralConnectionProvider;
+    private LdapConnectionService scimConnectionProvider;
+    private LdapConnectionService batchConnectionProvider;
 
     private AtomicBoolean isActive;
     private long lastFinishedTime;
@@ -206,7 +237,7 @@ public class AppInitializer {
         // Initialize central LDAP connection provider
         createCentralConnectionProvider();
 
-        initializeLdifArchiver(localLdapEntryManager);
+        initializeLdifArchiver(localLdapEntryManager, ldapScimEntryManagerInstance.get(), ldapBatchEntryManagerInstance.get());
 
         // Initialize template engine
         templateService.initTemplateEngine();
@@ -234,6 +265,9 @@ public class AppInitializer {
         entityIDMonitoringService.initTimer();
         cacheRefreshTimer.initTimer();
         customScriptManager.initTimer(supportedCustomScriptTypes);
+        scimScriptOutboxService.init();
+        personSearchIndexService.init();
+        thumbnailRegenerationService.init();
         statusCheckerDaily.initTimer();
         statusCheckerTimer.initTimer();
         svnSyncTimer.initTimer();
@@ -263,7 +297,8 @@ public class AppInitializer {
         log.info("Closing LDAP connection at server shutdown...");
         LdapEntryManager ldapEntryManager = ldapEntryManagerInstance.get();
         closeLdapEntryManager(ldapEntryManager);
-
+        closeLdapEntryManager(ldapScimEntryManagerInstance.get());
+        closeLdapEntryManager(ldapBatchEntryManagerInstance.get());
 
         LdapEntryManager ldapCentralEntryManager = ldapCentralEntryManagerInstance.get();
         if (ldapCentralEntryManager != null) {
@@ -285,6 +320,32 @@ public class AppInitializer {
             throw new ConfigurationException("Failed to create LDAP connection pool!");
         }
         log.debug("Created connectionProvider: {}", connectionProvider);
+
+        // Separate pools, so SCIM requests and background jobs can't take all connections of admin UI. SCIM writes
+        // through PersonService and GroupService and timers which use shared services stay on main pool
+        int mainMaxConnections = StringHelper.toInteger(connectionProperties.getProperty(MAX_CONNECTIONS_PROPERTY), 0);
+        int scimMaxConnections = Math.max(MIN_SCIM_CONNECTIONS, mainMaxConnections / SCIM_CONNECTIONS_DIVISOR);
+        this.scimConnectionProvider = createWorkloadConnectionProvider(connectionProperties, SCIM_MAX_CONNECTIONS_PROPERTY, scimMaxConnections);
+        log.debug("Created scimConnectionProvider: {}", scimConnectionProvider);
+
+        this.batchConnectionProvider = createWorkloadConnectionProvider(connectionProperties, BATCH_MAX_CONNECTIONS_PROPERTY,
+                DEFAULT_BATCH_CONNECTIONS);
+        log.debug("Created batchConnectionProvider: {}", batchConnectionProvider);
+    }
+
+    private LdapConnectionService createWorkloadConnectionProvider(Properties connectionProperties, String maxConnectionsProperty,
+            int defaultMaxConnections) {
+        Properties workloadConnectionProperties = (Properties) connectionProperties.clone();
+
+        int maxConnections = StringHelper.toInteger(connectionProperties.getProperty(maxConnectionsProperty), defaultMaxConnections);
+        workloadConnectionProperties.setProperty(MAX_CONNECTIONS_PROPERTY, String.valueOf(maxConnections));
+
+        LdapConnectionService workloadConnectionProvider = createConnectionProvider(workloadConnectionProperties);
+        if (!ResultCode.SUCCESS.equals(workloadConnectionProvider.getCreationResultCode())) {
+            throw new ConfigurationException("Failed to create LDAP connection pool!");
+        }
+
+        return workloadConnectionProvider;
     }
 
     private void createCentralConnectionProvider() {
@@ -324,20 +385,48 @@ public class AppInitializer {
         return centralLdapEntryManager;
     }
 
+    @Produces @ApplicationScoped @Named(LDAP_SCIM_ENTRY_MANAGER_NAME) @ScimLdap
+    public LdapEntryManager createScimLdapEntryManager() {
+        LdapEntryManager scimLdapEntryManager = new LdapEntryManager(new OperationsFacade(this.scimConnectionProvider));
+        log.info("Created {}: {}", new Object[] { LDAP_SCIM_ENTRY_MANAGER_NAME, scimLdapEntryManager.getLdapOperationService() });
+
+        return scimLdapEntryManager;
+    }
+
+    @Produces @ApplicationScoped @Named(LDAP_BATCH_ENTRY_MANAGER_NAME) @BatchLdap
+    public LdapEntryManager createBatchLdapEntryManager() {
+        LdapEntryManager batchLdapEntryManager = new LdapEntryManager(new OperationsFacade(this.batchConnectionProvider));
+        log.info("Created {}: {}", new Object[] { LDAP_BATCH_ENTRY_MANAGER_NAME, batchLdapEntryManager.getLdapOperationService() });
+
+        return batchLdapEntryManager;
+    }
+
     public void recreateLdapEntryManager(@Observes @LdapConfigurationReload String event) {
-        // Get existing application scoped instance
+        // Get existing application scoped instances
         LdapEntryManager oldLdapEntryManager = CdiUtil.getContextBean(beanManager, LdapEntryManager.class, LDAP_ENTRY_MANAGER_NAME);
+        LdapEntryManager oldScimLdapEntryManager = CdiUtil.getContextBean(beanManager, LdapEntryManager.class, LDAP_SCIM_ENTRY_MANAGER_NAME);
+        LdapEntryManager oldBatchLdapEntryManager = CdiUtil.getContextBean(beanManager, LdapEntryManager.class, LDAP_BATCH_ENTRY_MANAGER_NAME);
 
         // Recreate components
         createConnectionProvider();
 
         // Close existing connections
         closeLdapEntryManager(oldLdapEntryManager);
+        closeLdapEntryManager(oldScimLdapEntryManager);
+        closeLdapEntryManager(oldBatchLdapEntryManager);
 
-        // Force to create new bean
+        // Force to create new beans
         LdapEntryManager ldapEntryManager = ldapEntryManagerInstance.get();
         ldapEntryManagerInstance.destroy(ldapEntryManager);
         log.info("Recreated instance {}: {}", LDAP_ENTRY_MANAGER_NAME, ldapEntryManager);
+
+        LdapEntryManager scimLdapEntryManager = ldapScimEntryManagerInstance.get();
+        ldapScimEntryManagerInstance.destroy(scimLdapEntryManager);
+        log.info("Recreated instance {}: {}", LDAP_SCIM_ENTRY_MANAGER_NAME, scimLdapEntryManager);
+
+        LdapEntryManager batchLdapEntryManager = ldapBatchEntryManagerInstance.get();
+        ldapBatchEntryManagerInstance.destroy(batchLdapEntryManager);
+        log.info("Recreated instance {}: {}", LDAP_BATCH_ENTRY_MANAGER_NAME, batchLdapEntryManager);
     }
 
     public void recreateCentralLdapEntryManager(@Observes @LdapCentralConfigurationReload String event) {
@@ -365,9 +454,11 @@ public class AppInitializer {
         }
     }
 
-    private void initializeLdifArchiver(LdapEntryManager ldapEntryManager) {
+    private void initializeLdifArchiver(LdapEntryManager... ldapEntryManagers) {
         ldifArchiver.init();
-        ldapEntryManager.addDeleteSubscriber(ldifArchiver);
+        for (LdapEntryManager ldapEntryManager : ldapEntryManagers) {
+            ldapEntryManager.addDeleteSubscriber(ldifArchiver);
+        }
     }
 
     private GluuLdapConfiguration mapLdapConfig(String config) throws IOException {
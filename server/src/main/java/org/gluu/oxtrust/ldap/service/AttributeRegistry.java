@@ -0,0 +1,148 @@
+/*
+ * oxTrust is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2017, Gluu
+ */
+
+package org.gluu.oxtrust.ldap.service;
+
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.xdi.model.GluuAttribute;
+import org.xdi.model.GluuUserRole;
+import org.xdi.util.StringHelper;
+
+/**
+ * Snapshot of attribute definitions with derived lists and lookup indexes. It's built by {@link AttributeService} from
+ * cached list of all attributes and isn't changed after creation, so it's read without locks. New snapshot with next
+ * version replaces it when attributes cache is cleared. Snapshot also expires like cached attributes, so changes made
+ * on other nodes or directly in LDAP are picked up.
+ *
+ * Lists are returned as is because callers expect the same lists as were cached before.
+ */
+final class AttributeRegistry {
+
+	private final long version;
+	private final long creationTime;
+	private final List<GluuAttribute> attributes;
+	private final Map<GluuUserRole, List<GluuAttribute>> personAttributes;
+	private final Map<GluuUserRole, List<GluuAttribute>> contactAttributes;
+	private final List<GluuAttribute> customAttributes;
+	private final List<GluuAttribute> scimAttributes;
+	private final List<String> origins;
+
+	// Indexes of lists above by list identity
+	private final Map<List<GluuAttribute>, Index> indexes;
+
+	public AttributeRegistry(long version, List<GluuAttribute> attributes, Map<GluuUserRole, List<GluuAttribute>> personAttributes,
+			Map<GluuUserRole, List<GluuAttribute>> contactAttributes, List<GluuAttribute> customAttributes, List<GluuAttribute> scimAttributes,
+			List<String> origins) {
+		this.version = version;
+		this.creationTime = System.currentTimeMillis();
+		this.attributes = attributes;
+		this.personAttributes = new EnumMap<GluuUserRole, List<GluuAttribute>>(personAttributes);
+		this.contactAttributes = new EnumMap<GluuUserRole, List<GluuAttribute>>(contactAttributes);
+		this.customAttributes = customAttributes;
+		this.scimAttributes = scimAttributes;
+		this.origins = origins;
+
+		Map<List<GluuAttribute>, Index> indexes = new IdentityHashMap<List<GluuAttribute>, Index>();
+		indexes.put(attributes, new Index(attributes));
+		for (List<GluuAttribute> roleAttributes : this.personAttributes.values()) {
+			indexes.put(roleAttributes, new Index(roleAttributes));
+		}
+		for (List<GluuAttribute> roleAttributes : this.contactAttributes.values()) {
+			indexes.put(roleAttributes, new Index(roleAttributes));
+		}
+		indexes.put(customAttributes, new Index(customAttributes));
+		indexes.put(scimAttributes, new Index(scimAttributes));
+		this.indexes = indexes;
+	}
+
+	public long getVersion() {
+		return version;
+	}
+
+	public boolean isExpired(long ttl) {
+		return creationTime + ttl < System.currentTimeMillis();
+	}
+
+	public List<GluuAttribute> getAttributes() {
+		return attributes;
+	}
+
+	public List<GluuAttribute> getPersonAttributes(GluuUserRole gluuUserRole) {
+		return personAttributes.get(gluuUserRole);
+	}
+
+	public List<GluuAttribute> getContactAttributes(GluuUserRole gluuUserRole) {
+		return contactAttributes.get(gluuUserRole);
+	}
+
+	public List<GluuAttribute> getCustomAttributes() {
+		return customAttributes;
+	}
+
+	public List<GluuAttribute> getScimAttributes() {
+		return scimAttributes;
+	}
+
+	public List<String> getOrigins() {
+		return origins;
+	}
+
+	public Index getIndex() {
+		return indexes.get(attributes);
+	}
+
+	/**
+	 * @return index of list from this registry or null if list wasn't created by it
+	 */
+	public Index getIndex(List<GluuAttribute> attributes) {
+		return indexes.get(attributes);
+	}
+
+	static final class Index {
+
+		private final Map<String, GluuAttribute> byName = new HashMap<String, GluuAttribute>();
+		private final Map<String, GluuAttribute> byInum = new HashMap<String, GluuAttribute>();
+		private final Map<String, GluuAttribute> byDn = new HashMap<String, GluuAttribute>();
+
+		Index(List<GluuAttribute> attributes) {
+			// First attribute wins like in linear search
+			for (GluuAttribute attribute : attributes) {
+				putIfAbsent(byName, toKey(attribute.getName()), attribute);
+				putIfAbsent(byInum, attribute.getInum(), attribute);
+				putIfAbsent(byDn, toKey(attribute.getDn()), attribute);
+			}
+		}
+
+		private static void putIfAbsent(Map<String, GluuAttribute> map, String key, GluuAttribute attribute) {
+			if ((key != null) && !map.containsKey(key)) {
+				map.put(key, attribute);
+			}
+		}
+
+		static String toKey(String value) {
+			return value == null ? null : StringHelper.toLowerCase(value);
+		}
+
+		public GluuAttribute getByName(String name) {
+			return name == null ? null : byName.get(toKey(name));
+		}
+
+		public GluuAttribute getByInum(String inum) {
+			return inum == null ? null : byInum.get(inum);
+		}
+
+		public GluuAttribute getByDn(String dn) {
+			return dn == null ? null : byDn.get(toKey(dn));
+		}
+
+	}
+
+}
@@ -9,9 +9,13 @@ package org.gluu.oxtrust.ldap.service;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.EnumMap;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 import javax.ejb.Stateless;
 import javax.enterprise.event.Event;
@@ -25,6 +29,7 @@ import org.gluu.oxtrust.service.cdi.event.EventType;
 import org.gluu.oxtrust.service.cdi.event.EventTypeQualifier;
 import org.gluu.oxtrust.service.cdi.event.Events;
 import org.gluu.oxtrust.util.OxTrustConstants;
+import org.gluu.site.ldap.persistence.exception.EntryPersistenceException;
 import org.xdi.config.oxtrust.AppConfiguration;
 import org.xdi.model.GluuAttribute;
 import org.xdi.model.GluuAttributeDataType;
@@ -65,6 +70,15 @@ public class AttributeService extends org.xdi.service.AttributeService {
 
 	public static final String CUSTOM_ATTRIBUTE_OBJECTCLASS_PREFIX = "ox-";
 
+	// Bean is stateless, so snapshot is shared by all instances
+	private static final AtomicReference<AttributeRegistry> registry = new AtomicReference<AttributeRegistry>();
+
+	// Incremented when attributes cache is cleared. Cached list can be a new copy on each call, so it can't be used
+	private static final AtomicLong registryVersion = new AtomicLong();
+
+	// Time to live of AttributeCache. Registry is rebuilt from LDAP after it, as cached attributes were before
+	private static final long REGISTRY_TTL = TimeUnit.SECONDS.toMillis(600);
+
 	/**
 	 * Get all person attributes
 	 * 
@@ -72,16 +86,8 @@ public class AttributeService extends org.xdi.service.AttributeService {
 	 *            User role
 	 * @return List of person attributes
 	 */
-	@SuppressWarnings("unchecked")
 	public List<GluuAttribute> getAllPersonAttributes(GluuUserRole gluuUserRole) {
-		String key = OxTrustConstants.CACHE_ATTRIBUTE_PERSON_KEY_LIST + "_" + gluuUserRole.getValue();
-		List<GluuAttribute> attributeList = (List<GluuAttribute>) cacheService.get(OxTrustConstants.CACHE_ATTRIBUTE_NAME, key);
-		if (attributeList == null) {
-			attributeList = getAllPersonAtributesImpl(gluuUserRole, getAllAttributes());
-			cacheService.put(OxTrustConstants.CACHE_ATTRIBUTE_NAME, key, attributeList);
-		}
-
-		return attributeList;
+		return getRegistry().getPersonAttributes(gluuUserRole);
 	}
 
 	/**
@@ -121,16 +127,8 @@ public class AttributeService extends org.xdi.service.AttributeService {
 	 * 
 	 * @return List of contact attributes
 	 */
-	@SuppressWarnings("unchecked")
 	public List<GluuAttribute> getAllContactAttributes(GluuUserRole gluuUserRole) {
-		String key = OxTrustConstants.CACHE_ATTRIBUTE_CONTACT_KEY_LIST + "_" + gluuUserRole.getValue();
-		List<GluuAttribute> attributeList = (List<GluuAttribute>) cacheService.get(OxTrustConstants.CACHE_ATTRIBUTE_NAME, key);
-		if (attributeList == null) {
-			attributeList = getAllContactAtributesImpl(gluuUserRole, getAllAttributes());
-			cacheService.put(OxTrustConstants.CACHE_ATTRIBUTE_NAME, key, attributeList);
-		}
-
-		return attributeList;
+		return getRegistry().getContactAttributes(gluuUserRole);
 	}
 
 	/**
@@ -169,16 +167,8 @@ public class AttributeService extends org.xdi.service.AttributeService {
 	 * 
 	 * @return List of origins
 	 */
-	@SuppressWarnings("unchecked")
 	public List<String> getAllAttributeOrigins() {
-		List<String> attributeOriginList = (List<String>) cacheService.get(OxTrustConstants.CACHE_ATTRIBUTE_NAME,
-				OxTrustConstants.CACHE_ATTRIBUTE_ORIGIN_KEY_LIST);
-		if (attributeOriginList == null) {
-			attributeOriginList = getAllAttributeOrigins(getAllAttributes());
-			cacheService.put(OxTrustConstants.CACHE_ATTRIBUTE_NAME, OxTrustConstants.CACHE_ATTRIBUTE_ORIGIN_KEY_LIST, attributeOriginList);
-		}
-
-		return attributeOriginList;
+		return getRegistry().getOrigins();
 	}
 
 	/**
@@ -243,36 +233,37 @@ public class AttributeService extends org.xdi.service.AttributeService {
 	 * 
 	 * @return List of cusomt attributes
 	 */
-	@SuppressWarnings("unchecked")
 	public List<GluuAttribute> getCustomAttributes() {
-		List<GluuAttribute> attributeList = (List<GluuAttribute>) cacheService.get(OxTrustConstants.CACHE_ATTRIBUTE_NAME,
-				OxTrustConstants.CACHE_ATTRIBUTE_CUSTOM_KEY_LIST);
-		if (attributeList == null) {
-			attributeList = new ArrayList<GluuAttribute>();
-			for (GluuAttribute attribute : getAllAttributes()) {
-				if (attribute.isCustom()) {
-					attributeList.add(attribute);
-				}
-			}
-
-			cacheService.put(OxTrustConstants.CACHE_ATTRIBUTE_NAME, OxTrustConstants.CACHE_ATTRIBUTE_CUSTOM_KEY_LIST, attributeList);
-		}
-
-		return attributeList;
+		return getRegistry().getCustomAttributes();
 	}
 
 	/**
-	 * Get attribute by inum
+	 * Get attribute by inum. Attribute is loaded from LDAP, so caller can modify it
 	 * 
 	 * @param inum
 	 *            Inum
 	 * @return Attribute
 	 */
 	public GluuAttribute getAttributeByInum(String inum) {
-		return getAttributeByInum(inum, getAllAtributesImpl(getDnForAttribute(null)));
+		GluuAttribute attribute;
+		try {
+			attribute = ldapEntryManager.find(GluuAttribute.class, getDnForAttribute(inum));
+		} catch (EntryPersistenceException ex) {
+			log.debug("Failed to find attribute by inum {}", inum, ex);
+			return null;
+		}
+
+		attribute.setCustom(getCustomOrigin().equals(attribute.getOrigin()));
+
+		return attribute;
 	}
 
 	public GluuAttribute getAttributeByInum(String inum, List<GluuAttribute> attributes) {
+		AttributeRegistry.Index index = getRegistry().getIndex(attributes);
+		if (index != null) {
+			return index.getByInum(inum);
+		}
+
 		for (GluuAttribute attribute : attributes) {
 			if (attribute.getInum().equals(inum)) {
 				return attribute;
@@ -288,7 +279,29 @@ public class AttributeService extends org.xdi.service.AttributeService {
 	 * @return Attribute
 	 */
 	public List<GluuAttribute> getSCIMRelatedAttributes() throws Exception {
-		return getSCIMRelatedAttributesImpl(getAllAttributes());
+		return getRegistry().getScimAttributes();
+	}
+
+	/**
+	 * Get attribute by name ignoring case
+	 * 
+	 * @param name
+	 *            Attribute name
+	 * @return Attribute
+	 */
+	@Override
+	public GluuAttribute getAttributeByName(String name) {
+		return getRegistry().getIndex().getByName(name);
+	}
+
+	@Override
+	public GluuAttribute getAttributeByName(String name, List<GluuAttribute> attributes) {
+		AttributeRegistry.Index index = getRegistry().getIndex(attributes);
+		if (index != null) {
+			return index.getByName(name);
+		}
+
+		return super.getAttributeByName(name, attributes);
 	}
 
 	/**
@@ -298,7 +311,7 @@ public class AttributeService extends org.xdi.service.AttributeService {
 	 *            List of attributes
 	 * @return list of Attributes
 	 */
-	public List<GluuAttribute> getSCIMRelatedAttributesImpl(List<GluuAttribute> attributes) throws Exception {
+	public List<GluuAttribute> getSCIMRelatedAttributesImpl(List<GluuAttribute> attributes) {
 
 		List<GluuAttribute> result = new ArrayList<GluuAttribute>();
 
@@ -373,6 +386,62 @@ public class AttributeService extends org.xdi.service.AttributeService {
 	public void clearAttributesCache(@Observes @EventType(Events.EVENT_CLEAR_ATTRIBUTES) Events event) {
 		log.debug("Removing attributes from cache");
 		cacheService.removeAll(OxTrustConstants.CACHE_ATTRIBUTE_NAME);
+
+		// Replace snapshot at once. If it fails, next call will build it
+		long version = registryVersion.incrementAndGet();
+		AttributeRegistry newRegistry = null;
+		try {
+			newRegistry = buildRegistry(version, getAllAttributes());
+		} catch (Exception ex) {
+			log.error("Failed to build attributes registry", ex);
+		}
+		registry.set(newRegistry);
+	}
+
+	/**
+	 * Registry is built from cached list of all attributes and is replaced when attributes cache is cleared or registry
+	 * expires
+	 */
+	private AttributeRegistry getRegistry() {
+		long version = registryVersion.get();
+
+		AttributeRegistry currentRegistry = registry.get();
+		if ((currentRegistry != null) && (currentRegistry.getVersion() == version) && currentRegistry.isExpired(REGISTRY_TTL)) {
+			// Cached list can be as old as registry, so it's loaded from LDAP again. Only one thread clears cache
+			if (registryVersion.compareAndSet(version, version + 1)) {
+				log.debug("Attributes registry expired. Removing attributes from cache");
+				cacheService.removeAll(OxTrustConstants.CACHE_ATTRIBUTE_NAME);
+			}
+			version = registryVersion.get();
+		}
+
+		if ((currentRegistry == null) || (currentRegistry.getVersion() != version)) {
+			AttributeRegistry newRegistry = buildRegistry(version, getAllAttributes());
+			// Don't replace registry built after newer clear event
+			registry.compareAndSet(currentRegistry, newRegistry);
+			currentRegistry = newRegistry;
+		}
+
+		return currentRegistry;
+	}
+
+	private AttributeRegistry buildRegistry(long version, List<GluuAttribute> attributes) {
+		Map<GluuUserRole, List<GluuAttribute>> personAttributes = new EnumMap<GluuUserRole, List<GluuAttribute>>(GluuUserRole.class);
+		Map<GluuUserRole, List<GluuAttribute>> contactAttributes = new EnumMap<GluuUserRole, List<GluuAttribute>>(GluuUserRole.class);
+		for (GluuUserRole gluuUserRole : GluuUserRole.values()) {
+			personAttributes.put(gluuUserRole, getAllPersonAtributesImpl(gluuUserRole, attributes));
+			contactAttributes.put(gluuUserRole, getAllContactAtributesImpl(gluuUserRole, attributes));
+		}
+
+		List<GluuAttribute> customAttributes = new ArrayList<GluuAttribute>();
+		for (GluuAttribute attribute : attributes) {
+			if (attribute.isCustom()) {
+				customAttributes.add(attribute);
+			}
+		}
+
+		return new AttributeRegistry(version, attributes, personAttributes, contactAttributes, customAttributes, getSCIMRelatedAttributesImpl(attributes),
+				getAllAttributeOrigins(attributes));
 	}
 
 	/**
@@ -552,8 +621,13 @@ public class AttributeService extends org.xdi.service.AttributeService {
 			return;
 		}
 
+		AttributeRegistry.Index index = getRegistry().getIndex(attributes);
+		if (index == null) {
+			index = new AttributeRegistry.Index(attributes);
+		}
+
 		for (GluuCustomAttribute personAttribute : customAttributes) {
-			GluuAttribute tmpAttribute = getAttributeByName(personAttribute.getName(), attributes);
+			GluuAttribute tmpAttribute = index.getByName(personAttribute.getName());
 			if (tmpAttribute == null) {
 				log.error("Failed to find attribute '{}' metadata", personAttribute.getName());
 			}
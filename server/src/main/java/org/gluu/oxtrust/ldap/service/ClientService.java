@@ -45,6 +45,8 @@ public class ClientService implements Serializable {
 
     private static final long serialVersionUID = 7912416439116338984L;
 
+    private static final String CLIENT_OBJECTTYPE = "0008";
+
     @Inject
     private LdapEntryManager ldapEntryManager;
 
@@ -57,6 +59,9 @@ public class ClientService implements Serializable {
     @Inject
     private OrganizationService organizationService;
 
+    @Inject
+    private InumAllocatorService inumAllocatorService;
+
     public boolean contains(String clientDn) {
         return ldapEntryManager.contains(OxAuthClient.class, clientDn);
     }
@@ -149,6 +154,11 @@ public class ClientService implements Serializable {
      * @return New inum for client
      */
     public String generateInumForNewClient() {
+        String allocatedInum = inumAllocatorService.allocate(CLIENT_OBJECTTYPE, 4, getDnForClient(null));
+        if (allocatedInum != null) {
+            return allocatedInum;
+        }
+
         OxAuthClient client = new OxAuthClient();
         String newInum = null;
         do {
@@ -167,7 +177,7 @@ public class ClientService implements Serializable {
      */
     private String generateInumForNewClientImpl() {
         String orgInum = organizationService.getInumForOrganization();
-        return orgInum + OxTrustConstants.inumDelimiter + "0008" + OxTrustConstants.inumDelimiter + INumGenerator.generate(4);
+        return orgInum + OxTrustConstants.inumDelimiter + CLIENT_OBJECTTYPE + OxTrustConstants.inumDelimiter + INumGenerator.generate(4);
 
     }
 
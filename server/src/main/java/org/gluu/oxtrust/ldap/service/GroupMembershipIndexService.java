@@ -0,0 +1,245 @@
+/*
+ * oxTrust is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2017, Gluu
+ */
+
+package org.gluu.oxtrust.ldap.service;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PostConstruct;
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import javax.inject.Named;
+
+import org.gluu.oxtrust.config.ConfigurationFactory;
+import org.gluu.oxtrust.model.GluuGroup;
+import org.gluu.oxtrust.util.OxTrustConstants;
+import org.gluu.site.ldap.persistence.LdapEntryManager;
+import org.gluu.site.ldap.persistence.exception.EntryPersistenceException;
+import org.slf4j.Logger;
+import org.xdi.util.StringHelper;
+
+import com.unboundid.ldap.sdk.DN;
+import com.unboundid.ldap.sdk.LDAPException;
+
+/**
+ * In-memory index of person DN to DNs of groups where person is member or owner.
+ *
+ * Only groups which were checked with {@link #isMemberOrOwner(String, String)} are indexed. In practice these are
+ * few privileged groups, like organization manager group, checked on each login. Number of indexed groups is limited,
+ * least recently checked group is dropped when new group is loaded into full index. Group is loaded from LDAP on first
+ * check and after TTL expiration. Changes made through {@link GroupService} are applied immediately. If group can't be
+ * loaded, previously loaded members are used and group is loaded again on next check.
+ */
+@ApplicationScoped
+@Named
+public class GroupMembershipIndexService {
+
+	private static final String TTL_PROPERTY = "groupMembershipIndexTtlSeconds";
+	private static final int DEFAULT_TTL = 60;
+
+	private static final String MAX_GROUPS_PROPERTY = "groupMembershipIndexMaxGroups";
+	private static final int DEFAULT_MAX_GROUPS = 50;
+
+	private static final String[] GROUP_ATTRIBUTES = new String[] { OxTrustConstants.member, OxTrustConstants.owner };
+
+	@Inject
+	private Logger log;
+
+	@Inject
+	private ConfigurationFactory configurationFactory;
+
+	@Inject
+	private LdapEntryManager ldapEntryManager;
+
+	private long ttl;
+
+	private int maxGroups;
+
+	private final Object lock = new Object();
+
+	// Group DN to members and owner, modified under lock
+	private Map<String, IndexedGroup> groups;
+
+	// Immutable snapshot rebuilt after each change of indexed group
+	private volatile Map<String, Set<String>> groupsByPerson;
+
+	@PostConstruct
+	public void init() {
+		this.ttl = TimeUnit.SECONDS.toMillis(StringHelper.toInteger(configurationFactory.getLdapConfiguration().getString(TTL_PROPERTY, null), DEFAULT_TTL));
+		this.maxGroups = Math.max(1, StringHelper.toInteger(configurationFactory.getLdapConfiguration().getString(MAX_GROUPS_PROPERTY, null), DEFAULT_MAX_GROUPS));
+		this.groups = new ConcurrentHashMap<String, IndexedGroup>();
+		this.groupsByPerson = Collections.emptyMap();
+	}
+
+	public boolean isMemberOrOwner(String groupDN, String personDN) {
+		if (StringHelper.isEmpty(groupDN) || StringHelper.isEmpty(personDN)) {
+			return false;
+		}
+
+		String groupKey = normalize(groupDN);
+		IndexedGroup indexedGroup = groups.get(groupKey);
+		if (isFresh(indexedGroup)) {
+			indexedGroup.touch();
+		} else {
+			synchronized (lock) {
+				// Only one thread reloads group when TTL expires during login storm
+				if (!isFresh(groups.get(groupKey))) {
+					loadGroup(groupDN, groupKey);
+				}
+			}
+		}
+
+		Set<String> personGroups = groupsByPerson.get(normalize(personDN));
+
+		return (personGroups != null) && personGroups.contains(groupKey);
+	}
+
+	/**
+	 * Apply new members and owner of group if group is indexed
+	 */
+	public void update(GluuGroup group) {
+		if ((group == null) || StringHelper.isEmpty(group.getDn())) {
+			return;
+		}
+
+		String groupKey = normalize(group.getDn());
+		synchronized (lock) {
+			if (groups.containsKey(groupKey)) {
+				groups.put(groupKey, new IndexedGroup(group, System.currentTimeMillis() + ttl));
+				rebuildIndex();
+			}
+		}
+	}
+
+	public void remove(String groupDN) {
+		if (StringHelper.isEmpty(groupDN)) {
+			return;
+		}
+
+		String groupKey = normalize(groupDN);
+		synchronized (lock) {
+			if (groups.containsKey(groupKey)) {
+				// Keep group as empty one to avoid lookups of removed group
+				groups.put(groupKey, new IndexedGroup(null, System.currentTimeMillis() + ttl));
+				rebuildIndex();
+			}
+		}
+	}
+
+	private void loadGroup(String groupDN, String groupKey) {
+		GluuGroup group;
+		try {
+			group = ldapEntryManager.find(GluuGroup.class, groupDN, GROUP_ATTRIBUTES);
+		} catch (EntryPersistenceException ex) {
+			// Expired group isn't fresh, so next check tries to load it again
+			log.error("Failed to load members of group '{}'", groupDN, ex);
+			return;
+		}
+
+		if (!groups.containsKey(groupKey) && (groups.size() >= maxGroups)) {
+			evictLeastRecentlyChecked();
+		}
+
+		groups.put(groupKey, new IndexedGroup(group, System.currentTimeMillis() + ttl));
+		rebuildIndex();
+	}
+
+	private void evictLeastRecentlyChecked() {
+		String eldestKey = null;
+		long eldestAccessTime = Long.MAX_VALUE;
+		for (Map.Entry<String, IndexedGroup> groupEntry : groups.entrySet()) {
+			if (groupEntry.getValue().getLastAccessTime() < eldestAccessTime) {
+				eldestKey = groupEntry.getKey();
+				eldestAccessTime = groupEntry.getValue().getLastAccessTime();
+			}
+		}
+
+		if (eldestKey != null) {
+			log.debug("Group membership index is full, dropping group '{}'", eldestKey);
+			groups.remove(eldestKey);
+		}
+	}
+
+	private void rebuildIndex() {
+		Map<String, Set<String>> newGroupsByPerson = new HashMap<String, Set<String>>();
+		for (Map.Entry<String, IndexedGroup> groupEntry : groups.entrySet()) {
+			for (String personKey : groupEntry.getValue().getPersons()) {
+				Set<String> personGroups = newGroupsByPerson.get(personKey);
+				if (personGroups == null) {
+					personGroups = new HashSet<String>();
+					newGroupsByPerson.put(personKey, personGroups);
+				}
+				personGroups.add(groupEntry.getKey());
+			}
+		}
+
+		this.groupsByPerson = newGroupsByPerson;
+	}
+
+	private boolean isFresh(IndexedGroup group) {
+		return (group != null) && (group.getExpirationTime() > System.currentTimeMillis());
+	}
+
+	private static String normalize(String dn) {
+		try {
+			return new DN(dn).toNormalizedString();
+		} catch (LDAPException ex) {
+			return StringHelper.toLowerCase(dn);
+		}
+	}
+
+	private static class IndexedGroup {
+
+		private final Set<String> persons;
+		private final long expirationTime;
+		private volatile long lastAccessTime;
+
+		public IndexedGroup(GluuGroup group, long expirationTime) {
+			this.persons = new HashSet<String>();
+			this.expirationTime = expirationTime;
+			this.lastAccessTime = System.currentTimeMillis();
+
+			if (group != null) {
+				List<String> members = group.getMembers();
+				if (members != null) {
+					for (String member : members) {
+						if (StringHelper.isNotEmpty(member)) {
+							persons.add(normalize(member));
+						}
+					}
+				}
+				if (StringHelper.isNotEmpty(group.getOwner())) {
+					persons.add(normalize(group.getOwner()));
+				}
+			}
+		}
+
+		public Set<String> getPersons() {
+			return persons;
+		}
+
+		public long getExpirationTime() {
+			return expirationTime;
+		}
+
+		public long getLastAccessTime() {
+			return lastAccessTime;
+		}
+
+		public void touch() {
+			this.lastAccessTime = System.currentTimeMillis();
+		}
+
+	}
+
+}
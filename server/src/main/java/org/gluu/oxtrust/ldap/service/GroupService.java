@@ -17,10 +17,10 @@ import javax.inject.Named;
 import org.gluu.oxtrust.model.GluuCustomPerson;
 import org.gluu.oxtrust.model.GluuGroup;
 import org.gluu.oxtrust.model.GluuGroupVisibility;
+import org.gluu.oxtrust.service.scim2.ScimDeletionJournalService;
 import org.gluu.oxtrust.util.OxTrustConstants;
 import org.gluu.site.ldap.exception.DuplicateEntryException;
 import org.gluu.site.ldap.persistence.LdapEntryManager;
-import org.gluu.site.ldap.persistence.exception.EntryPersistenceException;
 import org.slf4j.Logger;
 import org.xdi.config.oxtrust.AppConfiguration;
 import org.xdi.util.ArrayHelper;
@@ -55,6 +55,15 @@ public class GroupService implements Serializable, IGroupService {
 	@Inject
 	private PersonService personService;
 
+	@Inject
+	private ScimDeletionJournalService scimDeletionJournalService;
+
+	@Inject
+	private GroupMembershipIndexService groupMembershipIndexService;
+
+	@Inject
+	private InumAllocatorService inumAllocatorService;
+
 	/* (non-Javadoc)
 	 * @see org.gluu.oxtrust.ldap.service.IGroupService#addGroup(org.gluu.oxtrust.model.GluuGroup)
 	 */
@@ -65,6 +74,7 @@ public class GroupService implements Serializable, IGroupService {
 		List<GluuGroup> groups= findGroups(displayNameGroup, 1);
 		if (groups == null || groups.size() == 0) {
 			ldapEntryManager.persist(group);
+			groupMembershipIndexService.update(group);
 		} else {
 			throw new DuplicateEntryException("Duplicate displayName: " + group.getDisplayName());
 		}
@@ -76,7 +86,7 @@ public class GroupService implements Serializable, IGroupService {
 	@Override
 	public void updateGroup(GluuGroup group) throws Exception {
 		ldapEntryManager.merge(group);
-
+		groupMembershipIndexService.update(group);
 	}
 
 	/* (non-Javadoc)
@@ -98,6 +108,8 @@ public class GroupService implements Serializable, IGroupService {
 		}
 
 		ldapEntryManager.remove(group);
+		groupMembershipIndexService.remove(group.getDn());
+		scimDeletionJournalService.recordGroup(group.getInum());
 		// clear references in gluuPerson entries
 	}
 
@@ -114,19 +126,8 @@ public class GroupService implements Serializable, IGroupService {
 	 */
 	@Override
 	public boolean isMemberOrOwner(String groupDN, String personDN) {
-		Filter ownerFilter = Filter.createEqualityFilter(OxTrustConstants.owner, personDN);
-		Filter memberFilter = Filter.createEqualityFilter(OxTrustConstants.member, personDN);
-		Filter searchFilter = Filter.createORFilter(ownerFilter, memberFilter);
-
-		boolean isMemberOrOwner = false;
-		try {
-			isMemberOrOwner = ldapEntryManager.findEntries(groupDN, GluuGroup.class, searchFilter, 0, 1).size() > 0;
-
-		} catch (EntryPersistenceException ex) {
-			log.error("Failed to determine if person '{}' memeber or owner of group '{}'", personDN, groupDN, ex);
-		}
-
-		return isMemberOrOwner;
+		// Checked groups are privileged ones, so they are resolved from in-memory index
+		return groupMembershipIndexService.isMemberOrOwner(groupDN, personDN);
 	}
 
 	/* (non-Javadoc)
@@ -173,6 +174,11 @@ public class GroupService implements Serializable, IGroupService {
 	 */
 	@Override
 	public String generateInumForNewGroup() throws Exception {
+		String allocatedInum = inumAllocatorService.allocate(OxTrustConstants.INUM_GROUP_OBJECTTYPE, 2, getDnForGroup(null));
+		if (allocatedInum != null) {
+			return allocatedInum;
+		}
+
 		GluuGroup group = new GluuGroup();
 		String newInum = null;
 		do {
@@ -13,6 +13,10 @@ import org.gluu.oxtrust.model.GluuCustomPerson;
 import org.gluu.oxtrust.model.User;
 import org.gluu.site.ldap.exception.DuplicateEntryException;
 import org.gluu.site.ldap.persistence.AttributeData;
+import org.xdi.ldap.model.SortOrder;
+import org.xdi.ldap.model.VirtualListViewResponse;
+
+import com.unboundid.ldap.sdk.Filter;
 
 public interface IPersonService {
 
@@ -29,6 +33,14 @@ public interface IPersonService {
 	// method
 	public abstract void addPerson(GluuCustomPerson person) throws Exception;
 
+	/**
+	 * Add new person without uid uniqueness check. Caller should check uid before
+	 * 
+	 * @param person
+	 *            Person
+	 */
+	public abstract void addPersonWithoutUidCheck(GluuCustomPerson person);
+
 	/**
 	 * Add person entry
 	 * 
@@ -45,6 +57,15 @@ public interface IPersonService {
 	 */
 	public abstract void removePerson(GluuCustomPerson person);
 
+	/**
+	 * Drop cached copy of person entry which was modified without this service and update search index
+	 * 
+	 * @param inum
+	 *            Inum of modified person
+	 * @return Person entry loaded from LDAP
+	 */
+	public abstract GluuCustomPerson refreshPerson(String inum);
+
 	/**
 	 * Search persons by pattern
 	 * 
@@ -77,6 +98,20 @@ public interface IPersonService {
 	 */
 	public abstract List<GluuCustomPerson> findPersons(GluuCustomPerson person, int sizeLimit);
 
+	/**
+	 * Search one page of persons sorted on server side
+	 * 
+	 * @param startIndex
+	 *            1-based index of first person in page
+	 * @param vlvResponse
+	 *            filled with total count of persons matching filter
+	 * @param returnAttributes
+	 *            Attributes to load
+	 * @return List of persons in page
+	 */
+	public abstract List<GluuCustomPerson> findPersonsPage(Filter filter, int startIndex, int count, String sortBy, SortOrder sortOrder,
+			VirtualListViewResponse vlvResponse, String[] returnAttributes) throws Exception;
+
 	/**
 	 * Search persons by pattern
 	 * 
@@ -215,6 +250,11 @@ public interface IPersonService {
 
 	List<GluuCustomPerson> findPersonsByMailids(List<String> mailids, String[] returnAttributes) throws Exception;
 
+	/**
+	 * Find persons which have one of specified uids or mails with one search request
+	 */
+	List<GluuCustomPerson> findPersonsByUidsOrMailids(List<String> uids, List<String> mailids, String[] returnAttributes);
+
 	String getPersonUids(List<GluuCustomPerson> persons) throws Exception;
 
 	String getPersonMailids(List<GluuCustomPerson> persons) throws Exception;
@@ -6,29 +6,56 @@
 
 package org.gluu.oxtrust.ldap.service;
 
+import java.awt.Color;
+import java.awt.Dimension;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.Transparency;
 import java.awt.image.BufferedImage;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import javax.activation.FileTypeMap;
 import javax.activation.MimetypesFileTypeMap;
 import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import javax.enterprise.context.ApplicationScoped;
+import javax.imageio.IIOImage;
 import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
 import javax.inject.Inject;
 import javax.inject.Named;
 
 import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.FilenameUtils;
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang.ArrayUtils;
+import org.gluu.oxtrust.config.ConfigurationFactory;
+import org.gluu.oxtrust.util.NamedThreadFactory;
 import org.slf4j.Logger;
 import org.xdi.config.oxtrust.AppConfiguration;
 import org.xdi.model.GluuImage;
 import org.xdi.util.StringHelper;
-import org.xdi.util.image.ImageTransformationUtility;
 import org.xdi.util.repository.RepositoryUtility;
 
 import com.google.common.net.MediaType;
@@ -36,6 +63,10 @@ import com.google.common.net.MediaType;
 /**
  * Manage images in photo repository
  * 
+ * Source image is stored on upload and thumbnails are generated in background by bounded pool. Besides main thumbnail
+ * there are thumbnails of additional sizes from photoRepositoryThumbSizes property stored next to it with
+ * "_&lt;width&gt;x&lt;height&gt;" suffix. Until thumbnails are ready {@link #isThumbnailPending(GluuImage)} returns true.
+ * 
  * @author Yuriy Movchan Date: 11.03.2010
  */
 @Named("imageRepository")
@@ -48,10 +79,28 @@ public class ImageRepository {
 	@Inject
 	private AppConfiguration appConfiguration;
 
+	@Inject
+	private ConfigurationFactory configurationFactory;
+
 	private static final String TEMP_FOLDER = "tmp";
 	private static final String REMOVED_FOLDER = "removed";
 	private static boolean createBackupDuringRemoval = true;
 
+	private static final String THUMB_THREADS_PROPERTY = "photoRepositoryThumbThreads";
+	private static final String THUMB_SIZES_PROPERTY = "photoRepositoryThumbSizes";
+
+	private static final int DEFAULT_THUMB_THREADS = 2;
+	private static final String DEFAULT_THUMB_SIZES = "32x32,256x256";
+
+	// Pending tasks over this limit are run by caller thread
+	private static final int THUMB_QUEUE_SIZE = 1000;
+	private static final long THUMB_WAIT_TIMEOUT = 30;
+
+	private static final float JPEG_QUALITY = 0.9f;
+
+	private static final String THUMB_FORMAT_PNG = "png";
+	private static final String THUMB_FORMAT_JPEG = "jpeg";
+
 	private String sourceHome, thumbHome;
 	private String tmpSourceHome, tmpThumbHome;
 	private String removedSourceHome, removedThumbHome;
@@ -65,6 +114,13 @@ public class ImageRepository {
 
 	private FileTypeMap fileTypeMap;
 
+	private List<Dimension> thumbSizes;
+	private ThreadPoolExecutor thumbExecutor;
+	private final ConcurrentMap<String, Future<?>> pendingThumbs = new ConcurrentHashMap<String, Future<?>>();
+
+	// ImageWriter isn't thread safe, so writers are borrowed from pool
+	private final ConcurrentMap<String, Queue<ImageWriter>> writers = new ConcurrentHashMap<String, Queue<ImageWriter>>();
+
 	@PostConstruct
 	public void init() throws Exception {
 		countLevels = appConfiguration.getPhotoRepositoryCountLeveles();
@@ -101,6 +157,54 @@ public class ImageRepository {
 		prepareBlankIcon();
 
 		initFileTypesMap();
+
+		initThumbnailsGeneration();
+	}
+
+	@PreDestroy
+	public void destroy() {
+		if (thumbExecutor != null) {
+			thumbExecutor.shutdown();
+		}
+
+		for (Queue<ImageWriter> formatWriters : writers.values()) {
+			for (ImageWriter writer : formatWriters) {
+				writer.dispose();
+			}
+		}
+	}
+
+	private void initThumbnailsGeneration() {
+		int threads = Math.max(1, StringHelper.toInteger(configurationFactory.getLdapConfiguration().getString(THUMB_THREADS_PROPERTY, null), DEFAULT_THUMB_THREADS));
+		this.thumbSizes = parseThumbSizes(configurationFactory.getLdapConfiguration().getString(THUMB_SIZES_PROPERTY, DEFAULT_THUMB_SIZES));
+
+		this.thumbExecutor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(THUMB_QUEUE_SIZE),
+				new NamedThreadFactory("image-thumb"), new ThreadPoolExecutor.CallerRunsPolicy());
+	}
+
+	private List<Dimension> parseThumbSizes(String value) {
+		List<Dimension> result = new ArrayList<Dimension>();
+		if (StringHelper.isEmpty(value)) {
+			return result;
+		}
+
+		for (String size : value.split(",")) {
+			String[] parts = size.trim().toLowerCase().split("x");
+			int width = parts.length == 2 ? StringHelper.toInteger(parts[0].trim(), 0) : 0;
+			int height = parts.length == 2 ? StringHelper.toInteger(parts[1].trim(), 0) : 0;
+			if ((width <= 0) || (height <= 0)) {
+				log.error("Invalid thumbnail size '{}' in {} property", size, THUMB_SIZES_PROPERTY);
+				continue;
+			}
+
+			result.add(new Dimension(width, height));
+		}
+
+		return result;
+	}
+
+	public List<Dimension> getThumbSizes() {
+		return new ArrayList<Dimension>(thumbSizes);
 	}
 
 	public void initFileTypesMap() throws Exception {
@@ -119,7 +223,8 @@ public class ImageRepository {
 	}
 
 	/**
-	 * Creates image in repository
+	 * Creates image in repository. Source image is decoded and stored immediately, so broken image is rejected before
+	 * it's accepted, and thumbnails are generated in background
 	 * 
 	 * @param image
 	 *            image file
@@ -130,28 +235,46 @@ public class ImageRepository {
 		if (image.getSourceContentType().equals("application/octet-stream")) {
 			image.setSourceContentType(fileTypeMap.getContentType(image.getSourceName()));
 		}
-		
-		if (!addThumbnail(image, thumbWidth, thumbHeight)) {
+
+		if (!isThumbnailSupported(image)) {
 			return false;
 		}
 
+		// Whole image is decoded, valid header alone doesn't mean thumbnails can be generated later
+		BufferedImage sourceImage = ImageIO.read(new ByteArrayInputStream(image.getData()));
+		if (sourceImage == null) {
+			throw new IOException("The image data is empty");
+		}
+
+		Dimension sourceSize = new Dimension(sourceImage.getWidth(), sourceImage.getHeight());
+		image.setWidth(sourceSize.width);
+		image.setHeight(sourceSize.height);
+
+		String thumbFormat = getThumbFormat(image);
+		Dimension thumbSize = getScaledSize(sourceSize.width, sourceSize.height, thumbWidth, thumbHeight);
+		image.setThumbWidth(thumbSize.width);
+		image.setThumbHeight(thumbSize.height);
+		image.setThumbContentType(getThumbContentType(thumbFormat));
+
 		// Generate paths
-		setGeneratedImagePathes(image, ".jpg");
+		setGeneratedImagePathes(image, getThumbExtension(thumbFormat));
 
 		// Create folders tree
 		createImagePathes(image);
-		
-		// Save thumb image
-		FileUtils.writeByteArrayToFile(getThumbFile(image), image.getThumbData());
 
 		// Save source image
 		FileUtils.writeByteArrayToFile(getSourceFile(image), image.getData());
 
+		scheduleThumbnails(image, thumbWidth, thumbHeight);
+
 		return true;
 	}
 
+	/**
+	 * Generates thumbnail in memory. It's used for small images which are stored in LDAP entry
+	 */
 	public boolean addThumbnail(GluuImage image, int thumbWidth, int thumbHeight) throws Exception {
-		if (!image.getSourceContentType().matches("image/(gif|png|jpeg|jpg|bmp)")) {
+		if (!isThumbnailSupported(image)) {
 			return false;
 		}
 
@@ -165,18 +288,18 @@ public class ImageRepository {
 		image.setWidth(bufferedImage.getWidth());
 		image.setHeight(bufferedImage.getHeight());
 
-		BufferedImage bi = ImageTransformationUtility.scaleImage(bufferedImage, thumbWidth, thumbHeight);
+		BufferedImage bi = scaleImage(bufferedImage, thumbWidth, thumbHeight, THUMB_FORMAT_PNG);
 
 		// Set thumb properties
 		image.setThumbWidth(bi.getWidth());
 		image.setThumbHeight(bi.getHeight());
 		
-		image.setThumbContentType(MediaType.PNG.toString());
+		image.setThumbContentType(getThumbContentType(THUMB_FORMAT_PNG));
 		
 		// Store thumb image 
 		ByteArrayOutputStream bos = new ByteArrayOutputStream();
 		try {
-			ImageIO.write(bufferedImage, "png", bos);
+			writeImage(bi, THUMB_FORMAT_PNG, bos);
 			image.setThumbData(bos.toByteArray());
 		} finally {
 			bos.close();
@@ -185,14 +308,282 @@ public class ImageRepository {
 		return true;
 	}
 
+	/**
+	 * Generates thumbnails of existing image again
+	 * 
+	 * @param force
+	 *            generate thumbnails even if all of them exist
+	 * @return true if generation was scheduled
+	 */
+	public boolean regenerateThumbnails(GluuImage image, boolean force) {
+		if ((image.getSourceContentType() == null) || !isThumbnailSupported(image) || StringHelper.isEmpty(image.getThumbFilePath())) {
+			return false;
+		}
+
+		if (!getSourceFile(image).isFile()) {
+			log.debug("Source file of image {} doesn't exist", image);
+			return false;
+		}
+
+		if (!force && !isThumbnailMissing(image)) {
+			return false;
+		}
+
+		createFoldersTree(getThumbFile(image).getParentFile());
+		scheduleThumbnails(image, appConfiguration.getPhotoRepositoryThumbWidth(), appConfiguration.getPhotoRepositoryThumbHeight());
+
+		return true;
+	}
+
+	private boolean isThumbnailMissing(GluuImage image) {
+		for (File thumbFile : getAllThumbFiles(image)) {
+			if (!thumbFile.isFile()) {
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	/**
+	 * @return true if thumbnails of image are being generated
+	 */
+	public boolean isThumbnailPending(GluuImage image) {
+		Future<?> future = pendingThumbs.get(getThumbTaskKey(image));
+
+		return (future != null) && !future.isDone();
+	}
+
+	/**
+	 * Waits until thumbnails of image are generated
+	 */
+	public void awaitThumbnails(GluuImage image) {
+		Future<?> future = pendingThumbs.get(getThumbTaskKey(image));
+		if (future == null) {
+			return;
+		}
+
+		try {
+			future.get(THUMB_WAIT_TIMEOUT, TimeUnit.SECONDS);
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		} catch (ExecutionException ex) {
+			log.error("Failed to generate thumbnails for image {}", image, ex.getCause());
+		} catch (TimeoutException ex) {
+			log.warn("Thumbnails generation for image {} isn't finished in {} seconds", image, THUMB_WAIT_TIMEOUT);
+		}
+	}
+
+	private void scheduleThumbnails(GluuImage image, int thumbWidth, int thumbHeight) {
+		// Files are resolved now because image can be changed by caller before task is run
+		final String key = getThumbTaskKey(image);
+		final File sourceFile = getSourceFile(image);
+		final String thumbFormat = getScheduledThumbFormat(image);
+		final List<File> thumbFiles = getAllThumbFiles(image);
+		final List<Dimension> sizes = new ArrayList<Dimension>();
+		sizes.add(new Dimension(thumbWidth, thumbHeight));
+		sizes.addAll(thumbSizes);
+
+		FutureTask<Void> future = new FutureTask<Void>(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					generateThumbnails(sourceFile, thumbFormat, sizes, thumbFiles);
+				} catch (Exception ex) {
+					log.error("Failed to generate thumbnails for image '{}'", sourceFile, ex);
+				}
+			}
+		}, null) {
+			@Override
+			protected void done() {
+				pendingThumbs.remove(key, this);
+			}
+		};
+
+		pendingThumbs.put(key, future);
+		thumbExecutor.execute(future);
+	}
+
+	private void generateThumbnails(File sourceFile, String thumbFormat, List<Dimension> sizes, List<File> thumbFiles) throws IOException {
+		BufferedImage sourceImage = ImageIO.read(sourceFile);
+		if (sourceImage == null) {
+			throw new IOException("The image data is empty");
+		}
+
+		// Sizes are scaled from biggest to smallest, so each step starts from closest image
+		BufferedImage current = sourceImage;
+		for (int i : getIndexesBySizeDesc(sizes)) {
+			Dimension size = sizes.get(i);
+			BufferedImage thumb = scaleImage(current, size.width, size.height, thumbFormat);
+
+			File tmpFile = new File(thumbFiles.get(i).getPath() + ".tmp");
+			OutputStream os = FileUtils.openOutputStream(tmpFile);
+			try {
+				writeImage(thumb, thumbFormat, os);
+			} finally {
+				IOUtils.closeQuietly(os);
+			}
+
+			// Thumbnail appears at once, so it's never read partially written
+			File thumbFile = thumbFiles.get(i);
+			if (!tmpFile.renameTo(thumbFile)) {
+				FileUtils.deleteQuietly(thumbFile);
+				FileUtils.moveFile(tmpFile, thumbFile);
+			}
+
+			current = thumb;
+		}
+	}
+
+	private List<Integer> getIndexesBySizeDesc(List<Dimension> sizes) {
+		List<Integer> result = new ArrayList<Integer>();
+		for (int i = 0; i < sizes.size(); i++) {
+			int pos = 0;
+			while ((pos < result.size()) && (getArea(sizes.get(result.get(pos))) >= getArea(sizes.get(i)))) {
+				pos++;
+			}
+			result.add(pos, i);
+		}
+
+		return result;
+	}
+
+	private long getArea(Dimension size) {
+		return (long) size.width * size.height;
+	}
+
+	/**
+	 * Scales image to fit into width x height box keeping proportions. Image is reduced by half with bilinear
+	 * interpolation until last step to keep quality of big reductions without cost of area averaging
+	 */
+	private BufferedImage scaleImage(BufferedImage image, int width, int height, String format) {
+		Dimension targetSize = getScaledSize(image.getWidth(), image.getHeight(), width, height);
+		boolean hasAlpha = THUMB_FORMAT_PNG.equals(format) && (image.getTransparency() != Transparency.OPAQUE);
+		int type = hasAlpha ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB;
+
+		BufferedImage result = image;
+		int currentWidth = image.getWidth();
+		int currentHeight = image.getHeight();
+		do {
+			currentWidth = Math.max(targetSize.width, currentWidth / 2);
+			currentHeight = Math.max(targetSize.height, currentHeight / 2);
+
+			BufferedImage step = new BufferedImage(currentWidth, currentHeight, type);
+			Graphics2D g = step.createGraphics();
+			try {
+				g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+				g.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+				if (!hasAlpha) {
+					// JPEG has no transparency
+					g.setColor(Color.WHITE);
+					g.fillRect(0, 0, currentWidth, currentHeight);
+				}
+				g.drawImage(result, 0, 0, currentWidth, currentHeight, null);
+			} finally {
+				g.dispose();
+			}
+			result = step;
+		} while ((currentWidth != targetSize.width) || (currentHeight != targetSize.height));
+
+		return result;
+	}
+
+	private Dimension getScaledSize(int sourceWidth, int sourceHeight, int width, int height) {
+		double ratio = Math.min(1.0, Math.min((double) width / sourceWidth, (double) height / sourceHeight));
+
+		return new Dimension(Math.max(1, (int) Math.round(sourceWidth * ratio)), Math.max(1, (int) Math.round(sourceHeight * ratio)));
+	}
+
+	private void writeImage(BufferedImage image, String format, OutputStream os) throws IOException {
+		ImageWriter writer = borrowWriter(format);
+		ImageOutputStream ios = ImageIO.createImageOutputStream(os);
+		try {
+			writer.setOutput(ios);
+
+			ImageWriteParam param = writer.getDefaultWriteParam();
+			if (THUMB_FORMAT_JPEG.equals(format)) {
+				param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+				param.setCompressionQuality(JPEG_QUALITY);
+			}
+
+			writer.write(null, new IIOImage(image, null, null), param);
+			ios.flush();
+		} finally {
+			writer.reset();
+			returnWriter(format, writer);
+			ios.close();
+		}
+	}
+
+	private ImageWriter borrowWriter(String format) throws IOException {
+		Queue<ImageWriter> formatWriters = getWriters(format);
+		ImageWriter writer = formatWriters.poll();
+		if (writer != null) {
+			return writer;
+		}
+
+		Iterator<ImageWriter> it = ImageIO.getImageWritersByFormatName(format);
+		if (!it.hasNext()) {
+			throw new IOException(String.format("There is no image writer for format '%s'", format));
+		}
+
+		return it.next();
+	}
+
+	private void returnWriter(String format, ImageWriter writer) {
+		getWriters(format).offer(writer);
+	}
+
+	private Queue<ImageWriter> getWriters(String format) {
+		Queue<ImageWriter> formatWriters = writers.get(format);
+		if (formatWriters == null) {
+			writers.putIfAbsent(format, new ConcurrentLinkedQueue<ImageWriter>());
+			formatWriters = writers.get(format);
+		}
+
+		return formatWriters;
+	}
+
+	private boolean isThumbnailSupported(GluuImage image) {
+		return image.getSourceContentType().matches("image/(gif|png|jpeg|jpg|bmp)");
+	}
+
+	private String getThumbFormat(GluuImage image) {
+		// Photos are smaller as JPEG, other images can have transparency
+		return image.getSourceContentType().matches("image/(jpeg|jpg)") ? THUMB_FORMAT_JPEG : THUMB_FORMAT_PNG;
+	}
+
+	private String getScheduledThumbFormat(GluuImage image) {
+		// Keep format of thumbnails which were created before
+		if (StringHelper.isEmpty(image.getThumbContentType())) {
+			return getThumbFormat(image);
+		}
+
+		return MediaType.JPEG.toString().equals(image.getThumbContentType()) ? THUMB_FORMAT_JPEG : THUMB_FORMAT_PNG;
+	}
+
+	private String getThumbExtension(String format) {
+		return THUMB_FORMAT_JPEG.equals(format) ? ".jpg" : ".png";
+	}
+
+	private String getThumbContentType(String format) {
+		return THUMB_FORMAT_JPEG.equals(format) ? MediaType.JPEG.toString() : MediaType.PNG.toString();
+	}
+
+	private String getThumbTaskKey(GluuImage image) {
+		return getThumbFile(image).getPath();
+	}
+
 	private void moveImageToPersistentStore(GluuImage image, boolean saveThumb, String destSourceFilePath, String destThumbFilePath)
 			throws IOException {
 		if (!image.isStoreTemporary()) {
 			return;
 		}
 
+		awaitThumbnails(image);
+
 		File tmpOrigFile = getSourceFile(image);
-		File tmpThumbFile = getThumbFile(image);
+		List<File> tmpThumbFiles = getAllThumbFiles(image);
 
 		image.setStoreTemporary(false);
 
@@ -206,11 +597,25 @@ public class ImageRepository {
 
 		FileUtils.copyFile(tmpOrigFile, getSourceFile(image));
 		if (saveThumb) {
-			FileUtils.copyFile(tmpThumbFile, getThumbFile(image));
+			List<File> thumbFiles = getAllThumbFiles(image);
+			boolean thumbMissing = false;
+			for (int i = 0; i < tmpThumbFiles.size(); i++) {
+				if (tmpThumbFiles.get(i).isFile()) {
+					FileUtils.copyFile(tmpThumbFiles.get(i), thumbFiles.get(i));
+				} else {
+					thumbMissing = true;
+				}
+			}
+
+			if (thumbMissing) {
+				regenerateThumbnails(image, false);
+			}
 		}
 
 		deleteFile(tmpOrigFile, true);
-		deleteFile(tmpThumbFile, true);
+		for (File tmpThumbFile : tmpThumbFiles) {
+			deleteFile(tmpThumbFile, true);
+		}
 	}
 
 	public void moveImageToPersistentStore(GluuImage image) throws Exception {
@@ -250,6 +655,30 @@ public class ImageRepository {
 		return new File(parentFolder + File.separator + image.getThumbFilePath());
 	}
 
+	/**
+	 * @return file of thumbnail with additional size
+	 */
+	public File getThumbFile(GluuImage image, int width, int height) {
+		File thumbFile = getThumbFile(image);
+		String fileName = FilenameUtils.getBaseName(thumbFile.getName()) + "_" + width + "x" + height;
+		String extension = FilenameUtils.getExtension(thumbFile.getName());
+		if (StringHelper.isNotEmpty(extension)) {
+			fileName += "." + extension;
+		}
+
+		return new File(thumbFile.getParentFile(), fileName);
+	}
+
+	private List<File> getAllThumbFiles(GluuImage image) {
+		List<File> result = new ArrayList<File>();
+		result.add(getThumbFile(image));
+		for (Dimension size : thumbSizes) {
+			result.add(getThumbFile(image, size.width, size.height));
+		}
+
+		return result;
+	}
+
 	public File getSourceFile(GluuImage image) {
 		if (image.isLogo() && !image.isStoreTemporary()) {
 			return new File(appConfiguration.getLogoLocation() + File.separator + image.getSourceFilePath());
@@ -268,6 +697,9 @@ public class ImageRepository {
 	}
 
 	public void deleteImage(GluuImage image) {
+		// Running task would create thumbnails again after removal
+		awaitThumbnails(image);
+
 		File thumbFile = getThumbFile(image);
 		File sourceFile = getSourceFile(image);
 
@@ -276,7 +708,9 @@ public class ImageRepository {
 			File removedSourceFile = new File(removedSourceHome + File.separator + image.getSourceFilePath());
 
 			try {
-				FileUtils.copyFile(thumbFile, reovedThumbFile);
+				if (thumbFile.isFile()) {
+					FileUtils.copyFile(thumbFile, reovedThumbFile);
+				}
 				FileUtils.copyFile(sourceFile, removedSourceFile);
 			} catch (IOException ex) {
 				log.error("Failed to create backup for photo {} before removal", image, ex);
@@ -284,7 +718,9 @@ public class ImageRepository {
 		}
 
 		// Delete thumb and source files
-		deleteFile(thumbFile, true);
+		for (File file : getAllThumbFiles(image)) {
+			deleteFile(file, true);
+		}
 		deleteFile(sourceFile, true);
 	}
 
@@ -14,6 +14,7 @@ import javax.enterprise.context.ApplicationScoped;
 import javax.inject.Inject;
 import javax.inject.Named;
 
+import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.FilenameUtils;
 import org.gluu.oxtrust.model.GluuCustomAttribute;
 import org.gluu.oxtrust.model.GluuCustomPerson;
@@ -167,8 +168,15 @@ public class ImageService {
 		return getThumImageData(image);
 	}
 
+	/**
+	 * Returns thumbnail data or blank image if thumbnail isn't generated yet
+	 */
 	public byte[] getThumImageData(GluuImage image) {
 		if (image != null) {
+			if (imageRepository.isThumbnailPending(image)) {
+				return getBlankImageData();
+			}
+
 			try {
 				return imageRepository.getThumbImageData(image);
 			} catch (Exception ex) {
@@ -179,6 +187,25 @@ public class ImageService {
 		return getBlankImageData();
 	}
 
+	/**
+	 * Returns data of thumbnail with one of sizes from photoRepositoryThumbSizes property. Main thumbnail is returned
+	 * if there is no thumbnail of this size
+	 */
+	public byte[] getThumImageData(GluuImage image, int width, int height) {
+		if ((image != null) && !imageRepository.isThumbnailPending(image)) {
+			File thumbFile = imageRepository.getThumbFile(image, width, height);
+			if (thumbFile.isFile()) {
+				try {
+					return FileUtils.readFileToByteArray(thumbFile);
+				} catch (IOException ex) {
+					log.error("Failed to load GluuImage {}", image, ex);
+				}
+			}
+		}
+
+		return getThumImageData(image);
+	}
+
 	public byte[] getThumIconData(GluuImage image) {
 		if (image != null) {
 			try {
@@ -0,0 +1,346 @@
+/*
+ * oxTrust is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2017, Gluu
+ */
+
+package org.gluu.oxtrust.ldap.service;
+
+import java.security.SecureRandom;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import javax.inject.Named;
+
+import org.gluu.oxtrust.util.NamedThreadFactory;
+import org.gluu.oxtrust.util.OxTrustConstants;
+import org.gluu.site.ldap.persistence.LdapEntryManager;
+import org.slf4j.Logger;
+
+import com.unboundid.ldap.sdk.Attribute;
+import com.unboundid.ldap.sdk.Filter;
+import com.unboundid.ldap.sdk.LDAPConnection;
+import com.unboundid.ldap.sdk.LDAPException;
+import com.unboundid.ldap.sdk.Modification;
+import com.unboundid.ldap.sdk.ModificationType;
+import com.unboundid.ldap.sdk.ResultCode;
+import com.unboundid.ldap.sdk.SearchResult;
+import com.unboundid.ldap.sdk.SearchResultEntry;
+import com.unboundid.ldap.sdk.SearchScope;
+
+/**
+ * Allocates inums for new entries from ranges reserved in LDAP.
+ *
+ * Each object type has counter entry ou=&lt;type&gt;.&lt;size&gt;,ou=inumCounters,&lt;organization DN&gt;. Range is
+ * reserved by replacing counter value with delete old value/add new value modification, which fails if other node
+ * reserved range first. Inums are handed out from memory and next range is reserved in background.
+ *
+ * Leading half of generated part is counter value and trailing half is random, e.g. for 4 groups
+ * "&lt;counter&gt;.&lt;counter&gt;.&lt;random&gt;.&lt;random&gt;". Counter makes inums unique without existence check and random
+ * part makes them hard to guess from other inums. The trade-off is less entropy than fully random inums: 32 random
+ * bits for 4 groups and 16 bits for 2 groups, where counter part also limits type to 65536 inums. Once counter of
+ * type is exhausted, no more ranges are requested for it and callers fall back to random inums. Inums generated
+ * randomly before are skipped with one search per range in container of new entries.
+ */
+@ApplicationScoped
+@Named
+public class InumAllocatorService {
+
+	// Power of 16, so all inums in range share prefix of counter value
+	private static final int RANGE_SIZE = 256;
+	private static final int RANGE_HEX_DIGITS = 2;
+
+	// Next range is reserved when current one has fewer inums left
+	private static final int PREFETCH_THRESHOLD = RANGE_SIZE / 4;
+
+	private static final int MAX_ATTEMPTS = 10;
+
+	private static final String COUNTERS_OU = "inumCounters";
+	private static final String COUNTER_ATTRIBUTE = "description";
+
+	private static final SecureRandom RANDOM = new SecureRandom();
+
+	@Inject
+	private Logger log;
+
+	@Inject
+	private LdapEntryManager ldapEntryManager;
+
+	@Inject
+	private OrganizationService organizationService;
+
+	private ConcurrentMap<String, InumPool> pools;
+	private ExecutorService prefetchExecutor;
+
+	@PostConstruct
+	public void init() {
+		this.pools = new ConcurrentHashMap<String, InumPool>();
+		this.prefetchExecutor = Executors.newSingleThreadExecutor(new NamedThreadFactory("inum-allocator"));
+	}
+
+	@PreDestroy
+	public void destroy() {
+		this.prefetchExecutor.shutdownNow();
+	}
+
+	/**
+	 * @param objectType
+	 *            object type part of inum, e.g. "0000" for persons
+	 * @param size
+	 *            number of 4 digit groups in generated part of inum
+	 * @param baseDn
+	 *            container of entries with this object type, e.g. ou=people,&lt;organization DN&gt;
+	 * @return new inum or null if range can't be reserved or inums of this type are exhausted. Caller should fall back
+	 *         to random inum
+	 */
+	public String allocate(String objectType, int size, String baseDn) {
+		String prefix = organizationService.getInumForOrganization() + OxTrustConstants.inumDelimiter + objectType + OxTrustConstants.inumDelimiter;
+		String key = objectType + "." + size;
+
+		InumPool pool = pools.get(key);
+		if (pool == null) {
+			pool = new InumPool(key, prefix, size, baseDn);
+			InumPool existingPool = pools.putIfAbsent(key, pool);
+			if (existingPool != null) {
+				pool = existingPool;
+			}
+		}
+
+		if (pool.isExhausted()) {
+			return null;
+		}
+
+		try {
+			return pool.next();
+		} catch (Exception ex) {
+			log.error("Failed to allocate inum of type '{}'", objectType, ex);
+			return null;
+		}
+	}
+
+	private class InumPool {
+
+		private final String key;
+		private final String prefix;
+		private final int size;
+		private final String baseDn;
+
+		private LinkedList<String> current = new LinkedList<String>();
+		private Future<LinkedList<String>> next;
+
+		// Counter never goes back, so exhausted pool stays exhausted
+		private volatile boolean exhausted;
+
+		public InumPool(String key, String prefix, int size, String baseDn) {
+			this.key = key;
+			this.prefix = prefix;
+			this.size = size;
+			this.baseDn = baseDn;
+		}
+
+		public synchronized String next() throws Exception {
+			while (current.isEmpty()) {
+				LinkedList<String> range;
+				if (next != null) {
+					Future<LinkedList<String>> nextRange = next;
+					next = null;
+					range = nextRange.get();
+				} else {
+					range = reserveRange(key, prefix, size, baseDn);
+				}
+
+				if (range == null) {
+					log.warn("Inums of type '{}' are exhausted, random inums are generated for it", key);
+					exhausted = true;
+					return null;
+				}
+				current = range;
+			}
+
+			String inum = current.removeFirst();
+
+			if ((next == null) && (current.size() < PREFETCH_THRESHOLD)) {
+				next = prefetchExecutor.submit(new Callable<LinkedList<String>>() {
+					@Override
+					public LinkedList<String> call() throws Exception {
+						return reserveRange(key, prefix, size, baseDn);
+					}
+				});
+			}
+
+			return inum;
+		}
+
+		public boolean isExhausted() {
+			return exhausted;
+		}
+
+	}
+
+	/**
+	 * @return inums of reserved range or null if counter is exhausted
+	 */
+	private LinkedList<String> reserveRange(String key, String prefix, int size, String baseDn) throws LDAPException {
+		int counterSize = getCounterSize(size);
+		int randomSize = size - counterSize;
+
+		LDAPConnection connection = ldapEntryManager.getLdapOperationService().getConnection();
+		try {
+			long start = reserveCounterRange(connection, key, counterSize);
+			if (start < 0) {
+				return null;
+			}
+			log.debug("Reserved inums range {} of type '{}'", start, key);
+
+			String rangePrefix = prefix + formatInum(start, counterSize);
+			rangePrefix = rangePrefix.substring(0, rangePrefix.length() - RANGE_HEX_DIGITS);
+
+			Set<String> existingInums = findExistingInums(connection, baseDn, rangePrefix);
+
+			LinkedList<String> range = new LinkedList<String>();
+			for (long value = start; value < start + RANGE_SIZE; value++) {
+				String inum;
+				do {
+					inum = formatInum(prefix, value, counterSize, RANDOM.nextLong(), randomSize);
+				} while (existingInums.contains(inum.toLowerCase()));
+				range.add(inum);
+			}
+
+			return range;
+		} finally {
+			ldapEntryManager.getLdapOperationService().releaseConnection(connection);
+		}
+	}
+
+	/**
+	 * @return start of reserved range or -1 if counter is exhausted
+	 */
+	private long reserveCounterRange(LDAPConnection connection, String key, int counterSize) throws LDAPException {
+		String counterDn = String.format("ou=%s,ou=%s,%s", key, COUNTERS_OU, organizationService.getDnForOrganization());
+
+		for (int attempt = 0; attempt < MAX_ATTEMPTS; attempt++) {
+			SearchResultEntry counterEntry = connection.getEntry(counterDn, COUNTER_ATTRIBUTE);
+			if (counterEntry == null) {
+				createCounter(connection, counterDn);
+				continue;
+			}
+
+			String value = counterEntry.getAttributeValue(COUNTER_ATTRIBUTE);
+			// First range is skipped, because generated part of inum should be greater than 7
+			long start = value == null ? RANGE_SIZE : Long.parseLong(value);
+			if (!isRangeAvailable(start, counterSize)) {
+				// Counter isn't modified, so it doesn't grow on each check of exhausted type
+				return -1;
+			}
+			long end = start + RANGE_SIZE;
+
+			Modification[] modifications;
+			if (value == null) {
+				modifications = new Modification[] { new Modification(ModificationType.ADD, COUNTER_ATTRIBUTE, String.valueOf(end)) };
+			} else {
+				modifications = new Modification[] { new Modification(ModificationType.DELETE, COUNTER_ATTRIBUTE, value),
+						new Modification(ModificationType.ADD, COUNTER_ATTRIBUTE, String.valueOf(end)) };
+			}
+
+			try {
+				connection.modify(counterDn, modifications);
+				return start;
+			} catch (LDAPException ex) {
+				// Other node modified counter first
+				if (!ResultCode.NO_SUCH_ATTRIBUTE.equals(ex.getResultCode()) && !ResultCode.ATTRIBUTE_OR_VALUE_EXISTS.equals(ex.getResultCode())) {
+					throw ex;
+				}
+			}
+		}
+
+		throw new LDAPException(ResultCode.OTHER, "Failed to reserve inums range in '" + counterDn + "' after " + MAX_ATTEMPTS + " attempts");
+	}
+
+	private void createCounter(LDAPConnection connection, String counterDn) throws LDAPException {
+		String countersDn = String.format("ou=%s,%s", COUNTERS_OU, organizationService.getDnForOrganization());
+		addIfMissing(connection, countersDn, COUNTERS_OU);
+		addIfMissing(connection, counterDn, counterDn.substring(3, counterDn.indexOf(',')));
+	}
+
+	private void addIfMissing(LDAPConnection connection, String dn, String ou) throws LDAPException {
+		try {
+			connection.add(dn, new Attribute("objectClass", "top", "organizationalUnit"), new Attribute("ou", ou));
+		} catch (LDAPException ex) {
+			// Created by other node
+			if (!ResultCode.ENTRY_ALREADY_EXISTS.equals(ex.getResultCode())) {
+				throw ex;
+			}
+		}
+	}
+
+	private Set<String> findExistingInums(LDAPConnection connection, String baseDn, String rangePrefix) throws LDAPException {
+		Filter filter = Filter.createSubstringFilter(OxTrustConstants.inum, rangePrefix, null, null);
+		SearchResult searchResult = connection.search(baseDn, SearchScope.ONE, filter, OxTrustConstants.inum);
+
+		Set<String> existingInums = new HashSet<String>();
+		for (SearchResultEntry entry : searchResult.getSearchEntries()) {
+			String inum = entry.getAttributeValue(OxTrustConstants.inum);
+			if (inum != null) {
+				existingInums.add(inum.toLowerCase());
+			}
+		}
+
+		return existingInums;
+	}
+
+	/**
+	 * Number of leading groups filled from counter. Rest of groups are random
+	 */
+	static int getCounterSize(int size) {
+		return size - size / 2;
+	}
+
+	static long getMaxValue(int size) {
+		return size < 4 ? 1L << (size * 16) : Long.MAX_VALUE;
+	}
+
+	static boolean isRangeAvailable(long start, int counterSize) {
+		return start <= getMaxValue(counterSize) - RANGE_SIZE;
+	}
+
+	/**
+	 * Format inum with counter groups followed by random groups, e.g. "@!1234!0000!0001.A2F0.9C1E.04B7"
+	 */
+	static String formatInum(String prefix, long value, int counterSize, long random, int randomSize) {
+		if (randomSize == 0) {
+			return prefix + formatInum(value, counterSize);
+		}
+
+		return prefix + formatInum(value, counterSize) + "." + formatInum(random, randomSize);
+	}
+
+	/**
+	 * Format value in the same way as INumGenerator, e.g. "0000.0001.A2F0.0100"
+	 */
+	static String formatInum(long value, int size) {
+		String hex = String.format("%0" + (size * 4) + "X", value);
+		hex = hex.substring(hex.length() - size * 4);
+
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < size; i++) {
+			if (i > 0) {
+				sb.append('.');
+			}
+			sb.append(hex, i * 4, (i + 1) * 4);
+		}
+
+		return sb.toString();
+	}
+
+}
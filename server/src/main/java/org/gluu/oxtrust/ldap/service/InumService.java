@@ -84,6 +84,9 @@ public class InumService implements Serializable {
 	@Inject
 	private AppConfiguration appConfiguration;
 
+	@Inject
+	private InumAllocatorService inumAllocatorService;
+
 	public boolean contains(String inum, String gluuInum, String type) {
 		boolean contains = false;
 		if ("attribute".equals(type)) {
@@ -179,6 +182,13 @@ public class InumService implements Serializable {
 	}
 
 	public String generateInums(String type, boolean checkInDb) {
+		if (checkInDb) {
+			String allocatedInum = allocateInum(type);
+			if (allocatedInum != null) {
+				return allocatedInum;
+			}
+		}
+
 		String inum = "";
 		int counter = 0;
 		String gluu = organizationService.getInumForOrganization();
@@ -208,6 +218,17 @@ public class InumService implements Serializable {
 		return inum;
 	}
 
+	private String allocateInum(String type) {
+		String orgDn = organizationService.getDnForOrganization();
+		if ("people".equals(type)) {
+			return inumAllocatorService.allocate(PEOPLE, 2, String.format("ou=people,%s", orgDn));
+		} else if ("group".equals(type)) {
+			return inumAllocatorService.allocate(GROUP, 2, String.format("ou=groups,%s", orgDn));
+		}
+
+		return null;
+	}
+
 	private String getInum(String type, String gluu) {
 		String inum = "";
 		if ("people".equals(type)) {
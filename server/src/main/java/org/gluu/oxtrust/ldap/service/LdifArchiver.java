@@ -6,39 +6,101 @@
 
 package org.gluu.oxtrust.ldap.service;
 
-import static org.gluu.oxtrust.ldap.service.AppInitializer.LDAP_ENTRY_MANAGER_NAME;
-
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.PrintWriter;
-import java.util.Calendar;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 
-import javax.annotation.PostConstruct;
-import javax.ejb.Stateless;
+import javax.annotation.PreDestroy;
+import javax.enterprise.context.ApplicationScoped;
 import javax.inject.Inject;
 import javax.inject.Named;
 
+import org.apache.commons.io.IOUtils;
+import org.gluu.oxtrust.config.ConfigurationFactory;
 import org.gluu.site.ldap.persistence.DeleteNotifier;
 import org.gluu.site.ldap.persistence.LdapEntryManager;
+import org.joda.time.format.DateTimeFormat;
+import org.joda.time.format.DateTimeFormatter;
+import org.joda.time.format.ISODateTimeFormat;
 import org.slf4j.Logger;
 import org.xdi.config.oxtrust.AppConfiguration;
+import org.xdi.util.StringHelper;
 
-@Stateless
+/**
+ * Archives entries before removal into compressed segment files.
+ *
+ * Entry LDIF is loaded in caller thread, because entry should exist yet. Writing is done by background thread through
+ * bounded queue. Caller waits when queue is full. Each entry is written as separate gzip member, so it can be read by
+ * offset stored in segment index file &lt;segment&gt;.idx.
+ */
+@ApplicationScoped
 @Named
 public class LdifArchiver implements DeleteNotifier {
 
+	private static final String QUEUE_SIZE_PROPERTY = "ldifArchiveQueueSize";
+	private static final String SEGMENT_SIZE_PROPERTY = "ldifArchiveSegmentSizeMb";
+
+	private static final int DEFAULT_QUEUE_SIZE = 1000;
+	private static final int DEFAULT_SEGMENT_SIZE = 64;
+
+	// Caller writes entry itself if writer doesn't take it in time
+	private static final long OFFER_TIMEOUT = 30;
+
+	private static final String SEGMENT_PREFIX = "ldif-archive-";
+	private static final String SEGMENT_EXTENSION = ".ldif.gz";
+	private static final String INDEX_EXTENSION = ".idx";
+	private static final String UTF_8 = "UTF-8";
+
+	private static final DateTimeFormatter SEGMENT_NAME_FORMATTER = DateTimeFormat.forPattern("yyyyMMdd-HHmmss-SSS").withZoneUTC();
+	private static final DateTimeFormatter TIMESTAMP_FORMATTER = ISODateTimeFormat.dateTime().withZoneUTC();
+
+	private static final ArchiveRecord STOP_RECORD = new ArchiveRecord(null, null, 0);
+
 	@Inject
 	private Logger log;
 
 	@Inject
-	private LdapEntryManager ldapEntryManager;	
+	private LdapEntryManager ldapEntryManager;
+
 	@Inject
 	private AppConfiguration appConfiguration;
 
+	@Inject
+	private ConfigurationFactory configurationFactory;
+
 	private String storeDir;
 
 	private boolean disable;
 
+	private long maxSegmentSize;
+	private BlockingQueue<ArchiveRecord> queue;
+	private Thread writerThread;
+
+	// Guarded by this
+	private File segmentFile;
+	private OutputStream segmentStream;
+	private Writer indexWriter;
+	private long segmentOffset;
+
 	public void init() {
 		storeDir = appConfiguration.getLdifStore();
 		if (storeDir != null) {
@@ -46,31 +108,85 @@ public class LdifArchiver implements DeleteNotifier {
 			store.mkdirs();
 		} else {
 			disable = true;
+			return;
 		}
+
+		int queueSize = StringHelper.toInteger(configurationFactory.getLdapConfiguration().getString(QUEUE_SIZE_PROPERTY, null), DEFAULT_QUEUE_SIZE);
+		int segmentSize = StringHelper.toInteger(configurationFactory.getLdapConfiguration().getString(SEGMENT_SIZE_PROPERTY, null), DEFAULT_SEGMENT_SIZE);
+
+		this.maxSegmentSize = Math.max(1, segmentSize) * 1024L * 1024L;
+		this.queue = new ArrayBlockingQueue<ArchiveRecord>(Math.max(1, queueSize));
+
+		this.writerThread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				processQueue();
+			}
+		}, "ldif-archiver");
+		this.writerThread.setDaemon(true);
+		this.writerThread.start();
 	}
 
-	public void onBeforeRemove(String dn) {
-		if (!disable) {
-			String dnForRemoval = dn;
-			int dnForRemovalLenght = dnForRemoval.length();
-			if (dnForRemovalLenght > 200) {
-				dnForRemoval = dn.substring(dnForRemovalLenght - 200, dnForRemovalLenght);
+	@PreDestroy
+	public void destroy() {
+		if (this.writerThread == null) {
+			return;
+		}
+
+		// Writer stops after all queued entries are written. If it doesn't get to stop record in time, it's interrupted
+		// and the rest of queue is written here
+		try {
+			if (!queue.offer(STOP_RECORD, OFFER_TIMEOUT, TimeUnit.SECONDS)) {
+				log.warn("LDIF archive queue is full on shutdown, interrupting writer");
+			} else {
+				writerThread.join(TimeUnit.SECONDS.toMillis(OFFER_TIMEOUT));
 			}
-			File file = new File(storeDir + File.separator + dnForRemoval + Calendar.getInstance().getTimeInMillis());
-			PrintWriter writer = null;
-			try {
-				writer = new PrintWriter(file);
-			} catch (FileNotFoundException e) {
 
-				log.error("Failed to write into log file", e);
+			if (writerThread.isAlive()) {
+				writerThread.interrupt();
+				writerThread.join(TimeUnit.SECONDS.toMillis(OFFER_TIMEOUT));
 			}
-			String[] ldif = ldapEntryManager.getLDIF(dn);
-			for (String ldifValue : ldif) {
-				writer.println(ldifValue);
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		}
+
+		if (writerThread.isAlive()) {
+			log.error("LDIF archive writer didn't stop, {} queued entries aren't archived", queue.size());
+		} else {
+			List<ArchiveRecord> records = new ArrayList<ArchiveRecord>();
+			queue.drainTo(records);
+			for (ArchiveRecord record : records) {
+				if (record != STOP_RECORD) {
+					writeRecord(record);
+				}
 			}
-			writer.flush();
 		}
 
+		synchronized (this) {
+			closeSegment();
+		}
+	}
+
+	public void onBeforeRemove(String dn) {
+		if (disable) {
+			return;
+		}
+
+		String[] ldif = ldapEntryManager.getLDIF(dn);
+		ArchiveRecord record = new ArchiveRecord(dn, ldif, System.currentTimeMillis());
+
+		boolean queued = false;
+		try {
+			queued = queue.offer(record, OFFER_TIMEOUT, TimeUnit.SECONDS);
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		}
+
+		if (!queued) {
+			log.warn("LDIF archive queue is full, archiving '{}' in caller thread", dn);
+			writeRecord(record);
+			flush();
+		}
 	}
 
 	public void onAfterRemove(String dn) {
@@ -78,4 +194,195 @@ public class LdifArchiver implements DeleteNotifier {
 
 	}
 
+	/**
+	 * Find last archived LDIF of removed entry
+	 *
+	 * @return LDIF lines or null if entry wasn't archived
+	 */
+	public String[] getArchivedLdif(String dn) throws IOException {
+		if (disable) {
+			return null;
+		}
+
+		String[] indexFiles = new File(storeDir).list(new FilenameFilter() {
+			@Override
+			public boolean accept(File dir, String name) {
+				return name.startsWith(SEGMENT_PREFIX) && name.endsWith(INDEX_EXTENSION);
+			}
+		});
+		if (indexFiles == null) {
+			return null;
+		}
+
+		// Segment names are sorted by creation time
+		Arrays.sort(indexFiles, Collections.reverseOrder());
+		for (String indexFile : indexFiles) {
+			long offset = findOffset(new File(storeDir, indexFile), dn);
+			if (offset >= 0) {
+				String segmentName = indexFile.substring(0, indexFile.length() - INDEX_EXTENSION.length());
+				return readRecord(new File(storeDir, segmentName), offset);
+			}
+		}
+
+		return null;
+	}
+
+	private void processQueue() {
+		while (true) {
+			try {
+				ArchiveRecord record = queue.take();
+				if (record == STOP_RECORD) {
+					flush();
+					break;
+				}
+
+				writeRecord(record);
+				if (queue.isEmpty()) {
+					flush();
+				}
+			} catch (InterruptedException ex) {
+				flush();
+				break;
+			} catch (Exception ex) {
+				log.error("Failed to process LDIF archive queue", ex);
+			}
+		}
+	}
+
+	private synchronized void writeRecord(ArchiveRecord record) {
+		try {
+			if ((segmentStream == null) || (segmentOffset >= maxSegmentSize)) {
+				openSegment();
+			}
+
+			StringBuilder sb = new StringBuilder();
+			sb.append("# Removed: ").append(TIMESTAMP_FORMATTER.print(record.getTime())).append('\n');
+			if (record.getLdif() != null) {
+				for (String ldifValue : record.getLdif()) {
+					sb.append(ldifValue).append('\n');
+				}
+			}
+			sb.append('\n');
+
+			byte[] member = compress(sb.toString().getBytes(UTF_8));
+			segmentStream.write(member);
+
+			indexWriter.write(record.getDn() + "\t" + segmentOffset + "\t" + record.getTime() + "\n");
+
+			segmentOffset += member.length;
+		} catch (IOException ex) {
+			log.error("Failed to archive LDIF of '{}'", record.getDn(), ex);
+		}
+	}
+
+	private synchronized void flush() {
+		try {
+			if (segmentStream != null) {
+				segmentStream.flush();
+				indexWriter.flush();
+			}
+		} catch (IOException ex) {
+			log.error("Failed to flush LDIF archive segment '{}'", segmentFile, ex);
+		}
+	}
+
+	private void openSegment() throws IOException {
+		closeSegment();
+
+		String segmentName = SEGMENT_PREFIX + SEGMENT_NAME_FORMATTER.print(System.currentTimeMillis()) + SEGMENT_EXTENSION;
+		File newSegmentFile = new File(storeDir, segmentName);
+
+		this.segmentFile = newSegmentFile;
+		this.segmentOffset = newSegmentFile.length();
+		this.segmentStream = new BufferedOutputStream(new FileOutputStream(newSegmentFile, true));
+		this.indexWriter = new OutputStreamWriter(new BufferedOutputStream(new FileOutputStream(new File(storeDir, segmentName + INDEX_EXTENSION), true)),
+				UTF_8);
+
+		log.debug("Opened LDIF archive segment '{}'", newSegmentFile);
+	}
+
+	private void closeSegment() {
+		flush();
+		IOUtils.closeQuietly(segmentStream);
+		IOUtils.closeQuietly(indexWriter);
+		this.segmentStream = null;
+		this.indexWriter = null;
+	}
+
+	private byte[] compress(byte[] data) throws IOException {
+		ByteArrayOutputStream bos = new ByteArrayOutputStream(data.length / 2 + 64);
+		GZIPOutputStream gzip = new GZIPOutputStream(bos);
+		gzip.write(data);
+		gzip.close();
+
+		return bos.toByteArray();
+	}
+
+	private long findOffset(File indexFile, String dn) throws IOException {
+		long offset = -1;
+
+		BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(indexFile), UTF_8));
+		try {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				String[] parts = line.split("\t");
+				// The last record wins if entry was archived several times
+				if ((parts.length == 3) && dn.equalsIgnoreCase(parts[0])) {
+					offset = Long.parseLong(parts[1]);
+				}
+			}
+		} finally {
+			IOUtils.closeQuietly(reader);
+		}
+
+		return offset;
+	}
+
+	private String[] readRecord(File segment, long offset) throws IOException {
+		List<String> ldif = new ArrayList<String>();
+
+		InputStream is = new FileInputStream(segment);
+		try {
+			IOUtils.skipFully(is, offset);
+
+			BufferedReader reader = new BufferedReader(new InputStreamReader(new GZIPInputStream(is), UTF_8));
+			String line;
+			while (((line = reader.readLine()) != null) && (line.length() > 0)) {
+				if (!line.startsWith("#")) {
+					ldif.add(line);
+				}
+			}
+		} finally {
+			IOUtils.closeQuietly(is);
+		}
+
+		return ldif.toArray(new String[ldif.size()]);
+	}
+
+	private static class ArchiveRecord {
+
+		private final String dn;
+		private final String[] ldif;
+		private final long time;
+
+		public ArchiveRecord(String dn, String[] ldif, long time) {
+			this.dn = dn;
+			this.ldif = ldif;
+			this.time = time;
+		}
+
+		public String getDn() {
+			return dn;
+		}
+
+		public String[] getLdif() {
+			return ldif;
+		}
+
+		public long getTime() {
+			return time;
+		}
+
+	}
+
 }
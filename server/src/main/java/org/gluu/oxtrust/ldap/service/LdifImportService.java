@@ -0,0 +1,468 @@
+/*
+ * oxTrust is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2017, Gluu
+ */
+
+package org.gluu.oxtrust.ldap.service;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import javax.inject.Named;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.io.IOUtils;
+import org.gluu.oxtrust.config.ConfigurationFactory;
+import org.gluu.oxtrust.model.LdifImportResult;
+import org.gluu.oxtrust.model.LdifImportResult.EntryError;
+import org.gluu.oxtrust.util.NamedThreadFactory;
+import org.gluu.site.ldap.persistence.LdapEntryManager;
+import org.slf4j.Logger;
+import org.xdi.util.StringHelper;
+
+import com.unboundid.ldap.sdk.DN;
+import com.unboundid.ldap.sdk.LDAPConnection;
+import com.unboundid.ldap.sdk.LDAPException;
+import com.unboundid.ldap.sdk.LDAPResult;
+import com.unboundid.ldap.sdk.ResultCode;
+import com.unboundid.ldif.LDIFAddChangeRecord;
+import com.unboundid.ldif.LDIFChangeRecord;
+import com.unboundid.ldif.LDIFDeleteChangeRecord;
+import com.unboundid.ldif.LDIFException;
+import com.unboundid.ldif.LDIFModifyDNChangeRecord;
+import com.unboundid.ldif.LDIFReader;
+
+/**
+ * Imports LDIF records in parallel.
+ *
+ * LDIF is parsed as stream of change records. Records without changetype are added. Record is sent to LDAP when
+ * previous records of the same entry and of its parent are finished, so siblings are processed concurrently over
+ * several pooled connections. Delete and modify DN records wait for all previous records, because they affect whole
+ * subtree. Number of parsed but not finished records is limited by window. Records which come before their parents are
+ * retried after the end of LDIF ordered by DN depth. Number of records finished without gaps is saved into checkpoint
+ * file, so interrupted import can be resumed. Checkpoint file is removed when LDIF is processed to the end.
+ */
+@ApplicationScoped
+@Named
+public class LdifImportService {
+
+	private static final String THREADS_PROPERTY = "ldifImportThreads";
+	private static final String WINDOW_PROPERTY = "ldifImportWindow";
+	private static final String CHECKPOINT_DIR_PROPERTY = "ldifImportCheckpointDir";
+
+	private static final int DEFAULT_THREADS = 8;
+	private static final int DEFAULT_WINDOW = 1000;
+
+	private static final int CHECKPOINT_INTERVAL = 1000;
+	private static final String CHECKPOINT_SUFFIX = ".checkpoint";
+
+	@Inject
+	private Logger log;
+
+	@Inject
+	private LdapEntryManager ldapEntryManager;
+
+	@Inject
+	private ConfigurationFactory configurationFactory;
+
+	/**
+	 * @param checkpointFile
+	 *            file with number of processed records. Records before checkpoint are skipped. Can be null
+	 */
+	public LdifImportResult importLdif(InputStream is, File checkpointFile) throws IOException {
+		int threads = Math.max(1, StringHelper.toInteger(configurationFactory.getLdapConfiguration().getString(THREADS_PROPERTY, null), DEFAULT_THREADS));
+		int window = Math.max(1, StringHelper.toInteger(configurationFactory.getLdapConfiguration().getString(WINDOW_PROPERTY, null), DEFAULT_WINDOW));
+
+		long resumeFrom = readCheckpoint(checkpointFile);
+
+		ExecutorService executor = Executors.newFixedThreadPool(threads, new NamedThreadFactory("ldif-import"));
+
+		ImportJob job = new ImportJob(executor, window, resumeFrom, checkpointFile);
+
+		LDIFReader ldifReader = new LDIFReader(is);
+		try {
+			long index = 0;
+			while (true) {
+				LDIFChangeRecord record;
+				try {
+					record = ldifReader.readChangeRecord(true);
+				} catch (LDIFException ex) {
+					if (!ex.mayContinueReading()) {
+						throw new IOException("Failed to parse LDIF at line " + ex.getLineNumber(), ex);
+					}
+					if (index >= resumeFrom) {
+						job.addError(new EntryError(index, null, ResultCode.DECODING_ERROR, ex.getMessage()));
+						job.finish(index);
+					}
+					index++;
+					continue;
+				}
+
+				if (record == null) {
+					break;
+				}
+
+				if (index >= resumeFrom) {
+					job.submit(index, record);
+				}
+				index++;
+			}
+
+			job.awaitCompletion();
+			job.retryDeferred();
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new IOException("LDIF import was interrupted", ex);
+		} finally {
+			executor.shutdownNow();
+			ldifReader.close();
+			job.saveCheckpoint();
+		}
+
+		// Next import of the same LDIF should start from the beginning
+		if ((checkpointFile != null) && checkpointFile.exists() && !checkpointFile.delete()) {
+			log.error("Failed to remove LDIF import checkpoint file '{}'", checkpointFile);
+		}
+
+		LdifImportResult result = job.getResult();
+		log.info("Imported {} LDIF records, skipped {} existing entries, {} errors", result.getImported(), result.getSkipped(),
+				result.getErrors().size());
+
+		return result;
+	}
+
+	/**
+	 * @return checkpoint file of LDIF with specified content or null if checkpoint folder isn't available
+	 */
+	public File getCheckpointFile(byte[] ldifData) {
+		String checkpointDir = configurationFactory.getLdapConfiguration().getString(CHECKPOINT_DIR_PROPERTY, null);
+		if (StringHelper.isEmpty(checkpointDir)) {
+			String baseDir = ConfigurationFactory.BASE_DIR == null ? System.getProperty("java.io.tmpdir") : ConfigurationFactory.BASE_DIR;
+			checkpointDir = baseDir + File.separator + "ldif-import";
+		}
+
+		File dir = new File(checkpointDir);
+		if (!(dir.isDirectory() || dir.mkdirs())) {
+			log.error("Failed to create LDIF import checkpoint directory '{}'", checkpointDir);
+			return null;
+		}
+
+		return new File(dir, DigestUtils.sha256Hex(ldifData) + CHECKPOINT_SUFFIX);
+	}
+
+	private long readCheckpoint(File checkpointFile) throws IOException {
+		if ((checkpointFile == null) || !checkpointFile.exists()) {
+			return 0;
+		}
+
+		InputStream is = new FileInputStream(checkpointFile);
+		try {
+			long checkpoint = Long.parseLong(IOUtils.toString(is, "UTF-8").trim());
+			log.info("Resuming LDIF import from entry {}", checkpoint);
+
+			return checkpoint;
+		} catch (NumberFormatException ex) {
+			throw new IOException("Invalid LDIF import checkpoint file '" + checkpointFile + "'", ex);
+		} finally {
+			IOUtils.closeQuietly(is);
+		}
+	}
+
+	private void writeCheckpoint(File checkpointFile, long checkpoint) {
+		File tmpFile = new File(checkpointFile.getPath() + ".tmp");
+		OutputStream os = null;
+		try {
+			os = new FileOutputStream(tmpFile);
+			os.write(String.valueOf(checkpoint).getBytes("UTF-8"));
+			os.close();
+
+			if (!tmpFile.renameTo(checkpointFile) && !(checkpointFile.delete() && tmpFile.renameTo(checkpointFile))) {
+				log.error("Failed to replace LDIF import checkpoint file '{}'", checkpointFile);
+			}
+		} catch (IOException ex) {
+			log.error("Failed to write LDIF import checkpoint file '{}'", checkpointFile, ex);
+		} finally {
+			IOUtils.closeQuietly(os);
+		}
+	}
+
+	private LDAPResult applyChange(LDIFChangeRecord record) {
+		LDAPConnection connection = null;
+		try {
+			connection = ldapEntryManager.getLdapOperationService().getConnection();
+			return record.processChange(connection);
+		} catch (LDAPException ex) {
+			return ex.toLDAPResult();
+		} finally {
+			if (connection != null) {
+				ldapEntryManager.getLdapOperationService().releaseConnection(connection);
+			}
+		}
+	}
+
+	private class ImportJob {
+
+		private final ExecutorService executor;
+		private final int window;
+		private final Semaphore windowPermits;
+		private final File checkpointFile;
+
+		private final Object lock = new Object();
+
+		// Guarded by lock. Last not finished record of each entry
+		private final Map<String, ImportTask> pendingTasks = new HashMap<String, ImportTask>();
+		private final List<ImportTask> deferred = new ArrayList<ImportTask>();
+		private final TreeSet<Long> finishedAfterCheckpoint = new TreeSet<Long>();
+		private long checkpoint;
+		private long lastSavedCheckpoint;
+		private final LdifImportResult result = new LdifImportResult();
+
+		public ImportJob(ExecutorService executor, int window, long resumeFrom, File checkpointFile) {
+			this.executor = executor;
+			this.window = window;
+			this.windowPermits = new Semaphore(window);
+			this.checkpointFile = checkpointFile;
+			this.checkpoint = resumeFrom;
+			this.lastSavedCheckpoint = resumeFrom;
+			this.result.setResumedFrom(resumeFrom);
+		}
+
+		public void submit(long index, LDIFChangeRecord record) throws InterruptedException {
+			boolean subtreeChange = (record instanceof LDIFDeleteChangeRecord) || (record instanceof LDIFModifyDNChangeRecord);
+			if (subtreeChange) {
+				awaitCompletion();
+			}
+
+			windowPermits.acquire();
+
+			ImportTask task = new ImportTask(index, record);
+			boolean waiting = false;
+			synchronized (lock) {
+				ImportTask previousTask = pendingTasks.get(task.getDn());
+				if ((previousTask == null) && (task.getParentDn() != null)) {
+					previousTask = pendingTasks.get(task.getParentDn());
+				}
+				pendingTasks.put(task.getDn(), task);
+
+				if (previousTask != null) {
+					previousTask.getNextTasks().add(task);
+					waiting = true;
+				}
+			}
+
+			if (!waiting) {
+				executor.execute(task);
+			}
+
+			// Records after modify DN can refer to new DN of any entry in subtree
+			if (record instanceof LDIFModifyDNChangeRecord) {
+				awaitCompletion();
+			}
+		}
+
+		public void awaitCompletion() throws InterruptedException {
+			windowPermits.acquire(window);
+			windowPermits.release(window);
+		}
+
+		public void retryDeferred() {
+			List<ImportTask> tasks;
+			synchronized (lock) {
+				tasks = new ArrayList<ImportTask>(deferred);
+				deferred.clear();
+			}
+
+			Collections.sort(tasks, new Comparator<ImportTask>() {
+				@Override
+				public int compare(ImportTask task1, ImportTask task2) {
+					int result = task1.getDepth() - task2.getDepth();
+					return result != 0 ? result : Long.valueOf(task1.getIndex()).compareTo(task2.getIndex());
+				}
+			});
+
+			for (ImportTask task : tasks) {
+				applyResult(task, applyChange(task.getRecord()));
+				finish(task.getIndex());
+			}
+		}
+
+		public void addError(EntryError error) {
+			synchronized (lock) {
+				result.getErrors().add(error);
+			}
+		}
+
+		public void finish(long index) {
+			synchronized (lock) {
+				finishedAfterCheckpoint.add(index);
+				while (!finishedAfterCheckpoint.isEmpty() && (finishedAfterCheckpoint.first() == checkpoint)) {
+					finishedAfterCheckpoint.pollFirst();
+					checkpoint++;
+				}
+
+				if (checkpoint - lastSavedCheckpoint >= CHECKPOINT_INTERVAL) {
+					saveCheckpoint();
+				}
+			}
+		}
+
+		public void saveCheckpoint() {
+			synchronized (lock) {
+				if (checkpointFile != null) {
+					writeCheckpoint(checkpointFile, checkpoint);
+				}
+				lastSavedCheckpoint = checkpoint;
+			}
+		}
+
+		public LdifImportResult getResult() {
+			synchronized (lock) {
+				return result;
+			}
+		}
+
+		private void complete(ImportTask task, LDAPResult ldapResult) {
+			List<ImportTask> nextTasks;
+			boolean isDeferred = false;
+			synchronized (lock) {
+				if (pendingTasks.get(task.getDn()) == task) {
+					pendingTasks.remove(task.getDn());
+				}
+				nextTasks = task.getNextTasks();
+
+				// Parent can come later in LDIF
+				if (ResultCode.NO_SUCH_OBJECT.equals(ldapResult.getResultCode()) && !task.isDelete()) {
+					deferred.add(task);
+					isDeferred = true;
+				}
+			}
+
+			if (!isDeferred) {
+				applyResult(task, ldapResult);
+				finish(task.getIndex());
+			}
+
+			for (ImportTask nextTask : nextTasks) {
+				executor.execute(nextTask);
+			}
+
+			windowPermits.release();
+		}
+
+		private void applyResult(ImportTask task, LDAPResult ldapResult) {
+			ResultCode resultCode = ldapResult.getResultCode();
+			synchronized (lock) {
+				if (ResultCode.SUCCESS.equals(resultCode)) {
+					result.setImported(result.getImported() + 1);
+				} else if ((ResultCode.ENTRY_ALREADY_EXISTS.equals(resultCode) && task.isAdd())
+						|| (ResultCode.NO_SUCH_OBJECT.equals(resultCode) && task.isDelete())) {
+					// Expected after resume
+					result.setSkipped(result.getSkipped() + 1);
+				} else {
+					String message = StringHelper.isEmpty(ldapResult.getDiagnosticMessage()) ? resultCode.getName() : ldapResult.getDiagnosticMessage();
+					result.getErrors().add(new EntryError(task.getIndex(), task.getRecord().getDN(), resultCode, message));
+				}
+			}
+		}
+
+		private class ImportTask implements Runnable {
+
+			private final long index;
+			private final LDIFChangeRecord record;
+			private final String dn;
+			private final String parentDn;
+			private final int depth;
+
+			// Guarded by lock. Records which wait for this one
+			private final List<ImportTask> nextTasks = new ArrayList<ImportTask>();
+
+			public ImportTask(long index, LDIFChangeRecord record) {
+				this.index = index;
+				this.record = record;
+
+				DN parsedDn = null;
+				try {
+					parsedDn = record.getParsedDN();
+				} catch (LDAPException ex) {
+					log.debug("Failed to parse DN '{}'", record.getDN(), ex);
+				}
+
+				if (parsedDn == null) {
+					this.dn = StringHelper.toLowerCase(record.getDN());
+					this.parentDn = null;
+					this.depth = 0;
+				} else {
+					this.dn = parsedDn.toNormalizedString();
+					DN parsedParentDn = parsedDn.getParent();
+					this.parentDn = parsedParentDn == null ? null : parsedParentDn.toNormalizedString();
+					this.depth = parsedDn.getRDNs().length;
+				}
+			}
+
+			@Override
+			public void run() {
+				LDAPResult ldapResult;
+				try {
+					ldapResult = applyChange(record);
+				} catch (RuntimeException ex) {
+					log.error("Failed to import LDIF record '{}'", record.getDN(), ex);
+					ldapResult = new LDAPResult(-1, ResultCode.OTHER, ex.getMessage(), null, null, null);
+				}
+
+				complete(this, ldapResult);
+			}
+
+			public long getIndex() {
+				return index;
+			}
+
+			public LDIFChangeRecord getRecord() {
+				return record;
+			}
+
+			public boolean isAdd() {
+				return record instanceof LDIFAddChangeRecord;
+			}
+
+			public boolean isDelete() {
+				return record instanceof LDIFDeleteChangeRecord;
+			}
+
+			public String getDn() {
+				return dn;
+			}
+
+			public String getParentDn() {
+				return parentDn;
+			}
+
+			public int getDepth() {
+				return depth;
+			}
+
+			public List<ImportTask> getNextTasks() {
+				return nextTasks;
+			}
+
+		}
+
+	}
+
+}
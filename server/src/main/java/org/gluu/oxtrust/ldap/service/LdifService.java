@@ -8,25 +8,36 @@ package org.gluu.oxtrust.ldap.service;
 
 import static org.gluu.oxtrust.ldap.service.AppInitializer.LDAP_ENTRY_MANAGER_NAME;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.Serializable;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.zip.GZIPOutputStream;
 
 import javax.ejb.Stateless;
 import javax.inject.Inject;
 import javax.inject.Named;
 
+import org.apache.commons.io.IOUtils;
+import org.gluu.oxtrust.model.LdifImportResult;
+import org.gluu.oxtrust.util.OxTrustConstants;
+import org.gluu.oxtrust.util.PagedSearchUtil;
+import org.gluu.oxtrust.util.PagedSearchUtil.PageHandler;
 import org.gluu.site.ldap.persistence.LdapEntryManager;
 import org.gluu.site.ldap.persistence.LdifDataUtility;
 import org.gluu.site.ldap.persistence.exception.LdapMappingException;
 import org.slf4j.Logger;
 
-import com.unboundid.ldap.sdk.LDAPConnection;
+import com.unboundid.ldap.sdk.Entry;
+import com.unboundid.ldap.sdk.Filter;
 import com.unboundid.ldap.sdk.LDAPException;
 import com.unboundid.ldap.sdk.ResultCode;
+import com.unboundid.ldap.sdk.SearchRequest;
 import com.unboundid.ldap.sdk.SearchResultEntry;
+import com.unboundid.ldap.sdk.SearchScope;
 import com.unboundid.ldif.LDIFReader;
 import com.unboundid.ldif.LDIFWriter;
 
@@ -42,6 +53,12 @@ public class LdifService implements Serializable {
 
 	private static final long serialVersionUID = 6690460114767359078L;
 
+	private static final int PAGE_SIZE = 500;
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	// Password hashes and client secrets shouldn't leave server in downloadable file
+	private static final String[] SECRET_ATTRIBUTES = { "userPassword", "pwdHistory", "oxAuthClientSecret" };
+
 	@Inject
 	private Logger log;
 
@@ -50,24 +67,30 @@ public class LdifService implements Serializable {
 	@Inject
 	private AttributeService attributeService;
 
-	public ResultCode importLdifFileInLdap(InputStream is) throws LDAPException {
-		ResultCode result = ResultCode.UNAVAILABLE;
-
-		LDAPConnection connection = ldapEntryManager.getLdapOperationService().getConnection();
+	@Inject
+	private LdifImportService ldifImportService;
+
+	/**
+	 * Import of the same LDIF data continues from checkpoint if previous import was interrupted
+	 *
+	 * @return import result or null if LDIF can't be imported
+	 */
+	public LdifImportResult importLdifFileInLdap(byte[] ldifData) {
+		InputStream is = new ByteArrayInputStream(ldifData);
 		try {
-			LdifDataUtility ldifDataUtility = LdifDataUtility.instance();
-			LDIFReader importLdifReader = new LDIFReader(is);
+			LdifImportResult importResult = ldifImportService.importLdif(is, ldifImportService.getCheckpointFile(ldifData));
+			for (LdifImportResult.EntryError error : importResult.getErrors()) {
+				log.error("Failed to import ldif entry: {}", error);
+			}
 
-			result = ldifDataUtility.importLdifFile(connection, importLdifReader);
-			importLdifReader.close();
+			return importResult;
 		} catch (Exception ex) {
 			log.error("Failed to import ldif file: ", ex);
 		} finally {
-			ldapEntryManager.getLdapOperationService().releaseConnection(connection);
+			IOUtils.closeQuietly(is);
 		}
 
-		return result;
-
+		return null;
 	}
 
 	public ResultCode validateLdifFile(InputStream is, String dn) throws LDAPException {
@@ -88,31 +111,74 @@ public class LdifService implements Serializable {
 	
 	public void exportLDIFFile(List<String> checkedItems, OutputStream output)
 			throws LDAPException {
-		List<SearchResultEntry> result = null;
-		LDAPConnection connection = ldapEntryManager.getLdapOperationService().getConnection();
+		if ((checkedItems == null) || checkedItems.isEmpty()) {
+			return;
+		}
+
+		List<Filter> inumFilters = new ArrayList<Filter>();
+		for (String inum : checkedItems) {
+			inumFilters.add(Filter.createEqualityFilter(OxTrustConstants.inum, inum));
+		}
+
 		try {
-			LdifDataUtility ldifDataUtility = LdifDataUtility.instance();
-			result = ldifDataUtility.getAttributeResultEntryLDIF(connection,checkedItems, attributeService.getDnForAttribute(null));
-		} catch (Exception ex) {
-			log.error("Failed to export ldif file: ", ex);
-		} finally {
-			ldapEntryManager.getLdapOperationService().releaseConnection(connection);
+			exportLdifSubtree(attributeService.getDnForAttribute(null), Filter.createORFilter(inumFilters), false, output);
+		} catch (IOException e) {
+			throw new LdapMappingException("Error writing to file, try again", e);
+		}
+	}
+
+	/**
+	 * Write all entries of subtree matching filter to LDIF as paged search returns them, so export size isn't limited
+	 * by heap size. Secret attributes are stripped from written entries
+	 *
+	 * @param compress
+	 *            write gzip compressed LDIF
+	 * @return number of exported entries
+	 */
+	public long exportLdifSubtree(String baseDn, Filter filter, boolean compress, OutputStream output) throws LDAPException, IOException {
+		GZIPOutputStream gzipOutput = null;
+		OutputStream ldifOutput = output;
+		if (compress) {
+			gzipOutput = new GZIPOutputStream(output, BUFFER_SIZE);
+			ldifOutput = gzipOutput;
 		}
 
-		if (result != null && result.size() > 0) {
-			// Write all of the matching entries to LDIF.
-			LDIFWriter ldifWriter;
-			try {
-				ldifWriter = new LDIFWriter(output);
-				for (SearchResultEntry entry : result) {
-					ldifWriter.writeEntry(entry);
+		final LDIFWriter ldifWriter = new LDIFWriter(ldifOutput);
+		SearchRequest searchRequest = new SearchRequest(baseDn, SearchScope.SUB, filter);
+
+		long exported = PagedSearchUtil.search(ldapEntryManager, searchRequest, PAGE_SIZE, new PageHandler<IOException>() {
+			@Override
+			public void handle(List<SearchResultEntry> entries) throws IOException {
+				for (SearchResultEntry entry : entries) {
+					ldifWriter.writeEntry(stripSecretAttributes(entry));
 				}
+				ldifWriter.flush();
+			}
+		});
+
+		// Output stream is closed by caller
+		if (gzipOutput != null) {
+			gzipOutput.finish();
+		}
+		ldifOutput.flush();
+
+		log.debug("Exported {} entries from '{}' to LDIF", exported, baseDn);
+
+		return exported;
+	}
 
-				ldifWriter.close();
-			} catch (IOException e) {
-				throw new LdapMappingException("Error writing to file, try again", e);
+	private Entry stripSecretAttributes(SearchResultEntry entry) {
+		Entry result = entry;
+		for (String attribute : SECRET_ATTRIBUTES) {
+			if (entry.hasAttribute(attribute)) {
+				if (result == entry) {
+					result = entry.duplicate();
+				}
+				result.removeAttribute(attribute);
 			}
 		}
+
+		return result;
 	}
 
 }
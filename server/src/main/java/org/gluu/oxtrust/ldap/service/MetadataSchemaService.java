@@ -0,0 +1,387 @@
+/*
+ * oxTrust is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2017, Gluu
+ */
+
+package org.gluu.oxtrust.ldap.service;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.xml.XMLConstants;
+import javax.xml.transform.Source;
+import javax.xml.transform.stream.StreamSource;
+import javax.xml.validation.Schema;
+import javax.xml.validation.SchemaFactory;
+import javax.xml.validation.Validator;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.gluu.oxtrust.config.ConfigurationFactory;
+import org.slf4j.Logger;
+import org.w3c.dom.ls.LSInput;
+import org.w3c.dom.ls.LSResourceResolver;
+import org.xdi.xml.GluuErrorHandler;
+import org.xml.sax.ErrorHandler;
+import org.xml.sax.SAXException;
+import org.xml.sax.SAXNotRecognizedException;
+import org.xml.sax.SAXNotSupportedException;
+import org.xml.sax.SAXParseException;
+
+/**
+ * Validates SAML metadata against compiled schema.
+ *
+ * Schema is compiled once from XSD files in IdP templates schema folder and shared by all threads. Imported schemas
+ * are resolved by file name from this folder or from /schema/ folder in classpath (xml.xsd, xmldsig-core-schema.xsd
+ * and xenc-schema.xsd are bundled with OpenSAML), so validation doesn't depend on www.w3.org availability. Metadata is
+ * validated in streaming mode without building DOM tree.
+ */
+@ApplicationScoped
+@Named
+public class MetadataSchemaService {
+
+	private static final String ACCESS_EXTERNAL_SCHEMA = "http://javax.xml.XMLConstants/property/accessExternalSchema";
+	private static final String ACCESS_EXTERNAL_DTD = "http://javax.xml.XMLConstants/property/accessExternalDTD";
+
+	private static final String CLASSPATH_SCHEMA_FOLDER = "/schema/";
+
+	@Inject
+	private Logger log;
+
+	@Inject
+	private ConfigurationFactory configurationFactory;
+
+	private volatile CompiledSchema compiledSchema;
+
+	/**
+	 * Validate metadata. Stream isn't closed
+	 *
+	 * @return GluuErrorHandler with validation log. Internal error is set if schema can't be compiled
+	 */
+	public GluuErrorHandler validateMetadata(InputStream stream) throws IOException {
+		Schema schema;
+		try {
+			schema = getSchema();
+		} catch (Exception ex) {
+			log.error("Failed to compile SAML metadata schema", ex);
+			List<String> validationLog = new ArrayList<String>();
+			validationLog.add(GluuErrorHandler.SCHEMA_CREATING_ERROR_MESSAGE);
+			validationLog.add(ex.getMessage());
+
+			return new GluuErrorHandler(false, true, validationLog);
+		}
+
+		Validator validator = schema.newValidator();
+		setPropertyIfSupported(validator, ACCESS_EXTERNAL_SCHEMA, "");
+		setPropertyIfSupported(validator, ACCESS_EXTERNAL_DTD, "");
+
+		ValidationErrorHandler errorHandler = new ValidationErrorHandler();
+		validator.setErrorHandler(errorHandler);
+		try {
+			validator.validate(new StreamSource(stream));
+		} catch (SAXException ex) {
+			// Fatal errors are reported to handler before exception
+			errorHandler.addError(ex);
+		}
+
+		return new GluuErrorHandler(errorHandler.isValid(), false, errorHandler.getLog());
+	}
+
+	String getSchemaDir() {
+		return configurationFactory.getIDPTemplatesLocation() + "shibboleth3" + File.separator + "idp" + File.separator + "schema" + File.separator;
+	}
+
+	private Schema getSchema() throws SAXException, IOException {
+		String schemaDir = getSchemaDir();
+
+		CompiledSchema current = this.compiledSchema;
+		if ((current != null) && current.getSchemaDir().equals(schemaDir)) {
+			return current.getSchema();
+		}
+
+		synchronized (this) {
+			current = this.compiledSchema;
+			if ((current == null) || !current.getSchemaDir().equals(schemaDir)) {
+				long startTime = System.currentTimeMillis();
+				current = new CompiledSchema(schemaDir, compileSchema(new File(schemaDir)));
+				this.compiledSchema = current;
+				log.info("Compiled SAML metadata schema from '{}' in {} ms", schemaDir, System.currentTimeMillis() - startTime);
+			}
+		}
+
+		return current.getSchema();
+	}
+
+	private Schema compileSchema(File schemaDir) throws SAXException, IOException {
+		File[] schemaFiles = schemaDir.listFiles(new FileFilter() {
+			@Override
+			public boolean accept(File file) {
+				return file.isFile() && file.getName().endsWith(".xsd");
+			}
+		});
+		if ((schemaFiles == null) || (schemaFiles.length == 0)) {
+			throw new IOException("There are no schema files in folder: " + schemaDir.getAbsolutePath());
+		}
+		Arrays.sort(schemaFiles);
+
+		Map<String, File> localSchemas = new HashMap<String, File>();
+		Source[] sources = new Source[schemaFiles.length];
+		for (int i = 0; i < schemaFiles.length; i++) {
+			localSchemas.put(schemaFiles[i].getName(), schemaFiles[i]);
+			sources[i] = new StreamSource(schemaFiles[i].toURI().toASCIIString());
+		}
+
+		SchemaFactory schemaFactory = SchemaFactory.newInstance(XMLConstants.W3C_XML_SCHEMA_NS_URI);
+		// Local resolver provides all imported schemas. Remote schema can't be loaded in any case
+		setPropertyIfSupported(schemaFactory, ACCESS_EXTERNAL_SCHEMA, "file,jar");
+		setPropertyIfSupported(schemaFactory, ACCESS_EXTERNAL_DTD, "");
+		schemaFactory.setResourceResolver(new LocalResourceResolver(localSchemas));
+
+		ValidationErrorHandler errorHandler = new ValidationErrorHandler();
+		schemaFactory.setErrorHandler(errorHandler);
+
+		Schema schema = schemaFactory.newSchema(sources);
+		if (!errorHandler.isValid()) {
+			throw new SAXException("Schema has errors: " + errorHandler.getLog());
+		}
+
+		return schema;
+	}
+
+	private void setPropertyIfSupported(SchemaFactory schemaFactory, String name, String value) {
+		try {
+			schemaFactory.setProperty(name, value);
+		} catch (SAXNotRecognizedException ex) {
+			log.debug("Schema factory doesn't support property '{}'", name);
+		} catch (SAXNotSupportedException ex) {
+			log.debug("Schema factory doesn't support property '{}'", name);
+		}
+	}
+
+	private void setPropertyIfSupported(Validator validator, String name, String value) {
+		try {
+			validator.setProperty(name, value);
+		} catch (SAXNotRecognizedException ex) {
+			log.trace("Validator doesn't support property '{}'", name);
+		} catch (SAXNotSupportedException ex) {
+			log.trace("Validator doesn't support property '{}'", name);
+		}
+	}
+
+	private static class CompiledSchema {
+
+		private final String schemaDir;
+		private final Schema schema;
+
+		public CompiledSchema(String schemaDir, Schema schema) {
+			this.schemaDir = schemaDir;
+			this.schema = schema;
+		}
+
+		public String getSchemaDir() {
+			return schemaDir;
+		}
+
+		public Schema getSchema() {
+			return schema;
+		}
+
+	}
+
+	/**
+	 * Resolves imported schema by file name. Schema from templates folder has priority over schema from classpath
+	 */
+	private class LocalResourceResolver implements LSResourceResolver {
+
+		private final Map<String, File> localSchemas;
+
+		public LocalResourceResolver(Map<String, File> localSchemas) {
+			this.localSchemas = localSchemas;
+		}
+
+		@Override
+		public LSInput resolveResource(String type, String namespaceURI, String publicId, String systemId, String baseURI) {
+			if (systemId == null) {
+				return null;
+			}
+
+			String fileName = systemId.substring(systemId.lastIndexOf('/') + 1);
+			try {
+				File file = localSchemas.get(fileName);
+				if (file != null) {
+					return new SchemaInput(publicId, file.toURI().toASCIIString(), baseURI, FileUtils.readFileToByteArray(file));
+				}
+
+				URL resource = MetadataSchemaService.class.getResource(CLASSPATH_SCHEMA_FOLDER + fileName);
+				if (resource != null) {
+					InputStream is = resource.openStream();
+					try {
+						return new SchemaInput(publicId, resource.toExternalForm(), baseURI, IOUtils.toByteArray(is));
+					} finally {
+						IOUtils.closeQuietly(is);
+					}
+				}
+			} catch (IOException ex) {
+				log.error("Failed to load schema '{}'", systemId, ex);
+			}
+
+			log.warn("There is no local copy of schema '{}'", systemId);
+
+			return null;
+		}
+
+	}
+
+	private static class SchemaInput implements LSInput {
+
+		private String publicId;
+		private String systemId;
+		private String baseURI;
+		private byte[] data;
+
+		public SchemaInput(String publicId, String systemId, String baseURI, byte[] data) {
+			this.publicId = publicId;
+			this.systemId = systemId;
+			this.baseURI = baseURI;
+			this.data = data;
+		}
+
+		@Override
+		public Reader getCharacterStream() {
+			return null;
+		}
+
+		@Override
+		public void setCharacterStream(Reader characterStream) {
+		}
+
+		@Override
+		public InputStream getByteStream() {
+			return new ByteArrayInputStream(data);
+		}
+
+		@Override
+		public void setByteStream(InputStream byteStream) {
+		}
+
+		@Override
+		public String getStringData() {
+			return null;
+		}
+
+		@Override
+		public void setStringData(String stringData) {
+		}
+
+		@Override
+		public String getSystemId() {
+			return systemId;
+		}
+
+		@Override
+		public void setSystemId(String systemId) {
+			this.systemId = systemId;
+		}
+
+		@Override
+		public String getPublicId() {
+			return publicId;
+		}
+
+		@Override
+		public void setPublicId(String publicId) {
+			this.publicId = publicId;
+		}
+
+		@Override
+		public String getBaseURI() {
+			return baseURI;
+		}
+
+		@Override
+		public void setBaseURI(String baseURI) {
+			this.baseURI = baseURI;
+		}
+
+		@Override
+		public String getEncoding() {
+			return null;
+		}
+
+		@Override
+		public void setEncoding(String encoding) {
+		}
+
+		@Override
+		public boolean getCertifiedText() {
+			return false;
+		}
+
+		@Override
+		public void setCertifiedText(boolean certifiedText) {
+		}
+
+	}
+
+	private static class ValidationErrorHandler implements ErrorHandler {
+
+		private final Set<String> log = new LinkedHashSet<String>();
+		private boolean valid = true;
+
+		@Override
+		public void warning(SAXParseException ex) throws SAXException {
+			log.add(formatMessage(ex));
+		}
+
+		@Override
+		public void error(SAXParseException ex) throws SAXException {
+			addError(ex);
+		}
+
+		@Override
+		public void fatalError(SAXParseException ex) throws SAXException {
+			addError(ex);
+			throw ex;
+		}
+
+		public void addError(SAXException ex) {
+			this.valid = false;
+			log.add(formatMessage(ex));
+		}
+
+		private String formatMessage(SAXException ex) {
+			if (ex instanceof SAXParseException) {
+				SAXParseException parseException = (SAXParseException) ex;
+				return String.format("Line %d, column %d: %s", parseException.getLineNumber(), parseException.getColumnNumber(), ex.getMessage());
+			}
+
+			return ex.getMessage();
+		}
+
+		public boolean isValid() {
+			return valid;
+		}
+
+		public List<String> getLog() {
+			return new ArrayList<String>(log);
+		}
+
+	}
+
+}
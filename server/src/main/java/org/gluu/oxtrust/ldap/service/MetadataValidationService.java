@@ -0,0 +1,356 @@
+/*
+ * oxTrust is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2017, Gluu
+ */
+
+package org.gluu.oxtrust.ldap.service;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import javax.inject.Named;
+
+import org.apache.commons.io.IOUtils;
+import org.gluu.oxtrust.config.ConfigurationFactory;
+import org.gluu.oxtrust.model.GluuSAMLTrustRelationship;
+import org.gluu.oxtrust.model.GluuValidationStatus;
+import org.gluu.oxtrust.util.NamedThreadFactory;
+import org.gluu.saml.metadata.SAMLMetadataParser;
+import org.gluu.site.ldap.persistence.exception.EntryPersistenceException;
+import org.slf4j.Logger;
+import org.xdi.config.oxtrust.AppConfiguration;
+import org.xdi.ldap.model.GluuStatus;
+import org.xdi.util.StringHelper;
+import org.xdi.xml.GluuErrorHandler;
+
+/**
+ * Validates batch of queued SP metadata files concurrently.
+ *
+ * Files of one trust relationship are validated by one worker in queue order. Workers change only trust relationship
+ * objects loaded for batch. Validation results are applied to trust relationship re-read from LDAP, so changes made
+ * during validation aren't lost.
+ */
+@ApplicationScoped
+@Named
+public class MetadataValidationService {
+
+	private static final String THREADS_PROPERTY = "metadataValidationThreads";
+
+	private static final int DEFAULT_THREADS = 4;
+
+	@Inject
+	private Logger log;
+
+	@Inject
+	private AppConfiguration appConfiguration;
+
+	@Inject
+	private ConfigurationFactory configurationFactory;
+
+	@Inject
+	private TrustService trustService;
+
+	@Inject
+	private Shibboleth3ConfService shibboleth3ConfService;
+
+	private ExecutorService executor;
+
+	@PostConstruct
+	public void init() {
+		int threads = Math.max(1, StringHelper.toInteger(configurationFactory.getLdapConfiguration().getString(THREADS_PROPERTY, null), DEFAULT_THREADS));
+		this.executor = Executors.newFixedThreadPool(threads, new NamedThreadFactory("metadata-validation"));
+	}
+
+	@PreDestroy
+	public void destroy() {
+		this.executor.shutdownNow();
+	}
+
+	/**
+	 * Validate metadata files and move valid files from temporary metadata folder to metadata folder
+	 *
+	 * @param metadataFNs
+	 *            names of files in temporary metadata folder
+	 * @return result of batch validation
+	 */
+	public ValidationResult validateMetadata(List<String> metadataFNs, String tempMetadataFolder, String metadataFolder) {
+		ValidationResult result = new ValidationResult();
+
+		// Load trust relationships once for whole batch
+		Map<String, GluuSAMLTrustRelationship> trustsByUnpunctuatedInum = new HashMap<String, GluuSAMLTrustRelationship>();
+		for (GluuSAMLTrustRelationship trust : trustService.getAllTrustRelationships()) {
+			trustsByUnpunctuatedInum.put(StringHelper.removePunctuation(trust.getInum()), trust);
+		}
+
+		Map<GluuSAMLTrustRelationship, List<String>> filesByTrust = new LinkedHashMap<GluuSAMLTrustRelationship, List<String>>();
+		for (String metadataFN : metadataFNs) {
+			if (StringHelper.isEmpty(metadataFN)) {
+				continue;
+			}
+
+			GluuSAMLTrustRelationship tr = trustsByUnpunctuatedInum.get(metadataFN.split("-" + Shibboleth3ConfService.SHIB3_IDP_SP_METADATA_FILE)[0]);
+			if (tr == null) {
+				result.getRequeuedMetadataFNs().add(metadataFN);
+				continue;
+			}
+
+			List<String> trustFiles = filesByTrust.get(tr);
+			if (trustFiles == null) {
+				trustFiles = new ArrayList<String>();
+				filesByTrust.put(tr, trustFiles);
+			}
+			trustFiles.add(metadataFN);
+		}
+
+		if (filesByTrust.isEmpty()) {
+			return result;
+		}
+
+		for (GluuSAMLTrustRelationship tr : filesByTrust.keySet()) {
+			tr.setValidationStatus(GluuValidationStatus.VALIDATION);
+			trustService.updateTrustRelationship(tr);
+		}
+
+		Map<GluuSAMLTrustRelationship, Future<Boolean>> futures = new LinkedHashMap<GluuSAMLTrustRelationship, Future<Boolean>>();
+		for (Map.Entry<GluuSAMLTrustRelationship, List<String>> entry : filesByTrust.entrySet()) {
+			final GluuSAMLTrustRelationship tr = entry.getKey();
+			final List<String> trustFiles = entry.getValue();
+			final String tempFolder = tempMetadataFolder;
+			final String targetFolder = metadataFolder;
+			futures.put(tr, executor.submit(new Callable<Boolean>() {
+				@Override
+				public Boolean call() throws Exception {
+					return validateTrustMetadata(tr, trustFiles, tempFolder, targetFolder);
+				}
+			}));
+		}
+
+		for (Map.Entry<GluuSAMLTrustRelationship, Future<Boolean>> entry : futures.entrySet()) {
+			GluuSAMLTrustRelationship tr = entry.getKey();
+			boolean moved = false;
+			try {
+				moved = entry.getValue().get();
+			} catch (InterruptedException ex) {
+				// Files stay in temporary folder, so they can be validated by next run
+				Thread.currentThread().interrupt();
+				log.warn("Metadata validation of '{}' was interrupted", tr.getInum());
+				result.getRequeuedMetadataFNs().addAll(filesByTrust.get(tr));
+				continue;
+			} catch (ExecutionException ex) {
+				log.error("Failed to validate metadata of '{}'", tr.getInum(), ex.getCause());
+				List<String> validationLog = new ArrayList<String>();
+				validationLog.add("Failed to validate metadata: " + ex.getCause().getMessage());
+				tr.setValidationLog(validationLog);
+				tr.setValidationStatus(GluuValidationStatus.VALIDATION_FAILED);
+				tr.setStatus(GluuStatus.INACTIVE);
+			}
+
+			if (moved) {
+				result.incrementValidated();
+			}
+
+			applyValidationResult(tr, moved);
+		}
+
+		return result;
+	}
+
+	private boolean validateTrustMetadata(GluuSAMLTrustRelationship tr, List<String> metadataFNs, String tempMetadataFolder, String metadataFolder) {
+		boolean result = false;
+		for (String metadataFN : metadataFNs) {
+			result |= validateMetadataFile(tr, metadataFN, tempMetadataFolder, metadataFolder);
+		}
+
+		return result;
+	}
+
+	/**
+	 * Copy attributes set by validation to current trust relationship and save it
+	 *
+	 * @param moved
+	 *            true if metadata file was moved to metadata folder
+	 */
+	private void applyValidationResult(GluuSAMLTrustRelationship validatedTr, boolean moved) {
+		GluuSAMLTrustRelationship tr = null;
+		try {
+			tr = trustService.getRelationshipByDn(validatedTr.getDn());
+		} catch (EntryPersistenceException ex) {
+			log.debug("Failed to find trust relationship '{}'", validatedTr.getDn(), ex);
+		}
+
+		if (tr == null) {
+			log.warn("Trust relationship '{}' was removed during metadata validation", validatedTr.getInum());
+			return;
+		}
+
+		tr.setValidationStatus(validatedTr.getValidationStatus());
+		tr.setValidationLog(validatedTr.getValidationLog());
+		tr.setStatus(validatedTr.getStatus());
+		if (moved) {
+			tr.setSpMetaDataFN(validatedTr.getSpMetaDataFN());
+			tr.setFederation(validatedTr.isFederation());
+			tr.setGluuEntityId(new TreeSet<String>(validatedTr.getGluuEntityId()));
+		}
+
+		trustService.updateTrustRelationship(tr);
+	}
+
+	private boolean validateMetadataFile(GluuSAMLTrustRelationship tr, String metadataFN, String tempMetadataFolder, String metadataFolder) {
+		File metadata = new File(tempMetadataFolder + metadataFN);
+		File target = new File(metadataFolder + metadataFN.replaceAll(".{4}\\..{4}$", ""));
+
+		GluuErrorHandler errorHandler = null;
+		List<String> validationLog = null;
+		InputStream is = null;
+		try {
+			is = new FileInputStream(metadata);
+			errorHandler = shibboleth3ConfService.validateMetadata(is);
+		} catch (Exception e) {
+			tr.setValidationStatus(GluuValidationStatus.VALIDATION_FAILED);
+			tr.setStatus(GluuStatus.INACTIVE);
+			validationLog = new ArrayList<String>();
+			validationLog.add(e.getMessage());
+			log.warn("Validation of " + tr.getInum() + " failed: " + e.getMessage());
+			tr.setValidationLog(validationLog);
+
+			return false;
+		} finally {
+			IOUtils.closeQuietly(is);
+		}
+
+		if (errorHandler.isValid()) {
+			tr.setValidationLog(errorHandler.getLog());
+			tr.setValidationStatus(GluuValidationStatus.VALIDATION_SUCCESS);
+			if (((!target.exists()) || target.delete()) && (!metadata.renameTo(target))) {
+				log.error("Failed to move metadata file to location:" + target.getAbsolutePath());
+				tr.setStatus(GluuStatus.INACTIVE);
+			} else {
+				tr.setSpMetaDataFN(target.getName());
+			}
+			boolean federation = shibboleth3ConfService.isFederation(tr);
+			tr.setFederation(federation);
+			File metadataFile = new File(metadataFolder + tr.getSpMetaDataFN());
+
+			List<String> entityIdList = SAMLMetadataParser.getEntityIdFromMetadataFile(metadataFile);
+			Set<String> entityIdSet = new TreeSet<String>();
+			Set<String> duplicatesSet = new TreeSet<String>();
+			if (entityIdList != null && !entityIdList.isEmpty()) {
+				for (String entityId : entityIdList) {
+					if (!entityIdSet.add(entityId)) {
+						duplicatesSet.add(entityId);
+					}
+				}
+			}
+
+			if (!duplicatesSet.isEmpty()) {
+				validationLog = tr.getValidationLog();
+				if (validationLog != null) {
+					validationLog = new LinkedList<String>(validationLog);
+				} else {
+					validationLog = new LinkedList<String>();
+				}
+				validationLog.add("This metadata contains multiple instances of entityId: " + Arrays.toString(duplicatesSet.toArray()));
+			}
+			tr.setValidationLog(validationLog);
+			tr.setGluuEntityId(entityIdSet);
+			tr.setStatus(GluuStatus.ACTIVE);
+
+			return true;
+		} else if (appConfiguration.isIgnoreValidation() || errorHandler.isInternalError()) {
+			tr.setValidationLog(new ArrayList<String>(new HashSet<String>(errorHandler.getLog())));
+			tr.setValidationStatus(GluuValidationStatus.VALIDATION_FAILED);
+			if (((!target.exists()) || target.delete()) && (!metadata.renameTo(target))) {
+				log.error("Failed to move metadata file to location:" + target.getAbsolutePath());
+				tr.setStatus(GluuStatus.INACTIVE);
+			} else {
+				tr.setSpMetaDataFN(target.getName());
+			}
+			boolean federation = shibboleth3ConfService.isFederation(tr);
+			tr.setFederation(federation);
+			File metadataFile = new File(metadataFolder + tr.getSpMetaDataFN());
+
+			List<String> entityIdList = SAMLMetadataParser.getEntityIdFromMetadataFile(metadataFile);
+			Set<String> duplicatesSet = new TreeSet<String>();
+			Set<String> entityIdSet = new TreeSet<String>();
+
+			for (String entityId : entityIdList) {
+				if (!entityIdSet.add(entityId)) {
+					duplicatesSet.add(entityId);
+				}
+			}
+
+			tr.setGluuEntityId(entityIdSet);
+			tr.setStatus(GluuStatus.ACTIVE);
+			validationLog = tr.getValidationLog();
+			if (!duplicatesSet.isEmpty()) {
+				validationLog.add("This metadata contains multiple instances of entityId: " + Arrays.toString(duplicatesSet.toArray()));
+			}
+
+			if (errorHandler.isInternalError()) {
+				validationLog = tr.getValidationLog();
+
+				validationLog.add("Warning: cannot validate metadata. Check SAML metadata schema files.");
+
+				// update log with warning
+				for (String warningLogMessage : errorHandler.getLog()) {
+					validationLog.add("Warning: " + warningLogMessage);
+				}
+			}
+
+			return true;
+		} else {
+			tr.setValidationLog(new ArrayList<String>(new HashSet<String>(errorHandler.getLog())));
+			tr.setValidationStatus(GluuValidationStatus.VALIDATION_FAILED);
+			tr.setStatus(GluuStatus.INACTIVE);
+
+			return false;
+		}
+	}
+
+	public static class ValidationResult {
+
+		private final List<String> requeuedMetadataFNs = new ArrayList<String>();
+		private int validated;
+
+		/**
+		 * @return files without trust relationship or with interrupted validation. They should be validated later
+		 */
+		public List<String> getRequeuedMetadataFNs() {
+			return requeuedMetadataFNs;
+		}
+
+		/**
+		 * @return count of trust relationships with metadata moved to metadata folder
+		 */
+		public int getValidated() {
+			return validated;
+		}
+
+		void incrementValidated() {
+			this.validated++;
+		}
+
+	}
+
+}
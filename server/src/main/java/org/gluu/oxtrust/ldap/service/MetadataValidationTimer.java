@@ -7,14 +7,8 @@
 package org.gluu.oxtrust.ldap.service;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.HashSet;
-import java.util.LinkedList;
 import java.util.List;
-import java.util.Set;
-import java.util.TreeSet;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.atomic.AtomicBoolean;
 
@@ -26,18 +20,16 @@ import javax.enterprise.event.Observes;
 import javax.inject.Inject;
 import javax.inject.Named;
 
+import org.gluu.oxtrust.config.ConfigurationFactory;
+import org.gluu.oxtrust.ldap.service.MetadataValidationService.ValidationResult;
 import org.gluu.oxtrust.model.GluuSAMLTrustRelationship;
-import org.gluu.oxtrust.model.GluuValidationStatus;
 import org.gluu.oxtrust.service.cdi.event.MetadataValidationEvent;
-import org.gluu.saml.metadata.SAMLMetadataParser;
 import org.slf4j.Logger;
 import org.xdi.config.oxtrust.AppConfiguration;
-import org.xdi.ldap.model.GluuStatus;
 import org.xdi.service.cdi.event.Scheduled;
 import org.xdi.service.timer.event.TimerEvent;
 import org.xdi.service.timer.schedule.TimerSchedule;
 import org.xdi.util.StringHelper;
-import org.xdi.xml.GluuErrorHandler;
 
 /**
  * @author �Oleksiy Tataryn�
@@ -50,6 +42,10 @@ public class MetadataValidationTimer {
 
 	private final static int DEFAULT_INTERVAL = 60; // 60 seconds
 
+	private static final String BATCH_SIZE_PROPERTY = "metadataValidationBatchSize";
+
+	private static final int DEFAULT_BATCH_SIZE = 100;
+
 	@Inject
 	private Logger log;
 
@@ -65,6 +61,12 @@ public class MetadataValidationTimer {
 	@Inject
 	private Shibboleth3ConfService shibboleth3ConfService;
 
+	@Inject
+	private MetadataValidationService metadataValidationService;
+
+	@Inject
+	private ConfigurationFactory configurationFactory;
+
 	private AtomicBoolean isActive;
 
 	private LinkedBlockingQueue<String> metadataUpdates;
@@ -110,13 +112,36 @@ public class MetadataValidationTimer {
 
 	private void procesMetadataValidation() {
 		log.debug("Starting metadata validation");
-		boolean result = validateMetadata(appConfiguration.getShibboleth3IdpRootDir() + File.separator
-				+ Shibboleth3ConfService.SHIB3_IDP_TEMPMETADATA_FOLDER + File.separator, appConfiguration
-				.getShibboleth3IdpRootDir() + File.separator + Shibboleth3ConfService.SHIB3_IDP_METADATA_FOLDER + File.separator);
-		log.debug("Metadata validation finished with result: '{}'", result);
-		
-		if (result) {
-			regenerateConfigurationFiles();
+		String tempMetadataFolder = appConfiguration.getShibboleth3IdpRootDir() + File.separator
+				+ Shibboleth3ConfService.SHIB3_IDP_TEMPMETADATA_FOLDER + File.separator;
+		String metadataFolder = appConfiguration.getShibboleth3IdpRootDir() + File.separator + Shibboleth3ConfService.SHIB3_IDP_METADATA_FOLDER
+				+ File.separator;
+		int batchSize = Math.max(1, StringHelper.toInteger(configurationFactory.getLdapConfiguration().getString(BATCH_SIZE_PROPERTY, null), DEFAULT_BATCH_SIZE));
+
+		// Files without trust relationship or with interrupted validation are queued again after this run
+		List<String> requeuedMetadataFNs = new ArrayList<String>();
+		int remaining = metadataUpdates.size();
+		while (remaining > 0) {
+			List<String> batch = new ArrayList<String>(Math.min(remaining, batchSize));
+			synchronized (metadataUpdates) {
+				metadataUpdates.drainTo(batch, Math.min(remaining, batchSize));
+			}
+			if (batch.isEmpty()) {
+				break;
+			}
+			remaining -= batch.size();
+
+			ValidationResult result = metadataValidationService.validateMetadata(batch, tempMetadataFolder, metadataFolder);
+			requeuedMetadataFNs.addAll(result.getRequeuedMetadataFNs());
+			log.debug("Metadata validation of {} files finished. Validated trust relationships: '{}'", batch.size(), result.getValidated());
+
+			if (result.getValidated() > 0) {
+				regenerateConfigurationFiles();
+			}
+		}
+
+		synchronized (metadataUpdates) {
+			metadataUpdates.addAll(requeuedMetadataFNs);
 		}
 	}
 
@@ -150,146 +175,4 @@ public class MetadataValidationTimer {
 
 	}
 
-	/**
-	 * @param shib3IdpTempmetadataFolder
-	 * @param shib3IdpMetadataFolder
-	 */
-	private boolean validateMetadata(String shib3IdpTempmetadataFolder, String shib3IdpMetadataFolder) {
-		boolean result = false;
-		log.trace("Starting metadata validation process.");
-
-		String metadataFN = null;
-		synchronized (metadataUpdates) {
-			if (!metadataUpdates.isEmpty()) {
-				metadataFN = metadataUpdates.poll();
-			}
-		}
-
-		synchronized (this) {
-			if (StringHelper.isNotEmpty(metadataFN)) {
-				File metadata = new File(shib3IdpTempmetadataFolder + metadataFN);
-				File target = new File(shib3IdpMetadataFolder + metadataFN.replaceAll(".{4}\\..{4}$", ""));
-				GluuSAMLTrustRelationship tr = trustService.getTrustByUnpunctuatedInum(
-						metadataFN.split("-" + Shibboleth3ConfService.SHIB3_IDP_SP_METADATA_FILE)[0]);
-				if (tr == null) {
-					metadataUpdates.add(metadataFN);
-					return false;
-				}
-				tr.setValidationStatus(GluuValidationStatus.VALIDATION);
-				trustService.updateTrustRelationship(tr);
-
-				GluuErrorHandler errorHandler = null;
-				List<String> validationLog = null;
-				try {
-					errorHandler = shibboleth3ConfService.validateMetadata(new FileInputStream(metadata));
-				} catch (Exception e) {
-					tr.setValidationStatus(GluuValidationStatus.VALIDATION_FAILED);
-					tr.setStatus(GluuStatus.INACTIVE);
-					validationLog = new ArrayList<String>();
-					validationLog.add(e.getMessage());
-					log.warn("Validation of " + tr.getInum() + " failed: " + e.getMessage() );
-					tr.setValidationLog(validationLog);
-					trustService.updateTrustRelationship(tr);
-
-					return false;
-				}
-				if (errorHandler.isValid()) {
-					tr.setValidationLog(errorHandler.getLog());
-					tr.setValidationStatus(GluuValidationStatus.VALIDATION_SUCCESS);
-					if (((!target.exists()) || target.delete()) && (!metadata.renameTo(target))) {
-						log.error("Failed to move metadata file to location:" + target.getAbsolutePath());
-						tr.setStatus(GluuStatus.INACTIVE);
-					} else {
-						tr.setSpMetaDataFN(target.getName());
-					}
-					boolean federation = shibboleth3ConfService.isFederation(tr);
-					tr.setFederation(federation);
-					String idpMetadataFolder = appConfiguration.getShibboleth3IdpRootDir() + File.separator
-							+ Shibboleth3ConfService.SHIB3_IDP_METADATA_FOLDER + File.separator;
-					File metadataFile = new File(idpMetadataFolder + tr.getSpMetaDataFN());
-					
-					
-					List<String> entityIdList = SAMLMetadataParser.getEntityIdFromMetadataFile(metadataFile);
-					Set<String> entityIdSet = new TreeSet<String>();
-					Set<String> duplicatesSet = new TreeSet<String>(); 
-					if(entityIdList != null && ! entityIdList.isEmpty()){
-
-						for (String entityId : entityIdList) {
-							if (!entityIdSet.add(entityId)) {
-								duplicatesSet.add(entityId);
-							}
-						}
-					}
-
-					
-					if(! duplicatesSet.isEmpty()){
-						validationLog = tr.getValidationLog();
-						if(validationLog != null){
-							validationLog = new LinkedList<String>(validationLog);
-						}else{
-							validationLog = new LinkedList<String>();
-						}
-						validationLog.add("This metadata contains multiple instances of entityId: " + Arrays.toString(duplicatesSet.toArray()));
-					}
-					tr.setValidationLog(validationLog);
-					tr.setGluuEntityId(entityIdSet);
-					tr.setStatus(GluuStatus.ACTIVE);
-
-					trustService.updateTrustRelationship(tr);
-					result = true;
-				} else if(appConfiguration.isIgnoreValidation() || errorHandler.isInternalError()){
-					tr.setValidationLog(new ArrayList<String>(new HashSet<String>(errorHandler.getLog())));
-					tr.setValidationStatus(GluuValidationStatus.VALIDATION_FAILED);
-					if( (( ! target.exists() ) ||  target.delete()) && ( ! metadata.renameTo(target) )){
-						log.error("Failed to move metadata file to location:" + target.getAbsolutePath());
-						tr.setStatus(GluuStatus.INACTIVE);
-					}else{
-						tr.setSpMetaDataFN(target.getName());
-					}
-					boolean federation = shibboleth3ConfService.isFederation(tr);
-					tr.setFederation(federation);
-					String idpMetadataFolder = appConfiguration.getShibboleth3IdpRootDir() + File.separator + Shibboleth3ConfService.SHIB3_IDP_METADATA_FOLDER + File.separator;
-					File metadataFile = new File(idpMetadataFolder + tr.getSpMetaDataFN());
-					
-					List<String> entityIdList = SAMLMetadataParser.getEntityIdFromMetadataFile(metadataFile);
-					Set<String> duplicatesSet = new TreeSet<String>(); 
-					Set<String> entityIdSet = new TreeSet<String>();
-
-					for (String entityId : entityIdList) {
-						if (!entityIdSet.add(entityId)) {
-							duplicatesSet.add(entityId);
-						}
-					}
-					
-					tr.setGluuEntityId(entityIdSet);
-					tr.setStatus(GluuStatus.ACTIVE);	
-					validationLog = tr.getValidationLog();
-					if(! duplicatesSet.isEmpty()){
-						validationLog.add("This metadata contains multiple instances of entityId: " + Arrays.toString(duplicatesSet.toArray()));
-					}
-					
-                                        if (errorHandler.isInternalError()) {
-                                            validationLog = tr.getValidationLog();
-                                            
-                                            validationLog.add("Warning: cannot validate metadata. Check internet connetion ans www.w3.org availability.");
-                                            
-                                            // update log with warning
-                                            for (String warningLogMessage : errorHandler.getLog()) 
-                                                validationLog.add("Warning: " + warningLogMessage);
-                                        }
-                                        
-                                        trustService.updateTrustRelationship(tr);
-					result = true;
-				} else {
-					tr.setValidationLog(new ArrayList<String>(new HashSet<String>(errorHandler.getLog())));
-					tr.setValidationStatus(GluuValidationStatus.VALIDATION_FAILED);
-					tr.setStatus(GluuStatus.INACTIVE);
-					trustService.updateTrustRelationship(tr);
-				}
-			}
-		}
-
-		return result;
-	}
-
 }
@@ -0,0 +1,359 @@
+/*
+ * oxTrust is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2017, Gluu
+ */
+
+package org.gluu.oxtrust.ldap.service;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import javax.inject.Named;
+
+import org.apache.commons.lang.SerializationUtils;
+import org.gluu.oxtrust.config.ConfigurationFactory;
+import org.gluu.oxtrust.model.GluuCustomPerson;
+import org.slf4j.Logger;
+import org.xdi.util.StringHelper;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.JmxReporter;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.RatioGauge;
+
+/**
+ * Bounded read-through cache of persons loaded by {@link PersonService}.
+ *
+ * Entries are keyed by DN and split into segments with own lock. Lookups by uid and inum go through secondary indexes
+ * which point to DN. Cache is disabled by default. Entries live only for short TTL, because persons can be modified
+ * on other oxTrust nodes or bypassing {@link PersonService}, e.g. by cache refresh.
+ */
+@ApplicationScoped
+@Named
+public class PersonCacheService {
+
+    public static final String JMX_DOMAIN = "org.gluu.oxtrust.person";
+
+    private static final String SIZE_PROPERTY = "personCacheSize";
+    private static final String TTL_PROPERTY = "personCacheTtlSeconds";
+
+    private static final int DEFAULT_SIZE = 0;
+    private static final int DEFAULT_TTL = 30;
+
+    private static final int SEGMENTS_COUNT = 16;
+
+    @Inject
+    private Logger log;
+
+    @Inject
+    private ConfigurationFactory configurationFactory;
+
+    private boolean enabled;
+    private long ttl;
+    private Segment[] segments;
+
+    private ConcurrentMap<String, String> dnByUid;
+    private ConcurrentMap<String, String> dnByInum;
+
+    // Loads started before last invalidation can return stale person
+    private AtomicLong version;
+
+    private MetricRegistry registry;
+    private JmxReporter jmxReporter;
+    private Meter hits;
+    private Meter misses;
+    private Meter evictions;
+
+    @PostConstruct
+    public void init() {
+        int size = StringHelper.toInteger(configurationFactory.getLdapConfiguration().getString(SIZE_PROPERTY, null), DEFAULT_SIZE);
+        int ttlSeconds = StringHelper.toInteger(configurationFactory.getLdapConfiguration().getString(TTL_PROPERTY, null), DEFAULT_TTL);
+
+        init(size, ttlSeconds);
+
+        if (this.enabled) {
+            log.info("Person cache is enabled with size {} and TTL {} seconds", size, ttlSeconds);
+        }
+    }
+
+    void init(int size, int ttlSeconds) {
+        this.enabled = (size > 0) && (ttlSeconds > 0);
+        this.ttl = TimeUnit.SECONDS.toMillis(ttlSeconds);
+        this.version = new AtomicLong();
+        this.dnByUid = new ConcurrentHashMap<String, String>();
+        this.dnByInum = new ConcurrentHashMap<String, String>();
+
+        int segmentSize = Math.max(1, size / SEGMENTS_COUNT);
+        this.segments = new Segment[SEGMENTS_COUNT];
+        for (int i = 0; i < SEGMENTS_COUNT; i++) {
+            this.segments[i] = new Segment(segmentSize);
+        }
+
+        initMetrics();
+    }
+
+    @PreDestroy
+    public void destroy() {
+        if (this.jmxReporter != null) {
+            this.jmxReporter.stop();
+        }
+    }
+
+    private void initMetrics() {
+        this.registry = new MetricRegistry();
+        this.hits = registry.meter(MetricRegistry.name("personCache", "hits"));
+        this.misses = registry.meter(MetricRegistry.name("personCache", "misses"));
+        this.evictions = registry.meter(MetricRegistry.name("personCache", "evictions"));
+
+        registry.register(MetricRegistry.name("personCache", "hitRate"), new RatioGauge() {
+            @Override
+            protected Ratio getRatio() {
+                return Ratio.of(hits.getCount(), hits.getCount() + misses.getCount());
+            }
+        });
+        registry.register(MetricRegistry.name("personCache", "size"), new Gauge<Integer>() {
+            @Override
+            public Integer getValue() {
+                return size();
+            }
+        });
+
+        this.jmxReporter = JmxReporter.forRegistry(registry).inDomain(JMX_DOMAIN).build();
+        this.jmxReporter.start();
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * @return version which should be passed to {@link #put(GluuCustomPerson, long)} after loading person from LDAP
+     */
+    public long getVersion() {
+        return version.get();
+    }
+
+    public GluuCustomPerson getByDn(String dn) {
+        if (!enabled || StringHelper.isEmpty(dn)) {
+            return null;
+        }
+
+        return get(normalize(dn), null);
+    }
+
+    public GluuCustomPerson getByUid(String uid) {
+        if (!enabled || StringHelper.isEmpty(uid)) {
+            return null;
+        }
+
+        String key = normalize(uid);
+        String dn = dnByUid.get(key);
+        if (dn == null) {
+            misses.mark();
+            return null;
+        }
+
+        return get(dn, key);
+    }
+
+    public GluuCustomPerson getByInum(String inum) {
+        if (!enabled || StringHelper.isEmpty(inum)) {
+            return null;
+        }
+
+        String dn = dnByInum.get(normalize(inum));
+        if (dn == null) {
+            misses.mark();
+            return null;
+        }
+
+        return get(dn, null);
+    }
+
+    /**
+     * Put person loaded with all attributes. Person isn't cached if there was invalidation after version was taken.
+     */
+    public void put(GluuCustomPerson person, long loadVersion) {
+        if (!enabled || (person == null) || StringHelper.isEmpty(person.getDn())) {
+            return;
+        }
+
+        String dn = normalize(person.getDn());
+        CacheEntry entry = new CacheEntry(copy(person), System.currentTimeMillis() + ttl);
+
+        Segment segment = getSegment(dn);
+        synchronized (segment) {
+            // Checked under lock, because invalidation increments version under the same lock
+            if (version.get() != loadVersion) {
+                return;
+            }
+
+            CacheEntry oldEntry = segment.entries.put(dn, entry);
+            if (oldEntry != null) {
+                removeIndexes(dn, oldEntry.person);
+            }
+            addIndexes(dn, entry.person);
+
+            evictEldest(segment);
+        }
+    }
+
+    /**
+     * Remove person from cache. Should be called after person was added, modified or removed.
+     */
+    public void invalidate(String dn) {
+        if (!enabled || StringHelper.isEmpty(dn)) {
+            return;
+        }
+
+        String key = normalize(dn);
+        Segment segment = getSegment(key);
+        synchronized (segment) {
+            version.incrementAndGet();
+
+            CacheEntry entry = segment.entries.remove(key);
+            if (entry != null) {
+                removeIndexes(key, entry.person);
+            }
+        }
+    }
+
+    public void clear() {
+        if (!enabled) {
+            return;
+        }
+
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                version.incrementAndGet();
+                segment.entries.clear();
+            }
+        }
+        dnByUid.clear();
+        dnByInum.clear();
+    }
+
+    public MetricRegistry getRegistry() {
+        return registry;
+    }
+
+    private GluuCustomPerson get(String dn, String expectedUid) {
+        Segment segment = getSegment(dn);
+
+        GluuCustomPerson person = null;
+        synchronized (segment) {
+            CacheEntry entry = segment.entries.get(dn);
+            if (entry != null) {
+                if (entry.expirationTime < System.currentTimeMillis()) {
+                    segment.entries.remove(dn);
+                    removeIndexes(dn, entry.person);
+                } else if ((expectedUid == null) || expectedUid.equals(normalize(entry.person.getUid()))) {
+                    person = entry.person;
+                }
+            }
+        }
+
+        if (person == null) {
+            misses.mark();
+            return null;
+        }
+
+        hits.mark();
+
+        // Callers modify returned persons
+        return copy(person);
+    }
+
+    private void evictEldest(Segment segment) {
+        Iterator<Map.Entry<String, CacheEntry>> it = segment.entries.entrySet().iterator();
+        while ((segment.entries.size() > segment.maxSize) && it.hasNext()) {
+            Map.Entry<String, CacheEntry> eldest = it.next();
+            it.remove();
+            removeIndexes(eldest.getKey(), eldest.getValue().person);
+            evictions.mark();
+        }
+    }
+
+    private void addIndexes(String dn, GluuCustomPerson person) {
+        if (StringHelper.isNotEmpty(person.getUid())) {
+            dnByUid.put(normalize(person.getUid()), dn);
+        }
+        if (StringHelper.isNotEmpty(person.getInum())) {
+            dnByInum.put(normalize(person.getInum()), dn);
+        }
+    }
+
+    private void removeIndexes(String dn, GluuCustomPerson person) {
+        // Index can point already to other person with the same uid
+        if (StringHelper.isNotEmpty(person.getUid())) {
+            dnByUid.remove(normalize(person.getUid()), dn);
+        }
+        if (StringHelper.isNotEmpty(person.getInum())) {
+            dnByInum.remove(normalize(person.getInum()), dn);
+        }
+    }
+
+    private int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                size += segment.entries.size();
+            }
+        }
+
+        return size;
+    }
+
+    private Segment getSegment(String key) {
+        int hash = key.hashCode();
+        hash ^= (hash >>> 16);
+
+        return segments[(hash & 0x7fffffff) % SEGMENTS_COUNT];
+    }
+
+    private String normalize(String value) {
+        return StringHelper.toLowerCase(value);
+    }
+
+    private GluuCustomPerson copy(GluuCustomPerson person) {
+        return (GluuCustomPerson) SerializationUtils.clone(person);
+    }
+
+    private static class Segment {
+
+        private final int maxSize;
+
+        // Access order makes first entry the least recently used one
+        private final LinkedHashMap<String, CacheEntry> entries;
+
+        public Segment(int maxSize) {
+            this.maxSize = maxSize;
+            this.entries = new LinkedHashMap<String, CacheEntry>(16, 0.75f, true);
+        }
+
+    }
+
+    private static class CacheEntry {
+
+        private final GluuCustomPerson person;
+        private final long expirationTime;
+
+        public CacheEntry(GluuCustomPerson person, long expirationTime) {
+            this.person = person;
+            this.expirationTime = expirationTime;
+        }
+
+    }
+
+}
@@ -0,0 +1,539 @@
+/*
+ * oxTrust is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2017, Gluu
+ */
+
+package org.gluu.oxtrust.ldap.service;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import javax.inject.Named;
+
+import org.apache.commons.io.FilenameUtils;
+import org.apache.commons.lang.RandomStringUtils;
+import org.gluu.oxtrust.config.ConfigurationFactory;
+import org.gluu.oxtrust.ldap.load.CsvRowReader;
+import org.gluu.oxtrust.ldap.load.PersonImportJob;
+import org.gluu.oxtrust.ldap.load.RowReader;
+import org.gluu.oxtrust.ldap.load.XlsRowReader;
+import org.gluu.oxtrust.ldap.load.XlsxRowReader;
+import org.gluu.oxtrust.ldap.load.conf.ImportPersonConfiguration;
+import org.gluu.oxtrust.model.GluuCustomAttribute;
+import org.gluu.oxtrust.model.GluuCustomPerson;
+import org.gluu.oxtrust.service.external.ExternalUpdateUserService;
+import org.gluu.oxtrust.util.NamedThreadFactory;
+import org.gluu.site.ldap.persistence.AttributeData;
+import org.slf4j.Logger;
+import org.xdi.ldap.model.GluuBoolean;
+import org.xdi.ldap.model.GluuStatus;
+import org.xdi.model.GluuAttribute;
+import org.xdi.model.GluuAttributeDataType;
+import org.xdi.util.StringHelper;
+
+/**
+ * Imports persons from CSV or Excel files in background.
+ *
+ * Rows are read one by one and processed in batches. Uniqueness of uids and mails in batch is checked with one LDAP
+ * search. Persons are added concurrently with bounded number of requests in flight. Invalid rows are collected into
+ * job error report and don't stop import.
+ */
+@ApplicationScoped
+@Named
+public class PersonImportService {
+
+	public static final String PERSON_PASSWORD_ATTRIBUTE = "userPassword";
+	private static final String PERSON_STATUS_ATTRIBUTE = "gluuStatus";
+
+	private static final String[] PERSON_IMPORT_PERSON_LOCKUP_RETURN_ATTRIBUTES = { "uid", "mail" };
+
+	private static final String THREADS_PROPERTY = "personImportThreads";
+	private static final String BATCH_SIZE_PROPERTY = "personImportBatchSize";
+	private static final String JOB_RETENTION_PROPERTY = "personImportJobRetentionMinutes";
+
+	private static final int DEFAULT_THREADS = 8;
+	private static final int DEFAULT_BATCH_SIZE = 500;
+	private static final int DEFAULT_JOB_RETENTION = 60;
+
+	@Inject
+	private Logger log;
+
+	@Inject
+	private IPersonService personService;
+
+	@Inject
+	private OrganizationService organizationService;
+
+	@Inject
+	private ExternalUpdateUserService externalUpdateUserService;
+
+	@Inject
+	private ImportPersonConfiguration importPersonConfiguration;
+
+	@Inject
+	private ConfigurationFactory configurationFactory;
+
+	private ConcurrentMap<String, PersonImportJob> jobs;
+	private ExecutorService jobExecutor;
+	private ExecutorService addExecutor;
+	private int threads;
+	private int batchSize;
+	private long jobRetention;
+
+	@PostConstruct
+	public void init() {
+		this.threads = Math.max(1, StringHelper.toInteger(configurationFactory.getLdapConfiguration().getString(THREADS_PROPERTY, null), DEFAULT_THREADS));
+		this.batchSize = Math.max(1, StringHelper.toInteger(configurationFactory.getLdapConfiguration().getString(BATCH_SIZE_PROPERTY, null), DEFAULT_BATCH_SIZE));
+		this.jobRetention = TimeUnit.MINUTES.toMillis(Math.max(1,
+				StringHelper.toInteger(configurationFactory.getLdapConfiguration().getString(JOB_RETENTION_PROPERTY, null), DEFAULT_JOB_RETENTION)));
+
+		this.jobs = new ConcurrentHashMap<String, PersonImportJob>();
+		this.jobExecutor = Executors.newCachedThreadPool(new NamedThreadFactory("person-import"));
+		this.addExecutor = Executors.newFixedThreadPool(threads, new NamedThreadFactory("person-import-add"));
+	}
+
+	@PreDestroy
+	public void destroy() {
+		for (PersonImportJob job : jobs.values()) {
+			job.cancel();
+		}
+		this.jobExecutor.shutdownNow();
+		this.addExecutor.shutdownNow();
+	}
+
+	public boolean isSupportedFile(String fileName) {
+		String extension = FilenameUtils.getExtension(fileName);
+
+		return "csv".equalsIgnoreCase(extension) || "xls".equalsIgnoreCase(extension) || "xlsx".equalsIgnoreCase(extension);
+	}
+
+	/**
+	 * Check if file header contains all mandatory columns
+	 *
+	 * @return display names of missing mandatory columns
+	 */
+	public List<String> validateHeader(File file, String fileName) throws IOException {
+		RowReader rowReader = openRowReader(file, fileName);
+		try {
+			String[] header = rowReader.readRow();
+			return getMissingAttributes(mapColumns(header == null ? new String[0] : header));
+		} finally {
+			rowReader.close();
+		}
+	}
+
+	/**
+	 * Start import in background. File is removed after import
+	 */
+	public PersonImportJob startImport(final File file, final String fileName) {
+		removeExpiredJobs();
+
+		final PersonImportJob job = new PersonImportJob(UUID.randomUUID().toString(), fileName);
+		jobs.put(job.getId(), job);
+
+		jobExecutor.execute(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					runImport(job, file);
+				} catch (Throwable ex) {
+					log.error("Failed to import persons from '{}'", fileName, ex);
+					job.setMessage(ex.getMessage());
+					job.setStatus(PersonImportJob.Status.FAILED);
+				} finally {
+					file.delete();
+				}
+			}
+		});
+
+		return job;
+	}
+
+	public PersonImportJob getJob(String id) {
+		removeExpiredJobs();
+
+		return id == null ? null : jobs.get(id);
+	}
+
+	public void removeJob(String id) {
+		if (id == null) {
+			return;
+		}
+
+		PersonImportJob job = jobs.remove(id);
+		if (job != null) {
+			job.cancel();
+		}
+	}
+
+	/**
+	 * Remove jobs finished before retention period. Results of job are available until then even if page which started
+	 * it was closed
+	 */
+	private void removeExpiredJobs() {
+		long expirationTime = System.currentTimeMillis() - jobRetention;
+		for (Iterator<PersonImportJob> it = jobs.values().iterator(); it.hasNext();) {
+			PersonImportJob job = it.next();
+			if (!job.isRunning() && (job.getFinishTime() < expirationTime)) {
+				it.remove();
+			}
+		}
+	}
+
+	private void runImport(PersonImportJob job, File file) throws Exception {
+		if (!organizationService.isAllowPersonModification()) {
+			job.setMessage("Person modification is not allowed");
+			job.setStatus(PersonImportJob.Status.FAILED);
+			return;
+		}
+
+		ImportContext context = new ImportContext(job);
+
+		RowReader rowReader = openRowReader(file, job.getFileName());
+		try {
+			String[] header = rowReader.readRow();
+			if (header == null) {
+				job.setMessage("No data found");
+				job.setStatus(PersonImportJob.Status.FAILED);
+				return;
+			}
+			context.columns = mapColumns(header);
+			List<String> missingAttributes = getMissingAttributes(context.columns);
+			if (!missingAttributes.isEmpty()) {
+				job.setMessage("Missing required columns: " + missingAttributes);
+				job.setStatus(PersonImportJob.Status.FAILED);
+				return;
+			}
+			context.generatePassword = isGeneratePassword();
+
+			// Header is the first row
+			long rowNumber = 1;
+			List<ImportRow> batch = new ArrayList<ImportRow>(batchSize);
+			String[] values;
+			while (!job.isCancelRequested() && ((values = rowReader.readRow()) != null)) {
+				rowNumber++;
+				if (isEmptyRow(values)) {
+					continue;
+				}
+
+				batch.add(new ImportRow(rowNumber, values));
+				if (batch.size() == batchSize) {
+					processBatch(context, batch);
+					batch = new ArrayList<ImportRow>(batchSize);
+				}
+			}
+
+			if (!batch.isEmpty() && !job.isCancelRequested()) {
+				processBatch(context, batch);
+			}
+		} finally {
+			rowReader.close();
+		}
+
+		// Wait for persons in flight
+		context.inFlight.acquire(context.window);
+		context.inFlight.release(context.window);
+
+		job.setStatus(job.isCancelRequested() ? PersonImportJob.Status.CANCELLED : PersonImportJob.Status.COMPLETED);
+		log.info("Imported {} persons from '{}', {} rows failed", job.getImported(), job.getFileName(), job.getFailed());
+	}
+
+	private void processBatch(ImportContext context, List<ImportRow> batch) throws InterruptedException {
+		PersonImportJob job = context.job;
+
+		List<ImportRow> validRows = new ArrayList<ImportRow>(batch.size());
+		List<String> uids = new ArrayList<String>(batch.size());
+		List<String> mails = new ArrayList<String>(batch.size());
+		for (ImportRow row : batch) {
+			String error = convertRow(context, row);
+			if (error != null) {
+				job.addError(row.number, row.person == null ? null : row.person.getUid(), error);
+				continue;
+			}
+
+			String uid = StringHelper.toLowerCase(row.person.getUid());
+			String mail = StringHelper.toLowerCase(row.person.getMail());
+			if ((uid != null) && !context.uids.add(uid)) {
+				job.addError(row.number, row.person.getUid(), "Duplicate uid in input file");
+				continue;
+			}
+			if ((mail != null) && !context.mails.add(mail)) {
+				job.addError(row.number, row.person.getUid(), "Duplicate mail in input file");
+				continue;
+			}
+
+			validRows.add(row);
+			if (uid != null) {
+				uids.add(row.person.getUid());
+			}
+			if (mail != null) {
+				mails.add(row.person.getMail());
+			}
+		}
+
+		Set<String> existingUids = new HashSet<String>();
+		Set<String> existingMails = new HashSet<String>();
+		for (GluuCustomPerson existingPerson : personService.findPersonsByUidsOrMailids(uids, mails, PERSON_IMPORT_PERSON_LOCKUP_RETURN_ATTRIBUTES)) {
+			if (existingPerson.getUid() != null) {
+				existingUids.add(existingPerson.getUid().toLowerCase());
+			}
+			if (existingPerson.getMail() != null) {
+				existingMails.add(existingPerson.getMail().toLowerCase());
+			}
+		}
+
+		for (ImportRow row : validRows) {
+			if (existingUids.contains(StringHelper.toLowerCase(row.person.getUid()))) {
+				job.addError(row.number, row.person.getUid(), "Person with this uid already exists");
+			} else if (existingMails.contains(StringHelper.toLowerCase(row.person.getMail()))) {
+				job.addError(row.number, row.person.getUid(), "Person with this mail already exists");
+			} else {
+				submitAdd(context, row);
+			}
+		}
+	}
+
+	private void submitAdd(final ImportContext context, final ImportRow row) throws InterruptedException {
+		context.inFlight.acquire();
+		try {
+			addExecutor.execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						addPerson(context, row.person);
+						context.job.addImported();
+					} catch (Exception ex) {
+						log.debug("Failed to add person '{}'", row.person.getUid(), ex);
+						context.job.addError(row.number, row.person.getUid(), ex.getMessage());
+					} finally {
+						context.inFlight.release();
+					}
+				}
+			});
+		} catch (RuntimeException ex) {
+			context.inFlight.release();
+			throw ex;
+		}
+	}
+
+	private void addPerson(ImportContext context, GluuCustomPerson person) throws Exception {
+		personService.addCustomObjectClass(person);
+
+		if (StringHelper.isEmpty(person.getCommonName())) {
+			person.setCommonName(person.getGivenName() + " " + person.getSurname());
+		}
+		person.setDisplayName(person.getCommonName());
+
+		if (context.generatePassword && StringHelper.isEmpty(person.getUserPassword())) {
+			person.setUserPassword(RandomStringUtils.randomAlphanumeric(16));
+		}
+
+		String inum = personService.generateInumForNewPerson();
+		person.setInum(inum);
+		person.setDn(personService.getDnForPerson(inum));
+		person.setIname(personService.generateInameForNewPerson(person.getUid()));
+
+		boolean runScript = externalUpdateUserService.isEnabled();
+		if (runScript) {
+			externalUpdateUserService.executeExternalAddUserMethods(person);
+		}
+
+		personService.addPersonWithoutUidCheck(person);
+
+		if (runScript) {
+			externalUpdateUserService.executeExternalPostAddUserMethods(person);
+		}
+	}
+
+	/**
+	 * @return error message or null if row is valid
+	 */
+	private String convertRow(ImportContext context, ImportRow row) {
+		List<AttributeData> attributeDataList = new ArrayList<AttributeData>();
+		String password = null;
+		String status = null;
+		for (Map.Entry<Integer, GluuAttribute> column : context.columns.entrySet()) {
+			GluuAttribute attribute = column.getValue();
+			String cellValue = column.getKey() < row.values.length ? row.values[column.getKey()] : null;
+			if (StringHelper.isEmpty(cellValue)) {
+				if (attribute.isRequred()) {
+					return String.format("Empty '%s' not allowed", attribute.getDisplayName());
+				}
+				continue;
+			}
+
+			String ldapValue = getTypedValue(attribute, cellValue);
+			if (StringHelper.isEmpty(ldapValue)) {
+				return String.format("Invalid value '%s' in column '%s'", cellValue, attribute.getDisplayName());
+			}
+
+			if (PERSON_PASSWORD_ATTRIBUTE.equalsIgnoreCase(attribute.getName())) {
+				password = ldapValue;
+			} else if (PERSON_STATUS_ATTRIBUTE.equalsIgnoreCase(attribute.getName())) {
+				status = ldapValue;
+			}
+			attributeDataList.add(new AttributeData(attribute.getName(), ldapValue));
+		}
+
+		try {
+			Map<String, List<AttributeData>> entryAttributes = Collections.singletonMap(Long.toString(row.number), attributeDataList);
+			List<GluuCustomPerson> persons = personService.createEntities(entryAttributes);
+			if (persons.size() != 1) {
+				return "Failed to convert row to person";
+			}
+			row.person = persons.get(0);
+		} catch (Exception ex) {
+			return "Failed to convert row to person: " + ex.getMessage();
+		}
+
+		if (password != null) {
+			row.person.setUserPassword(password);
+		}
+		if (status != null) {
+			row.person.setStatus(GluuStatus.getByValue(status));
+		}
+		if (row.person.getCustomAttributes() == null) {
+			row.person.setCustomAttributes(new ArrayList<GluuCustomAttribute>());
+		}
+
+		return null;
+	}
+
+	private String getTypedValue(GluuAttribute attribute, String value) {
+		if (GluuAttributeDataType.STRING.equals(attribute.getDataType())) {
+			return value;
+		} else if (GluuAttributeDataType.BOOLEAN.equals(attribute.getDataType())) {
+			GluuBoolean gluuBoolean = GluuBoolean.getByValue(value);
+			if (gluuBoolean != null) {
+				return gluuBoolean.toString();
+			}
+		}
+
+		return null;
+	}
+
+	private Map<Integer, GluuAttribute> mapColumns(String[] header) {
+		Map<String, GluuAttribute> attributesDisplayNameMap = new HashMap<String, GluuAttribute>();
+		for (GluuAttribute attribute : importPersonConfiguration.getAttributes()) {
+			attributesDisplayNameMap.put(attribute.getDisplayName().toLowerCase(), attribute);
+		}
+
+		Map<Integer, GluuAttribute> columns = new HashMap<Integer, GluuAttribute>();
+		for (int i = 0; i < header.length; i++) {
+			if (StringHelper.isEmpty(header[i])) {
+				continue;
+			}
+
+			GluuAttribute attribute = attributesDisplayNameMap.get(header[i].trim().toLowerCase());
+			if ((attribute != null) && !columns.containsValue(attribute)) {
+				columns.put(i, attribute);
+			}
+		}
+
+		return columns;
+	}
+
+	private List<String> getMissingAttributes(Map<Integer, GluuAttribute> columns) {
+		List<String> missingAttributes = new ArrayList<String>();
+		for (GluuAttribute attribute : importPersonConfiguration.getAttributes()) {
+			if (attribute.isRequred() && !columns.containsValue(attribute)) {
+				missingAttributes.add(attribute.getDisplayName());
+			}
+		}
+
+		return missingAttributes;
+	}
+
+	private boolean isGeneratePassword() {
+		for (GluuAttribute attribute : importPersonConfiguration.getAttributes()) {
+			if (PERSON_PASSWORD_ATTRIBUTE.equalsIgnoreCase(attribute.getName()) && !attribute.isRequred()) {
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	private boolean isEmptyRow(String[] values) {
+		for (String value : values) {
+			if (StringHelper.isNotEmpty(value)) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	private RowReader openRowReader(File file, String fileName) throws IOException {
+		String extension = FilenameUtils.getExtension(fileName);
+		if ("xlsx".equalsIgnoreCase(extension)) {
+			return new XlsxRowReader(file);
+		}
+
+		FileInputStream is = new FileInputStream(file);
+		try {
+			if ("csv".equalsIgnoreCase(extension)) {
+				return new CsvRowReader(is);
+			}
+
+			return new XlsRowReader(is);
+		} catch (IOException ex) {
+			is.close();
+			throw ex;
+		}
+	}
+
+	private class ImportContext {
+
+		private final PersonImportJob job;
+		private final int window = threads * 2;
+		private final Semaphore inFlight = new Semaphore(window);
+
+		// Uids and mails of all rows, to find duplicates in file
+		private final Set<String> uids = new HashSet<String>();
+		private final Set<String> mails = new HashSet<String>();
+
+		private Map<Integer, GluuAttribute> columns;
+		private boolean generatePassword;
+
+		public ImportContext(PersonImportJob job) {
+			this.job = job;
+		}
+
+	}
+
+	private static class ImportRow {
+
+		private final long number;
+		private final String[] values;
+		private GluuCustomPerson person;
+
+		public ImportRow(long number, String[] values) {
+			this.number = number;
+			this.values = values;
+		}
+
+	}
+
+}
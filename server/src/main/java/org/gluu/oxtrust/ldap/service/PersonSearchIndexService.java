@@ -0,0 +1,376 @@
+/*
+ * oxTrust is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2017, Gluu
+ */
+
+package org.gluu.oxtrust.ldap.service;
+
+import static org.gluu.oxtrust.ldap.service.AppInitializer.LDAP_BATCH_ENTRY_MANAGER_NAME;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.event.Event;
+import javax.enterprise.event.Observes;
+import javax.inject.Inject;
+import javax.inject.Named;
+
+import org.gluu.oxtrust.config.ConfigurationFactory;
+import org.gluu.oxtrust.model.GluuCustomPerson;
+import org.gluu.oxtrust.service.cdi.event.PersonSearchIndexEvent;
+import org.gluu.oxtrust.util.OxTrustConstants;
+import org.gluu.oxtrust.util.PagedSearchUtil;
+import org.gluu.oxtrust.util.PagedSearchUtil.PageHandler;
+import org.gluu.site.ldap.persistence.LdapEntryManager;
+import org.slf4j.Logger;
+import org.xdi.service.cdi.async.Asynchronous;
+import org.xdi.service.cdi.event.Scheduled;
+import org.xdi.service.timer.event.TimerEvent;
+import org.xdi.service.timer.schedule.TimerSchedule;
+import org.xdi.util.StringHelper;
+
+import com.unboundid.ldap.sdk.Filter;
+import com.unboundid.ldap.sdk.LDAPException;
+import com.unboundid.ldap.sdk.SearchRequest;
+import com.unboundid.ldap.sdk.SearchResultEntry;
+import com.unboundid.ldap.sdk.SearchScope;
+import com.unboundid.util.StaticUtils;
+
+/**
+ * In-memory prefix index of persons for type-ahead search.
+ *
+ * Lower case values of uid, displayName, mail, iname, givenName and sn and each word of them are stored in sorted
+ * map as "&lt;value&gt;\0&lt;inum&gt;" keys, so search is one range scan. Index is built at startup with paged search and
+ * updated by PersonService on add, update and remove. Persons changed by other nodes or directly in LDAP are picked up
+ * by periodic refresh which loads entries with modifyTimestamp after previous scan. Persons removed by other nodes are
+ * dropped by periodic full rebuild (every hour by default). Until then they aren't returned because found persons are
+ * loaded from LDAP.
+ *
+ * Memory use is about 1 KB per person: 6-8 keys of 20-40 characters with skip list nodes (~120 bytes per key) plus
+ * array of keys per inum used to remove old values.
+ */
+@ApplicationScoped
+@Named
+public class PersonSearchIndexService {
+
+	private static final String[] INDEXED_ATTRIBUTES = { OxTrustConstants.uid, OxTrustConstants.displayName, OxTrustConstants.mail,
+			OxTrustConstants.iname, "givenName", "sn" };
+
+	private static final char KEY_SEPARATOR = '\u0000';
+	private static final char MAX_CHAR = '\uFFFF';
+
+	private static final int PAGE_SIZE = 500;
+
+	private static final String MODIFY_TIMESTAMP = "modifyTimestamp";
+
+	private static final String REFRESH_INTERVAL_PROPERTY = "personSearchIndexRefreshInterval";
+	private static final int DEFAULT_REFRESH_INTERVAL = 60; // 60 seconds
+
+	private static final String REBUILD_INTERVAL_PROPERTY = "personSearchIndexRebuildInterval";
+	private static final int DEFAULT_REBUILD_INTERVAL = 3600; // 1 hour
+
+	// Refresh loads a bit more than changed since previous scan to allow clock difference between oxTrust and LDAP
+	private static final long REFRESH_OVERLAP = TimeUnit.MINUTES.toMillis(5);
+
+	@Inject
+	private Logger log;
+
+	@Inject
+	@Named(LDAP_BATCH_ENTRY_MANAGER_NAME)
+	private LdapEntryManager ldapEntryManager;
+
+	@Inject
+	private IPersonService personService;
+
+	@Inject
+	private ConfigurationFactory configurationFactory;
+
+	@Inject
+	private Event<TimerEvent> timerEvent;
+
+	private final ConcurrentNavigableMap<String, String> index = new ConcurrentSkipListMap<String, String>();
+	private final ConcurrentMap<String, String[]> keysByInum = new ConcurrentHashMap<String, String[]>();
+
+	// Inums changed while index is being built or refreshed. Scan result of them is outdated
+	private final Set<String> changedDuringBuild = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+	private volatile boolean building;
+	private volatile boolean ready;
+
+	private final AtomicBoolean isActive = new AtomicBoolean(false);
+	private volatile long lastScanTime;
+	private volatile long lastBuildTime;
+
+	public void init() {
+		this.isActive.set(true);
+		Thread thread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					build();
+				} finally {
+					isActive.set(false);
+				}
+			}
+		}, "person-search-index");
+		thread.setDaemon(true);
+		thread.start();
+
+		initTimer();
+	}
+
+	private void initTimer() {
+		int interval = StringHelper.toInteger(configurationFactory.getLdapConfiguration().getString(REFRESH_INTERVAL_PROPERTY, null), DEFAULT_REFRESH_INTERVAL);
+		if (interval <= 0) {
+			log.info("Periodic refresh of person search index is disabled");
+			return;
+		}
+
+		timerEvent.fire(new TimerEvent(new TimerSchedule(interval, interval), new PersonSearchIndexEvent(), Scheduled.Literal.INSTANCE));
+	}
+
+	@Asynchronous
+	public void processRefreshEvent(@Observes @Scheduled PersonSearchIndexEvent personSearchIndexEvent) {
+		if (!this.isActive.compareAndSet(false, true)) {
+			return;
+		}
+
+		try {
+			int rebuildInterval = StringHelper.toInteger(configurationFactory.getLdapConfiguration().getString(REBUILD_INTERVAL_PROPERTY, null),
+					DEFAULT_REBUILD_INTERVAL);
+			boolean rebuild = (rebuildInterval > 0) && (System.currentTimeMillis() - this.lastBuildTime >= TimeUnit.SECONDS.toMillis(rebuildInterval));
+
+			if (this.ready && !rebuild) {
+				refresh();
+			} else {
+				// Initial build failed or removed persons should be dropped
+				build();
+			}
+		} catch (Throwable ex) {
+			log.error("Failed to refresh person search index", ex);
+		} finally {
+			this.isActive.set(false);
+		}
+	}
+
+	public boolean isReady() {
+		return ready;
+	}
+
+	/**
+	 * Find inums of persons which have value or word of displayName starting with prefix
+	 *
+	 * @return up to limit inums or null if index isn't built yet
+	 */
+	public List<String> search(String prefix, int limit) {
+		if (!ready) {
+			return null;
+		}
+
+		String from = normalize(prefix);
+		if (StringHelper.isEmpty(from)) {
+			return new ArrayList<String>();
+		}
+
+		Set<String> inums = new LinkedHashSet<String>();
+		for (String inum : index.subMap(from, from + MAX_CHAR).values()) {
+			inums.add(inum);
+			if ((limit > 0) && (inums.size() >= limit)) {
+				break;
+			}
+		}
+
+		return new ArrayList<String>(inums);
+	}
+
+	public synchronized void update(GluuCustomPerson person) {
+		if (person.getInum() == null) {
+			return;
+		}
+
+		if (building) {
+			changedDuringBuild.add(person.getInum());
+		}
+
+		put(person.getInum(), new String[] { person.getUid(), person.getDisplayName(), person.getMail(), person.getIname(), person.getGivenName(),
+				person.getSurname() });
+	}
+
+	public synchronized void remove(GluuCustomPerson person) {
+		if (person.getInum() == null) {
+			return;
+		}
+
+		if (building) {
+			changedDuringBuild.add(person.getInum());
+		}
+
+		String[] oldKeys = keysByInum.remove(person.getInum());
+		if (oldKeys != null) {
+			for (String key : oldKeys) {
+				index.remove(key);
+			}
+		}
+	}
+
+	private synchronized boolean putScanned(String inum, String[] values) {
+		if (changedDuringBuild.contains(inum)) {
+			return false;
+		}
+
+		put(inum, values);
+
+		return true;
+	}
+
+	private synchronized void put(String inum, String[] values) {
+		Set<String> keys = new LinkedHashSet<String>();
+		for (String value : values) {
+			String normalizedValue = normalize(value);
+			if (StringHelper.isEmpty(normalizedValue)) {
+				continue;
+			}
+
+			keys.add(normalizedValue + KEY_SEPARATOR + inum);
+			// Allow to find "John Smith" by "smi"
+			for (String word : normalizedValue.split("[\\s,.@_-]+")) {
+				if (word.length() > 0) {
+					keys.add(word + KEY_SEPARATOR + inum);
+				}
+			}
+		}
+
+		String[] newKeys = keys.toArray(new String[keys.size()]);
+		String[] oldKeys = keysByInum.put(inum, newKeys);
+		if (oldKeys != null) {
+			for (String key : oldKeys) {
+				if (!keys.contains(key)) {
+					index.remove(key);
+				}
+			}
+		}
+
+		for (String key : newKeys) {
+			index.put(key, inum);
+		}
+	}
+
+	private void build() {
+		long startTime = System.currentTimeMillis();
+		try {
+			long count = scan(Filter.createPresenceFilter(OxTrustConstants.inum), true);
+
+			this.lastBuildTime = startTime;
+			this.ready = true;
+			log.info("Built person search index of {} persons with {} keys in {} ms", count, index.size(), System.currentTimeMillis() - startTime);
+		} catch (Exception ex) {
+			log.error("Failed to build person search index. Person search will use LDAP", ex);
+		}
+	}
+
+	private void refresh() throws LDAPException {
+		long startTime = System.currentTimeMillis();
+		String modifiedSince = StaticUtils.encodeGeneralizedTime(new Date(lastScanTime - REFRESH_OVERLAP));
+		long count = scan(Filter.createANDFilter(Filter.createPresenceFilter(OxTrustConstants.inum),
+				Filter.createGreaterOrEqualFilter(MODIFY_TIMESTAMP, modifiedSince)), false);
+
+		log.debug("Refreshed {} persons in search index in {} ms", count, System.currentTimeMillis() - startTime);
+	}
+
+	/**
+	 * Put persons matching filter into index
+	 *
+	 * @param full
+	 *            if true, persons which weren't found are removed from index
+	 * @return count of indexed persons
+	 */
+	private long scan(Filter filter, boolean full) throws LDAPException {
+		this.building = true;
+		long scanTime = System.currentTimeMillis();
+		final AtomicLong count = new AtomicLong();
+		final Set<String> scannedInums = full ? new HashSet<String>() : null;
+
+		try {
+			String[] returnAttributes = new String[INDEXED_ATTRIBUTES.length + 1];
+			returnAttributes[0] = OxTrustConstants.inum;
+			System.arraycopy(INDEXED_ATTRIBUTES, 0, returnAttributes, 1, INDEXED_ATTRIBUTES.length);
+
+			SearchRequest searchRequest = new SearchRequest(personService.getDnForPerson(null), SearchScope.ONE, filter, returnAttributes);
+
+			PagedSearchUtil.search(ldapEntryManager, searchRequest, PAGE_SIZE, new PageHandler<RuntimeException>() {
+				@Override
+				public void handle(List<SearchResultEntry> entries) {
+					for (SearchResultEntry entry : entries) {
+						String inum = entry.getAttributeValue(OxTrustConstants.inum);
+						if (inum == null) {
+							continue;
+						}
+						if (scannedInums != null) {
+							scannedInums.add(inum);
+						}
+
+						String[] values = new String[INDEXED_ATTRIBUTES.length];
+						for (int i = 0; i < INDEXED_ATTRIBUTES.length; i++) {
+							values[i] = entry.getAttributeValue(INDEXED_ATTRIBUTES[i]);
+						}
+						if (putScanned(inum, values)) {
+							count.incrementAndGet();
+						}
+					}
+				}
+			});
+
+			if (scannedInums != null) {
+				removeNotScanned(scannedInums);
+			}
+
+			this.lastScanTime = scanTime;
+		} finally {
+			this.building = false;
+			this.changedDuringBuild.clear();
+		}
+
+		return count.get();
+	}
+
+	private synchronized void removeNotScanned(Set<String> scannedInums) {
+		int removed = 0;
+		for (String inum : keysByInum.keySet()) {
+			// Persons added while index was being built aren't in scan result
+			if (scannedInums.contains(inum) || changedDuringBuild.contains(inum)) {
+				continue;
+			}
+
+			String[] oldKeys = keysByInum.remove(inum);
+			if (oldKeys != null) {
+				for (String key : oldKeys) {
+					index.remove(key);
+				}
+			}
+			removed++;
+		}
+
+		if (removed > 0) {
+			log.debug("Removed {} persons which aren't in LDAP anymore from search index", removed);
+		}
+	}
+
+	private static String normalize(String value) {
+		return value == null ? null : value.trim().toLowerCase();
+	}
+
+}
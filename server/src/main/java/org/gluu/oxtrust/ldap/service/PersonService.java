@@ -13,6 +13,7 @@ import java.math.BigInteger;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
@@ -25,17 +26,22 @@ import org.gluu.oxtrust.model.GluuCustomAttribute;
 import org.gluu.oxtrust.model.GluuCustomPerson;
 import org.gluu.oxtrust.model.GluuGroup;
 import org.gluu.oxtrust.model.User;
+import org.gluu.oxtrust.service.scim2.ScimDeletionJournalService;
 import org.gluu.oxtrust.util.OxTrustConstants;
 import org.gluu.site.ldap.exception.DuplicateEntryException;
 import org.gluu.site.ldap.persistence.AttributeData;
 import org.gluu.site.ldap.persistence.LdapEntryManager;
 import org.slf4j.Logger;
 import org.xdi.config.oxtrust.AppConfiguration;
+import org.xdi.ldap.model.SortOrder;
+import org.xdi.ldap.model.VirtualListViewResponse;
 import org.xdi.util.ArrayHelper;
 import org.xdi.util.INumGenerator;
 import org.xdi.util.StringHelper;
 
 import com.unboundid.ldap.sdk.Filter;
+import com.unboundid.ldap.sdk.LDAPException;
+import com.unboundid.ldap.sdk.ResultCode;
 
 /**
  * Provides operations with persons
@@ -48,6 +54,17 @@ public class PersonService implements Serializable, IPersonService {
 
     private static final long serialVersionUID = 6685720517520443399L;
 
+    // Maximum number of persons read when server can't return requested page with virtual list view
+    private static final int FALLBACK_SIZE_LIMIT = 1000;
+
+    // Maximum number of persons loaded from search index with one inum filter
+    private static final int MAX_INDEXED_SEARCH_SIZE = 100;
+
+    // Server doesn't have VLV index or ordering rule for requested filter and sort order
+    private static final ResultCode[] VLV_UNSUPPORTED_RESULT_CODES = new ResultCode[] { ResultCode.UNAVAILABLE_CRITICAL_EXTENSION,
+            ResultCode.UNWILLING_TO_PERFORM, ResultCode.INAPPROPRIATE_MATCHING, ResultCode.SORT_CONTROL_MISSING, ResultCode.OFFSET_RANGE_ERROR,
+            ResultCode.VIRTUAL_LIST_VIEW_ERROR };
+
     @Inject
     private Logger log;
 
@@ -63,6 +80,18 @@ public class PersonService implements Serializable, IPersonService {
     @Inject
     private OrganizationService organizationService;
 
+    @Inject
+    private ScimDeletionJournalService scimDeletionJournalService;
+
+    @Inject
+    private PersonCacheService personCacheService;
+
+    @Inject
+    private PersonSearchIndexService personSearchIndexService;
+
+    @Inject
+    private InumAllocatorService inumAllocatorService;
+
     private List<GluuCustomAttribute> mandatoryAttributes;
 
     /* (non-Javadoc)
@@ -101,11 +130,24 @@ public class PersonService implements Serializable, IPersonService {
         if (persons == null || persons.size() == 0) {
             person.setCreationDate(new Date());
             ldapEntryManager.persist(person);
+            personCacheService.invalidate(person.getDn());
+            personSearchIndexService.update(person);
         } else {
             throw new DuplicateEntryException("Duplicate UID value: " + person.getUid());
         }
     }
 
+    /* (non-Javadoc)
+     * @see org.gluu.oxtrust.ldap.service.IPersonService#addPersonWithoutUidCheck(org.gluu.oxtrust.model.GluuCustomPerson)
+     */
+    @Override
+    public void addPersonWithoutUidCheck(GluuCustomPerson person) {
+        person.setCreationDate(new Date());
+        ldapEntryManager.persist(person);
+        personCacheService.invalidate(person.getDn());
+        personSearchIndexService.update(person);
+    }
+
     /* (non-Javadoc)
      * @see org.gluu.oxtrust.ldap.service.IPersonService#updatePerson(org.gluu.oxtrust.model.GluuCustomPerson)
      */
@@ -113,6 +155,8 @@ public class PersonService implements Serializable, IPersonService {
     public void updatePerson(GluuCustomPerson person) {
         person.setUpdatedAt(new Date());
         ldapEntryManager.merge(person);
+        personCacheService.invalidate(person.getDn());
+        personSearchIndexService.update(person);
     }
 
     /* (non-Javadoc)
@@ -122,6 +166,24 @@ public class PersonService implements Serializable, IPersonService {
     public void removePerson(GluuCustomPerson person) {
         // Remove person
         ldapEntryManager.removeWithSubtree(person.getDn());
+        personCacheService.invalidate(person.getDn());
+        personSearchIndexService.remove(person);
+        scimDeletionJournalService.recordUser(person.getInum());
+    }
+
+    /* (non-Javadoc)
+     * @see org.gluu.oxtrust.ldap.service.IPersonService#refreshPerson(java.lang.String)
+     */
+    @Override
+    public GluuCustomPerson refreshPerson(String inum) {
+        personCacheService.invalidate(getDnForPerson(inum));
+
+        GluuCustomPerson person = getPersonByInum(inum);
+        if (person != null) {
+            personSearchIndexService.update(person);
+        }
+
+        return person;
     }
 
     /* (non-Javadoc)
@@ -129,6 +191,11 @@ public class PersonService implements Serializable, IPersonService {
      */
     @Override
     public List<GluuCustomPerson> searchPersons(String pattern, int sizeLimit) {
+        List<GluuCustomPerson> indexedPersons = searchIndexedPersons(pattern, sizeLimit);
+        if (indexedPersons != null) {
+            return indexedPersons;
+        }
+
         String[] targetArray = new String[] { pattern };
         Filter uidFilter = Filter.createSubstringFilter(OxTrustConstants.uid, null, targetArray, null);
         Filter mailFilter = Filter.createSubstringFilter(OxTrustConstants.mail, null, targetArray, null);
@@ -158,6 +225,74 @@ public class PersonService implements Serializable, IPersonService {
         return result;
     }
 
+    /**
+     * Search index finds only values and words starting with pattern. So its result is used only if it has sizeLimit
+     * persons which match pattern like LDAP substring filter does, i.e. if LDAP search can't return more persons
+     *
+     * @return null if LDAP should be searched
+     */
+    private List<GluuCustomPerson> searchIndexedPersons(String pattern, int sizeLimit) {
+        if ((sizeLimit <= 0) || (sizeLimit > MAX_INDEXED_SEARCH_SIZE) || StringHelper.isEmpty(pattern)) {
+            return null;
+        }
+
+        // Index has more attributes than LDAP filter, so it returns extra candidates which are filtered out
+        List<String> inums = personSearchIndexService.search(pattern, MAX_INDEXED_SEARCH_SIZE);
+        if ((inums == null) || (inums.size() < sizeLimit)) {
+            return null;
+        }
+
+        // Persons removed or changed by other nodes may be still in index
+        String lowerCasePattern = pattern.toLowerCase();
+        List<GluuCustomPerson> result = new ArrayList<GluuCustomPerson>(sizeLimit);
+        for (GluuCustomPerson person : findPersonsByInums(inums)) {
+            if (containsIgnoreCase(person.getUid(), lowerCasePattern) || containsIgnoreCase(person.getMail(), lowerCasePattern)
+                    || containsIgnoreCase(person.getDisplayName(), lowerCasePattern) || containsIgnoreCase(person.getIname(), lowerCasePattern)) {
+                result.add(person);
+                if (result.size() == sizeLimit) {
+                    return result;
+                }
+            }
+        }
+
+        return null;
+    }
+
+    private boolean containsIgnoreCase(String value, String lowerCasePattern) {
+        return (value != null) && value.toLowerCase().contains(lowerCasePattern);
+    }
+
+    /**
+     * Load persons found in search index in the same order
+     */
+    private List<GluuCustomPerson> findPersonsByInums(List<String> inums) {
+        if (inums.isEmpty()) {
+            return new ArrayList<GluuCustomPerson>();
+        }
+
+        List<Filter> inumFilters = new ArrayList<Filter>();
+        for (String inum : inums) {
+            inumFilters.add(Filter.createEqualityFilter(OxTrustConstants.inum, inum));
+        }
+
+        List<GluuCustomPerson> persons = ldapEntryManager.findEntries(getDnForPerson(null), GluuCustomPerson.class, Filter.createORFilter(inumFilters), 0);
+
+        Map<String, GluuCustomPerson> personsByInum = new HashMap<String, GluuCustomPerson>();
+        for (GluuCustomPerson person : persons) {
+            personsByInum.put(person.getInum(), person);
+        }
+
+        List<GluuCustomPerson> result = new ArrayList<GluuCustomPerson>(persons.size());
+        for (String inum : inums) {
+            GluuCustomPerson person = personsByInum.get(inum);
+            if (person != null) {
+                result.add(person);
+            }
+        }
+
+        return result;
+    }
+
     /* (non-Javadoc)
      * @see org.gluu.oxtrust.ldap.service.IPersonService#findPersons(org.gluu.oxtrust.model.GluuCustomPerson, int)
      */
@@ -167,6 +302,39 @@ public class PersonService implements Serializable, IPersonService {
         return ldapEntryManager.findEntries(person, 0, sizeLimit);
     }
 
+    /* (non-Javadoc)
+     * @see org.gluu.oxtrust.ldap.service.IPersonService#findPersonsPage(com.unboundid.ldap.sdk.Filter, int, int, java.lang.String, org.xdi.ldap.model.SortOrder, org.xdi.ldap.model.VirtualListViewResponse, java.lang.String[])
+     */
+    @Override
+    public List<GluuCustomPerson> findPersonsPage(Filter filter, int startIndex, int count, String sortBy, SortOrder sortOrder,
+            VirtualListViewResponse vlvResponse, String[] returnAttributes) throws Exception {
+        try {
+            return ldapEntryManager.findEntriesVirtualListView(getDnForPerson(null), GluuCustomPerson.class, filter, startIndex, count, sortBy,
+                    sortOrder, vlvResponse, returnAttributes);
+        } catch (Exception ex) {
+            ResultCode resultCode = getResultCode(ex);
+            if (!Arrays.asList(VLV_UNSUPPORTED_RESULT_CODES).contains(resultCode)) {
+                throw ex;
+            }
+
+            log.warn("Server can't return persons page with virtual list view ({}), falling back to search limited to {} persons", resultCode,
+                    Math.max(FALLBACK_SIZE_LIMIT, startIndex + count));
+        }
+
+        return ldapEntryManager.findEntriesSearchSearchResult(getDnForPerson(null), GluuCustomPerson.class, filter, startIndex, count,
+                Math.max(FALLBACK_SIZE_LIMIT, startIndex + count), sortBy, sortOrder, vlvResponse, returnAttributes);
+    }
+
+    private ResultCode getResultCode(Throwable ex) {
+        for (Throwable cause = ex; cause != null; cause = cause.getCause()) {
+            if (cause instanceof LDAPException) {
+                return ((LDAPException) cause).getResultCode();
+            }
+        }
+
+        return null;
+    }
+
     /* (non-Javadoc)
      * @see org.gluu.oxtrust.ldap.service.IPersonService#searchPersons(java.lang.String, int, java.util.List)
      */
@@ -250,6 +418,28 @@ public class PersonService implements Serializable, IPersonService {
         return result;
     }
 
+    /* (non-Javadoc)
+     * @see org.gluu.oxtrust.ldap.service.IPersonService#findPersonsByUidsOrMailids(java.util.List, java.util.List, java.lang.String[])
+     */
+    @Override
+    public List<GluuCustomPerson> findPersonsByUidsOrMailids(List<String> uids, List<String> mailids, String[] returnAttributes) {
+        List<Filter> filters = new ArrayList<Filter>();
+        for (String uid : uids) {
+            filters.add(Filter.createEqualityFilter(OxTrustConstants.uid, uid));
+        }
+        for (String mailid : mailids) {
+            filters.add(Filter.createEqualityFilter(OxTrustConstants.mail, mailid));
+        }
+
+        if (filters.isEmpty()) {
+            return new ArrayList<GluuCustomPerson>();
+        }
+
+        Filter filter = Filter.createORFilter(filters);
+
+        return ldapEntryManager.findEntries(getDnForPerson(null), GluuCustomPerson.class, returnAttributes, filter);
+    }
+
     /* (non-Javadoc)
      * @see org.gluu.oxtrust.ldap.service.IPersonService#findPersonByDn(java.lang.String, java.lang.String)
      */
@@ -286,7 +476,14 @@ public class PersonService implements Serializable, IPersonService {
      */
     @Override
     public GluuCustomPerson getPersonByDn(String dn) {
-        GluuCustomPerson result = ldapEntryManager.find(GluuCustomPerson.class, dn);
+        GluuCustomPerson result = personCacheService.getByDn(dn);
+        if (result != null) {
+            return result;
+        }
+
+        long cacheVersion = personCacheService.getVersion();
+        result = ldapEntryManager.find(GluuCustomPerson.class, dn);
+        personCacheService.put(result, cacheVersion);
 
         return result;
 
@@ -297,9 +494,15 @@ public class PersonService implements Serializable, IPersonService {
      */
     @Override
     public GluuCustomPerson getPersonByInum(String inum) {
-        GluuCustomPerson person = null;
+        GluuCustomPerson person = personCacheService.getByInum(inum);
+        if (person != null) {
+            return person;
+        }
+
         try{
+            long cacheVersion = personCacheService.getVersion();
             person = ldapEntryManager.find(GluuCustomPerson.class, getDnForPerson(inum));
+            personCacheService.put(person, cacheVersion);
         }catch (Exception e) {
             log.error("Failed to find Person by Inum " + inum, e);
         }
@@ -313,13 +516,20 @@ public class PersonService implements Serializable, IPersonService {
      */
     @Override
     public GluuCustomPerson getPersonByUid(String uid) {
+        GluuCustomPerson cachedPerson = personCacheService.getByUid(uid);
+        if (cachedPerson != null) {
+            return cachedPerson;
+        }
+
         GluuCustomPerson person = new GluuCustomPerson();
         person.setBaseDn(getDnForPerson(null));
         person.setUid(uid);
 
+        long cacheVersion = personCacheService.getVersion();
         List<GluuCustomPerson> persons = ldapEntryManager.findEntries(person);
 
         if ((persons != null) && (persons.size() > 0)) {
+            personCacheService.put(persons.get(0), cacheVersion);
             return persons.get(0);
         }
 
@@ -342,6 +552,11 @@ public class PersonService implements Serializable, IPersonService {
      */
     @Override
     public String generateInumForNewPerson() {
+        String allocatedInum = inumAllocatorService.allocate(OxTrustConstants.INUM_PERSON_OBJECTTYPE, 4, getDnForPerson(null));
+        if (allocatedInum != null) {
+            return allocatedInum;
+        }
+
         GluuCustomPerson person = null;
         String newInum = null;
 
@@ -26,7 +26,6 @@ import javax.ejb.Stateless;
 import javax.inject.Inject;
 import javax.inject.Named;
 import javax.xml.parsers.ParserConfigurationException;
-import javax.xml.validation.Schema;
 import javax.xml.xpath.XPath;
 import javax.xml.xpath.XPathExpressionException;
 import javax.xml.xpath.XPathFactory;
@@ -46,8 +45,6 @@ import org.gluu.oxtrust.model.SubversionFile;
 import org.gluu.oxtrust.util.EasyCASSLProtocolSocketFactory;
 import org.gluu.oxtrust.util.OxTrustConstants;
 import org.gluu.saml.metadata.SAMLMetadataParser;
-import org.opensaml.xml.schema.SchemaBuilder;
-import org.opensaml.xml.schema.SchemaBuilder.SchemaLanguage;
 import org.slf4j.Logger;
 import org.w3c.dom.Document;
 import org.xdi.config.oxtrust.AppConfiguration;
@@ -68,7 +65,6 @@ import org.xdi.util.io.FileUploadWrapper;
 import org.xdi.util.io.HTTPFileDownloader;
 import org.xdi.util.security.StringEncrypter.EncryptionException;
 import org.xdi.xml.GluuErrorHandler;
-import org.xdi.xml.XMLValidator;
 import org.xml.sax.InputSource;
 import org.xml.sax.SAXException;
 
@@ -167,6 +163,9 @@ public class Shibboleth3ConfService implements Serializable {
 	@Inject
 	private TrustService trustService;
 
+	@Inject
+	private MetadataSchemaService metadataSchemaService;
+
 	/*
 	 * Generate relying-party.xml, attribute-filter.xml, attribute-resolver.xml
 	 */
@@ -1373,21 +1372,7 @@ public class Shibboleth3ConfService implements Serializable {
          * @return GluuErrorHandler
 	 */
 	public GluuErrorHandler validateMetadata(InputStream stream) throws ParserConfigurationException, SAXException, IOException {
-                Schema schema;
-                try {
-                    String idpTemplatesLocation = configurationFactory.getIDPTemplatesLocation();
-                    // String schemaDir = OxTrustConfiguration.DIR + "shibboleth3" + File.separator + "idp" + File.separator + "schema" + File.separator;
-                    String schemaDir = idpTemplatesLocation + "shibboleth3" + File.separator + "idp" + File.separator + "schema" + File.separator;
-                    schema = SchemaBuilder.buildSchema(SchemaLanguage.XML, schemaDir);
-                } catch (Exception e) {
-                    // Schema build error 
-                    final List<String> validationLog = new ArrayList<String>();
-                    validationLog.add(GluuErrorHandler.SCHEMA_CREATING_ERROR_MESSAGE);
-                    validationLog.add(e.getMessage());
-                    // return internal error
-                    return new GluuErrorHandler(false, true, validationLog);
-                }
-		return XMLValidator.validateMetadata(stream, schema);
+		return metadataSchemaService.validateMetadata(stream);
 	}
 
 	public  boolean existsResourceUri(String URLName) {
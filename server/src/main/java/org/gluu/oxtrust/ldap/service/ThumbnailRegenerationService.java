@@ -0,0 +1,187 @@
+/*
+ * oxTrust is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2017, Gluu
+ */
+
+package org.gluu.oxtrust.ldap.service;
+
+import static org.gluu.oxtrust.ldap.service.AppInitializer.LDAP_BATCH_ENTRY_MANAGER_NAME;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import javax.inject.Named;
+
+import org.gluu.oxtrust.config.ConfigurationFactory;
+import org.gluu.oxtrust.util.PagedSearchUtil;
+import org.gluu.oxtrust.util.PagedSearchUtil.PageHandler;
+import org.gluu.site.ldap.persistence.LdapEntryManager;
+import org.slf4j.Logger;
+import org.xdi.model.GluuAttribute;
+import org.xdi.model.GluuAttributeDataType;
+import org.xdi.model.GluuImage;
+import org.xdi.model.GluuUserRole;
+import org.xdi.util.StringHelper;
+
+import com.unboundid.ldap.sdk.Filter;
+import com.unboundid.ldap.sdk.SearchRequest;
+import com.unboundid.ldap.sdk.SearchResultEntry;
+import com.unboundid.ldap.sdk.SearchScope;
+
+/**
+ * Generates thumbnails of existing person photos again, e.g. after new size was added to photoRepositoryThumbSizes.
+ *
+ * Job is started at startup if photoRepositoryRegenerateThumbnails property is "true" (only missing thumbnails are
+ * generated) or "force" (all thumbnails are generated). Persons are read with paged search and thumbnails are
+ * generated by thumbnails pool of {@link ImageRepository}.
+ */
+@ApplicationScoped
+@Named
+public class ThumbnailRegenerationService {
+
+	private static final String REGENERATE_PROPERTY = "photoRepositoryRegenerateThumbnails";
+
+	private static final int PAGE_SIZE = 500;
+
+	@Inject
+	private Logger log;
+
+	@Inject
+	@Named(LDAP_BATCH_ENTRY_MANAGER_NAME)
+	private LdapEntryManager ldapEntryManager;
+
+	@Inject
+	private IPersonService personService;
+
+	@Inject
+	private AttributeService attributeService;
+
+	@Inject
+	private ImageService imageService;
+
+	@Inject
+	private ImageRepository imageRepository;
+
+	@Inject
+	private ConfigurationFactory configurationFactory;
+
+	private final AtomicBoolean running = new AtomicBoolean();
+
+	public void init() {
+		String mode = configurationFactory.getLdapConfiguration().getString(REGENERATE_PROPERTY, null);
+		if ("true".equalsIgnoreCase(mode)) {
+			start(false);
+		} else if ("force".equalsIgnoreCase(mode)) {
+			start(true);
+		}
+	}
+
+	public boolean isRunning() {
+		return running.get();
+	}
+
+	/**
+	 * Starts regeneration in background
+	 *
+	 * @param force
+	 *            generate thumbnails even if all of them exist
+	 * @return false if regeneration is running already
+	 */
+	public boolean start(final boolean force) {
+		if (!running.compareAndSet(false, true)) {
+			return false;
+		}
+
+		Thread thread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					regenerate(force);
+				} finally {
+					running.set(false);
+				}
+			}
+		}, "thumbnail-regeneration");
+		thread.setDaemon(true);
+		thread.start();
+
+		return true;
+	}
+
+	private void regenerate(final boolean force) {
+		final List<String> photoAttributes = getPhotoAttributeNames();
+		if (photoAttributes.isEmpty()) {
+			return;
+		}
+
+		long startTime = System.currentTimeMillis();
+		final AtomicLong count = new AtomicLong();
+
+		List<Filter> filters = new ArrayList<Filter>();
+		for (String photoAttribute : photoAttributes) {
+			filters.add(Filter.createPresenceFilter(photoAttribute));
+		}
+
+		try {
+			SearchRequest searchRequest = new SearchRequest(personService.getDnForPerson(null), SearchScope.ONE, Filter.createORFilter(filters),
+					photoAttributes.toArray(new String[photoAttributes.size()]));
+
+			PagedSearchUtil.search(ldapEntryManager, searchRequest, PAGE_SIZE, new PageHandler<RuntimeException>() {
+				@Override
+				public void handle(List<SearchResultEntry> entries) {
+					for (SearchResultEntry entry : entries) {
+						for (String photoAttribute : photoAttributes) {
+							String[] values = entry.getAttributeValues(photoAttribute);
+							if (values == null) {
+								continue;
+							}
+
+							for (String value : values) {
+								if (regenerate(entry.getDN(), value, force)) {
+									count.incrementAndGet();
+								}
+							}
+						}
+					}
+				}
+			});
+
+			log.info("Scheduled generation of thumbnails for {} photos in {} ms", count.get(), System.currentTimeMillis() - startTime);
+		} catch (Exception ex) {
+			log.error("Failed to regenerate photo thumbnails", ex);
+		}
+	}
+
+	private boolean regenerate(String dn, String imageXml, boolean force) {
+		if (StringHelper.isEmpty(imageXml)) {
+			return false;
+		}
+
+		try {
+			GluuImage image = imageService.getGluuImageFromXML(imageXml);
+
+			return (image != null) && imageRepository.regenerateThumbnails(image, force);
+		} catch (Exception ex) {
+			log.error("Failed to regenerate thumbnails of photo of '{}'", dn, ex);
+		}
+
+		return false;
+	}
+
+	private List<String> getPhotoAttributeNames() {
+		List<String> result = new ArrayList<String>();
+		for (GluuAttribute attribute : attributeService.getAllPersonAttributes(GluuUserRole.ADMIN)) {
+			if (GluuAttributeDataType.PHOTO.equals(attribute.getDataType())) {
+				result.add(attribute.getName());
+			}
+		}
+
+		return result;
+	}
+
+}
@@ -8,7 +8,9 @@ package org.gluu.oxtrust.model;
 
 import java.io.Serializable;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import org.gluu.site.ldap.persistence.annotation.LdapCustomObjectClass;
 import org.xdi.ldap.model.Entry;
@@ -26,6 +28,12 @@ public abstract class CustomEntry extends Entry implements Serializable, Cloneab
 	@LdapCustomObjectClass
 	private String[] customObjectClasses;
 
+	// Positions of custom attributes by lower case name. List and attribute names can be changed directly, so index is
+	// built for list instance and size, found attribute name is checked before use and list is scanned on index miss
+	private transient Map<String, Integer> attributeIndex;
+	private transient List<GluuCustomAttribute> indexedAttributes;
+	private transient int indexedSize;
+
 	public abstract List<GluuCustomAttribute> getCustomAttributes();
 
 	public abstract void setCustomAttributes(List<GluuCustomAttribute> customAttributes);
@@ -39,33 +47,83 @@ public abstract class CustomEntry extends Entry implements Serializable, Cloneab
 	}
 
 	public String[] getAttributes(String attributeName) {
-		if (StringHelper.isEmpty(attributeName)) {
-			return null;
+		GluuCustomAttribute attribute = findCustomAttribute(attributeName);
+
+		return attribute == null ? null : attribute.getValues();
+	}
+
+	public String getAttribute(String attributeName) {
+		GluuCustomAttribute attribute = findCustomAttribute(attributeName);
+
+		return attribute == null ? null : attribute.getValue();
+	}
+
+	/**
+	 * Find first custom attribute with specified name ignoring case
+	 */
+	protected GluuCustomAttribute findCustomAttribute(String attributeName) {
+		int position = findCustomAttributePosition(attributeName);
+
+		return position < 0 ? null : getCustomAttributes().get(position);
+	}
+
+	/**
+	 * @return position of first custom attribute with specified name ignoring case or -1
+	 */
+	protected int findCustomAttributePosition(String attributeName) {
+		List<GluuCustomAttribute> customAttributes = getCustomAttributes();
+		if (StringHelper.isEmpty(attributeName) || (customAttributes == null)) {
+			return -1;
+		}
+
+		String key = StringHelper.toLowerCase(attributeName);
+		Integer position = getAttributeIndex(customAttributes).get(key);
+		if ((position != null) && StringHelper.equalsIgnoreCase(customAttributes.get(position).getName(), attributeName)) {
+			return position;
 		}
 
-		String[] values = null;
-		for (GluuCustomAttribute attribute : getCustomAttributes()) {
-			if (StringHelper.equalsIgnoreCase(attribute.getName(), attributeName)) {
-				values = attribute.getValues();
-				break;
+		// Index can't prove that attribute is missing after list was changed without changing size or attribute was
+		// renamed, so list is scanned as before index was added
+		for (int i = 0; i < customAttributes.size(); i++) {
+			if (StringHelper.equalsIgnoreCase(customAttributes.get(i).getName(), attributeName)) {
+				invalidateAttributeIndex();
+				return i;
 			}
 		}
-		return values;
+
+		if (position != null) {
+			invalidateAttributeIndex();
+		}
+
+		return -1;
 	}
 
-	public String getAttribute(String attributeName) {
-		if (StringHelper.isEmpty(attributeName)) {
-			return null;
+	private Map<String, Integer> getAttributeIndex(List<GluuCustomAttribute> customAttributes) {
+		if ((attributeIndex != null) && (indexedAttributes == customAttributes) && (indexedSize == customAttributes.size())) {
+			return attributeIndex;
 		}
 
-		String value = null;
-		for (GluuCustomAttribute attribute : getCustomAttributes()) {
-			if (StringHelper.equalsIgnoreCase(attribute.getName(), attributeName)) {
-				value = attribute.getValue();
-				break;
+		Map<String, Integer> newIndex = new HashMap<String, Integer>();
+		for (int i = 0; i < customAttributes.size(); i++) {
+			String name = customAttributes.get(i).getName();
+			if (name != null) {
+				String key = StringHelper.toLowerCase(name);
+				if (!newIndex.containsKey(key)) {
+					newIndex.put(key, i);
+				}
 			}
 		}
-		return value;
+
+		this.attributeIndex = newIndex;
+		this.indexedAttributes = customAttributes;
+		this.indexedSize = customAttributes.size();
+
+		return newIndex;
+	}
+
+	protected void invalidateAttributeIndex() {
+		this.attributeIndex = null;
+		this.indexedAttributes = null;
 	}
 
 	public String getAttribute(String attributeName, String defaultValue) {
@@ -89,6 +147,7 @@ public abstract class CustomEntry extends Entry implements Serializable, Cloneab
 		List<GluuCustomAttribute> customAttributes = getCustomAttributes();
 		customAttributes.remove(attribute);
 		customAttributes.add(attribute);
+		invalidateAttributeIndex();
 	}
 
 	@Override
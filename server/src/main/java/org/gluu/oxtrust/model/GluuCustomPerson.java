@@ -13,7 +13,6 @@ import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -74,6 +73,9 @@ public class GluuCustomPerson extends User
     private Set<String> schemas = new HashSet<String>();
     private Map<String, Extension> extensions = new HashMap<String, Extension>();
 
+    // Values decoded from attributes by type. They are valid while attribute values array is the same
+    private transient Map<String, DecodedValue> decodedValues;
+
     public String getIname() {
         return getAttribute("iname");
     }
@@ -156,11 +158,9 @@ public class GluuCustomPerson extends User
 
     public List<String> getMemberOf() {
         String[] value = {};
-        for (GluuCustomAttribute attribute : customAttributes) {
-            if (attribute.getName().equalsIgnoreCase("memberOf")) {
-                value = attribute.getValues();
-                break;
-            }
+        GluuCustomAttribute attribute = findCustomAttribute("memberOf");
+        if (attribute != null) {
+            value = attribute.getValues();
         }
         return Arrays.asList(value);
     }
@@ -194,26 +194,15 @@ public class GluuCustomPerson extends User
     }
 
     public int getAttributeIndex(String attributeName) {
-        int idx = 0;
-        for (GluuCustomAttribute attribute : customAttributes) {
-            if (attribute.getName().equalsIgnoreCase(attributeName)) {
-                return idx;
-            }
-            idx++;
-        }
+        int idx = findCustomAttributePosition(attributeName);
 
-        return idx;
+        return idx < 0 ? customAttributes.size() : idx;
     }
 
     public String getAttribute(String attributeName) {
-        String value = null;
-        for (GluuCustomAttribute attribute : customAttributes) {
-            if (attribute.getName().equalsIgnoreCase(attributeName)) {
-                value = attribute.getValue();
-                break;
-            }
-        }
-        return value;
+        GluuCustomAttribute attribute = findCustomAttribute(attributeName);
+
+        return attribute == null ? null : attribute.getValue();
     }
 
     public String[] getAttributeArray(String attributeName) {
@@ -227,13 +216,7 @@ public class GluuCustomPerson extends User
     }
 
     public GluuCustomAttribute getGluuCustomAttribute(String attributeName) {
-        for (GluuCustomAttribute gluuCustomAttribute : customAttributes) {
-            if (gluuCustomAttribute.getName().equalsIgnoreCase(attributeName)) {
-                return gluuCustomAttribute;
-            }
-        }
-
-        return null;
+        return findCustomAttribute(attributeName);
     }
 
     public void setAttribute(String attributeName, String attributeValue) {
@@ -241,6 +224,7 @@ public class GluuCustomPerson extends User
                                                                 attributeValue);
         customAttributes.remove(attribute);
         customAttributes.add(attribute);
+        invalidateAttributeIndex();
     }
 
     public void setAttribute(String attributeName, String[] attributeValue) {
@@ -248,16 +232,14 @@ public class GluuCustomPerson extends User
                                                                 attributeValue);
         customAttributes.remove(attribute);
         customAttributes.add(attribute);
+        invalidateAttributeIndex();
     }
 
     public void removeAttribute(String attributeName) {
-        for (Iterator<GluuCustomAttribute> it = customAttributes.iterator(); 
-                                                                it.hasNext();) {
-            GluuCustomAttribute attribute = (GluuCustomAttribute) it.next();
-            if (attribute.getName().equalsIgnoreCase(attributeName)) {
-                it.remove();
-                break;
-            }
+        int idx = findCustomAttributePosition(attributeName);
+        if (idx >= 0) {
+            customAttributes.remove(idx);
+            invalidateAttributeIndex();
         }
     }
 
@@ -400,7 +382,52 @@ public class GluuCustomPerson extends User
     }
     
     public GluuCustomPerson clone() throws CloneNotSupportedException{
-    	return (GluuCustomPerson) super.clone();
+    	GluuCustomPerson clone = (GluuCustomPerson) super.clone();
+    	clone.decodedValues = null;
+
+    	return clone;
+    }
+
+    /**
+     * Get value decoded from attribute before with {@link #setDecodedValue(String, Class, Object)}
+     *
+     * @return decoded value or null if attribute was changed after decoding
+     */
+    public Object getDecodedValue(String attributeName, Class<?> type) {
+        if (decodedValues == null) {
+            return null;
+        }
+
+        DecodedValue decodedValue = decodedValues.get(getDecodedValueKey(attributeName, type));
+        if ((decodedValue == null) || (decodedValue.source != getAttributeArray(attributeName))) {
+            return null;
+        }
+
+        return decodedValue.value;
+    }
+
+    public void setDecodedValue(String attributeName, Class<?> type, Object value) {
+        if (decodedValues == null) {
+            decodedValues = new HashMap<String, DecodedValue>();
+        }
+
+        decodedValues.put(getDecodedValueKey(attributeName, type), new DecodedValue(getAttributeArray(attributeName), value));
+    }
+
+    private String getDecodedValueKey(String attributeName, Class<?> type) {
+        return attributeName.toLowerCase() + ":" + type.getName();
+    }
+
+    private static class DecodedValue {
+
+        private final String[] source;
+        private final Object value;
+
+        public DecodedValue(String[] source, Object value) {
+            this.source = source;
+            this.value = value;
+        }
+
     }
 
 	public String getGuid() {
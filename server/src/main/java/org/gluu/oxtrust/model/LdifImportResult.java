@@ -0,0 +1,102 @@
+/*
+ * oxTrust is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2017, Gluu
+ */
+
+package org.gluu.oxtrust.model;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.unboundid.ldap.sdk.ResultCode;
+
+/**
+ * Result of LDIF import with error of each failed entry
+ */
+public class LdifImportResult implements Serializable {
+
+	private static final long serialVersionUID = -6128940227384409731L;
+
+	private long imported;
+	private long skipped;
+	private long resumedFrom;
+	private List<EntryError> errors = new ArrayList<EntryError>();
+
+	public long getImported() {
+		return imported;
+	}
+
+	public void setImported(long imported) {
+		this.imported = imported;
+	}
+
+	public long getSkipped() {
+		return skipped;
+	}
+
+	public void setSkipped(long skipped) {
+		this.skipped = skipped;
+	}
+
+	public long getResumedFrom() {
+		return resumedFrom;
+	}
+
+	public void setResumedFrom(long resumedFrom) {
+		this.resumedFrom = resumedFrom;
+	}
+
+	public List<EntryError> getErrors() {
+		return errors;
+	}
+
+	public void setErrors(List<EntryError> errors) {
+		this.errors = errors;
+	}
+
+	public boolean isSuccess() {
+		return errors.isEmpty();
+	}
+
+	public static class EntryError implements Serializable {
+
+		private static final long serialVersionUID = 2709853166012846530L;
+
+		private long index;
+		private String dn;
+		private ResultCode resultCode;
+		private String message;
+
+		public EntryError(long index, String dn, ResultCode resultCode, String message) {
+			this.index = index;
+			this.dn = dn;
+			this.resultCode = resultCode;
+			this.message = message;
+		}
+
+		public long getIndex() {
+			return index;
+		}
+
+		public String getDn() {
+			return dn;
+		}
+
+		public ResultCode getResultCode() {
+			return resultCode;
+		}
+
+		public String getMessage() {
+			return message;
+		}
+
+		@Override
+		public String toString() {
+			return "EntryError [index=" + index + ", dn=" + dn + ", resultCode=" + resultCode + ", message=" + message + "]";
+		}
+
+	}
+
+}
@@ -0,0 +1,233 @@
+/*
+ * oxTrust is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2017, Gluu
+ */
+
+package org.gluu.oxtrust.model;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.el.ValueExpression;
+import javax.faces.context.FacesContext;
+
+import org.gluu.oxtrust.ldap.service.IPersonService;
+import org.richfaces.component.SortOrder;
+import org.richfaces.model.Arrangeable;
+import org.richfaces.model.ArrangeableState;
+import org.richfaces.model.DataVisitor;
+import org.richfaces.model.ExtendedDataModel;
+import org.richfaces.model.FilterField;
+import org.richfaces.model.Range;
+import org.richfaces.model.SequenceRange;
+import org.richfaces.model.SortField;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xdi.ldap.model.VirtualListViewResponse;
+import org.xdi.util.StringHelper;
+
+import com.unboundid.ldap.sdk.Filter;
+
+/**
+ * Lazy data model of white pages table. Only visible page of published persons is loaded from LDAP with minimal set of
+ * attributes. Sorting and filtering are done by LDAP server. Row key is person DN
+ */
+public class WhitePagesDataModel extends ExtendedDataModel<GluuCustomPerson> implements Arrangeable, Serializable {
+
+	private static final long serialVersionUID = -3478319034236713561L;
+
+	private static final Logger log = LoggerFactory.getLogger(WhitePagesDataModel.class);
+
+	public static final String[] RETURN_ATTRIBUTES = { "inum", "uid", "cn", "mail", "telephoneNumber", "gluuOptOuts" };
+
+	// Attributes which can be used for filtering and sorting
+	private static final List<String> TABLE_ATTRIBUTES = Arrays.asList("cn", "mail", "telephoneNumber");
+	private static final String DEFAULT_SORT_ATTRIBUTE = "cn";
+
+	private static final Pattern ATTRIBUTE_EXPRESSION_PATTERN = Pattern.compile("getAttribute\\('([^']+)'\\)");
+
+	private static final int DEFAULT_PAGE_SIZE = 25;
+
+	private final IPersonService personService;
+	private final Filter baseFilter;
+
+	private Filter filter;
+	private String sortBy = DEFAULT_SORT_ATTRIBUTE;
+	private org.xdi.ldap.model.SortOrder sortOrder = org.xdi.ldap.model.SortOrder.ASCENDING;
+
+	private int rowCount = -1;
+	private int pageFirstRow = -1;
+	private int pageRows = -1;
+	private List<GluuCustomPerson> page = Collections.emptyList();
+	private Map<String, GluuCustomPerson> pageByDn = new HashMap<String, GluuCustomPerson>();
+
+	private Object rowKey;
+
+	public WhitePagesDataModel(IPersonService personService, Filter baseFilter) {
+		this.personService = personService;
+		this.baseFilter = baseFilter;
+		this.filter = baseFilter;
+	}
+
+	@Override
+	public void arrange(FacesContext context, ArrangeableState state) {
+		Filter newFilter = baseFilter;
+		String newSortBy = DEFAULT_SORT_ATTRIBUTE;
+		org.xdi.ldap.model.SortOrder newSortOrder = org.xdi.ldap.model.SortOrder.ASCENDING;
+
+		if (state != null) {
+			List<Filter> filters = new ArrayList<Filter>();
+			filters.add(baseFilter);
+			if (state.getFilterFields() != null) {
+				for (FilterField filterField : state.getFilterFields()) {
+					String attribute = getAttributeName(filterField.getFilterExpression());
+					Object filterValue = filterField.getFilterValue();
+					if ((attribute != null) && (filterValue != null) && StringHelper.isNotEmpty(filterValue.toString())) {
+						filters.add(Filter.createSubstringFilter(attribute, null, new String[] { filterValue.toString() }, null));
+					}
+				}
+			}
+			if (filters.size() > 1) {
+				newFilter = Filter.createANDFilter(filters);
+			}
+
+			if (state.getSortFields() != null) {
+				for (SortField sortField : state.getSortFields()) {
+					String attribute = getAttributeName(sortField.getSortBy());
+					if ((attribute != null) && !SortOrder.unsorted.equals(sortField.getSortOrder())) {
+						newSortBy = attribute;
+						newSortOrder = SortOrder.descending.equals(sortField.getSortOrder()) ? org.xdi.ldap.model.SortOrder.DESCENDING
+								: org.xdi.ldap.model.SortOrder.ASCENDING;
+						break;
+					}
+				}
+			}
+		}
+
+		if (!newFilter.equals(this.filter) || !newSortBy.equals(this.sortBy) || !newSortOrder.equals(this.sortOrder)) {
+			this.filter = newFilter;
+			this.sortBy = newSortBy;
+			this.sortOrder = newSortOrder;
+			reset();
+		}
+	}
+
+	@Override
+	public void walk(FacesContext context, DataVisitor visitor, Range range, Object argument) {
+		SequenceRange sequenceRange = (SequenceRange) range;
+		int firstRow = Math.max(0, sequenceRange.getFirstRow());
+		int rows = sequenceRange.getRows() > 0 ? sequenceRange.getRows() : DEFAULT_PAGE_SIZE;
+
+		loadPage(firstRow, rows);
+
+		for (GluuCustomPerson person : page) {
+			visitor.process(context, person.getDn(), argument);
+		}
+	}
+
+	private void loadPage(int firstRow, int rows) {
+		if ((firstRow == pageFirstRow) && (rows == pageRows)) {
+			return;
+		}
+
+		VirtualListViewResponse vlvResponse = new VirtualListViewResponse();
+		List<GluuCustomPerson> persons;
+		try {
+			persons = personService.findPersonsPage(filter, firstRow + 1, rows, sortBy, sortOrder, vlvResponse, RETURN_ATTRIBUTES);
+		} catch (Exception ex) {
+			log.error("Failed to find persons page", ex);
+			persons = null;
+		}
+
+		if (persons == null) {
+			persons = Collections.emptyList();
+		}
+
+		this.page = persons;
+		this.pageByDn = new HashMap<String, GluuCustomPerson>();
+		for (GluuCustomPerson person : persons) {
+			this.pageByDn.put(person.getDn(), person);
+		}
+		this.pageFirstRow = firstRow;
+		this.pageRows = rows;
+		this.rowCount = vlvResponse.getTotalResults();
+	}
+
+	public void reset() {
+		this.rowCount = -1;
+		this.pageFirstRow = -1;
+		this.pageRows = -1;
+		this.page = Collections.emptyList();
+		this.pageByDn = new HashMap<String, GluuCustomPerson>();
+	}
+
+	private String getAttributeName(ValueExpression expression) {
+		if (expression == null) {
+			return null;
+		}
+
+		Matcher matcher = ATTRIBUTE_EXPRESSION_PATTERN.matcher(expression.getExpressionString());
+		if (matcher.find() && TABLE_ATTRIBUTES.contains(matcher.group(1))) {
+			return matcher.group(1);
+		}
+
+		return null;
+	}
+
+	@Override
+	public Object getRowKey() {
+		return rowKey;
+	}
+
+	@Override
+	public void setRowKey(Object rowKey) {
+		this.rowKey = rowKey;
+	}
+
+	@Override
+	public boolean isRowAvailable() {
+		return (rowKey != null) && pageByDn.containsKey(rowKey);
+	}
+
+	@Override
+	public int getRowCount() {
+		if (rowCount < 0) {
+			loadPage(0, DEFAULT_PAGE_SIZE);
+		}
+
+		return rowCount;
+	}
+
+	@Override
+	public GluuCustomPerson getRowData() {
+		return rowKey == null ? null : pageByDn.get(rowKey);
+	}
+
+	@Override
+	public int getRowIndex() {
+		return -1;
+	}
+
+	@Override
+	public void setRowIndex(int rowIndex) {
+	}
+
+	@Override
+	public Object getWrappedData() {
+		return page;
+	}
+
+	@Override
+	public void setWrappedData(Object data) {
+		// Data is loaded from LDAP by page. Components may reset wrapped data, it's ignored
+	}
+
+}
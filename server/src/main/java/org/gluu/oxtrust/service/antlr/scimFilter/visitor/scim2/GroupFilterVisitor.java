@@ -7,6 +7,8 @@ package org.gluu.oxtrust.service.antlr.scimFilter.visitor.scim2;
 
 import java.lang.annotation.Annotation;
 import java.lang.reflect.Field;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -80,6 +82,13 @@ public class GroupFilterVisitor extends MainScimFilterVisitor {
         return ldapAttributeName;
     }
 
+    /**
+     * @return LDAP names of all attributes mapped to Group resource
+     */
+    public static Collection<String> getGroupLdapAttributeNames() {
+        return Collections.unmodifiableCollection(declaredAnnotations.values());
+    }
+
     private String attrOperCriteriaResolver(String attrName, String operator, String criteria) {
 
         logger.info(" GroupFilterVisitor.attrOperCriteriaResolver() ");
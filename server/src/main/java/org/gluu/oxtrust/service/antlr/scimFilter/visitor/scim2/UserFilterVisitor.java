@@ -7,6 +7,8 @@ package org.gluu.oxtrust.service.antlr.scimFilter.visitor.scim2;
 
 import java.lang.annotation.Annotation;
 import java.lang.reflect.Field;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -87,6 +89,13 @@ public class UserFilterVisitor extends MainScimFilterVisitor {
         return ldapAttributeName;
     }
 
+    /**
+     * @return LDAP names of all attributes mapped to User resource
+     */
+    public static Collection<String> getUserLdapAttributeNames() {
+        return Collections.unmodifiableCollection(declaredAnnotations.values());
+    }
+
     private String attrOperCriteriaResolver(String attrName, String operator, String criteria) {
 
         logger.info(" UserFilterVisitor.attrOperCriteriaResolver() ");
@@ -0,0 +1,36 @@
+/*
+ * oxTrust is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2017, Gluu
+ */
+
+package org.gluu.oxtrust.service.cdi.event;
+
+import static java.lang.annotation.ElementType.FIELD;
+import static java.lang.annotation.ElementType.METHOD;
+import static java.lang.annotation.ElementType.TYPE;
+import static java.lang.annotation.RetentionPolicy.RUNTIME;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.Target;
+
+import javax.enterprise.util.AnnotationLiteral;
+import javax.inject.Qualifier;
+
+/**
+ * Qualifier of LDAP entry manager with connection pool dedicated to background jobs
+ */
+@Qualifier
+@Retention(RUNTIME)
+@Target({ TYPE, METHOD, FIELD })
+public @interface BatchLdap {
+
+	public static final class Literal extends AnnotationLiteral<BatchLdap> implements BatchLdap {
+
+		public static final Literal INSTANCE = new Literal();
+
+		private static final long serialVersionUID = 1L;
+
+	}
+
+}
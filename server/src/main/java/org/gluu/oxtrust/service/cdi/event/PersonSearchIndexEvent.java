@@ -0,0 +1,14 @@
+/*
+ * oxTrust is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2017, Gluu
+ */
+
+package org.gluu.oxtrust.service.cdi.event;
+
+/**
+ * Periodic refresh of person search index
+ */
+public class PersonSearchIndexEvent {
+
+}
@@ -5,6 +5,8 @@
  */
 package org.gluu.oxtrust.service.external;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 
 import javax.enterprise.context.ApplicationScoped;
@@ -25,6 +27,12 @@ import org.xdi.service.custom.script.ExternalScriptService;
 @Named
 public class ExternalScimService extends ExternalScriptService {
 
+    /**
+     * Script configuration property which moves script out of request path. Such script is called after entry was
+     * written to LDAP from the SCIM script outbox and its result can't veto the operation
+     */
+    public static final String ASYNC_POST_COMMIT_PROPERTY = "async_post_commit";
+
     public ExternalScimService() {
         super(CustomScriptType.SCIM);
         System.out.println(">>>>> Initializing ExternalScimService()...");
@@ -173,6 +181,9 @@ public class ExternalScimService extends ExternalScriptService {
         boolean result = true;
 
         for (CustomScriptConfiguration customScriptConfiguration : this.customScriptConfigurations) {
+            if (isAsyncPostCommit(customScriptConfiguration)) {
+                continue;
+            }
 
             result &= executeScimCreateUserMethod(user, customScriptConfiguration);
 
@@ -189,6 +200,9 @@ public class ExternalScimService extends ExternalScriptService {
         boolean result = true;
 
         for (CustomScriptConfiguration customScriptConfiguration : this.customScriptConfigurations) {
+            if (isAsyncPostCommit(customScriptConfiguration)) {
+                continue;
+            }
 
             result &= executeScimUpdateUserMethod(user, customScriptConfiguration);
 
@@ -205,6 +219,9 @@ public class ExternalScimService extends ExternalScriptService {
         boolean result = true;
 
         for (CustomScriptConfiguration customScriptConfiguration : this.customScriptConfigurations) {
+            if (isAsyncPostCommit(customScriptConfiguration)) {
+                continue;
+            }
 
             result &= executeScimDeleteUserMethod(user, customScriptConfiguration);
 
@@ -221,6 +238,9 @@ public class ExternalScimService extends ExternalScriptService {
         boolean result = true;
 
         for (CustomScriptConfiguration customScriptConfiguration : this.customScriptConfigurations) {
+            if (isAsyncPostCommit(customScriptConfiguration)) {
+                continue;
+            }
 
             result &= executeScimCreateGroupMethod(group, customScriptConfiguration);
 
@@ -237,6 +257,9 @@ public class ExternalScimService extends ExternalScriptService {
         boolean result = true;
 
         for (CustomScriptConfiguration customScriptConfiguration : this.customScriptConfigurations) {
+            if (isAsyncPostCommit(customScriptConfiguration)) {
+                continue;
+            }
 
             result &= executeScimUpdateGroupMethod(group, customScriptConfiguration);
 
@@ -253,6 +276,9 @@ public class ExternalScimService extends ExternalScriptService {
         boolean result = true;
 
         for (CustomScriptConfiguration customScriptConfiguration : this.customScriptConfigurations) {
+            if (isAsyncPostCommit(customScriptConfiguration)) {
+                continue;
+            }
 
             result &= executeScimDeleteGroupMethod(group, customScriptConfiguration);
 
@@ -264,4 +290,57 @@ public class ExternalScimService extends ExternalScriptService {
         return result;
     }
 
+    public boolean isAsyncPostCommit(CustomScriptConfiguration customScriptConfiguration) {
+        Map<String, SimpleCustomProperty> configurationAttributes = customScriptConfiguration.getConfigurationAttributes();
+        if (configurationAttributes == null) {
+            return false;
+        }
+
+        SimpleCustomProperty asyncProperty = configurationAttributes.get(ASYNC_POST_COMMIT_PROPERTY);
+
+        return (asyncProperty != null) && Boolean.parseBoolean(asyncProperty.getValue1());
+    }
+
+    /**
+     * @return true if there is at least one enabled script which should be called before entry is written
+     */
+    public boolean isInlineEnabled() {
+        if (!isEnabled()) {
+            return false;
+        }
+
+        for (CustomScriptConfiguration customScriptConfiguration : this.customScriptConfigurations) {
+            if (!isAsyncPostCommit(customScriptConfiguration)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    public List<CustomScriptConfiguration> getAsyncPostCommitConfigurations() {
+        List<CustomScriptConfiguration> result = new ArrayList<CustomScriptConfiguration>();
+        if (!isEnabled()) {
+            return result;
+        }
+
+        for (CustomScriptConfiguration customScriptConfiguration : this.customScriptConfigurations) {
+            if (isAsyncPostCommit(customScriptConfiguration)) {
+                result.add(customScriptConfiguration);
+            }
+        }
+
+        return result;
+    }
+
+    public CustomScriptConfiguration getAsyncPostCommitConfiguration(String name) {
+        for (CustomScriptConfiguration customScriptConfiguration : getAsyncPostCommitConfigurations()) {
+            if (customScriptConfiguration.getName().equals(name)) {
+                return customScriptConfiguration;
+            }
+        }
+
+        return null;
+    }
+
 }
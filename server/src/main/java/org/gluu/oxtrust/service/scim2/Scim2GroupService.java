@@ -50,6 +50,9 @@ public class Scim2GroupService implements Serializable {
     @Inject
     private ServiceUtil serviceUtil;
 
+    @Inject
+    private ScimScriptOutboxService scimScriptOutboxService;
+
     public Group createGroup(Group group) throws Exception {
         log.debug(" copying gluuGroup ");
         GluuGroup gluuGroup = copyUtils2.copy(group, null, false);
@@ -96,6 +99,7 @@ public class Scim2GroupService implements Serializable {
 
         log.debug("adding new GluuGroup");
         groupService.addGroup(gluuGroup);
+        scimScriptOutboxService.enqueueGroup(ScimScriptOutboxEntry.Operation.CREATE_GROUP, gluuGroup);
 
         Group createdGroup = copyUtils2.copy(gluuGroup, null);
 
@@ -148,6 +152,7 @@ public class Scim2GroupService implements Serializable {
         }
 
         groupService.updateGroup(updatedGluuGroup);
+        scimScriptOutboxService.enqueueGroup(ScimScriptOutboxEntry.Operation.UPDATE_GROUP, updatedGluuGroup);
 
         log.debug(" group updated ");
 
@@ -188,6 +193,7 @@ public class Scim2GroupService implements Serializable {
 
             log.info(" removing the group ");
             groupService.removeGroup(gluuGroup);
+            scimScriptOutboxService.enqueueGroup(ScimScriptOutboxEntry.Operation.DELETE_GROUP, gluuGroup);
         }
     }
 }
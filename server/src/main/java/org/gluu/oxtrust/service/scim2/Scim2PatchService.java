@@ -0,0 +1,314 @@
+/*
+ * oxTrust is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2017, Gluu
+ */
+package org.gluu.oxtrust.service.scim2;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import javax.ejb.Stateless;
+import javax.inject.Inject;
+import javax.inject.Named;
+
+import org.codehaus.jackson.map.ObjectMapper;
+import org.gluu.oxtrust.ldap.service.AppInitializer;
+import org.gluu.oxtrust.ldap.service.IPersonService;
+import org.gluu.oxtrust.model.GluuCustomPerson;
+import org.gluu.oxtrust.model.scim2.Name;
+import org.gluu.oxtrust.model.scim2.Operation;
+import org.gluu.oxtrust.model.scim2.ScimPatchUser;
+import org.gluu.oxtrust.model.scim2.User;
+import org.gluu.oxtrust.service.external.ExternalScimService;
+import org.gluu.oxtrust.util.ServiceUtil;
+import org.gluu.site.ldap.exception.DuplicateEntryException;
+import org.gluu.site.ldap.persistence.LdapEntryManager;
+import org.gluu.site.ldap.persistence.exception.EntryPersistenceException;
+import org.joda.time.DateTime;
+import org.joda.time.format.DateTimeFormatter;
+import org.joda.time.format.ISODateTimeFormat;
+import org.slf4j.Logger;
+import org.xdi.ldap.model.GluuBoolean;
+import org.xdi.util.StringHelper;
+
+import com.unboundid.ldap.sdk.LDAPConnection;
+import com.unboundid.ldap.sdk.LDAPException;
+import com.unboundid.ldap.sdk.Modification;
+import com.unboundid.ldap.sdk.ModificationType;
+import com.unboundid.ldap.sdk.ResultCode;
+import com.unboundid.util.StaticUtils;
+
+/**
+ * Applies SCIM user PATCH operations as a single LDAP modify request which touches only affected attributes.
+ *
+ * Operations which need existing values to be merged (replace/remove of multi-valued attributes, emails which are
+ * synced into mail, groups, extensions) or which should be visible to custom scripts are not supported here. In this
+ * case {@link #applyPatch(String, ScimPatchUser)} returns false and caller should use full read-update path.
+ */
+@Stateless
+@Named
+public class Scim2PatchService implements Serializable {
+
+	private static final long serialVersionUID = 4156744285264738216L;
+
+	private static final String OPERATION_ADD = "add";
+	private static final String OPERATION_REPLACE = "replace";
+	private static final String OPERATION_REMOVE = "remove";
+
+	@Inject
+	private Logger log;
+
+	@Inject
+	private IPersonService personService;
+
+	@Inject
+	private ExternalScimService externalScimService;
+
+	@Inject @Named(AppInitializer.LDAP_SCIM_ENTRY_MANAGER_NAME)
+	private LdapEntryManager ldapEntryManager;
+
+	/**
+	 * Try to apply patch with minimal LDAP modify request
+	 *
+	 * @return false if patch contains operations which can't be applied without reading and rewriting entry
+	 */
+	public boolean applyPatch(String id, ScimPatchUser patchUser) throws Exception {
+		// Inline update scripts expect full person entry
+		if (externalScimService.isInlineEnabled()) {
+			return false;
+		}
+
+		List<Modification> modifications = buildModifications(patchUser);
+		if (modifications == null) {
+			return false;
+		}
+
+		for (Operation operation : patchUser.getOperatons()) {
+			if (OPERATION_REPLACE.equalsIgnoreCase(operation.getOperationName())) {
+				validateUserName(operation.getValue(), id);
+			}
+		}
+
+		addMetaModifications(modifications, id);
+
+		String dn = personService.getDnForPerson(id);
+		log.debug("Applying minimal patch to '{}': {}", dn, modifications);
+
+		LDAPConnection connection = ldapEntryManager.getLdapOperationService().getConnection();
+		try {
+			connection.modify(dn, modifications);
+		} catch (LDAPException ex) {
+			if (ResultCode.NO_SUCH_OBJECT.equals(ex.getResultCode())) {
+				throw new EntryPersistenceException("Scim2PatchService.applyPatch(): " + "Resource " + id + " not found");
+			}
+			if (ResultCode.ATTRIBUTE_OR_VALUE_EXISTS.equals(ex.getResultCode())) {
+				// Modify request is atomic, so full path can merge values
+				log.debug("Minimal patch of '{}' conflicts with existing values", dn);
+				return false;
+			}
+
+			throw ex;
+		} finally {
+			ldapEntryManager.getLdapOperationService().releaseConnection(connection);
+		}
+
+		// Entry was changed without PersonService, so cached copy and search index are outdated
+		personService.refreshPerson(id);
+
+		return true;
+	}
+
+	private List<Modification> buildModifications(ScimPatchUser patchUser) throws Exception {
+		if ((patchUser.getOperatons() == null) || patchUser.getOperatons().isEmpty()) {
+			return null;
+		}
+
+		List<Modification> modifications = new ArrayList<Modification>();
+		for (Operation operation : patchUser.getOperatons()) {
+			User user = operation.getValue();
+			if ((user == null) || hasMergeOnlyAttributes(user)) {
+				return null;
+			}
+
+			String operationName = operation.getOperationName();
+			boolean supported;
+			if (OPERATION_REPLACE.equalsIgnoreCase(operationName)) {
+				supported = addReplaceModifications(modifications, user);
+			} else if (OPERATION_REMOVE.equalsIgnoreCase(operationName)) {
+				supported = addRemoveModifications(modifications, user);
+			} else if (OPERATION_ADD.equalsIgnoreCase(operationName)) {
+				supported = addAddModifications(modifications, user);
+			} else {
+				supported = false;
+			}
+
+			if (!supported) {
+				return null;
+			}
+		}
+
+		return modifications;
+	}
+
+	/**
+	 * Attributes which are merged with existing values or affect other entries
+	 */
+	private boolean hasMergeOnlyAttributes(User user) {
+		return isNotEmpty(user.getEmails()) || isNotEmpty(user.getGroups())
+				|| ((user.getExtensions() != null) && !user.getExtensions().isEmpty());
+	}
+
+	private boolean addReplaceModifications(List<Modification> modifications, User user) {
+		if (isNotEmpty(user.getAddresses()) || isNotEmpty(user.getPhoneNumbers()) || isNotEmpty(user.getIms())
+				|| isNotEmpty(user.getPhotos()) || isNotEmpty(user.getRoles()) || isNotEmpty(user.getEntitlements())
+				|| isNotEmpty(user.getX509Certificates())) {
+			return false;
+		}
+
+		addReplaceModification(modifications, "uid", user.getUserName());
+
+		Name name = user.getName();
+		if (name != null) {
+			addReplaceModification(modifications, "givenName", name.getGivenName());
+			addReplaceModification(modifications, "sn", name.getFamilyName());
+			addReplaceModification(modifications, "middleName", name.getMiddleName());
+			addReplaceModification(modifications, "oxTrusthonorificPrefix", name.getHonorificPrefix());
+			addReplaceModification(modifications, "oxTrusthonorificSuffix", name.getHonorificSuffix());
+		}
+
+		addReplaceModification(modifications, "displayName", user.getDisplayName());
+		addReplaceModification(modifications, "oxTrustExternalId", user.getExternalId());
+		addReplaceModification(modifications, "nickname", user.getNickName());
+		addReplaceModification(modifications, "oxTrustProfileURL", user.getProfileUrl());
+		addReplaceModification(modifications, "oxTrustUserType", user.getUserType());
+		addReplaceModification(modifications, "oxTrustTitle", user.getTitle());
+		addReplaceModification(modifications, "preferredLanguage", user.getPreferredLanguage());
+		addReplaceModification(modifications, "locale", user.getLocale());
+		addReplaceModification(modifications, "zoneinfo", user.getTimezone());
+		addReplaceModification(modifications, "userPassword", user.getPassword());
+		addActiveModifications(modifications, user);
+
+		return true;
+	}
+
+	private boolean addRemoveModifications(List<Modification> modifications, User user) {
+		// Existing remove semantic for these attributes differs from attribute removal
+		if ((user.getUserName() != null) || (user.getDisplayName() != null) || (user.getExternalId() != null)
+				|| (user.isActive() != null) || (user.getPassword() != null)) {
+			return false;
+		}
+
+		if (isNotEmpty(user.getAddresses()) || isNotEmpty(user.getPhoneNumbers()) || isNotEmpty(user.getIms())
+				|| isNotEmpty(user.getPhotos()) || isNotEmpty(user.getRoles()) || isNotEmpty(user.getEntitlements())
+				|| isNotEmpty(user.getX509Certificates())) {
+			return false;
+		}
+
+		Name name = user.getName();
+		if (name != null) {
+			addRemoveModification(modifications, "givenName", name.getGivenName());
+			addRemoveModification(modifications, "sn", name.getFamilyName());
+			addRemoveModification(modifications, "middleName", name.getMiddleName());
+			addRemoveModification(modifications, "oxTrusthonorificPrefix", name.getHonorificPrefix());
+			addRemoveModification(modifications, "oxTrusthonorificSuffix", name.getHonorificSuffix());
+		}
+
+		addRemoveModification(modifications, "nickname", user.getNickName());
+		addRemoveModification(modifications, "oxTrustProfileURL", user.getProfileUrl());
+		addRemoveModification(modifications, "oxTrustUserType", user.getUserType());
+		addRemoveModification(modifications, "oxTrustTitle", user.getTitle());
+		addRemoveModification(modifications, "preferredLanguage", user.getPreferredLanguage());
+		addRemoveModification(modifications, "locale", user.getLocale());
+		addRemoveModification(modifications, "zoneinfo", user.getTimezone());
+
+		return true;
+	}
+
+	private boolean addAddModifications(List<Modification> modifications, User user) throws Exception {
+		// Single valued attributes are ignored by add operation
+		addAddModification(modifications, "oxTrustAddresses", user.getAddresses());
+		addAddModification(modifications, "oxTrustPhoneValue", user.getPhoneNumbers());
+		addAddModification(modifications, "oxTrustImsValue", user.getIms());
+		addAddModification(modifications, "oxTrustPhotos", user.getPhotos());
+		addAddModification(modifications, "oxTrustRole", user.getRoles());
+		addAddModification(modifications, "oxTrustEntitlements", user.getEntitlements());
+		addAddModification(modifications, "oxTrustx509Certificate", user.getX509Certificates());
+		addActiveModifications(modifications, user);
+
+		return true;
+	}
+
+	private void addActiveModifications(List<Modification> modifications, User user) {
+		Boolean active = user.isActive();
+		if (active == null) {
+			return;
+		}
+
+		GluuBoolean gluuStatus = active ? GluuBoolean.ACTIVE : GluuBoolean.INACTIVE;
+		modifications.add(new Modification(ModificationType.REPLACE, "oxTrustActive", active.toString()));
+		modifications.add(new Modification(ModificationType.REPLACE, "gluuStatus", gluuStatus.getValue()));
+	}
+
+	private void addReplaceModification(List<Modification> modifications, String attributeName, String value) {
+		if (StringHelper.isNotEmpty(value)) {
+			modifications.add(new Modification(ModificationType.REPLACE, attributeName, value));
+		}
+	}
+
+	private void addRemoveModification(List<Modification> modifications, String attributeName, String value) {
+		if (value != null) {
+			// Replace without values removes attribute and doesn't fail if it not exists
+			modifications.add(new Modification(ModificationType.REPLACE, attributeName));
+		}
+	}
+
+	private void addAddModification(List<Modification> modifications, String attributeName, List<?> items) throws Exception {
+		if (!isNotEmpty(items)) {
+			return;
+		}
+
+		ObjectMapper mapper = ServiceUtil.getObjectMapper();
+
+		String[] values = new String[items.size()];
+		for (int i = 0; i < items.size(); i++) {
+			values[i] = mapper.writeValueAsString(items.get(i));
+		}
+
+		modifications.add(new Modification(ModificationType.ADD, attributeName, values));
+	}
+
+	private void addMetaModifications(List<Modification> modifications, String id) {
+		DateTimeFormatter dateTimeFormatter = ISODateTimeFormat.dateTime().withZoneUTC();  // Date should be in UTC format
+		Date dateLastModified = DateTime.now().toDate();
+
+		modifications.add(new Modification(ModificationType.REPLACE, "oxTrustMetaLastModified", dateTimeFormatter.print(dateLastModified.getTime())));
+		modifications.add(new Modification(ModificationType.REPLACE, "oxTrustMetaLocation", "/scim/v2/Users/" + id));
+		modifications.add(new Modification(ModificationType.REPLACE, "updatedAt", StaticUtils.encodeGeneralizedTime(dateLastModified)));
+	}
+
+	private void validateUserName(User user, String id) throws DuplicateEntryException {
+		if (StringHelper.isEmpty(user.getUserName())) {
+			return;
+		}
+
+		GluuCustomPerson personToFind = new GluuCustomPerson();
+		personToFind.setUid(user.getUserName());
+
+		List<GluuCustomPerson> foundPersons = personService.findPersons(personToFind, 2);
+		if (foundPersons != null) {
+			for (GluuCustomPerson foundPerson : foundPersons) {
+				if ((foundPerson != null) && !foundPerson.getInum().equalsIgnoreCase(id)) {
+					throw new DuplicateEntryException("Cannot update userName of a different id: " + user.getUserName());
+				}
+			}
+		}
+	}
+
+	private boolean isNotEmpty(List<?> items) {
+		return (items != null) && !items.isEmpty();
+	}
+
+}
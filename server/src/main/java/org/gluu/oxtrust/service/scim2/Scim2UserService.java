@@ -60,6 +60,12 @@ public class Scim2UserService implements Serializable {
     @Inject
     private PatchUtil patchUtil;
 
+    @Inject
+    private Scim2PatchService scim2PatchService;
+
+    @Inject
+    private ScimScriptOutboxService scimScriptOutboxService;
+
     public User createUser(User user) throws Exception {
         log.debug(" copying gluuperson ");
         GluuCustomPerson gluuPerson = copyUtils2.copy(user, null, false);
@@ -114,6 +120,7 @@ public class Scim2UserService implements Serializable {
 
         log.debug("adding new GluuPerson");
         personService.addPerson(gluuPerson);
+        scimScriptOutboxService.enqueueUser(ScimScriptOutboxEntry.Operation.CREATE_USER, gluuPerson);
 
         User createdUser = copyUtils2.copy(gluuPerson, null);
 
@@ -169,6 +176,7 @@ public class Scim2UserService implements Serializable {
         }
 
         personService.updatePerson(updatedGluuPerson);
+        scimScriptOutboxService.enqueueUser(ScimScriptOutboxEntry.Operation.UPDATE_USER, updatedGluuPerson);
 
         log.debug(" person updated ");
 
@@ -203,12 +211,20 @@ public class Scim2UserService implements Serializable {
             }
 
             memberService.removePerson(gluuPerson);
+            scimScriptOutboxService.enqueueUser(ScimScriptOutboxEntry.Operation.DELETE_USER, gluuPerson);
         }
     }
     
 
     public User patchUser(String id, ScimPatchUser patchUser) throws Exception {
     	
+    	// Try to apply patch without reading and rewriting whole entry
+    	if (scim2PatchService.applyPatch(id, patchUser)) {
+    		GluuCustomPerson gluuPerson = personService.getPersonByInum(id);
+    		scimScriptOutboxService.enqueueUser(ScimScriptOutboxEntry.Operation.UPDATE_USER, gluuPerson);
+    		return copyUtils2.copy(gluuPerson, null);
+    	}
+
     	for(Operation operation : patchUser.getOperatons()){
     		String val = operation.getOperationName();
     		
@@ -303,6 +319,7 @@ public class Scim2UserService implements Serializable {
 			externalScimService.executeScimUpdateUserMethods(updatedGluuPerson);
 		}
 		personService.updatePerson(updatedGluuPerson);
+		scimScriptOutboxService.enqueueUser(ScimScriptOutboxEntry.Operation.UPDATE_USER, updatedGluuPerson);
 
 		log.debug(" person updated ");
 		
@@ -0,0 +1,369 @@
+/*
+ * oxTrust is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2017, Gluu
+ */
+
+package org.gluu.oxtrust.service.scim2;
+
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import javax.inject.Named;
+
+import org.apache.commons.codec.binary.Base64;
+import org.gluu.oxtrust.config.ConfigurationFactory;
+import org.gluu.oxtrust.ldap.service.AppInitializer;
+import org.gluu.oxtrust.ldap.service.IGroupService;
+import org.gluu.oxtrust.ldap.service.IPersonService;
+import org.gluu.oxtrust.model.GluuCustomPerson;
+import org.gluu.oxtrust.model.GluuGroup;
+import org.gluu.oxtrust.model.scim2.ChangeFeedResponse;
+import org.gluu.oxtrust.model.scim2.DeletedResource;
+import org.gluu.oxtrust.util.CopyUtils2;
+import org.gluu.site.ldap.persistence.LdapEntryManager;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.joda.time.format.DateTimeFormatter;
+import org.joda.time.format.ISODateTimeFormat;
+import org.slf4j.Logger;
+import org.xdi.ldap.model.SortOrder;
+import org.xdi.ldap.model.VirtualListViewResponse;
+import org.xdi.util.StringHelper;
+
+import com.unboundid.ldap.sdk.Filter;
+
+/**
+ * Incremental feed of users and groups changed since watermark returned in previous response.
+ *
+ * Changed entries are found by oxTrustMetaLastModified, deleted ones come from {@link ScimDeletionJournalService}. So
+ * each call costs number of changes since watermark instead of full resync. Client should apply changes idempotently.
+ *
+ * Time of change is taken before it's committed, so changes are returned only after settle window (5 seconds by
+ * default). Delivery is at-least-once for changes which are committed within settle window and when clocks of oxTrust
+ * nodes are synchronized. Change which is committed later than that may be skipped.
+ *
+ * Only values in ISO 8601 format are taken into account. Entries with legacy "EEE MMM dd HH:mm:ss zzz yyyy" value
+ * aren't returned until they are modified again. Search by oxTrustMetaLastModified needs ordering index, see
+ * configuration/template/ldif/scimChangeFeedIndex.ldif.
+ */
+@ApplicationScoped
+@Named
+public class ScimChangeFeedService {
+
+	private static final String LAST_MODIFIED_ATTRIBUTE = "oxTrustMetaLastModified";
+
+	private static final String SETTLE_SECONDS_PROPERTY = "scimChangeFeedSettleSeconds";
+	private static final int DEFAULT_SETTLE_SECONDS = 5;
+
+	private static final String WATERMARK_VERSION = "2";
+	private static final String WATERMARK_SEPARATOR = "|";
+	private static final String KEY_SEPARATOR = ",";
+	private static final String UTF_8 = "UTF-8";
+
+	private static final DateTimeFormatter TIMESTAMP_FORMATTER = ISODateTimeFormat.dateTime().withZoneUTC();
+
+	@Inject
+	private Logger log;
+
+	@Inject
+	private ConfigurationFactory configurationFactory;
+
+	@Inject @Named(AppInitializer.LDAP_SCIM_ENTRY_MANAGER_NAME)
+	private LdapEntryManager ldapEntryManager;
+
+	@Inject
+	private IPersonService personService;
+
+	@Inject
+	private IGroupService groupService;
+
+	@Inject
+	private CopyUtils2 copyUtils2;
+
+	@Inject
+	private ScimDeletionJournalService scimDeletionJournalService;
+
+	/**
+	 * @param watermark
+	 *            watermark from previous response. If empty, feed starts from current time
+	 * @throws IllegalArgumentException
+	 *             if watermark is invalid
+	 */
+	public ChangeFeedResponse getChanges(String watermark, int count) throws Exception {
+		ChangeFeedResponse response = new ChangeFeedResponse();
+
+		// Changes after this time may be not committed yet
+		String until = TIMESTAMP_FORMATTER.print(new DateTime(DateTimeZone.UTC).minusSeconds(getSettleSeconds()));
+
+		if (StringHelper.isEmpty(watermark)) {
+			// Initial state should be loaded with regular search
+			response.setWatermark(new Watermark(until, new TreeSet<String>()).encode());
+			return response;
+		}
+
+		Watermark from = Watermark.decode(watermark);
+
+		// Changes with the same time as watermark which were returned already are skipped
+		int limit = from.getReturnedKeys().size() + count + 1;
+		List<Change> changes = new ArrayList<Change>();
+
+		List<GluuCustomPerson> persons = findChanged(personService.getDnForPerson(null), GluuCustomPerson.class, from.getTimestamp(), until, limit);
+		for (GluuCustomPerson person : persons) {
+			addChange(changes, from, new Change(person.getAttribute(LAST_MODIFIED_ATTRIBUTE), ScimDeletionJournalService.RESOURCE_TYPE_USER,
+					person.getInum(), person));
+		}
+
+		List<GluuGroup> groups = findChanged(groupService.getDnForGroup(null), GluuGroup.class, from.getTimestamp(), until, limit);
+		for (GluuGroup group : groups) {
+			addChange(changes, from, new Change(group.getAttribute(LAST_MODIFIED_ATTRIBUTE), ScimDeletionJournalService.RESOURCE_TYPE_GROUP,
+					group.getInum(), group));
+		}
+
+		for (DeletedResource deletedResource : scimDeletionJournalService.findDeleted(from.getTimestamp(), until, limit)) {
+			addChange(changes, from, new Change(deletedResource.getDeleted(), deletedResource.getResourceType(), deletedResource.getId(),
+					deletedResource));
+		}
+
+		Collections.sort(changes, CHANGE_COMPARATOR);
+
+		// Each source returns at least count changes which weren't returned yet if it has more. So page can't miss
+		// change older than last change in page
+		int endIndex = Math.min(count, changes.size());
+		List<Change> page = changes.subList(0, endIndex);
+
+		for (Change change : page) {
+			Object entry = change.getEntry();
+			if (entry instanceof GluuCustomPerson) {
+				response.getResources().add(copyUtils2.copy((GluuCustomPerson) entry, null));
+			} else if (entry instanceof GluuGroup) {
+				response.getResources().add(copyUtils2.copy((GluuGroup) entry, null));
+			} else {
+				response.getDeleted().add((DeletedResource) entry);
+			}
+		}
+
+		response.setWatermark(nextWatermark(from, page).encode());
+		response.setHasMore(endIndex < changes.size());
+
+		log.debug("Returning {} SCIM changes since '{}'", page.size(), from.getTimestamp());
+
+		return response;
+	}
+
+	/**
+	 * @return false if deletions aren't recorded, so changes can't be returned
+	 */
+	public boolean isEnabled() {
+		return scimDeletionJournalService.isEnabled();
+	}
+
+	/**
+	 * @return true if deletions since watermark can't be returned anymore and client should do full resync
+	 */
+	public boolean isExpired(String watermark) {
+		if (StringHelper.isEmpty(watermark)) {
+			return false;
+		}
+
+		return scimDeletionJournalService.isExpired(Watermark.decode(watermark).getTimestamp());
+	}
+
+	private <T> List<T> findChanged(String baseDn, Class<T> entryClass, String since, String until, int limit) {
+		// Upper bound excludes legacy values too. They start with day name, so they are greater than ISO 8601 values
+		Filter filter = Filter.createANDFilter(Filter.createGreaterOrEqualFilter(LAST_MODIFIED_ATTRIBUTE, since),
+				Filter.createLessOrEqualFilter(LAST_MODIFIED_ATTRIBUTE, until));
+		VirtualListViewResponse vlvResponse = new VirtualListViewResponse();
+
+		return ldapEntryManager.findEntriesSearchSearchResult(baseDn, entryClass, filter, 1, limit, limit, LAST_MODIFIED_ATTRIBUTE,
+				SortOrder.ASCENDING, vlvResponse, null);
+	}
+
+	private void addChange(List<Change> changes, Watermark from, Change change) {
+		if (!isTimestamp(change.getTimestamp())) {
+			log.debug("Skipping {} '{}' with legacy last modified time '{}'", change.getResourceType(), change.getId(), change.getTimestamp());
+			return;
+		}
+
+		if (from.getTimestamp().equals(change.getTimestamp()) && from.getReturnedKeys().contains(change.getKey())) {
+			return;
+		}
+
+		changes.add(change);
+	}
+
+	private Watermark nextWatermark(Watermark from, List<Change> page) {
+		if (page.isEmpty()) {
+			return from;
+		}
+
+		String lastTimestamp = page.get(page.size() - 1).getTimestamp();
+
+		Set<String> returnedKeys = new TreeSet<String>();
+		if (lastTimestamp.equals(from.getTimestamp())) {
+			returnedKeys.addAll(from.getReturnedKeys());
+		}
+
+		for (Change change : page) {
+			if (lastTimestamp.equals(change.getTimestamp())) {
+				returnedKeys.add(change.getKey());
+			}
+		}
+
+		return new Watermark(lastTimestamp, returnedKeys);
+	}
+
+	private int getSettleSeconds() {
+		return Math.max(0, StringHelper.toInteger(configurationFactory.getLdapConfiguration().getString(SETTLE_SECONDS_PROPERTY, null),
+				DEFAULT_SETTLE_SECONDS));
+	}
+
+	/**
+	 * @return true if value is in format stored by SCIM services
+	 */
+	static boolean isTimestamp(String value) {
+		if (StringHelper.isEmpty(value)) {
+			return false;
+		}
+
+		try {
+			return value.equals(TIMESTAMP_FORMATTER.print(TIMESTAMP_FORMATTER.parseDateTime(value)));
+		} catch (IllegalArgumentException ex) {
+			return false;
+		}
+	}
+
+	private static final Comparator<Change> CHANGE_COMPARATOR = new Comparator<Change>() {
+		@Override
+		public int compare(Change change1, Change change2) {
+			// Timestamps have fixed format, so they can be compared as strings
+			int result = change1.getTimestamp().compareTo(change2.getTimestamp());
+			if (result == 0) {
+				result = change1.getResourceType().compareTo(change2.getResourceType());
+			}
+			if (result == 0) {
+				result = change1.getId().compareTo(change2.getId());
+			}
+
+			return result;
+		}
+	};
+
+	private static class Change {
+
+		private final String timestamp;
+		private final String resourceType;
+		private final String id;
+		private final Object entry;
+
+		public Change(String timestamp, String resourceType, String id, Object entry) {
+			this.timestamp = timestamp == null ? "" : timestamp;
+			this.resourceType = resourceType;
+			this.id = id == null ? "" : id;
+			this.entry = entry;
+		}
+
+		public String getTimestamp() {
+			return timestamp;
+		}
+
+		public String getResourceType() {
+			return resourceType;
+		}
+
+		public String getId() {
+			return id;
+		}
+
+		public Object getEntry() {
+			return entry;
+		}
+
+		/**
+		 * @return key which is unique among changes with the same time
+		 */
+		public String getKey() {
+			return (entry instanceof DeletedResource ? "-" : "+") + resourceType + ":" + id;
+		}
+
+	}
+
+	/**
+	 * Opaque position in feed: time of last returned change and keys of returned changes with this time
+	 */
+	static class Watermark {
+
+		private final String timestamp;
+		private final Set<String> returnedKeys;
+
+		public Watermark(String timestamp, Set<String> returnedKeys) {
+			this.timestamp = timestamp;
+			this.returnedKeys = returnedKeys;
+		}
+
+		public String getTimestamp() {
+			return timestamp;
+		}
+
+		public Set<String> getReturnedKeys() {
+			return returnedKeys;
+		}
+
+		public String encode() {
+			StringBuilder value = new StringBuilder(WATERMARK_VERSION).append(WATERMARK_SEPARATOR).append(timestamp).append(WATERMARK_SEPARATOR);
+			boolean first = true;
+			for (String key : returnedKeys) {
+				if (!first) {
+					value.append(KEY_SEPARATOR);
+				}
+				value.append(key);
+				first = false;
+			}
+
+			try {
+				return Base64.encodeBase64URLSafeString(value.toString().getBytes(UTF_8));
+			} catch (UnsupportedEncodingException ex) {
+				throw new IllegalStateException(ex);
+			}
+		}
+
+		public static Watermark decode(String watermark) {
+			String value;
+			try {
+				value = new String(Base64.decodeBase64(watermark), UTF_8);
+			} catch (UnsupportedEncodingException ex) {
+				throw new IllegalStateException(ex);
+			}
+
+			String[] parts = value.split("\\" + WATERMARK_SEPARATOR, -1);
+			if ((parts.length != 3) || !WATERMARK_VERSION.equals(parts[0])) {
+				throw new IllegalArgumentException("Invalid watermark");
+			}
+
+			String timestamp;
+			try {
+				// Normalize to format stored in LDAP
+				timestamp = TIMESTAMP_FORMATTER.print(TIMESTAMP_FORMATTER.parseDateTime(parts[1]));
+			} catch (IllegalArgumentException ex) {
+				throw new IllegalArgumentException("Invalid watermark", ex);
+			}
+
+			Set<String> returnedKeys = new TreeSet<String>();
+			if (StringHelper.isNotEmpty(parts[2])) {
+				returnedKeys.addAll(Arrays.asList(parts[2].split(KEY_SEPARATOR)));
+			}
+
+			return new Watermark(timestamp, returnedKeys);
+		}
+
+	}
+
+}
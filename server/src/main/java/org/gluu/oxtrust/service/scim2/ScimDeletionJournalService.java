@@ -0,0 +1,382 @@
+/*
+ * oxTrust is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2017, Gluu
+ */
+
+package org.gluu.oxtrust.service.scim2;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import javax.annotation.PreDestroy;
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import javax.inject.Named;
+
+import org.apache.commons.io.IOUtils;
+import org.gluu.oxtrust.config.ConfigurationFactory;
+import org.gluu.oxtrust.model.scim2.DeletedResource;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.joda.time.LocalDate;
+import org.joda.time.format.DateTimeFormat;
+import org.joda.time.format.DateTimeFormatter;
+import org.joda.time.format.ISODateTimeFormat;
+import org.slf4j.Logger;
+import org.xdi.util.StringHelper;
+
+/**
+ * Append-only journal of deleted users and groups. Deleted entries are gone from LDAP, so SCIM change feed reads
+ * tombstones from here. Deletion is recorded after it's committed to LDAP.
+ *
+ * Journal directory should be set explicitly and in cluster it should be on storage shared by all oxTrust nodes.
+ * Otherwise change feed returns only deletions done by node which serves request. Each node appends to its own files,
+ * so nodes don't write to the same file.
+ *
+ * Journal is split into daily files, so lookup reads only files since requested time and old files are removed after
+ * retention period.
+ *
+ * Concurrent deletions share one fsync (group commit). Lookups don't wait for writers: they read only complete lines.
+ */
+@ApplicationScoped
+@Named
+public class ScimDeletionJournalService {
+
+	public static final String RESOURCE_TYPE_USER = "User";
+	public static final String RESOURCE_TYPE_GROUP = "Group";
+
+	private static final String CHANGE_FEED_DIR_PROPERTY = "scimChangeFeedDir";
+	private static final String NODE_ID_PROPERTY = "scimChangeFeedNodeId";
+	private static final String RETENTION_DAYS_PROPERTY = "scimChangeFeedRetentionDays";
+
+	private static final int DEFAULT_RETENTION_DAYS = 30;
+
+	private static final String FILE_PREFIX = "deletions-";
+	private static final String FILE_SUFFIX = ".log";
+	private static final String NODE_SEPARATOR = "-";
+	private static final String SEPARATOR = "\t";
+	private static final String UTF_8 = "UTF-8";
+
+	private static final DateTimeFormatter TIMESTAMP_FORMATTER = ISODateTimeFormat.dateTime().withZoneUTC();
+	private static final DateTimeFormatter FILE_DATE_FORMATTER = DateTimeFormat.forPattern("yyyyMMdd");
+
+	@Inject
+	private Logger log;
+
+	@Inject
+	private ConfigurationFactory configurationFactory;
+
+	private File journalDir;
+	private boolean journalDirResolved;
+	private String nodeId;
+	private int retentionDays;
+
+	private final Object writeLock = new Object();
+	private final Object syncLock = new Object();
+
+	// Guarded by writeLock
+	private LocalDate journalDate;
+	private FileOutputStream journalStream;
+	private long writtenCount;
+
+	// Guarded by syncLock
+	private long syncedCount;
+
+	@PreDestroy
+	public void destroy() {
+		synchronized (writeLock) {
+			closeJournalStream();
+		}
+	}
+
+	public void recordUser(String inum) {
+		record(RESOURCE_TYPE_USER, inum);
+	}
+
+	public void recordGroup(String inum) {
+		record(RESOURCE_TYPE_GROUP, inum);
+	}
+
+	/**
+	 * @return false if journal directory isn't configured and deletions aren't recorded
+	 */
+	public boolean isEnabled() {
+		return getJournalDir() != null;
+	}
+
+	/**
+	 * @param since
+	 *            time in ISO 8601 format
+	 * @return true if tombstones since specified time may be removed already
+	 */
+	public boolean isExpired(String since) {
+		DateTime sinceDateTime = TIMESTAMP_FORMATTER.parseDateTime(since);
+		return sinceDateTime.isBefore(new DateTime(DateTimeZone.UTC).minusDays(getRetentionDays()));
+	}
+
+	/**
+	 * @param since
+	 *            time in ISO 8601 format, inclusive
+	 * @param until
+	 *            time in ISO 8601 format, inclusive
+	 * @param limit
+	 *            maximum number of tombstones to return
+	 * @return first tombstones in deletion order
+	 */
+	public List<DeletedResource> findDeleted(String since, String until, int limit) {
+		List<DeletedResource> result = new ArrayList<DeletedResource>();
+
+		File dir = getJournalDir();
+		if (dir == null) {
+			return result;
+		}
+
+		LocalDate lastDate = TIMESTAMP_FORMATTER.parseDateTime(until).withZone(DateTimeZone.UTC).toLocalDate();
+		for (LocalDate date = TIMESTAMP_FORMATTER.parseDateTime(since).withZone(DateTimeZone.UTC).toLocalDate(); !date.isAfter(lastDate)
+				&& (result.size() < limit); date = date.plusDays(1)) {
+			// Each file is ordered by time, so first tombstones of each node file are enough
+			for (File file : getJournalFiles(dir, date)) {
+				readJournalFile(file, since, until, limit, result);
+			}
+		}
+
+		Collections.sort(result, DELETED_COMPARATOR);
+
+		return (result.size() > limit) ? new ArrayList<DeletedResource>(result.subList(0, limit)) : result;
+	}
+
+	private void record(String resourceType, String inum) {
+		File dir = getJournalDir();
+		if ((dir == null) || StringHelper.isEmpty(inum)) {
+			return;
+		}
+
+		long recordNumber;
+		synchronized (writeLock) {
+			// Time is taken under lock, so lines in file are ordered by time
+			DateTime now = new DateTime(DateTimeZone.UTC);
+			String line = TIMESTAMP_FORMATTER.print(now) + SEPARATOR + resourceType + SEPARATOR + inum + "\n";
+			try {
+				getJournalStream(dir, now.toLocalDate()).write(line.getBytes(UTF_8));
+			} catch (IOException ex) {
+				log.error("Failed to record deletion of {} '{}' in SCIM change journal", resourceType, inum, ex);
+				return;
+			}
+			recordNumber = ++this.writtenCount;
+		}
+
+		// Thread which gets lock syncs all lines written before, so threads waiting for it usually have nothing to do
+		synchronized (syncLock) {
+			while (this.syncedCount < recordNumber) {
+				FileOutputStream out;
+				long count;
+				synchronized (writeLock) {
+					out = this.journalStream;
+					count = this.writtenCount;
+				}
+
+				if (out == null) {
+					// Journal was closed and synced on shutdown
+					return;
+				}
+
+				try {
+					out.getFD().sync();
+					this.syncedCount = count;
+				} catch (IOException ex) {
+					synchronized (writeLock) {
+						if (out == this.journalStream) {
+							log.error("Failed to sync SCIM change journal", ex);
+							return;
+						}
+					}
+					// Journal was switched to next day file. Previous file was synced before close
+				}
+			}
+		}
+	}
+
+	/**
+	 * Caller should hold writeLock
+	 */
+	private FileOutputStream getJournalStream(File dir, LocalDate date) throws IOException {
+		if ((this.journalStream != null) && date.equals(this.journalDate)) {
+			return this.journalStream;
+		}
+
+		closeJournalStream();
+		removeExpiredFiles(dir, date);
+
+		this.journalStream = new FileOutputStream(new File(dir, getJournalFilePrefix(date) + NODE_SEPARATOR + getNodeId() + FILE_SUFFIX), true);
+		this.journalDate = date;
+
+		return this.journalStream;
+	}
+
+	/**
+	 * Caller should hold writeLock
+	 */
+	private void closeJournalStream() {
+		if (this.journalStream == null) {
+			return;
+		}
+
+		try {
+			this.journalStream.getFD().sync();
+		} catch (IOException ex) {
+			log.error("Failed to sync SCIM change journal", ex);
+		}
+		IOUtils.closeQuietly(this.journalStream);
+		this.journalStream = null;
+	}
+
+	private void readJournalFile(File file, String since, String until, int limit, List<DeletedResource> result) {
+		BufferedReader reader = null;
+		try {
+			reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), UTF_8));
+			// Line without new line character at the end is being written now or it's partial line after crash
+			StringBuilder line = new StringBuilder();
+			int count = 0;
+			int ch;
+			while ((count < limit) && ((ch = reader.read()) != -1)) {
+				if (ch != '\n') {
+					line.append((char) ch);
+					continue;
+				}
+
+				String[] parts = line.toString().split(SEPARATOR);
+				line.setLength(0);
+				if (parts.length != 3) {
+					continue;
+				}
+
+				// Timestamps have fixed format, so they can be compared as strings
+				if (parts[0].compareTo(until) > 0) {
+					break;
+				}
+				if (parts[0].compareTo(since) >= 0) {
+					result.add(new DeletedResource(parts[1], parts[2], parts[0]));
+					count++;
+				}
+			}
+		} catch (IOException ex) {
+			log.error("Failed to read SCIM change journal '{}'", file, ex);
+		} finally {
+			IOUtils.closeQuietly(reader);
+		}
+	}
+
+	private void removeExpiredFiles(File dir, LocalDate today) {
+		String oldestFileName = getJournalFilePrefix(today.minusDays(getRetentionDays()));
+
+		File[] files = dir.listFiles();
+		if (files == null) {
+			return;
+		}
+
+		for (File file : files) {
+			String name = file.getName();
+			if (name.startsWith(FILE_PREFIX) && name.endsWith(FILE_SUFFIX) && (name.compareTo(oldestFileName) < 0)) {
+				if (!file.delete()) {
+					log.warn("Failed to remove expired SCIM change journal '{}'", file);
+				}
+			}
+		}
+	}
+
+	private List<File> getJournalFiles(File dir, LocalDate date) {
+		List<File> result = new ArrayList<File>();
+
+		File[] files = dir.listFiles();
+		if (files == null) {
+			return result;
+		}
+
+		String prefix = getJournalFilePrefix(date) + NODE_SEPARATOR;
+		for (File file : files) {
+			if (file.getName().startsWith(prefix) && file.getName().endsWith(FILE_SUFFIX) && file.isFile()) {
+				result.add(file);
+			}
+		}
+
+		return result;
+	}
+
+	private String getJournalFilePrefix(LocalDate date) {
+		return FILE_PREFIX + FILE_DATE_FORMATTER.print(date);
+	}
+
+	private synchronized File getJournalDir() {
+		if (this.journalDirResolved) {
+			return this.journalDir;
+		}
+		this.journalDirResolved = true;
+
+		String changeFeedDir = configurationFactory.getLdapConfiguration().getString(CHANGE_FEED_DIR_PROPERTY, null);
+		if (StringHelper.isEmpty(changeFeedDir)) {
+			log.warn("Property '{}' isn't set. Deletions aren't recorded and SCIM change feed is disabled", CHANGE_FEED_DIR_PROPERTY);
+			return null;
+		}
+
+		File dir = new File(changeFeedDir);
+		if (!(dir.isDirectory() || dir.mkdirs())) {
+			log.error("Failed to create SCIM change journal directory '{}'. SCIM change feed is disabled", changeFeedDir);
+			return null;
+		}
+
+		this.journalDir = dir;
+
+		return this.journalDir;
+	}
+
+	/**
+	 * @return name of node in journal file names. Host name is used by default
+	 */
+	private String getNodeId() {
+		if (this.nodeId == null) {
+			String value = configurationFactory.getLdapConfiguration().getString(NODE_ID_PROPERTY, null);
+			if (StringHelper.isEmpty(value)) {
+				try {
+					value = InetAddress.getLocalHost().getHostName();
+				} catch (UnknownHostException ex) {
+					log.warn("Failed to determine host name for SCIM change journal. Property '{}' should be set", NODE_ID_PROPERTY, ex);
+					value = "node";
+				}
+			}
+
+			// Keep file name portable
+			this.nodeId = value.replaceAll("[^A-Za-z0-9._]", "_");
+		}
+
+		return this.nodeId;
+	}
+
+	private int getRetentionDays() {
+		if (this.retentionDays == 0) {
+			this.retentionDays = Math.max(1,
+					StringHelper.toInteger(configurationFactory.getLdapConfiguration().getString(RETENTION_DAYS_PROPERTY, null), DEFAULT_RETENTION_DAYS));
+		}
+
+		return this.retentionDays;
+	}
+
+	private static final Comparator<DeletedResource> DELETED_COMPARATOR = new Comparator<DeletedResource>() {
+		@Override
+		public int compare(DeletedResource deletedResource1, DeletedResource deletedResource2) {
+			// Timestamps have fixed format, so they can be compared as strings
+			return deletedResource1.getDeleted().compareTo(deletedResource2.getDeleted());
+		}
+	};
+
+}
@@ -0,0 +1,170 @@
+/*
+ * oxTrust is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2017, Gluu
+ */
+
+package org.gluu.oxtrust.service.scim2;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.core.Response;
+
+import org.gluu.oxtrust.config.ConfigurationFactory;
+import org.gluu.oxtrust.util.NamedThreadFactory;
+import org.slf4j.Logger;
+import org.xdi.util.StringHelper;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+
+/**
+ * Bounded executors for asynchronous SCIM requests.
+ *
+ * Reads, writes and bulk requests run on separate pools, so provisioning traffic can't take servlet container threads
+ * or threads of interactive requests. Request is rejected when pool and its queue are full.
+ */
+@ApplicationScoped
+@Named
+public class ScimExecutorService {
+
+	public enum Workload {
+		READ("read", 16, 100), WRITE("write", 8, 50), BULK("bulk", 2, 10);
+
+		private final String value;
+		private final int defaultThreads;
+		private final int defaultQueueSize;
+
+		private Workload(String value, int defaultThreads, int defaultQueueSize) {
+			this.value = value;
+			this.defaultThreads = defaultThreads;
+			this.defaultQueueSize = defaultQueueSize;
+		}
+
+		public String getValue() {
+			return value;
+		}
+
+		/**
+		 * @return LDAP configuration property name, e.g. "scimReadThreads"
+		 */
+		public String getPropertyName(String suffix) {
+			return "scim" + Character.toUpperCase(value.charAt(0)) + value.substring(1) + suffix;
+		}
+	}
+
+	private static final String THREADS_PROPERTY_SUFFIX = "Threads";
+	private static final String QUEUE_SIZE_PROPERTY_SUFFIX = "QueueSize";
+	private static final String RETRY_AFTER_PROPERTY = "scimRetryAfterSeconds";
+
+	private static final int DEFAULT_RETRY_AFTER = 5;
+
+	@Inject
+	private Logger log;
+
+	@Inject
+	private ConfigurationFactory configurationFactory;
+
+	@Inject
+	private ScimMetricsService scimMetricsService;
+
+	private Map<Workload, ThreadPoolExecutor> executors;
+	private int retryAfter;
+
+	@PostConstruct
+	public void init() {
+		this.executors = new EnumMap<Workload, ThreadPoolExecutor>(Workload.class);
+		this.retryAfter = StringHelper.toInteger(configurationFactory.getLdapConfiguration().getString(RETRY_AFTER_PROPERTY, null), DEFAULT_RETRY_AFTER);
+
+		MetricRegistry registry = scimMetricsService.getRegistry();
+		for (Workload workload : Workload.values()) {
+			int threads = Math.max(1, getIntProperty(workload.getPropertyName(THREADS_PROPERTY_SUFFIX), workload.defaultThreads));
+			int queueSize = Math.max(1, getIntProperty(workload.getPropertyName(QUEUE_SIZE_PROPERTY_SUFFIX), workload.defaultQueueSize));
+
+			final ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(queueSize),
+					new NamedThreadFactory("scim-" + workload.getValue()));
+			executor.allowCoreThreadTimeOut(true);
+			executors.put(workload, executor);
+
+			registry.register(MetricRegistry.name(ScimMetricsService.METRIC_PREFIX, "executor", workload.getValue(), "queueDepth"), new Gauge<Integer>() {
+				@Override
+				public Integer getValue() {
+					return executor.getQueue().size();
+				}
+			});
+			registry.register(MetricRegistry.name(ScimMetricsService.METRIC_PREFIX, "executor", workload.getValue(), "active"), new Gauge<Integer>() {
+				@Override
+				public Integer getValue() {
+					return executor.getActiveCount();
+				}
+			});
+
+			log.debug("SCIM {} executor has {} threads and queue of {} requests", workload.getValue(), threads, queueSize);
+		}
+	}
+
+	@PreDestroy
+	public void destroy() {
+		for (ThreadPoolExecutor executor : executors.values()) {
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * Run request on workload executor and resume response with result
+	 *
+	 * @return false if executor is saturated and request wasn't accepted
+	 */
+	public boolean execute(Workload workload, final AsyncResponse asyncResponse, final Callable<Response> callable) {
+		// Phase metrics of request are recorded by worker thread
+		final String operationName = scimMetricsService.getCurrentOperation();
+		try {
+			executors.get(workload).execute(new Runnable() {
+				@Override
+				public void run() {
+					scimMetricsService.bindOperation(operationName);
+					try {
+						asyncResponse.resume(callable.call());
+					} catch (Throwable ex) {
+						// Mapped by the same exception mappers as synchronous requests
+						asyncResponse.resume(ex);
+					} finally {
+						scimMetricsService.unbindOperation();
+					}
+				}
+			});
+		} catch (RejectedExecutionException ex) {
+			log.warn("SCIM {} executor is saturated, rejecting request", workload.getValue());
+			return false;
+		}
+
+		// Container thread is released without running response filter
+		scimMetricsService.unbindOperation();
+
+		return true;
+	}
+
+	/**
+	 * @return seconds which client should wait before retrying rejected request
+	 */
+	public int getRetryAfter() {
+		return retryAfter;
+	}
+
+	private int getIntProperty(String name, int defaultValue) {
+		return StringHelper.toInteger(configurationFactory.getLdapConfiguration().getString(name, null), defaultValue);
+	}
+
+}
@@ -0,0 +1,347 @@
+/*
+ * oxTrust is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2017, Gluu
+ */
+
+package org.gluu.oxtrust.service.scim2;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import javax.inject.Named;
+
+import org.codehaus.jackson.Version;
+import org.codehaus.jackson.map.JsonSerializer;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.codehaus.jackson.map.SerializationConfig;
+import org.codehaus.jackson.map.module.SimpleModule;
+import org.gluu.oxtrust.config.ConfigurationFactory;
+import org.gluu.oxtrust.ldap.service.AppInitializer;
+import org.gluu.oxtrust.ldap.service.IGroupService;
+import org.gluu.oxtrust.ldap.service.IPersonService;
+import org.gluu.oxtrust.model.GluuCustomAttribute;
+import org.gluu.oxtrust.model.GluuCustomPerson;
+import org.gluu.oxtrust.model.GluuGroup;
+import org.gluu.oxtrust.model.scim2.Group;
+import org.gluu.oxtrust.model.scim2.GroupRef;
+import org.gluu.oxtrust.model.scim2.MemberRef;
+import org.gluu.oxtrust.model.scim2.User;
+import org.gluu.oxtrust.service.antlr.scimFilter.util.ListResponseGroupSerializer;
+import org.gluu.oxtrust.service.antlr.scimFilter.util.ListResponseUserSerializer;
+import org.gluu.oxtrust.util.CopyUtils2;
+import org.gluu.oxtrust.util.PagedSearchUtil;
+import org.gluu.oxtrust.util.PagedSearchUtil.PageHandler;
+import org.gluu.site.ldap.persistence.LdapEntryManager;
+import org.slf4j.Logger;
+import org.xdi.config.oxtrust.AppConfiguration;
+import org.xdi.ldap.model.Entry;
+import org.xdi.util.StringHelper;
+
+import com.unboundid.ldap.sdk.Attribute;
+import com.unboundid.ldap.sdk.DN;
+import com.unboundid.ldap.sdk.Filter;
+import com.unboundid.ldap.sdk.LDAPException;
+import com.unboundid.ldap.sdk.RDN;
+import com.unboundid.ldap.sdk.SearchRequest;
+import com.unboundid.ldap.sdk.SearchResultEntry;
+import com.unboundid.ldap.sdk.SearchScope;
+
+/**
+ * Streams all users or groups matching filter as newline-delimited JSON.
+ *
+ * Export runs one LDAP paged search on single connection and writes each page as soon as it's converted, so memory
+ * usage doesn't depend on number of exported entries. Results are not sorted.
+ *
+ * Groups of users and members of groups are loaded with one search per page instead of one lookup per reference.
+ */
+@ApplicationScoped
+@Named
+public class ScimExportService {
+
+	private static final String PAGE_SIZE_PROPERTY = "scimExportPageSize";
+	private static final int DEFAULT_PAGE_SIZE = 500;
+
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	// Never exported, the same as in User entry mapping
+	private static final String PASSWORD_ATTRIBUTE = "userPassword";
+
+	// References are resolved for whole page, so conversion skips lookup of each of them
+	private static final Set<String> USER_EXCLUDED_ATTRIBUTES = Collections.singleton("memberof");
+	private static final Set<String> GROUP_EXCLUDED_ATTRIBUTES = Collections.singleton("member");
+
+	// Maximum number of referenced entries loaded with one filter
+	private static final int REFERENCE_BATCH_SIZE = 100;
+	private static final String[] REFERENCE_ATTRIBUTES = { "inum", "displayName" };
+
+	@Inject
+	private Logger log;
+
+	@Inject
+	private ConfigurationFactory configurationFactory;
+
+	@Inject @Named(AppInitializer.LDAP_SCIM_ENTRY_MANAGER_NAME)
+	private LdapEntryManager ldapEntryManager;
+
+	@Inject
+	private IPersonService personService;
+
+	@Inject
+	private IGroupService groupService;
+
+	@Inject
+	private CopyUtils2 copyUtils2;
+
+	@Inject
+	private AppConfiguration appConfiguration;
+
+	/**
+	 * @param ldapAttributes
+	 *            LDAP attributes to load or null to load all
+	 * @param attributesArray
+	 *            SCIM attributes parameter for response projection
+	 * @return number of exported users
+	 */
+	public long exportUsers(Filter filter, String[] ldapAttributes, String attributesArray, OutputStream outputStream) throws Exception {
+		ListResponseUserSerializer serializer = new ListResponseUserSerializer();
+		serializer.setAttributesArray(attributesArray);
+		ObjectMapper mapper = createMapper(User.class, serializer);
+
+		Filter searchFilter = Filter.createANDFilter(Filter.createEqualityFilter("objectClass", "gluuPerson"), filter);
+
+		return export(personService.getDnForPerson(null), searchFilter, ldapAttributes, mapper, outputStream, true);
+	}
+
+	/**
+	 * @see #exportUsers(Filter, String[], String, OutputStream)
+	 */
+	public long exportGroups(Filter filter, String[] ldapAttributes, String attributesArray, OutputStream outputStream) throws Exception {
+		ListResponseGroupSerializer serializer = new ListResponseGroupSerializer();
+		serializer.setAttributesArray(attributesArray);
+		ObjectMapper mapper = createMapper(Group.class, serializer);
+
+		Filter searchFilter = Filter.createANDFilter(Filter.createEqualityFilter("objectClass", "gluuGroup"), filter);
+
+		return export(groupService.getDnForGroup(null), searchFilter, ldapAttributes, mapper, outputStream, false);
+	}
+
+	private long export(String baseDn, Filter filter, String[] ldapAttributes, final ObjectMapper mapper, OutputStream outputStream,
+			final boolean isPerson) throws Exception {
+		int pageSize = StringHelper.toInteger(configurationFactory.getLdapConfiguration().getString(PAGE_SIZE_PROPERTY, null), DEFAULT_PAGE_SIZE);
+
+		SearchRequest searchRequest = ldapAttributes == null ? new SearchRequest(baseDn, SearchScope.SUB, filter)
+				: new SearchRequest(baseDn, SearchScope.SUB, filter, ldapAttributes);
+
+		final OutputStream out = new BufferedOutputStream(outputStream, BUFFER_SIZE);
+
+		long exported = PagedSearchUtil.search(ldapEntryManager, searchRequest, pageSize, new PageHandler<Exception>() {
+			@Override
+			public void handle(List<SearchResultEntry> entries) throws Exception {
+				if (isPerson) {
+					writeUsers(entries, mapper, out);
+				} else {
+					writeGroups(entries, mapper, out);
+				}
+
+				// Client may read slower than LDAP returns entries
+				out.flush();
+			}
+		});
+
+		log.debug("Exported {} SCIM resources from '{}'", exported, baseDn);
+
+		return exported;
+	}
+
+	private void writeUsers(List<SearchResultEntry> entries, ObjectMapper mapper, OutputStream out) throws Exception {
+		List<GluuCustomPerson> persons = new ArrayList<GluuCustomPerson>(entries.size());
+		Set<String> groupDns = new HashSet<String>();
+		for (SearchResultEntry entry : entries) {
+			GluuCustomPerson person = toPerson(entry);
+			persons.add(person);
+			if (person.getMemberOf() != null) {
+				groupDns.addAll(person.getMemberOf());
+			}
+		}
+
+		Map<String, GluuGroup> groups = findReferences(groupService.getDnForGroup(null), GluuGroup.class, groupDns);
+
+		for (GluuCustomPerson person : persons) {
+			User user = copyUtils2.copy(person, null, USER_EXCLUDED_ATTRIBUTES);
+			if (person.getMemberOf() != null) {
+				List<GroupRef> groupRefs = new ArrayList<GroupRef>();
+				for (String groupDn : person.getMemberOf()) {
+					GluuGroup group = groups.get(normalizeDn(groupDn));
+					if (group == null) {
+						log.debug("Skipping group '{}' of user '{}' which doesn't exist", groupDn, person.getDn());
+						continue;
+					}
+
+					GroupRef groupRef = new GroupRef();
+					groupRef.setDisplay(group.getDisplayName());
+					groupRef.setValue(group.getInum());
+					groupRef.setReference(appConfiguration.getBaseEndpoint() + "/scim/v2/Groups/" + group.getInum());
+					groupRefs.add(groupRef);
+				}
+				user.setGroups(groupRefs);
+			}
+
+			writeLine(mapper, user, out);
+		}
+	}
+
+	private void writeGroups(List<SearchResultEntry> entries, ObjectMapper mapper, OutputStream out) throws Exception {
+		List<GluuGroup> groups = new ArrayList<GluuGroup>(entries.size());
+		Set<String> memberDns = new HashSet<String>();
+		for (SearchResultEntry entry : entries) {
+			GluuGroup group = toGroup(entry);
+			groups.add(group);
+			if (group.getMembers() != null) {
+				memberDns.addAll(group.getMembers());
+			}
+		}
+
+		Map<String, GluuCustomPerson> members = findReferences(personService.getDnForPerson(null), GluuCustomPerson.class, memberDns);
+
+		for (GluuGroup group : groups) {
+			Group scimGroup = copyUtils2.copy(group, null, GROUP_EXCLUDED_ATTRIBUTES);
+			if ((group.getMembers() != null) && (group.getMembers().size() > 0)) {
+				Set<MemberRef> memberRefs = new HashSet<MemberRef>();
+				for (String memberDn : group.getMembers()) {
+					if (StringHelper.isEmpty(memberDn)) {
+						continue;
+					}
+
+					GluuCustomPerson member = members.get(normalizeDn(memberDn));
+					if (member == null) {
+						log.debug("Skipping member '{}' of group '{}' which doesn't exist", memberDn, group.getDn());
+						continue;
+					}
+
+					MemberRef memberRef = new MemberRef();
+					memberRef.setValue(member.getInum());
+					memberRef.setDisplay(member.getDisplayName());
+					memberRef.setReference(appConfiguration.getBaseEndpoint() + "/scim/v2/Users/" + member.getInum());
+					memberRefs.add(memberRef);
+				}
+				scimGroup.setMembers(memberRefs);
+			}
+
+			writeLine(mapper, scimGroup, out);
+		}
+	}
+
+	/**
+	 * Load inum and displayName of referenced entries by RDN in batches
+	 *
+	 * @return entries by normalized DN
+	 */
+	private <T extends Entry> Map<String, T> findReferences(String baseDn, Class<T> entryClass, Set<String> dns) throws LDAPException {
+		Map<String, T> result = new HashMap<String, T>();
+
+		List<Filter> filters = new ArrayList<Filter>();
+		for (String dn : dns) {
+			if (StringHelper.isEmpty(dn)) {
+				continue;
+			}
+
+			RDN rdn = new DN(dn).getRDN();
+			if (rdn == null) {
+				continue;
+			}
+			filters.add(Filter.createEqualityFilter(rdn.getAttributeNames()[0], rdn.getAttributeValues()[0]));
+
+			if (filters.size() == REFERENCE_BATCH_SIZE) {
+				addReferences(baseDn, entryClass, filters, result);
+				filters.clear();
+			}
+		}
+
+		if (!filters.isEmpty()) {
+			addReferences(baseDn, entryClass, filters, result);
+		}
+
+		return result;
+	}
+
+	private <T extends Entry> void addReferences(String baseDn, Class<T> entryClass, List<Filter> filters, Map<String, T> result)
+			throws LDAPException {
+		for (T entry : ldapEntryManager.findEntries(baseDn, entryClass, Filter.createORFilter(filters), REFERENCE_ATTRIBUTES, 0)) {
+			result.put(normalizeDn(entry.getDn()), entry);
+		}
+	}
+
+	private String normalizeDn(String dn) throws LDAPException {
+		return new DN(dn).toNormalizedString();
+	}
+
+	private void writeLine(ObjectMapper mapper, Object resource, OutputStream out) throws IOException {
+		out.write(mapper.writeValueAsBytes(resource));
+		out.write('\n');
+	}
+
+	private <T> ObjectMapper createMapper(Class<T> resourceClass, JsonSerializer<T> serializer) {
+		ObjectMapper mapper = new ObjectMapper();
+		mapper.disable(SerializationConfig.Feature.FAIL_ON_EMPTY_BEANS);
+		SimpleModule customScimFilterModule = new SimpleModule("CustomScim2ExportModule", new Version(1, 0, 0, ""));
+		customScimFilterModule.addSerializer(resourceClass, serializer);
+		mapper.registerModule(customScimFilterModule);
+
+		return mapper;
+	}
+
+	private GluuCustomPerson toPerson(SearchResultEntry entry) {
+		GluuCustomPerson person = new GluuCustomPerson();
+		person.setDn(entry.getDN());
+		person.setCustomAttributes(toCustomAttributes(entry));
+
+		String[] oxPPID = entry.getAttributeValues("oxPPID");
+		if (oxPPID != null) {
+			person.setOxPPID(new ArrayList<String>(Arrays.asList(oxPPID)));
+		}
+
+		return person;
+	}
+
+	private GluuGroup toGroup(SearchResultEntry entry) {
+		GluuGroup group = new GluuGroup();
+		group.setDn(entry.getDN());
+		group.setInum(entry.getAttributeValue("inum"));
+		group.setDisplayName(entry.getAttributeValue("displayName"));
+		group.setDescription(entry.getAttributeValue("description"));
+		group.setOwner(entry.getAttributeValue("owner"));
+
+		String[] members = entry.getAttributeValues("member");
+		if (members != null) {
+			group.setMembers(new ArrayList<String>(Arrays.asList(members)));
+		}
+
+		group.setCustomAttributes(toCustomAttributes(entry));
+
+		return group;
+	}
+
+	private List<GluuCustomAttribute> toCustomAttributes(SearchResultEntry entry) {
+		List<GluuCustomAttribute> customAttributes = new ArrayList<GluuCustomAttribute>();
+		for (Attribute attribute : entry.getAttributes()) {
+			if (!PASSWORD_ATTRIBUTE.equalsIgnoreCase(attribute.getBaseName())) {
+				customAttributes.add(new GluuCustomAttribute(attribute.getBaseName(), attribute.getValues()));
+			}
+		}
+
+		return customAttributes;
+	}
+
+}
@@ -0,0 +1,88 @@
+/*
+ * oxTrust is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2017, Gluu
+ */
+
+package org.gluu.oxtrust.service.scim2;
+
+import java.io.IOException;
+import java.lang.reflect.Method;
+
+import javax.inject.Inject;
+import javax.ws.rs.Path;
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.container.ContainerRequestFilter;
+import javax.ws.rs.container.ContainerResponseContext;
+import javax.ws.rs.container.ContainerResponseFilter;
+import javax.ws.rs.container.ResourceInfo;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.ext.Provider;
+
+import org.gluu.oxtrust.ws.rs.scim2.BaseScimWebService;
+
+import com.codahale.metrics.Timer;
+
+/**
+ * Starts and stops per-operation SCIM metrics around each request served by a {@link BaseScimWebService} subclass
+ */
+@Provider
+public class ScimMetricsFilter implements ContainerRequestFilter, ContainerResponseFilter {
+
+	private static final String OPERATION_CONTEXT_PROPERTY = ScimMetricsFilter.class.getName() + ".operationContext";
+	private static final String OPERATION_NAME_PROPERTY = ScimMetricsFilter.class.getName() + ".operationName";
+
+	@Inject
+	private ScimMetricsService scimMetricsService;
+
+	@Context
+	private ResourceInfo resourceInfo;
+
+	@Override
+	public void filter(ContainerRequestContext requestContext) throws IOException {
+		Class<?> resourceClass = resourceInfo.getResourceClass();
+		Method resourceMethod = resourceInfo.getResourceMethod();
+		if ((resourceClass == null) || (resourceMethod == null) || !BaseScimWebService.class.isAssignableFrom(resourceClass)) {
+			return;
+		}
+
+		String operationName = scimMetricsService.getOperationName(getResourceName(resourceClass), resourceMethod.getName());
+		Timer.Context operationContext = scimMetricsService.startOperation(operationName);
+		requestContext.setProperty(OPERATION_CONTEXT_PROPERTY, operationContext);
+		requestContext.setProperty(OPERATION_NAME_PROPERTY, operationName);
+	}
+
+	@Override
+	public void filter(ContainerRequestContext requestContext, ContainerResponseContext responseContext) throws IOException {
+		Timer.Context operationContext = (Timer.Context) requestContext.getProperty(OPERATION_CONTEXT_PROPERTY);
+		if (operationContext == null) {
+			return;
+		}
+
+		// Response filter of asynchronous request runs on thread which resumed response
+		String operationName = (String) requestContext.getProperty(OPERATION_NAME_PROPERTY);
+		requestContext.removeProperty(OPERATION_CONTEXT_PROPERTY);
+		requestContext.removeProperty(OPERATION_NAME_PROPERTY);
+		scimMetricsService.stopOperation(operationContext, operationName, responseContext.getStatus());
+	}
+
+	/**
+	 * Use last segment of resource path as metric resource name, e.g. "/scim/v2/Users" -> "users"
+	 */
+	private String getResourceName(Class<?> resourceClass) {
+		for (Class<?> clazz = resourceClass; clazz != null; clazz = clazz.getSuperclass()) {
+			Path path = clazz.getAnnotation(Path.class);
+			if (path != null) {
+				String value = path.value();
+				if (value.endsWith("/")) {
+					value = value.substring(0, value.length() - 1);
+				}
+
+				return value.substring(value.lastIndexOf('/') + 1).toLowerCase();
+			}
+		}
+
+		return resourceClass.getSimpleName();
+	}
+
+}
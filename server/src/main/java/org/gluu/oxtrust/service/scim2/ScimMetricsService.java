@@ -0,0 +1,273 @@
+/*
+ * oxTrust is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2017, Gluu
+ */
+
+package org.gluu.oxtrust.service.scim2;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import javax.inject.Named;
+
+import org.slf4j.Logger;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.JmxReporter;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.Metric;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Snapshot;
+import com.codahale.metrics.Timer;
+
+/**
+ * Per-operation latency and throughput metrics of SCIM endpoints.
+ *
+ * Metric names follow the pattern scim.&lt;resource&gt;.&lt;operation&gt;.&lt;phase&gt;. The current operation is bound
+ * to the request thread by {@link ScimMetricsFilter}, so services deeper in the call chain only need to name the phase
+ * they are timing. Asynchronous requests move the binding to the worker thread in {@link ScimExecutorService}. Metrics
+ * are published over JMX and in Prometheus text format.
+ */
+@ApplicationScoped
+@Named
+public class ScimMetricsService {
+
+	public static final String METRIC_PREFIX = "scim";
+	public static final String JMX_DOMAIN = "org.gluu.oxtrust.scim";
+
+	public static final String PHASE_TOTAL = "total";
+	public static final String PHASE_AUTHORIZATION = "authorization";
+	public static final String PHASE_FILTER = "filter";
+	public static final String PHASE_LDAP_SEARCH = "ldapSearch";
+	public static final String PHASE_CONVERSION = "conversion";
+	public static final String PHASE_SERIALIZATION = "serialization";
+
+	public static final String RESPONSES = "responses";
+
+	private static final String UNKNOWN_OPERATION = METRIC_PREFIX + ".unknown.unknown";
+
+	@Inject
+	private Logger log;
+
+	private MetricRegistry registry;
+	private JmxReporter jmxReporter;
+
+	private final ThreadLocal<String> currentOperation = new ThreadLocal<String>();
+
+	@PostConstruct
+	public void init() {
+		this.registry = new MetricRegistry();
+
+		this.jmxReporter = JmxReporter.forRegistry(registry).inDomain(JMX_DOMAIN).convertDurationsTo(TimeUnit.MILLISECONDS)
+				.convertRatesTo(TimeUnit.SECONDS).build();
+		this.jmxReporter.start();
+		log.info("Started SCIM metrics JMX reporter in domain '{}'", JMX_DOMAIN);
+	}
+
+	@PreDestroy
+	public void destroy() {
+		if (this.jmxReporter != null) {
+			this.jmxReporter.stop();
+		}
+	}
+
+	public MetricRegistry getRegistry() {
+		return registry;
+	}
+
+	public String getOperationName(String resource, String operation) {
+		return MetricRegistry.name(METRIC_PREFIX, resource, operation);
+	}
+
+	/**
+	 * Bind operation to current thread and start its total timer
+	 */
+	public Timer.Context startOperation(String operationName) {
+		currentOperation.set(operationName);
+
+		return timer(MetricRegistry.name(operationName, PHASE_TOTAL)).time();
+	}
+
+	/**
+	 * Stop total timer, count response status and unbind operation from current thread. Response can be sent from
+	 * other thread than request was started on, so operation name is passed by caller
+	 */
+	public void stopOperation(Timer.Context operationContext, String operationName, int status) {
+		try {
+			if (operationContext != null) {
+				operationContext.stop();
+			}
+
+			if (operationName != null) {
+				registry.meter(MetricRegistry.name(operationName, RESPONSES, String.valueOf(status))).mark();
+			}
+		} finally {
+			currentOperation.remove();
+		}
+	}
+
+	/**
+	 * @return operation bound to current thread or null
+	 */
+	public String getCurrentOperation() {
+		return currentOperation.get();
+	}
+
+	public void bindOperation(String operationName) {
+		if (operationName == null) {
+			currentOperation.remove();
+		} else {
+			currentOperation.set(operationName);
+		}
+	}
+
+	public void unbindOperation() {
+		currentOperation.remove();
+	}
+
+	/**
+	 * Start timer of request processing phase of operation bound to current thread
+	 */
+	public Timer.Context startPhase(String phase) {
+		String operationName = currentOperation.get();
+		if (operationName == null) {
+			operationName = UNKNOWN_OPERATION;
+		}
+
+		return timer(MetricRegistry.name(operationName, phase)).time();
+	}
+
+	public void stopPhase(Timer.Context phaseContext) {
+		if (phaseContext != null) {
+			phaseContext.stop();
+		}
+	}
+
+	/**
+	 * Get or register timer which also keeps total duration of all its events, so it can be published as summary sum
+	 */
+	public Timer timer(String name) {
+		Metric metric = registry.getMetrics().get(name);
+		if (metric instanceof Timer) {
+			return (Timer) metric;
+		}
+
+		try {
+			return registry.register(name, new SummingTimer());
+		} catch (IllegalArgumentException ex) {
+			// Registered by other thread
+			return (Timer) registry.getMetrics().get(name);
+		}
+	}
+
+	/**
+	 * Write all metrics in Prometheus text exposition format (version 0.0.4)
+	 */
+	public void writePrometheusText(Writer writer) throws IOException {
+		SortedMap<String, Timer> timers = registry.getTimers();
+		if (!timers.isEmpty()) {
+			writer.write("# HELP scim_request_duration_seconds SCIM request processing time by phase\n");
+			writer.write("# TYPE scim_request_duration_seconds summary\n");
+			for (Map.Entry<String, Timer> entry : timers.entrySet()) {
+				writeTimer(writer, entry.getKey(), entry.getValue());
+			}
+		}
+
+		SortedMap<String, Meter> meters = registry.getMeters();
+		if (!meters.isEmpty()) {
+			writer.write("# HELP scim_responses_total SCIM responses by HTTP status\n");
+			writer.write("# TYPE scim_responses_total counter\n");
+			for (Map.Entry<String, Meter> entry : meters.entrySet()) {
+				writeMeter(writer, entry.getKey(), entry.getValue());
+			}
+		}
+
+		for (Map.Entry<String, Counter> entry : registry.getCounters().entrySet()) {
+			String name = sanitizeName(entry.getKey());
+			writer.write("# TYPE " + name + " gauge\n");
+			writer.write(name + " " + entry.getValue().getCount() + "\n");
+		}
+
+		for (Map.Entry<String, Gauge> entry : registry.getGauges().entrySet()) {
+			Object value = entry.getValue().getValue();
+			if (value instanceof Number) {
+				String name = sanitizeName(entry.getKey());
+				writer.write("# TYPE " + name + " gauge\n");
+				writer.write(name + " " + ((Number) value).doubleValue() + "\n");
+			}
+		}
+	}
+
+	private void writeTimer(Writer writer, String metricName, Timer timer) throws IOException {
+		// scim.<resource>.<operation>.<phase>
+		String[] parts = metricName.split("\\.");
+		if (parts.length != 4) {
+			return;
+		}
+
+		String labels = String.format("resource=\"%s\",operation=\"%s\",phase=\"%s\"", parts[1], parts[2], parts[3]);
+
+		Snapshot snapshot = timer.getSnapshot();
+		writeSample(writer, "scim_request_duration_seconds", labels + ",quantile=\"0.5\"", toSeconds(snapshot.getMedian()));
+		writeSample(writer, "scim_request_duration_seconds", labels + ",quantile=\"0.95\"", toSeconds(snapshot.get95thPercentile()));
+		writeSample(writer, "scim_request_duration_seconds", labels + ",quantile=\"0.99\"", toSeconds(snapshot.get99thPercentile()));
+		// Sum must be cumulative, so it's written only for timers which track it
+		if (timer instanceof SummingTimer) {
+			writeSample(writer, "scim_request_duration_seconds_sum", labels, toSeconds(((SummingTimer) timer).getSum()));
+		}
+		writeSample(writer, "scim_request_duration_seconds_count", labels, timer.getCount());
+	}
+
+	private void writeMeter(Writer writer, String metricName, Meter meter) throws IOException {
+		// scim.<resource>.<operation>.responses.<status>
+		String[] parts = metricName.split("\\.");
+		if ((parts.length != 5) || !RESPONSES.equals(parts[3])) {
+			return;
+		}
+
+		String labels = String.format("resource=\"%s\",operation=\"%s\",status=\"%s\"", parts[1], parts[2], parts[4]);
+		writeSample(writer, "scim_responses_total", labels, meter.getCount());
+	}
+
+	private void writeSample(Writer writer, String name, String labels, double value) throws IOException {
+		writer.write(name + "{" + labels + "} " + value + "\n");
+	}
+
+	private double toSeconds(double nanos) {
+		return nanos / TimeUnit.SECONDS.toNanos(1);
+	}
+
+	private String sanitizeName(String metricName) {
+		return metricName.replaceAll("[^a-zA-Z0-9_:]", "_");
+	}
+
+	private static class SummingTimer extends Timer {
+
+		// Nanoseconds
+		private final AtomicLong sum = new AtomicLong();
+
+		@Override
+		public void update(long duration, TimeUnit unit) {
+			if (duration >= 0) {
+				sum.addAndGet(unit.toNanos(duration));
+			}
+			super.update(duration, unit);
+		}
+
+		public long getSum() {
+			return sum.get();
+		}
+
+	}
+
+}
@@ -0,0 +1,106 @@
+/*
+ * oxTrust is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2017, Gluu
+ */
+
+package org.gluu.oxtrust.service.scim2;
+
+import java.io.Serializable;
+
+
+/**
+ * Post-commit SCIM custom script call persisted in outbox until script accepts it. Only references resource, so
+ * resource attributes aren't written to disk
+ */
+public class ScimScriptOutboxEntry implements Serializable {
+
+	private static final long serialVersionUID = -2260417338914470212L;
+
+	public enum Operation {
+		CREATE_USER, UPDATE_USER, DELETE_USER, CREATE_GROUP, UPDATE_GROUP, DELETE_GROUP;
+
+		public boolean isUserOperation() {
+			return (this == CREATE_USER) || (this == UPDATE_USER) || (this == DELETE_USER);
+		}
+
+		public boolean isDelete() {
+			return (this == DELETE_USER) || (this == DELETE_GROUP);
+		}
+	}
+
+	private long sequence;
+	private Operation operation;
+	private String scriptName;
+	private String resourceDn;
+	private String resourceInum;
+	private int attempts;
+	private long nextAttemptAt;
+
+	public long getSequence() {
+		return sequence;
+	}
+
+	public void setSequence(long sequence) {
+		this.sequence = sequence;
+	}
+
+	public Operation getOperation() {
+		return operation;
+	}
+
+	public void setOperation(Operation operation) {
+		this.operation = operation;
+	}
+
+	public String getScriptName() {
+		return scriptName;
+	}
+
+	public void setScriptName(String scriptName) {
+		this.scriptName = scriptName;
+	}
+
+	public String getResourceDn() {
+		return resourceDn;
+	}
+
+	public void setResourceDn(String resourceDn) {
+		this.resourceDn = resourceDn;
+	}
+
+	public String getResourceInum() {
+		return resourceInum;
+	}
+
+	public void setResourceInum(String resourceInum) {
+		this.resourceInum = resourceInum;
+	}
+
+	public int getAttempts() {
+		return attempts;
+	}
+
+	public void setAttempts(int attempts) {
+		this.attempts = attempts;
+	}
+
+	public long getNextAttemptAt() {
+		return nextAttemptAt;
+	}
+
+	public void setNextAttemptAt(long nextAttemptAt) {
+		this.nextAttemptAt = nextAttemptAt;
+	}
+
+	public String getFileName() {
+		return String.format("%020d-%s.ser", sequence, scriptName.replaceAll("[^a-zA-Z0-9_\\-]", "_"));
+	}
+
+	@Override
+	public String toString() {
+		return String.format("ScimScriptOutboxEntry [sequence=%s, operation=%s, scriptName=%s, resourceDn=%s, attempts=%s]", sequence,
+				operation, scriptName, resourceDn, attempts);
+	}
+
+}
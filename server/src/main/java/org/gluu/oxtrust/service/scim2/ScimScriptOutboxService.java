@@ -0,0 +1,600 @@
+/*
+ * oxTrust is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2017, Gluu
+ */
+
+package org.gluu.oxtrust.service.scim2;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.PreDestroy;
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import javax.inject.Named;
+
+import org.gluu.oxtrust.config.ConfigurationFactory;
+import org.gluu.oxtrust.ldap.service.IGroupService;
+import org.gluu.oxtrust.ldap.service.IPersonService;
+import org.gluu.oxtrust.model.GluuCustomPerson;
+import org.gluu.oxtrust.model.GluuGroup;
+import org.gluu.oxtrust.service.external.ExternalScimService;
+import org.gluu.oxtrust.service.scim2.ScimScriptOutboxEntry.Operation;
+import org.gluu.oxtrust.util.NamedThreadFactory;
+import org.gluu.site.ldap.persistence.LdapEntryManager;
+import org.slf4j.Logger;
+import org.xdi.model.custom.script.conf.CustomScriptConfiguration;
+import org.xdi.util.StringHelper;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+
+/**
+ * Durable outbox for SCIM custom scripts marked with {@link ExternalScimService#ASYNC_POST_COMMIT_PROPERTY}.
+ *
+ * Each call is written to outbox directory after entry was committed to LDAP and processed by worker pool. Outbox
+ * keeps only operation, DN, inum and script name. Person or group is loaded from LDAP when call is processed, so no
+ * attributes (e.g. password hashes) are written to disk. Delete scripts get entry with DN and inum only. Outbox
+ * directory must be configured explicitly and it's accessible for owner only. Entries
+ * of the same resource always go to the same worker and next entry of resource is started only after previous one is
+ * done, so script sees changes of resource in commit order. Failed calls are retried with exponential backoff by
+ * scheduler, so worker processes entries of other resources meanwhile. Calls are moved to failed directory after last
+ * attempt. Pending calls are reloaded after restart.
+ *
+ * Number of entries kept in memory is limited by queue size. When queue is full new entries are kept in outbox
+ * directory only and they are loaded in commit order when half of queue is drained.
+ */
+@ApplicationScoped
+@Named
+public class ScimScriptOutboxService {
+
+	private static final String OUTBOX_DIR_PROPERTY = "scimScriptOutboxDir";
+	private static final String WORKERS_PROPERTY = "scimScriptOutboxWorkers";
+	private static final String MAX_ATTEMPTS_PROPERTY = "scimScriptOutboxMaxAttempts";
+	private static final String QUEUE_SIZE_PROPERTY = "scimScriptOutboxQueueSize";
+
+	private static final int DEFAULT_WORKERS = 4;
+	private static final int DEFAULT_MAX_ATTEMPTS = 10;
+	private static final int DEFAULT_QUEUE_SIZE = 10000;
+
+	private static final long INITIAL_BACKOFF = TimeUnit.SECONDS.toMillis(1);
+	private static final long MAX_BACKOFF = TimeUnit.MINUTES.toMillis(5);
+
+	private static final String PENDING_DIR = "pending";
+	private static final String FAILED_DIR = "failed";
+	private static final String TEMP_SUFFIX = ".tmp";
+
+	@Inject
+	private Logger log;
+
+	@Inject
+	private ConfigurationFactory configurationFactory;
+
+	@Inject
+	private ExternalScimService externalScimService;
+
+	@Inject
+	private IPersonService personService;
+
+	@Inject
+	private IGroupService groupService;
+
+	@Inject
+	private LdapEntryManager ldapEntryManager;
+
+	@Inject
+	private ScimMetricsService scimMetricsService;
+
+	private File pendingDir;
+	private File failedDir;
+	private int maxAttempts;
+	private int queueSize;
+
+	private ThreadPoolExecutor[] lanes;
+	private ScheduledExecutorService retryScheduler;
+
+	// Resources with entry being processed or waiting for retry. Next entries of resource wait in list
+	private final Map<String, LinkedList<ScimScriptOutboxEntry>> activeResources = new HashMap<String, LinkedList<ScimScriptOutboxEntry>>();
+
+	// File names of entries kept in memory. Guarded by activeResources as well as fields below
+	private final Set<String> queuedFiles = new HashSet<String>();
+	private boolean overflow = false;
+	private boolean reloadScheduled = false;
+
+	private final AtomicLong sequence = new AtomicLong();
+	private final AtomicInteger queueDepth = new AtomicInteger();
+	private Counter retriedCounter;
+	private Counter failedCounter;
+
+	private volatile boolean running = false;
+	private volatile boolean initialized = false;
+
+	public void init() {
+		String outboxDir = configurationFactory.getLdapConfiguration().getString(OUTBOX_DIR_PROPERTY, null);
+		if (StringHelper.isEmpty(outboxDir)) {
+			if (!externalScimService.getAsyncPostCommitConfigurations().isEmpty()) {
+				log.error("Property '{}' isn't set. Asynchronous SCIM scripts are disabled", OUTBOX_DIR_PROPERTY);
+			}
+			return;
+		}
+
+		this.pendingDir = new File(outboxDir, PENDING_DIR);
+		this.failedDir = new File(outboxDir, FAILED_DIR);
+		if (!createPrivateDir(new File(outboxDir)) || !createPrivateDir(pendingDir) || !createPrivateDir(failedDir)) {
+			log.error("Failed to create SCIM script outbox directory '{}' accessible for owner only. Asynchronous scripts are disabled", outboxDir);
+			return;
+		}
+
+		int workers = StringHelper.toInteger(configurationFactory.getLdapConfiguration().getString(WORKERS_PROPERTY, null), DEFAULT_WORKERS);
+		this.maxAttempts = StringHelper.toInteger(configurationFactory.getLdapConfiguration().getString(MAX_ATTEMPTS_PROPERTY, null),
+				DEFAULT_MAX_ATTEMPTS);
+
+		this.queueSize = Math.max(1, StringHelper.toInteger(configurationFactory.getLdapConfiguration().getString(QUEUE_SIZE_PROPERTY, null),
+				DEFAULT_QUEUE_SIZE));
+
+		// Lane queue can't be longer than outbox queue. Lanes reject tasks only after shutdown
+		this.lanes = new ThreadPoolExecutor[Math.max(1, workers)];
+		for (int i = 0; i < lanes.length; i++) {
+			lanes[i] = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(queueSize),
+					new NamedThreadFactory("scim-script-outbox-" + i), new ThreadPoolExecutor.AbortPolicy());
+		}
+		this.retryScheduler = Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("scim-script-outbox-retry"));
+
+		MetricRegistry registry = scimMetricsService.getRegistry();
+		registry.register(MetricRegistry.name(ScimMetricsService.METRIC_PREFIX, "outbox", "queueDepth"), new Gauge<Integer>() {
+			@Override
+			public Integer getValue() {
+				return queueDepth.get();
+			}
+		});
+		this.retriedCounter = registry.counter(MetricRegistry.name(ScimMetricsService.METRIC_PREFIX, "outbox", "retried"));
+		this.failedCounter = registry.counter(MetricRegistry.name(ScimMetricsService.METRIC_PREFIX, "outbox", "failed"));
+
+		// Pending entries go first to keep per resource order
+		this.running = true;
+		sequence.set(System.currentTimeMillis() * 1000);
+		loadPendingEntries(true);
+		this.initialized = true;
+
+		log.info("Initialized SCIM script outbox in '{}' with {} workers", outboxDir, lanes.length);
+	}
+
+	@PreDestroy
+	public void destroy() {
+		if (!running) {
+			return;
+		}
+
+		this.initialized = false;
+		this.running = false;
+
+		// Entries which were not processed stay in outbox until next start
+		retryScheduler.shutdownNow();
+		for (ExecutorService lane : lanes) {
+			lane.shutdownNow();
+		}
+	}
+
+	public void enqueueUser(Operation operation, GluuCustomPerson person) {
+		List<CustomScriptConfiguration> configurations = externalScimService.getAsyncPostCommitConfigurations();
+		if (configurations.isEmpty()) {
+			return;
+		}
+
+		for (CustomScriptConfiguration configuration : configurations) {
+			enqueue(createEntry(operation, configuration, person.getDn(), person.getInum()));
+		}
+	}
+
+	public void enqueueGroup(Operation operation, GluuGroup group) {
+		List<CustomScriptConfiguration> configurations = externalScimService.getAsyncPostCommitConfigurations();
+		if (configurations.isEmpty()) {
+			return;
+		}
+
+		for (CustomScriptConfiguration configuration : configurations) {
+			enqueue(createEntry(operation, configuration, group.getDn(), group.getInum()));
+		}
+	}
+
+	public int getQueueDepth() {
+		return queueDepth.get();
+	}
+
+	private ScimScriptOutboxEntry createEntry(Operation operation, CustomScriptConfiguration configuration, String resourceDn, String resourceInum) {
+		ScimScriptOutboxEntry entry = new ScimScriptOutboxEntry();
+		entry.setSequence(sequence.incrementAndGet());
+		entry.setOperation(operation);
+		entry.setScriptName(configuration.getName());
+		entry.setResourceDn(resourceDn);
+		entry.setResourceInum(resourceInum);
+
+		return entry;
+	}
+
+	private void enqueue(ScimScriptOutboxEntry entry) {
+		if (!initialized) {
+			log.error("SCIM script outbox isn't initialized. Dropping '{}'", entry);
+			return;
+		}
+
+		try {
+			writeEntry(entry);
+		} catch (IOException ex) {
+			log.error("Failed to persist '{}' in SCIM script outbox", entry, ex);
+			return;
+		}
+
+		synchronized (activeResources) {
+			// Entries after overflow stay in outbox directory until earlier entries are processed
+			if (overflow || (queuedFiles.size() >= queueSize)) {
+				if (!overflow) {
+					log.warn("SCIM script outbox queue is full. New entries are kept in '{}' until queue is drained", pendingDir);
+					this.overflow = true;
+				}
+				return;
+			}
+
+			accept(entry);
+		}
+	}
+
+	/**
+	 * Put entry into memory queue. Caller should hold lock of activeResources
+	 */
+	private void accept(ScimScriptOutboxEntry entry) {
+		if (!queuedFiles.add(entry.getFileName())) {
+			return;
+		}
+		queueDepth.set(queuedFiles.size());
+
+		String resourceKey = getResourceKey(entry);
+		LinkedList<ScimScriptOutboxEntry> waitingEntries = activeResources.get(resourceKey);
+		if (waitingEntries == null) {
+			activeResources.put(resourceKey, new LinkedList<ScimScriptOutboxEntry>());
+			dispatch(entry);
+		} else {
+			waitingEntries.add(entry);
+		}
+	}
+
+	/**
+	 * Remove processed entry from memory queue and start next entry of the same resource
+	 */
+	private void complete(ScimScriptOutboxEntry entry) {
+		ScimScriptOutboxEntry nextEntry = null;
+		boolean reload = false;
+		synchronized (activeResources) {
+			queuedFiles.remove(entry.getFileName());
+			queueDepth.set(queuedFiles.size());
+
+			String resourceKey = getResourceKey(entry);
+			LinkedList<ScimScriptOutboxEntry> waitingEntries = activeResources.get(resourceKey);
+			if (waitingEntries != null) {
+				nextEntry = waitingEntries.poll();
+				if (nextEntry == null) {
+					activeResources.remove(resourceKey);
+				}
+			}
+
+			if (overflow && !reloadScheduled && (queuedFiles.size() <= queueSize / 2)) {
+				this.reloadScheduled = true;
+				reload = true;
+			}
+		}
+
+		if (nextEntry != null) {
+			dispatch(nextEntry);
+		}
+
+		if (reload) {
+			schedule(new Runnable() {
+				@Override
+				public void run() {
+					loadPendingEntries(false);
+				}
+			}, 0);
+		}
+	}
+
+	/**
+	 * Run entry on its lane or schedule it if next attempt is in future
+	 */
+	private void dispatch(final ScimScriptOutboxEntry entry) {
+		long delay = entry.getNextAttemptAt() - System.currentTimeMillis();
+		if (delay > 0) {
+			schedule(new Runnable() {
+				@Override
+				public void run() {
+					dispatch(entry);
+				}
+			}, delay);
+			return;
+		}
+
+		try {
+			lanes[getLane(entry)].execute(new Runnable() {
+				@Override
+				public void run() {
+					process(entry);
+				}
+			});
+		} catch (RejectedExecutionException ex) {
+			log.debug("SCIM script outbox is stopped. '{}' stays in outbox", entry);
+		}
+	}
+
+	private void schedule(Runnable runnable, long delay) {
+		try {
+			retryScheduler.schedule(runnable, delay, TimeUnit.MILLISECONDS);
+		} catch (RejectedExecutionException ex) {
+			log.debug("SCIM script outbox is stopped");
+		}
+	}
+
+	private int getLane(ScimScriptOutboxEntry entry) {
+		return (getResourceKey(entry).hashCode() & Integer.MAX_VALUE) % lanes.length;
+	}
+
+	private String getResourceKey(ScimScriptOutboxEntry entry) {
+		return entry.getResourceDn().toLowerCase();
+	}
+
+	/**
+	 * Make one attempt to process entry. Entry stays first entry of its resource until it's processed or moved to
+	 * failed entries, so later entries of resource wait for it without blocking lane
+	 */
+	private void process(ScimScriptOutboxEntry entry) {
+		if (!running) {
+			return;
+		}
+
+		// Script might be not loaded yet after restart or temporary disabled
+		CustomScriptConfiguration configuration = externalScimService.getAsyncPostCommitConfiguration(entry.getScriptName());
+
+		boolean result = false;
+		if (configuration == null) {
+			log.warn("Asynchronous SCIM script '{}' isn't available to process '{}'", entry.getScriptName(), entry);
+		} else {
+			try {
+				result = execute(entry, configuration);
+			} catch (Exception ex) {
+				log.error("Failed to execute '{}'", entry, ex);
+			}
+		}
+
+		if (result) {
+			deleteEntry(entry);
+			complete(entry);
+			return;
+		}
+
+		entry.setAttempts(entry.getAttempts() + 1);
+		if (entry.getAttempts() >= maxAttempts) {
+			log.error("Giving up on '{}' after {} attempts", entry, entry.getAttempts());
+			failedCounter.inc();
+			moveToFailed(entry);
+			complete(entry);
+			return;
+		}
+
+		long backoff = Math.min(MAX_BACKOFF, INITIAL_BACKOFF << Math.min(entry.getAttempts() - 1, 20));
+		entry.setNextAttemptAt(System.currentTimeMillis() + backoff);
+		retriedCounter.inc();
+		log.debug("Retrying '{}' in {} ms", entry, backoff);
+
+		try {
+			writeEntry(entry);
+		} catch (IOException ex) {
+			log.error("Failed to update '{}' in SCIM script outbox", entry, ex);
+		}
+
+		dispatch(entry);
+	}
+
+	private boolean execute(ScimScriptOutboxEntry entry, CustomScriptConfiguration configuration) {
+		Operation operation = entry.getOperation();
+		if (operation.isUserOperation()) {
+			GluuCustomPerson person;
+			if (operation.isDelete()) {
+				person = new GluuCustomPerson();
+				person.setDn(entry.getResourceDn());
+				person.setInum(entry.getResourceInum());
+			} else if (ldapEntryManager.contains(GluuCustomPerson.class, entry.getResourceDn())) {
+				person = personService.getPersonByDn(entry.getResourceDn());
+			} else {
+				// Removed after commit. Script gets delete call from next entry of resource
+				log.debug("Person of '{}' doesn't exist anymore. Skipping it", entry);
+				return true;
+			}
+
+			switch (operation) {
+			case CREATE_USER:
+				return externalScimService.executeScimCreateUserMethod(person, configuration);
+			case UPDATE_USER:
+				return externalScimService.executeScimUpdateUserMethod(person, configuration);
+			default:
+				return externalScimService.executeScimDeleteUserMethod(person, configuration);
+			}
+		}
+
+		GluuGroup group;
+		if (operation.isDelete()) {
+			group = new GluuGroup();
+			group.setDn(entry.getResourceDn());
+			group.setInum(entry.getResourceInum());
+		} else if (ldapEntryManager.contains(GluuGroup.class, entry.getResourceDn())) {
+			group = groupService.getGroupByDn(entry.getResourceDn());
+		} else {
+			log.debug("Group of '{}' doesn't exist anymore. Skipping it", entry);
+			return true;
+		}
+
+		switch (operation) {
+		case CREATE_GROUP:
+			return externalScimService.executeScimCreateGroupMethod(group, configuration);
+		case UPDATE_GROUP:
+			return externalScimService.executeScimUpdateGroupMethod(group, configuration);
+		default:
+			return externalScimService.executeScimDeleteGroupMethod(group, configuration);
+		}
+	}
+
+	/**
+	 * Load entries from outbox directory which aren't in memory queue yet, in commit order until queue is full
+	 *
+	 * @param startup
+	 *            remove incomplete files left after crash and continue sequence of loaded entries
+	 */
+	private void loadPendingEntries(boolean startup) {
+		synchronized (activeResources) {
+			this.reloadScheduled = false;
+
+			File[] files = pendingDir.listFiles();
+			if (files == null) {
+				return;
+			}
+
+			// File names start with zero padded sequence
+			Arrays.sort(files);
+
+			int count = 0;
+			boolean loadedAll = true;
+			for (File file : files) {
+				if (file.getName().endsWith(TEMP_SUFFIX)) {
+					if (startup) {
+						file.delete();
+					}
+					continue;
+				}
+
+				if (queuedFiles.contains(file.getName())) {
+					continue;
+				}
+
+				if (queuedFiles.size() >= queueSize) {
+					loadedAll = false;
+					break;
+				}
+
+				ScimScriptOutboxEntry entry = readEntry(file);
+				if (entry == null) {
+					continue;
+				}
+
+				if (startup && (entry.getSequence() > sequence.get())) {
+					sequence.set(entry.getSequence());
+				}
+				accept(entry);
+				count++;
+			}
+
+			if (loadedAll && overflow) {
+				log.info("SCIM script outbox queue was drained");
+			}
+			this.overflow = !loadedAll;
+
+			if (count > 0) {
+				log.info("Loaded {} pending entries from SCIM script outbox", count);
+			}
+		}
+	}
+
+	/**
+	 * Create directory and make it accessible for owner only
+	 */
+	private boolean createPrivateDir(File dir) {
+		if (!dir.isDirectory() && !dir.mkdirs()) {
+			return false;
+		}
+
+		return dir.setReadable(false, false) && dir.setWritable(false, false) && dir.setExecutable(false, false) && dir.setReadable(true, true)
+				&& dir.setWritable(true, true) && dir.setExecutable(true, true);
+	}
+
+	private void writeEntry(ScimScriptOutboxEntry entry) throws IOException {
+		File file = new File(pendingDir, entry.getFileName());
+		File tempFile = new File(pendingDir, entry.getFileName() + TEMP_SUFFIX);
+
+		FileOutputStream fos = new FileOutputStream(tempFile);
+		ObjectOutputStream oos = null;
+		try {
+			oos = new ObjectOutputStream(new BufferedOutputStream(fos));
+			oos.writeObject(entry);
+			oos.flush();
+			fos.getFD().sync();
+		} finally {
+			if (oos != null) {
+				oos.close();
+			} else {
+				fos.close();
+			}
+		}
+
+		if (!tempFile.renameTo(file)) {
+			file.delete();
+			if (!tempFile.renameTo(file)) {
+				throw new IOException("Failed to rename '" + tempFile + "' to '" + file + "'");
+			}
+		}
+	}
+
+	private ScimScriptOutboxEntry readEntry(File file) {
+		ObjectInputStream ois = null;
+		try {
+			ois = new ObjectInputStream(new BufferedInputStream(new FileInputStream(file)));
+			return (ScimScriptOutboxEntry) ois.readObject();
+		} catch (Exception ex) {
+			log.error("Failed to read SCIM script outbox entry '{}'. Moving it to failed entries", file, ex);
+			file.renameTo(new File(failedDir, file.getName()));
+			return null;
+		} finally {
+			if (ois != null) {
+				try {
+					ois.close();
+				} catch (IOException ex) {
+					log.debug("Failed to close '{}'", file);
+				}
+			}
+		}
+	}
+
+	private void deleteEntry(ScimScriptOutboxEntry entry) {
+		File file = new File(pendingDir, entry.getFileName());
+		if (!file.delete() && file.exists()) {
+			log.error("Failed to remove processed SCIM script outbox entry '{}'", file);
+		}
+	}
+
+	private void moveToFailed(ScimScriptOutboxEntry entry) {
+		File file = new File(pendingDir, entry.getFileName());
+		if (!file.renameTo(new File(failedDir, entry.getFileName()))) {
+			log.error("Failed to move SCIM script outbox entry '{}' to failed entries", file);
+		}
+	}
+
+}
@@ -0,0 +1,221 @@
+/*
+ * oxTrust is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2017, Gluu
+ */
+
+package org.gluu.oxtrust.service.scim2.schema;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.event.Observes;
+import javax.inject.Inject;
+import javax.inject.Named;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.codehaus.jackson.Version;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.codehaus.jackson.map.SerializationConfig;
+import org.codehaus.jackson.map.module.SimpleModule;
+import org.gluu.oxtrust.model.scim2.Constants;
+import org.gluu.oxtrust.model.scim2.ListResponse;
+import org.gluu.oxtrust.model.scim2.Meta;
+import org.gluu.oxtrust.model.scim2.Resource;
+import org.gluu.oxtrust.model.scim2.provider.ResourceType;
+import org.gluu.oxtrust.model.scim2.schema.SchemaExtensionHolder;
+import org.gluu.oxtrust.model.scim2.schema.SchemaType;
+import org.gluu.oxtrust.service.cdi.event.EventType;
+import org.gluu.oxtrust.service.cdi.event.Events;
+import org.gluu.oxtrust.service.scim2.schema.strategy.serializers.SchemaTypeAbstractSerializer;
+import org.slf4j.Logger;
+import org.xdi.config.oxtrust.AppConfiguration;
+import org.xdi.service.cdi.event.ConfigurationUpdate;
+
+/**
+ * Serialized responses of /Schemas and /ResourceTypes endpoints.
+ *
+ * Documents depend only on configuration and SCIM related attributes, so they are built once and kept as bytes with
+ * an ETag. Cache is dropped when attributes or configuration change and rebuilt on next request.
+ */
+@ApplicationScoped
+@Named
+public class ScimSchemaResponseService {
+
+	public static final String SCHEMAS = "Schemas";
+	public static final String RESOURCE_TYPES = "ResourceTypes";
+
+	@Inject
+	private Logger log;
+
+	@Inject
+	private AppConfiguration appConfiguration;
+
+	private volatile Map<String, CachedResponse> responses;
+
+	/**
+	 * @param path
+	 *            relative to /scim/v2, e.g. "Schemas" or "ResourceTypes/User"
+	 * @return cached response or null if there is no such document
+	 */
+	public CachedResponse getResponse(String path) throws Exception {
+		Map<String, CachedResponse> result = this.responses;
+		if (result == null) {
+			result = buildResponses();
+		}
+
+		return result.get(path);
+	}
+
+	public void clearSchemaCache(@Observes @EventType(Events.EVENT_CLEAR_ATTRIBUTES) Events event) {
+		log.debug("Removing SCIM schema responses from cache");
+		clear();
+	}
+
+	public void configurationUpdated(@Observes @ConfigurationUpdate AppConfiguration appConfiguration) {
+		clear();
+	}
+
+	private synchronized void clear() {
+		this.responses = null;
+	}
+
+	private synchronized Map<String, CachedResponse> buildResponses() throws Exception {
+		if (this.responses != null) {
+			return this.responses;
+		}
+
+		log.debug("Building SCIM schema responses");
+		String baseLocation = appConfiguration.getBaseEndpoint() + "/scim/v2/";
+		Map<String, CachedResponse> result = new HashMap<String, CachedResponse>();
+
+		// Schema instances are shared, so they are loaded and serialized only here under lock
+		ObjectMapper schemaMapper = createSchemaMapper();
+		List<SchemaType> schemaTypes = SchemaTypeMapping.getSchemaInstances();
+		List<Resource> schemaResources = new ArrayList<Resource>();
+
+		SchemaTypeLoadingFactory factory = new SchemaTypeLoadingFactory();
+		for (SchemaType schemaType : schemaTypes) {
+			factory.load(appConfiguration, schemaType);
+			schemaResources.add(schemaType);
+
+			String path = SCHEMAS + "/" + schemaType.getId();
+			result.put(path, new CachedResponse(schemaMapper.writeValueAsBytes(schemaType), baseLocation + path));
+		}
+		result.put(SCHEMAS, new CachedResponse(schemaMapper.writeValueAsBytes(createListResponse(schemaResources)), baseLocation + SCHEMAS));
+
+		ObjectMapper mapper = new ObjectMapper();
+		List<Resource> resourceTypes = new ArrayList<Resource>();
+		resourceTypes.add(createUserResourceType());
+		resourceTypes.add(createGroupResourceType());
+		resourceTypes.add(createFidoDeviceResourceType());
+
+		for (Resource resource : resourceTypes) {
+			ResourceType resourceType = (ResourceType) resource;
+			String path = RESOURCE_TYPES + "/" + resourceType.getId();
+			result.put(path, new CachedResponse(mapper.writeValueAsBytes(resourceType), baseLocation + path));
+		}
+		result.put(RESOURCE_TYPES, new CachedResponse(mapper.writeValueAsBytes(createListResponse(resourceTypes)), baseLocation + RESOURCE_TYPES));
+
+		this.responses = Collections.unmodifiableMap(result);
+
+		return this.responses;
+	}
+
+	private ObjectMapper createSchemaMapper() {
+		ObjectMapper mapper = new ObjectMapper();
+		mapper.disable(SerializationConfig.Feature.FAIL_ON_EMPTY_BEANS);
+		SimpleModule customSchemaTypeAstractModule = new SimpleModule("CustomSchemaTypeAbstractModule", new Version(1, 0, 0, ""));
+		SchemaTypeAbstractSerializer serializer = new SchemaTypeAbstractSerializer();
+		customSchemaTypeAstractModule.addSerializer(SchemaType.class, serializer);
+		mapper.registerModule(customSchemaTypeAstractModule);
+
+		return mapper;
+	}
+
+	private ListResponse createListResponse(List<Resource> resources) {
+		ListResponse listResponse = new ListResponse();
+
+		List<String> schemas = new ArrayList<String>();
+		schemas.add(Constants.LIST_RESPONSE_SCHEMA_ID);
+		listResponse.setSchemas(schemas);
+
+		listResponse.setResources(resources);
+		listResponse.setTotalResults(resources.size());
+		listResponse.setItemsPerPage(10);
+		listResponse.setStartIndex(1);
+
+		return listResponse;
+	}
+
+	private ResourceType createUserResourceType() {
+		ResourceType userResourceType = createResourceType(Constants.USER_CORE_SCHEMA_NAME, Constants.USER_CORE_SCHEMA_DESCRIPTION,
+				"/v2/Users", Constants.USER_CORE_SCHEMA_ID);
+
+		List<SchemaExtensionHolder> schemaExtensions = new ArrayList<SchemaExtensionHolder>();
+		SchemaExtensionHolder userExtensionSchema = new SchemaExtensionHolder();
+		userExtensionSchema.setSchema(Constants.USER_EXT_SCHEMA_ID);
+		userExtensionSchema.setRequired(false);
+		schemaExtensions.add(userExtensionSchema);
+		userResourceType.setSchemaExtensions(schemaExtensions);
+
+		return userResourceType;
+	}
+
+	private ResourceType createGroupResourceType() {
+		return createResourceType(Constants.GROUP_CORE_SCHEMA_NAME, Constants.GROUP_CORE_SCHEMA_DESCRIPTION, "/v2/Groups",
+				Constants.GROUP_CORE_SCHEMA_ID);
+	}
+
+	private ResourceType createFidoDeviceResourceType() {
+		return createResourceType(Constants.FIDO_DEVICES_CORE_SCHEMA_NAME, Constants.FIDO_DEVICES_CORE_SCHEMA_DESCRIPTION, "/v2/FidoDevices",
+				Constants.FIDO_DEVICES_CORE_SCHEMA_ID);
+	}
+
+	private ResourceType createResourceType(String name, String description, String endpoint, String schema) {
+		ResourceType resourceType = new ResourceType();
+		resourceType.setDescription(description);
+		resourceType.setEndpoint(endpoint);
+		resourceType.setName(name);
+		resourceType.setId(name);
+		resourceType.setSchema(schema);
+
+		Meta meta = new Meta();
+		meta.setLocation(appConfiguration.getBaseEndpoint() + "/scim/v2/" + RESOURCE_TYPES + "/" + name);
+		meta.setResourceType("ResourceType");
+		resourceType.setMeta(meta);
+
+		return resourceType;
+	}
+
+	public static class CachedResponse {
+
+		private final byte[] body;
+		private final String entityTag;
+		private final String location;
+
+		public CachedResponse(byte[] body, String location) {
+			this.body = body;
+			this.location = location;
+			this.entityTag = DigestUtils.shaHex(body);
+		}
+
+		public byte[] getBody() {
+			return body;
+		}
+
+		public String getEntityTag() {
+			return entityTag;
+		}
+
+		public String getLocation() {
+			return location;
+		}
+
+	}
+
+}
@@ -6,6 +6,8 @@
 
 package org.gluu.oxtrust.service.status.ldap;
 
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.xdi.service.cdi.async.Asynchronous;
@@ -25,6 +27,8 @@ import org.xdi.service.cdi.event.Scheduled;
 import org.xdi.service.timer.event.TimerEvent;
 import org.xdi.service.timer.schedule.TimerSchedule;
 
+import com.unboundid.ldap.sdk.LDAPConnectionPoolStatistics;
+
 /**
  * @author Yuriy Movchan
  * @version 0.1, 11/18/2012
@@ -50,8 +54,17 @@ public class LdapStatusTimer {
 	@Inject @Named(AppInitializer.LDAP_CENTRAL_ENTRY_MANAGER_NAME)
     private LdapEntryManager ldapCentralEntryManager;
 
+	@Inject @Named(AppInitializer.LDAP_SCIM_ENTRY_MANAGER_NAME)
+    private LdapEntryManager ldapScimEntryManager;
+
+	@Inject @Named(AppInitializer.LDAP_BATCH_ENTRY_MANAGER_NAME)
+    private LdapEntryManager ldapBatchEntryManager;
+
     private AtomicBoolean isActive;
 
+    // Checkout counters of previous run to report waits per interval
+    private Map<String, long[]> lastCheckoutCounters = new ConcurrentHashMap<String, long[]>();
+
     public void initTimer() {
         log.info("Initializing Ldap Status Timer");
         this.isActive = new AtomicBoolean(false);
@@ -79,6 +92,8 @@ public class LdapStatusTimer {
 
     private void processInt() {
     	logConnectionProviderStatistic(ldapEntryManager, "connectionProvider");
+    	logConnectionProviderStatistic(ldapScimEntryManager, "scimConnectionProvider");
+    	logConnectionProviderStatistic(ldapBatchEntryManager, "batchConnectionProvider");
     	
     	if (centralLdapService.isUseCentralServer() && (ldapCentralEntryManager.getLdapOperationService() != null)) {
     		logConnectionProviderStatistic(ldapCentralEntryManager, "centralConnectionProvider");
@@ -94,9 +109,31 @@ public class LdapStatusTimer {
             if (ldapConnectionProvider.getConnectionPool() == null) {
             	log.error("{} is empty", connectionProviderName);
             } else {
-            	log.debug("{} statistics: {}", connectionProviderName, ldapConnectionProvider.getConnectionPool().getConnectionPoolStatistics());
+            	LDAPConnectionPoolStatistics statistics = ldapConnectionProvider.getConnectionPool().getConnectionPoolStatistics();
+            	log.debug("{} statistics: {}", connectionProviderName, statistics);
+            	logConnectionPoolWaits(connectionProviderName, statistics);
             }
         }
 	}
 
+	private void logConnectionPoolWaits(String connectionProviderName, LDAPConnectionPoolStatistics statistics) {
+		long[] checkoutCounters = new long[] { statistics.getNumSuccessfulCheckoutsWithoutWaiting(), statistics.getNumSuccessfulCheckoutsAfterWaiting(),
+				statistics.getNumFailedCheckouts() };
+		long[] lastCounters = lastCheckoutCounters.put(connectionProviderName, checkoutCounters);
+		if (lastCounters == null) {
+			lastCounters = new long[checkoutCounters.length];
+		}
+
+		long withoutWaiting = checkoutCounters[0] - lastCounters[0];
+		long afterWaiting = checkoutCounters[1] - lastCounters[1];
+		long failed = checkoutCounters[2] - lastCounters[2];
+		if ((afterWaiting > 0) || (failed > 0)) {
+			log.warn("{} checkouts in last {} seconds: {} without waiting, {} after waiting, {} failed. Available connections: {} of {}", connectionProviderName,
+					DEFAULT_INTERVAL, withoutWaiting, afterWaiting, failed, statistics.getNumAvailableConnections(), statistics.getMaximumAvailableConnections());
+		} else {
+			log.debug("{} checkouts in last {} seconds: {} without waiting. Available connections: {} of {}", connectionProviderName, DEFAULT_INTERVAL,
+					withoutWaiting, statistics.getNumAvailableConnections(), statistics.getMaximumAvailableConnections());
+		}
+	}
+
 }
\ No newline at end of file
@@ -0,0 +1,285 @@
+/*
+ * oxTrust is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2017, Gluu
+ */
+
+package org.gluu.oxtrust.servlet;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.inject.Inject;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.io.IOUtils;
+import org.gluu.oxtrust.ldap.service.ImageService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xdi.model.GluuImage;
+import org.xdi.util.StringHelper;
+
+/**
+ * Base servlet to send organization images.
+ *
+ * Image is cached in memory until image XML in organization entry changes. Response has ETag and Last-Modified headers,
+ * so browser revalidates image with conditional request and gets 304 response without body. Images bigger than
+ * {@link #MAX_CACHED_SIZE} aren't kept in memory and are sent from file channel.
+ */
+public abstract class CachedImageServlet extends HttpServlet {
+
+	private static final long serialVersionUID = -2709461930563117251L;
+
+	private static final Logger log = LoggerFactory.getLogger(CachedImageServlet.class);
+
+	private static final int MAX_CACHED_SIZE = 1024 * 1024;
+
+	private static final String CACHE_CONTROL = "public, max-age=86400";
+	private static final String PREVIEW_CACHE_CONTROL = "no-cache";
+
+	private static final String DEFAULT_REVISION = "default";
+
+	@Inject
+	protected ImageService imageService;
+
+	private final ConcurrentMap<String, CachedImage> cache = new ConcurrentHashMap<String, CachedImage>();
+	private final long startTime = System.currentTimeMillis() / 1000 * 1000;
+
+	/**
+	 * @return image XML from organization entry or null if organization has no custom image
+	 */
+	protected abstract String getImageXml(HttpServletRequest request) throws Exception;
+
+	protected abstract void prepareImage(HttpServletRequest request, GluuImage image);
+
+	protected abstract String getDefaultImagePath();
+
+	protected abstract String getDefaultImageContentType();
+
+	protected boolean isPreview(HttpServletRequest request) {
+		return false;
+	}
+
+	@Override
+	protected void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+		CachedImage image;
+		try {
+			image = getCachedImage(request);
+		} catch (Exception ex) {
+			log.error("Failed to load image", ex);
+			image = null;
+		}
+
+		if (image == null) {
+			response.sendError(HttpServletResponse.SC_NOT_FOUND);
+			return;
+		}
+
+		response.setHeader("ETag", image.getEtag());
+		response.setDateHeader("Last-Modified", image.getLastModified());
+		response.setHeader("Cache-Control", isPreview(request) ? PREVIEW_CACHE_CONTROL : CACHE_CONTROL);
+
+		if (isNotModified(request, image)) {
+			response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+			return;
+		}
+
+		response.setContentType(image.getContentType());
+		response.setContentLength((int) image.getLength());
+
+		ServletOutputStream os = response.getOutputStream();
+		if (image.getData() != null) {
+			os.write(image.getData());
+		} else {
+			sendFile(image.getFile(), os);
+		}
+		os.flush();
+	}
+
+	private boolean isNotModified(HttpServletRequest request, CachedImage image) {
+		String ifNoneMatch = request.getHeader("If-None-Match");
+		if (ifNoneMatch != null) {
+			for (String etag : ifNoneMatch.split(",")) {
+				String value = etag.trim();
+				if (value.startsWith("W/")) {
+					value = value.substring(2);
+				}
+				if ("*".equals(value) || image.getEtag().equals(value)) {
+					return true;
+				}
+			}
+
+			return false;
+		}
+
+		long ifModifiedSince;
+		try {
+			ifModifiedSince = request.getDateHeader("If-Modified-Since");
+		} catch (IllegalArgumentException ex) {
+			return false;
+		}
+
+		return (ifModifiedSince != -1) && (image.getLastModified() <= ifModifiedSince);
+	}
+
+	private CachedImage getCachedImage(HttpServletRequest request) throws Exception {
+		String imageXml = getImageXml(request);
+		String revision = StringHelper.isEmpty(imageXml) ? DEFAULT_REVISION : imageXml;
+		String cacheKey = isPreview(request) ? "preview" : "current";
+
+		CachedImage cachedImage = cache.get(cacheKey);
+		if ((cachedImage != null) && cachedImage.getRevision().equals(revision) && cachedImage.isValid()) {
+			return cachedImage;
+		}
+
+		GluuImage image = StringHelper.isEmpty(imageXml) ? null : imageService.getGluuImageFromXML(imageXml);
+		if (image != null) {
+			prepareImage(request, image);
+			cachedImage = loadImage(revision, image);
+		} else {
+			cachedImage = loadDefaultImage();
+		}
+
+		if (cachedImage != null) {
+			cache.put(cacheKey, cachedImage);
+		}
+
+		return cachedImage;
+	}
+
+	private CachedImage loadImage(String revision, GluuImage image) throws IOException {
+		File file = imageService.getSourceFile(image);
+		if ((file == null) || !file.isFile()) {
+			log.error("Organization image '{}' doesn't exist", file);
+			return null;
+		}
+
+		long lastModified = image.getCreationDate() == null ? file.lastModified() : image.getCreationDate().getTime();
+		String etag = "\"" + DigestUtils.md5Hex(revision) + "\"";
+
+		byte[] data = null;
+		if (file.length() <= MAX_CACHED_SIZE) {
+			data = readFile(file);
+		}
+
+		return new CachedImage(revision, etag, image.getSourceContentType(), lastModified / 1000 * 1000, file.length(), data, file);
+	}
+
+	private CachedImage loadDefaultImage() throws IOException {
+		InputStream is = getServletContext().getResourceAsStream(getDefaultImagePath());
+		if (is == null) {
+			log.error("Default organization image '{}' doesn't exist", getDefaultImagePath());
+			return null;
+		}
+
+		byte[] data;
+		try {
+			data = IOUtils.toByteArray(is);
+		} finally {
+			IOUtils.closeQuietly(is);
+		}
+
+		String etag = "\"" + DigestUtils.md5Hex(data) + "\"";
+
+		return new CachedImage(DEFAULT_REVISION, etag, getDefaultImageContentType(), startTime, data.length, data, null);
+	}
+
+	private byte[] readFile(File file) throws IOException {
+		FileInputStream fis = new FileInputStream(file);
+		try {
+			FileChannel channel = fis.getChannel();
+			ByteBuffer buffer = ByteBuffer.allocate((int) channel.size());
+			while (buffer.hasRemaining() && (channel.read(buffer) >= 0)) {
+			}
+
+			return buffer.array();
+		} finally {
+			IOUtils.closeQuietly(fis);
+		}
+	}
+
+	private void sendFile(File file, ServletOutputStream os) throws IOException {
+		FileInputStream fis = new FileInputStream(file);
+		try {
+			FileChannel channel = fis.getChannel();
+			WritableByteChannel outputChannel = Channels.newChannel(os);
+			long position = 0;
+			long size = channel.size();
+			while (position < size) {
+				position += channel.transferTo(position, size - position, outputChannel);
+			}
+		} finally {
+			IOUtils.closeQuietly(fis);
+		}
+	}
+
+	private static class CachedImage {
+
+		private final String revision;
+		private final String etag;
+		private final String contentType;
+		private final long lastModified;
+		private final long length;
+		private final byte[] data;
+		private final File file;
+
+		public CachedImage(String revision, String etag, String contentType, long lastModified, long length, byte[] data, File file) {
+			this.revision = revision;
+			this.etag = etag;
+			this.contentType = contentType;
+			this.lastModified = lastModified;
+			this.length = length;
+			this.data = data;
+			this.file = file;
+		}
+
+		/**
+		 * Image file which isn't kept in memory can be removed
+		 */
+		public boolean isValid() {
+			return (data != null) || ((file != null) && (file.length() == length));
+		}
+
+		public String getRevision() {
+			return revision;
+		}
+
+		public String getEtag() {
+			return etag;
+		}
+
+		public String getContentType() {
+			return contentType;
+		}
+
+		public long getLastModified() {
+			return lastModified;
+		}
+
+		public long getLength() {
+			return length;
+		}
+
+		public byte[] getData() {
+			return data;
+		}
+
+		public File getFile() {
+			return file;
+		}
+
+	}
+
+}
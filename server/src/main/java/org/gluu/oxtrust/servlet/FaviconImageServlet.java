@@ -6,134 +6,54 @@
 
 package org.gluu.oxtrust.servlet;
 
-import java.io.File;
-import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
-import java.util.Date;
-
 import javax.inject.Inject;
-import javax.servlet.ServletException;
 import javax.servlet.annotation.WebServlet;
-import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
-import javax.servlet.http.HttpServletResponse;
 
-import org.apache.commons.io.FileUtils;
-import org.apache.commons.io.IOUtils;
-import org.gluu.oxtrust.ldap.service.ImageService;
 import org.gluu.oxtrust.ldap.service.OrganizationService;
 import org.gluu.oxtrust.model.GluuOrganization;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
 import org.xdi.model.GluuImage;
-import org.xdi.util.io.DownloadWrapper;
-import org.xdi.util.io.FileDownloader;
-import org.xdi.util.io.FileDownloader.ContentDisposition;
+import org.xdi.util.StringHelper;
 
 @WebServlet(urlPatterns = "/servlet/favicon")
-public class FaviconImageServlet extends HttpServlet {
-	
-	@Inject
-	private OrganizationService organizationService;
-	
-	@Inject
-	private ImageService imageService;
+public class FaviconImageServlet extends CachedImageServlet {
 
 	private static final long serialVersionUID = 5445488800130871634L;
 
-	private static final Logger log = LoggerFactory.getLogger(FaviconImageServlet.class);
+	@Inject
+	private OrganizationService organizationService;
 
 	@Override
-	protected void doGet(HttpServletRequest httpServletRequest, HttpServletResponse response) throws ServletException, IOException {
-		log.debug("Starting organization favicon upload");
-		String preview = httpServletRequest.getParameter("preview");
-		GluuOrganization organization = null;
-		try {
-			organization = organizationService.getOrganization();
-		} catch (Exception ex) {
-			log.error("an Error Occured", ex);
-		}
-
-		GluuImage image = null;
-		if ("true".equals(preview)) {
-			image = imageService.getGluuImageFromXML(organization.getTempFaviconImage());
-			if (image != null) {
-				image.setStoreTemporary(true);
-			}
+	protected boolean isPreview(HttpServletRequest request) {
+		return "true".equals(request.getParameter("preview"));
+	}
 
+	@Override
+	protected String getImageXml(HttpServletRequest request) {
+		GluuOrganization organization = organizationService.getOrganization();
+		if (isPreview(request) && StringHelper.isNotEmpty(organization.getTempFaviconImage())) {
+			return organization.getTempFaviconImage();
 		}
 
-		if (!"true".equals(preview) || image == null) {
-			image = imageService.getGluuImageFromXML(organization.getFaviconImage());
-		}
+		return organization.getFaviconImage();
+	}
 
-		if (image != null) {
-			image.setLogo(false);
+	@Override
+	protected void prepareImage(HttpServletRequest request, GluuImage image) {
+		image.setLogo(false);
+		if (isPreview(request) && StringHelper.isNotEmpty(organizationService.getOrganization().getTempFaviconImage())) {
+			image.setStoreTemporary(true);
 		}
-		OutputStream os = null;
-		InputStream is = null;
-		try {
-			DownloadWrapper downloadWrapper = null;
-
-			// Send customized organization logo
-			if (image != null) {
-				File file = null;
-				try {
-					file = imageService.getSourceFile(image);
-				} catch (Exception ex) {
-					log.error("an Error Occured", ex);
-
-				}
-				try {
-					is = FileUtils.openInputStream(file);
-					if (is != null && file != null) {
-						downloadWrapper = new DownloadWrapper(is, image.getSourceName(), image.getSourceContentType(),
-								image.getCreationDate(), (int) file.length());
-					}
-				} catch (IOException ex) {
-					log.error("Organization favicon image doesn't exist", ex);
-					FileDownloader.sendError(response);
-					return;
-				}
-			} else {
-				// If customized logo doesn't exist then send default
-				// organization logo
-				String defaultFaviconFileName = "/WEB-INF/static/images/favicon_ic.ico";
-				is = getServletContext().getResourceAsStream(defaultFaviconFileName);
-				if (is == null) {
-					log.error("Default organization favicon image doesn't exist");
-					FileDownloader.sendError(response);
-					return;
-				}
-
-				// Calculate default logo size
-				long contentLength;
-				try {
-					contentLength = is.skip(Long.MAX_VALUE);
-				} catch (IOException ex) {
-					log.error("Failed to calculate default organization favicon image size", ex);
-					FileDownloader.sendError(response);
-					return;
-				} finally {
-					IOUtils.closeQuietly(is);
-				}
+	}
 
-				is = getServletContext().getResourceAsStream(defaultFaviconFileName);
-				downloadWrapper = new DownloadWrapper(is, "favicon_ic.ico", "image/x-icon", new Date(), (int) contentLength);
-			}
+	@Override
+	protected String getDefaultImagePath() {
+		return "/WEB-INF/static/images/favicon_ic.ico";
+	}
 
-			try {
-				int logoSize = FileDownloader.writeOutput(downloadWrapper, ContentDisposition.INLINE, response);
-				response.getOutputStream().flush();
-				log.debug("Successfully send organization favicon with size", logoSize);
-			} catch (IOException ex) {
-				log.error("Failed to send organization favicon", ex);
-				FileDownloader.sendError(response);
-			}
-		} finally {
-			IOUtils.closeQuietly(is);
-			IOUtils.closeQuietly(os);
-		}
+	@Override
+	protected String getDefaultImageContentType() {
+		return "image/x-icon";
 	}
+
 }
@@ -12,6 +12,7 @@ import java.math.BigDecimal;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -27,6 +28,7 @@ import org.apache.commons.lang.StringUtils;
 import org.codehaus.jackson.JsonGenerationException;
 import org.codehaus.jackson.map.JsonMappingException;
 import org.codehaus.jackson.map.ObjectMapper;
+import org.codehaus.jackson.map.ObjectReader;
 import org.gluu.oxtrust.exception.PersonRequiredFieldsException;
 import org.gluu.oxtrust.ldap.service.AttributeService;
 import org.gluu.oxtrust.ldap.service.IGroupService;
@@ -670,6 +672,15 @@ public class CopyUtils2 implements Serializable {
      * @throws Exception
      */
     public User copy(GluuCustomPerson source, User destination) throws Exception {
+        return copy(source, destination, Collections.<String>emptySet());
+    }
+
+    /**
+     * Copy data from GluuCustomPerson object to User object skipping conversion of excluded attributes
+     *
+     * @param excludedLdapAttributes lower case LDAP names of attributes which were excluded by client
+     */
+    public User copy(GluuCustomPerson source, User destination, Set<String> excludedLdapAttributes) throws Exception {
 
         if (source == null) {
             return null;
@@ -733,7 +744,7 @@ public class CopyUtils2 implements Serializable {
 
         log.trace(" getting emails ");
         // source = Utils.syncEmailReverse(source, true);
-        if (source.getAttributeArray("oxTrustEmail") != null) {
+        if (!excludedLdapAttributes.contains("oxtrustemail") && source.getAttributeArray("oxTrustEmail") != null) {
 
 			/*
 			String[] emailArray = source.getAttributeArray("oxTrustEmail");
@@ -754,14 +765,14 @@ public class CopyUtils2 implements Serializable {
 
         log.trace(" getting addresses ");
         // getting addresses
-        if (source.getAttribute("oxTrustAddresses") != null) {
+        if (!excludedLdapAttributes.contains("oxtrustaddresses") && source.getAttribute("oxTrustAddresses") != null) {
             List<Address> addresses = getAttributeListValue(source, Address.class, "oxTrustAddresses");
             destination.setAddresses(addresses);
         }
 
         log.trace(" setting phoneNumber ");
         // getting user's PhoneNumber
-        if (source.getAttribute("oxTrustPhoneValue") != null) {
+        if (!excludedLdapAttributes.contains("oxtrustphonevalue") && source.getAttribute("oxTrustPhoneValue") != null) {
             List<PhoneNumber> phoneNumbers = getAttributeListValue(source, PhoneNumber.class, "oxTrustPhoneValue");
             destination.setPhoneNumbers(phoneNumbers);
         }
@@ -772,14 +783,14 @@ public class CopyUtils2 implements Serializable {
 
         log.trace(" getting ims ");
         // getting ims
-        if (source.getAttribute("oxTrustImsValue") != null) {
+        if (!excludedLdapAttributes.contains("oxtrustimsvalue") && source.getAttribute("oxTrustImsValue") != null) {
             List<Im> ims = getAttributeListValue(source, Im.class, "oxTrustImsValue");
             destination.setIms(ims);
         }
 
         log.trace(" setting photos ");
         // getting photos
-        if (source.getAttribute("oxTrustPhotos") != null) {
+        if (!excludedLdapAttributes.contains("oxtrustphotos") && source.getAttribute("oxTrustPhotos") != null) {
             List<Photo> photos = getAttributeListValue(source, Photo.class, "oxTrustPhotos");
             destination.setPhotos(photos);
         }
@@ -819,7 +830,7 @@ public class CopyUtils2 implements Serializable {
 
         // getting user groups
         log.trace(" setting  groups ");
-        if (source.getMemberOf() != null) {
+        if (!excludedLdapAttributes.contains("memberof") && source.getMemberOf() != null) {
             List<String> listOfGroups = source.getMemberOf();
             List<GroupRef> groupRefList = new ArrayList<GroupRef>();
 
@@ -840,21 +851,21 @@ public class CopyUtils2 implements Serializable {
         }
 
         // getting roles
-        if (source.getAttribute("oxTrustRole") != null) {
+        if (!excludedLdapAttributes.contains("oxtrustrole") && source.getAttribute("oxTrustRole") != null) {
             List<Role> roles = getAttributeListValue(source, Role.class, "oxTrustRole");
             destination.setRoles(roles);
         }
 
         log.trace(" getting entitlements ");
         // getting entitlements
-        if (source.getAttribute("oxTrustEntitlements") != null) {
+        if (!excludedLdapAttributes.contains("oxtrustentitlements") && source.getAttribute("oxTrustEntitlements") != null) {
             List<Entitlement> entitlements = getAttributeListValue(source, Entitlement.class, "oxTrustEntitlements");
             destination.setEntitlements(entitlements);
         }
 
         // getting x509Certificates
         log.trace(" setting certs ");
-        if (source.getAttribute("oxTrustx509Certificate") != null) {
+        if (!excludedLdapAttributes.contains("oxtrustx509certificate") && source.getAttribute("oxTrustx509Certificate") != null) {
             List<X509Certificate> x509Certificates = getAttributeListValue(source, X509Certificate.class, "oxTrustx509Certificate");
             destination.setX509Certificates(x509Certificates);
         }
@@ -874,6 +885,10 @@ public class CopyUtils2 implements Serializable {
             outer:
             for (GluuCustomAttribute customAttribute : source.getCustomAttributes()) {
 
+                if (excludedLdapAttributes.contains(customAttribute.getName().toLowerCase())) {
+                    continue;
+                }
+
                 for (GluuAttribute scimCustomAttribute : scimCustomAttributes) {
 
                     if (customAttribute.getName().equals(scimCustomAttribute.getName())) {
@@ -1085,6 +1100,15 @@ public class CopyUtils2 implements Serializable {
      */
 
     public Group copy(GluuGroup source, Group destination) throws Exception {
+        return copy(source, destination, Collections.<String>emptySet());
+    }
+
+    /**
+     * Copy data from GluuGroup object to Group object skipping conversion of excluded attributes
+     *
+     * @param excludedLdapAttributes lower case LDAP names of attributes which were excluded by client
+     */
+    public Group copy(GluuGroup source, Group destination, Set<String> excludedLdapAttributes) throws Exception {
         if (source == null) {
             return null;
         }
@@ -1095,7 +1119,7 @@ public class CopyUtils2 implements Serializable {
         destination.setDisplayName(source.getDisplayName());
         destination.setId(source.getInum());
 
-        if (source.getMembers() != null) {
+        if (!excludedLdapAttributes.contains("member") && source.getMembers() != null) {
 
             if (source.getMembers().size() > 0) {
 
@@ -1429,25 +1453,47 @@ public class CopyUtils2 implements Serializable {
         destination.setAttribute(attributeName, itemList.toArray(new String[]{}));
     }
 
+    /**
+     * Decode JSON values of attribute. Result is kept in source entry, so attribute is decoded once while it isn't
+     * changed. Each call returns new list of item copies, so caller can modify them
+     */
+    @SuppressWarnings("unchecked")
     protected <T extends MultiValuedAttribute> List<T> getAttributeListValue(GluuCustomPerson source, Class<T> clazz, String attributeName) throws Exception {
 
-        ObjectMapper mapper = ServiceUtil.getObjectMapper();
-
         String[] attributeArray = source.getAttributeArray(attributeName);
-        List<T> items = new ArrayList<T>();
         if(attributeArray == null) {
             return null;
         }
 
+        List<T> decodedItems = (List<T>) source.getDecodedValue(attributeName, clazz);
+        if (decodedItems != null) {
+            return copyItems(decodedItems);
+        }
+
+        ObjectReader reader = ServiceUtil.getObjectReader(clazz);
+
+        List<T> items = new ArrayList<T>();
         for (String attribute : attributeArray) {
-            T item = mapper.readValue(attribute, clazz);
+            T item = reader.readValue(attribute);
             items.add(item);
         }
 
         // List<Email> listOfEmails = mapper.readValue(source.getAttribute("oxTrustEmail"), new TypeReference<List<Email>>(){});
         // destination.setEmails(listOfEmails);
 
-        return items;
+        source.setDecodedValue(attributeName, clazz, items);
+
+        return copyItems(items);
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T extends MultiValuedAttribute> List<T> copyItems(List<T> items) {
+        List<T> result = new ArrayList<T>(items.size());
+        for (T item : items) {
+            result.add(item == null ? null : (T) item.clone());
+        }
+
+        return result;
     }
 
 }
\ No newline at end of file
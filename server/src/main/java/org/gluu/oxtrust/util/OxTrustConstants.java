@@ -165,6 +165,12 @@ public final class OxTrustConstants extends OxConstants {
      */
     public static final String QUERY_PARAMETER_ATTRIBUTES = "attributes";
 
+    /**
+     * The HTTP query parameter used in a URI to exclude specific SCIM
+     * attributes from response.
+     */
+    public static final String QUERY_PARAMETER_EXCLUDED_ATTRIBUTES = "excludedAttributes";
+
     /**
      * The HTTP query parameter used in a URI to provide a filter expression.
      */
@@ -0,0 +1,81 @@
+/*
+ * oxTrust is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2017, Gluu
+ */
+
+package org.gluu.oxtrust.util;
+
+import java.util.List;
+
+import org.gluu.site.ldap.persistence.LdapEntryManager;
+
+import com.unboundid.asn1.ASN1OctetString;
+import com.unboundid.ldap.sdk.Control;
+import com.unboundid.ldap.sdk.LDAPConnection;
+import com.unboundid.ldap.sdk.LDAPException;
+import com.unboundid.ldap.sdk.SearchRequest;
+import com.unboundid.ldap.sdk.SearchResult;
+import com.unboundid.ldap.sdk.SearchResultEntry;
+import com.unboundid.ldap.sdk.controls.SimplePagedResultsControl;
+
+/**
+ * Runs search with simple paged results control and passes entries to handler page by page, so result size isn't
+ * limited by heap size or server size limit
+ */
+public final class PagedSearchUtil {
+
+	private PagedSearchUtil() {
+	}
+
+	public interface PageHandler<E extends Exception> {
+
+		void handle(List<SearchResultEntry> entries) throws E;
+
+	}
+
+	/**
+	 * @return number of entries passed to handler
+	 */
+	public static <E extends Exception> long search(LdapEntryManager ldapEntryManager, SearchRequest searchRequest, int pageSize,
+			PageHandler<E> handler) throws LDAPException, E {
+		long count = 0;
+
+		// Paged results cookie is bound to connection, so it's kept until the last page
+		LDAPConnection connection = ldapEntryManager.getLdapOperationService().getConnection();
+		ASN1OctetString cookie = null;
+		try {
+			do {
+				searchRequest.setControls(new Control[] { new SimplePagedResultsControl(pageSize, cookie) });
+				SearchResult searchResult = connection.search(searchRequest);
+
+				SimplePagedResultsControl responseControl = SimplePagedResultsControl.get(searchResult);
+				cookie = ((responseControl != null) && responseControl.moreResultsToReturn()) ? responseControl.getCookie() : null;
+
+				List<SearchResultEntry> entries = searchResult.getSearchEntries();
+				count += entries.size();
+				handler.handle(entries);
+			} while (cookie != null);
+		} finally {
+			if (cookie != null) {
+				// Search stopped before last page, server must drop paged results before connection goes back to pool
+				abandon(connection, searchRequest, cookie);
+			}
+			ldapEntryManager.getLdapOperationService().releaseConnection(connection);
+		}
+
+		return count;
+	}
+
+	private static void abandon(LDAPConnection connection, SearchRequest searchRequest, ASN1OctetString cookie) {
+		try {
+			// Page size 0 with last cookie abandons paged results (RFC 2696)
+			searchRequest.setControls(new Control[] { new SimplePagedResultsControl(0, cookie) });
+			connection.search(searchRequest);
+		} catch (LDAPException ex) {
+			// State of connection is unknown, pool replaces closed connection on release
+			connection.close();
+		}
+	}
+
+}
@@ -16,6 +16,8 @@ import java.io.Serializable;
 import java.security.SecureRandom;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import javax.inject.Inject;
 import javax.inject.Named;
@@ -23,6 +25,7 @@ import javax.inject.Named;
 import org.apache.commons.io.IOUtils;
 import org.codehaus.jackson.map.DeserializationConfig;
 import org.codehaus.jackson.map.ObjectMapper;
+import org.codehaus.jackson.map.ObjectReader;
 import org.codehaus.jackson.map.SerializationConfig;
 import org.gluu.oxtrust.ldap.service.IGroupService;
 import org.gluu.oxtrust.ldap.service.IPersonService;
@@ -64,6 +67,9 @@ public class ServiceUtil implements Serializable {
 		mapper.disable(DeserializationConfig.Feature.FAIL_ON_UNKNOWN_PROPERTIES);
 	}
 
+	// Readers are immutable and keep resolved deserializer of type
+	private static final ConcurrentMap<Class<?>, ObjectReader> readers = new ConcurrentHashMap<Class<?>, ObjectReader>();
+
 	/**
 	 * Delete a Group from a Person
 	 * 
@@ -518,6 +524,19 @@ public class ServiceUtil implements Serializable {
 	public static ObjectMapper getObjectMapper() {
 		return mapper;
 	}
+
+	/**
+	 * Get shared reader of specified type with configuration of {@link #getObjectMapper()}
+	 */
+	public static ObjectReader getObjectReader(Class<?> clazz) {
+		ObjectReader reader = readers.get(clazz);
+		if (reader == null) {
+			reader = mapper.reader(clazz);
+			readers.putIfAbsent(clazz, reader);
+		}
+
+		return reader;
+	}
         
         /**
 	 * Read all bytes from the supplied input stream. Closes the input stream.
@@ -8,17 +8,26 @@ package org.gluu.oxtrust.ws.rs.scim2;
 
 import static org.gluu.oxtrust.model.scim2.Constants.DEFAULT_COUNT;
 import static org.gluu.oxtrust.service.antlr.scimFilter.visitor.scim2.GroupFilterVisitor.getGroupLdapAttributeName;
+import static org.gluu.oxtrust.service.antlr.scimFilter.visitor.scim2.GroupFilterVisitor.getGroupLdapAttributeNames;
 import static org.gluu.oxtrust.service.antlr.scimFilter.visitor.scim2.UserFilterVisitor.getUserLdapAttributeName;
+import static org.gluu.oxtrust.service.antlr.scimFilter.visitor.scim2.UserFilterVisitor.getUserLdapAttributeNames;
 import static org.gluu.oxtrust.service.antlr.scimFilter.visitor.scim2.fido.FidoDeviceFilterVisitor.getFidoDeviceLdapAttributeName;
 
+import java.net.URI;
 import java.util.*;
+import java.util.concurrent.Callable;
 
 import javax.inject.Inject;
+import javax.inject.Named;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.Response;
 
 import org.codehaus.jackson.map.ObjectMapper;
 import org.gluu.oxtrust.ldap.service.AppInitializer;
 import org.gluu.oxtrust.ldap.service.ApplianceService;
+import org.gluu.oxtrust.ldap.service.AttributeService;
 import org.gluu.oxtrust.ldap.service.JsonConfigurationService;
 import org.gluu.oxtrust.model.GluuCustomPerson;
 import org.gluu.oxtrust.model.GluuGroup;
@@ -33,6 +42,10 @@ import org.gluu.oxtrust.security.Identity;
 import org.gluu.oxtrust.service.OpenIdService;
 import org.gluu.oxtrust.service.antlr.scimFilter.ScimFilterParserService;
 import org.gluu.oxtrust.service.antlr.scimFilter.util.FilterUtil;
+import org.gluu.oxtrust.service.scim2.ScimExecutorService;
+import org.gluu.oxtrust.service.scim2.ScimExecutorService.Workload;
+import org.gluu.oxtrust.service.scim2.ScimMetricsService;
+import org.gluu.oxtrust.service.scim2.schema.ScimSchemaResponseService.CachedResponse;
 import org.gluu.oxtrust.service.uma.ScimUmaProtectionService;
 import org.gluu.oxtrust.exception.UmaProtectionException;
 import org.gluu.oxtrust.service.uma.UmaPermissionService;
@@ -41,11 +54,13 @@ import org.slf4j.Logger;
 import org.xdi.config.oxtrust.AppConfiguration;
 import org.xdi.ldap.model.SortOrder;
 import org.xdi.ldap.model.VirtualListViewResponse;
+import org.xdi.model.GluuAttribute;
 import org.xdi.oxauth.client.ClientInfoClient;
 import org.xdi.oxauth.client.ClientInfoResponse;
 import org.xdi.oxauth.model.uma.wrapper.Token;
 import org.xdi.util.Pair;
 
+import com.codahale.metrics.Timer;
 import com.unboundid.ldap.sdk.Filter;
 
 /**
@@ -55,6 +70,10 @@ import com.unboundid.ldap.sdk.Filter;
  */
 public class BaseScimWebService {
 
+	private static final String[] NAME_ATTRIBUTES = { "name.familyName", "name.givenName", "name.middleName", "name.honorificPrefix",
+			"name.honorificSuffix" };
+	private static final String[] META_ATTRIBUTES = { "meta.created", "meta.lastModified", "meta.location", "meta.version" };
+
 	@Inject
 	private Logger log;
 
@@ -79,7 +98,7 @@ public class BaseScimWebService {
 	@Inject
 	private OpenIdService openIdService;
 
-	@Inject
+	@Inject @Named(AppInitializer.LDAP_SCIM_ENTRY_MANAGER_NAME)
 	private LdapEntryManager ldapEntryManager;
 
 	@Inject
@@ -88,6 +107,15 @@ public class BaseScimWebService {
     @Inject
     private AppInitializer appInitializer;
 
+	@Inject
+	private ScimMetricsService scimMetricsService;
+
+	@Inject
+	private AttributeService attributeService;
+
+	@Inject
+	private ScimExecutorService scimExecutorService;
+
 	public int getMaxCount(){
 	    //return Constants.MAX_COUNT;
 	    return appConfiguration.getScimProperties().getMaxCount();
@@ -97,6 +125,7 @@ public class BaseScimWebService {
 
         Response response=null;
 
+        Timer.Context authorizationContext = scimMetricsService.startPhase(ScimMetricsService.PHASE_AUTHORIZATION);
         try {
             token=token.replaceFirst("Bearer\\s+","");
             log.debug("Validating token {}", token);
@@ -114,11 +143,23 @@ public class BaseScimWebService {
             log.error("Failed to check test token", e);
             response=getErrorResponse(Response.Status.SERVICE_UNAVAILABLE, "Invalid token");
         }
+        finally {
+            scimMetricsService.stopPhase(authorizationContext);
+        }
         return response;
 
     }
 
 	protected Response processAuthorization(String authorization) throws Exception {
+		Timer.Context authorizationContext = scimMetricsService.startPhase(ScimMetricsService.PHASE_AUTHORIZATION);
+		try {
+			return processUmaAuthorization(authorization);
+		} finally {
+			scimMetricsService.stopPhase(authorizationContext);
+		}
+	}
+
+	private Response processUmaAuthorization(String authorization) throws Exception {
 		if (!scimUmaProtectionService.isEnabled()) {
 			log.info("UMA SCIM authentication is disabled");
 			return getErrorResponse(Response.Status.SERVICE_UNAVAILABLE, "SCIM was disabled");
@@ -142,7 +183,20 @@ public class BaseScimWebService {
 		return null;
 	}
 
+	private Response processRequestAuthorization(String authorization) throws Exception {
+		if (jsonConfigurationService.getOxTrustappConfiguration().isScimTestMode()) {
+			log.info(" ##### SCIM Test Mode is ACTIVE");
+			return processTestModeAuthorization(authorization);
+		}
+
+		return processAuthorization(authorization);
+	}
+
 	public <T> List<T> search(String dn, Class<T> entryClass, String filterString, int startIndex, int count, String sortBy, String sortOrder, VirtualListViewResponse vlvResponse, String attributesArray) throws Exception {
+		return search(dn, entryClass, filterString, startIndex, count, sortBy, sortOrder, vlvResponse, attributesArray, null);
+	}
+
+	public <T> List<T> search(String dn, Class<T> entryClass, String filterString, int startIndex, int count, String sortBy, String sortOrder, VirtualListViewResponse vlvResponse, String attributesArray, String excludedAttributesArray) throws Exception {
 
 		log.info("----------");
 		log.info(" ### RAW PARAMS ###");
@@ -152,25 +206,9 @@ public class BaseScimWebService {
 		log.info(" sortBy = " + sortBy);
 		log.info(" sortOrder = " + sortOrder);
 		log.info(" attributes = " + attributesArray);
+		log.info(" excludedAttributes = " + excludedAttributesArray);
 
-		Filter filter;
-		if (filterString == null || (filterString != null && filterString.isEmpty())) {
-			if (entryClass.getName().equals(GluuCustomFidoDevice.class.getName())) {
-				filter = Filter.create("oxId=*");
-			} else {
-				filter = Filter.create("inum=*");
-			}
-		} else {
-			Class clazz = null;
-			if (entryClass.getName().equals(GluuCustomPerson.class.getName())) {
-				clazz = User.class;
-			} else if (entryClass.getName().equals(GluuGroup.class.getName())) {
-				clazz = Group.class;
-			} else if (entryClass.getName().equals(GluuCustomFidoDevice.class.getName())) {
-				clazz = FidoDevice.class;
-			}
-			filter = scimFilterParserService.createFilter(filterString, clazz);
-		}
+		Filter filter = createFilter(entryClass, filterString);
 
 		startIndex = (startIndex < 1) ? 1 : startIndex;
 
@@ -198,6 +236,79 @@ public class BaseScimWebService {
 			sortOrderEnum = SortOrder.ASCENDING;
 		}
 
+		String[] attributes = getLdapAttributes(entryClass, attributesArray);
+
+		// attributes takes precedence over excludedAttributes
+		if ((attributes == null) && (excludedAttributesArray != null) && !excludedAttributesArray.isEmpty()) {
+			Set<String> excludedLdapAttributes = getExcludedLdapAttributes(entryClass, excludedAttributesArray);
+			if (!excludedLdapAttributes.isEmpty()) {
+				attributes = getReturnedLdapAttributes(entryClass, excludedLdapAttributes);
+			}
+		}
+
+		log.info(" ### CONVERTED PARAMS ###");
+		log.info(" parsed filter = " + filter.toString());
+		log.info(" startIndex = " + startIndex);
+		log.info(" count = " + count);
+		log.info(" sortBy = " + sortBy);
+		log.info(" sortOrder = " + sortOrderEnum.getValue());
+		log.info(" attributes = " + ((attributes != null && attributes.length > 0) ? new ObjectMapper().writeValueAsString(attributes) : null));
+
+		// List<T> result = ldapEntryManager.findEntriesVirtualListView(dn, entryClass, filter, startIndex, count, sortBy, sortOrderEnum, vlvResponse, attributes);
+		List<T> result;
+		Timer.Context ldapSearchContext = scimMetricsService.startPhase(ScimMetricsService.PHASE_LDAP_SEARCH);
+		try {
+			result = ldapEntryManager.findEntriesSearchSearchResult(dn, entryClass, filter, startIndex, count, getMaxCount(), sortBy, sortOrderEnum, vlvResponse, attributes);
+		} finally {
+			scimMetricsService.stopPhase(ldapSearchContext);
+		}
+
+		log.info(" ### RESULTS INFO ###");
+		log.info(" totalResults = " + vlvResponse.getTotalResults());
+		log.info(" itemsPerPage = " + vlvResponse.getItemsPerPage());
+		log.info(" startIndex = " + vlvResponse.getStartIndex());
+		log.info("----------");
+
+		return result;
+	}
+
+	/**
+	 * Convert SCIM filter to LDAP filter. Empty filter matches all entries
+	 */
+	protected Filter createFilter(Class<?> entryClass, String filterString) throws Exception {
+		Filter filter;
+		if (filterString == null || (filterString != null && filterString.isEmpty())) {
+			if (entryClass.getName().equals(GluuCustomFidoDevice.class.getName())) {
+				filter = Filter.create("oxId=*");
+			} else {
+				filter = Filter.create("inum=*");
+			}
+		} else {
+			Class clazz = null;
+			if (entryClass.getName().equals(GluuCustomPerson.class.getName())) {
+				clazz = User.class;
+			} else if (entryClass.getName().equals(GluuGroup.class.getName())) {
+				clazz = Group.class;
+			} else if (entryClass.getName().equals(GluuCustomFidoDevice.class.getName())) {
+				clazz = FidoDevice.class;
+			}
+			Timer.Context filterContext = scimMetricsService.startPhase(ScimMetricsService.PHASE_FILTER);
+			try {
+				filter = scimFilterParserService.createFilter(filterString, clazz);
+			} finally {
+				scimMetricsService.stopPhase(filterContext);
+			}
+		}
+
+		return filter;
+	}
+
+	/**
+	 * Map SCIM attributes parameter to LDAP attribute names including attributes which are always returned
+	 *
+	 * @return null if all attributes are requested
+	 */
+	protected String[] getLdapAttributes(Class<?> entryClass, String attributesArray) {
 		// String[] attributes = (attributesArray != null && !attributesArray.isEmpty()) ? mapper.readValue(attributesArray, String[].class) : null;
 		String[] attributes = (attributesArray != null && !attributesArray.isEmpty()) ? attributesArray.split("\\,") : null;
 		if (attributes != null && attributes.length > 0) {
@@ -261,26 +372,136 @@ public class BaseScimWebService {
 			}
 		}
 
-		log.info(" ### CONVERTED PARAMS ###");
-		log.info(" parsed filter = " + filter.toString());
-		log.info(" startIndex = " + startIndex);
-		log.info(" count = " + count);
-		log.info(" sortBy = " + sortBy);
-		log.info(" sortOrder = " + sortOrderEnum.getValue());
-		log.info(" attributes = " + ((attributes != null && attributes.length > 0) ? new ObjectMapper().writeValueAsString(attributes) : null));
+		return attributes;
+	}
 
-		// List<T> result = ldapEntryManager.findEntriesVirtualListView(dn, entryClass, filter, startIndex, count, sortBy, sortOrderEnum, vlvResponse, attributes);
-		List<T> result = ldapEntryManager.findEntriesSearchSearchResult(dn, entryClass, filter, startIndex, count, getMaxCount(), sortBy, sortOrderEnum, vlvResponse, attributes);
+	/**
+	 * Map SCIM excludedAttributes parameter to lower case LDAP attribute names. Only user and group attributes are
+	 * supported. Sub-attributes stored together with parent attribute (e.g. emails.type) can't be excluded from
+	 * LDAP response and are ignored
+	 */
+	public Set<String> getExcludedLdapAttributes(Class<?> entryClass, String excludedAttributesArray) {
+		Set<String> result = new HashSet<String>();
+		if ((excludedAttributesArray == null) || excludedAttributesArray.isEmpty()) {
+			return result;
+		}
 
-		log.info(" ### RESULTS INFO ###");
-		log.info(" totalResults = " + vlvResponse.getTotalResults());
-		log.info(" itemsPerPage = " + vlvResponse.getItemsPerPage());
-		log.info(" startIndex = " + vlvResponse.getStartIndex());
-		log.info("----------");
+		boolean isPerson = GluuCustomPerson.class.equals(entryClass);
+		if (!isPerson && !GluuGroup.class.equals(entryClass)) {
+			return result;
+		}
+
+		for (String attribute : excludedAttributesArray.split("\\,")) {
+			attribute = attribute.trim();
+			if (attribute.isEmpty()) {
+				continue;
+			}
+
+			if (isPerson && attribute.equalsIgnoreCase(Constants.USER_EXT_SCHEMA_ID)) {
+				for (GluuAttribute scimCustomAttribute : attributeService.getSCIMRelatedAttributes()) {
+					result.add(scimCustomAttribute.getName().toLowerCase());
+				}
+				continue;
+			}
+
+			attribute = FilterUtil.stripScim2Schema(attribute);
+
+			String[] tokens = attribute.split("\\.");
+			boolean isName = isPerson && tokens[0].equalsIgnoreCase("name");
+			boolean isMeta = tokens[0].equalsIgnoreCase("meta");
+			if ((tokens.length > 1) && !isName && !isMeta) {
+				continue;
+			}
+
+			if ((tokens.length == 1) && isName) {
+				for (String nameAttribute : NAME_ATTRIBUTES) {
+					result.add(getUserLdapAttributeName(nameAttribute).toLowerCase());
+				}
+			} else if ((tokens.length == 1) && isMeta) {
+				for (String metaAttribute : META_ATTRIBUTES) {
+					result.add(getGroupLdapAttributeName(metaAttribute).toLowerCase());
+				}
+			} else if (isPerson) {
+				result.add(getUserLdapAttributeName(attribute).toLowerCase());
+			} else {
+				result.add(getGroupLdapAttributeName(attribute).toLowerCase());
+			}
+		}
+
+		// id is always returned
+		result.remove("inum");
+
+		// User timezone is stored in zoneinfo
+		if (result.contains("timezone")) {
+			result.add("zoneinfo");
+		}
 
 		return result;
 	}
 
+	private String[] getReturnedLdapAttributes(Class<?> entryClass, Set<String> excludedLdapAttributes) {
+		Set<String> attributesSet = new LinkedHashSet<String>();
+		if (GluuCustomPerson.class.equals(entryClass)) {
+			attributesSet.addAll(getUserLdapAttributeNames());
+			attributesSet.add("nickname");
+			attributesSet.add("zoneinfo");
+			for (GluuAttribute scimCustomAttribute : attributeService.getSCIMRelatedAttributes()) {
+				attributesSet.add(scimCustomAttribute.getName());
+			}
+		} else {
+			attributesSet.addAll(getGroupLdapAttributeNames());
+		}
+
+		List<String> attributes = new ArrayList<String>();
+		for (String attribute : attributesSet) {
+			if (!excludedLdapAttributes.contains(attribute.toLowerCase())) {
+				attributes.add(attribute);
+			}
+		}
+
+		return attributes.toArray(new String[attributes.size()]);
+	}
+
+	/**
+	 * Authorize request on container thread and process authorized request on executor of specified workload.
+	 * Response is resumed with result. Returns 503 with Retry-After if executor is saturated
+	 */
+	protected void execute(Workload workload, AsyncResponse asyncResponse, String authorization, Callable<Response> callable) {
+		Response authorizationResponse;
+		try {
+			authorizationResponse = processRequestAuthorization(authorization);
+		} catch (Exception ex) {
+			// Mapped by the same exception mappers as synchronous requests
+			asyncResponse.resume(ex);
+			return;
+		}
+
+		// Executor capacity isn't used by unauthorized requests
+		if (authorizationResponse != null) {
+			asyncResponse.resume(authorizationResponse);
+			return;
+		}
+
+		if (!scimExecutorService.execute(workload, asyncResponse, callable)) {
+			Response response = getErrorResponse(Response.Status.SERVICE_UNAVAILABLE, "Too many concurrent requests; please retry later");
+			asyncResponse.resume(Response.fromResponse(response).header(HttpHeaders.RETRY_AFTER, scimExecutorService.getRetryAfter()).build());
+		}
+	}
+
+	/**
+	 * Return serialized document or 304 if client already has the same version
+	 */
+	protected Response getCachedResponse(CachedResponse cachedResponse, String ifNoneMatch) throws Exception {
+		EntityTag entityTag = new EntityTag(cachedResponse.getEntityTag());
+		URI location = new URI(cachedResponse.getLocation());
+
+		if ((ifNoneMatch != null) && (ifNoneMatch.trim().equals("*") || ifNoneMatch.contains("\"" + entityTag.getValue() + "\""))) {
+			return Response.notModified(entityTag).location(location).build();
+		}
+
+		return Response.ok(cachedResponse.getBody()).tag(entityTag).location(location).build();
+	}
+
 	/*
 	protected Response getErrorResponse(String errMsg, int statusCode) {
 		Errors errors = new Errors();
@@ -14,6 +14,7 @@ import java.util.ArrayList;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
 
 import javax.inject.Inject;
 import javax.inject.Named;
@@ -27,6 +28,8 @@ import javax.ws.rs.POST;
 import javax.ws.rs.Path;
 import javax.ws.rs.Produces;
 import javax.ws.rs.QueryParam;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.Suspended;
 // import javax.ws.rs.core.Context;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
@@ -40,7 +43,6 @@ import org.codehaus.jackson.map.module.SimpleModule;
 import org.gluu.oxtrust.exception.PersonRequiredFieldsException;
 import org.gluu.oxtrust.ldap.service.IGroupService;
 import org.gluu.oxtrust.ldap.service.IPersonService;
-import org.gluu.oxtrust.ldap.service.JsonConfigurationService;
 import org.gluu.oxtrust.model.GluuCustomPerson;
 import org.gluu.oxtrust.model.GluuGroup;
 import org.gluu.oxtrust.model.scim2.BulkOperation;
@@ -55,12 +57,15 @@ import org.gluu.oxtrust.service.antlr.scimFilter.util.ListResponseGroupSerialize
 import org.gluu.oxtrust.service.antlr.scimFilter.util.ListResponseUserSerializer;
 import org.gluu.oxtrust.service.scim2.Scim2GroupService;
 import org.gluu.oxtrust.service.scim2.Scim2UserService;
+import org.gluu.oxtrust.service.scim2.ScimExecutorService.Workload;
+import org.gluu.oxtrust.service.scim2.ScimMetricsService;
 import org.gluu.oxtrust.service.scim2.jackson.custom.UserDeserializer;
 import org.gluu.oxtrust.util.OxTrustConstants;
 import org.gluu.site.ldap.exception.DuplicateEntryException;
 import org.gluu.site.ldap.persistence.exception.EntryPersistenceException;
 import org.xdi.config.oxtrust.AppConfiguration;
 
+import com.codahale.metrics.Timer;
 import com.wordnik.swagger.annotations.Api;
 import com.wordnik.swagger.annotations.ApiOperation;
 import com.wordnik.swagger.annotations.ApiParam;
@@ -82,9 +87,6 @@ public class BulkWebService extends BaseScimWebService {
 	@Inject
 	private AppConfiguration appConfiguration;
 
-	@Inject
-	private JsonConfigurationService jsonConfigurationService;
-
 	@Inject
 	private IPersonService personService;
 
@@ -97,28 +99,29 @@ public class BulkWebService extends BaseScimWebService {
 	@Inject
 	private Scim2GroupService scim2GroupService;
 
+	@Inject
+	private ScimMetricsService scimMetricsService;
+
 	@POST
 	@Consumes({ Constants.MEDIA_TYPE_SCIM_JSON, MediaType.APPLICATION_JSON })
 	@Produces({ Constants.MEDIA_TYPE_SCIM_JSON + "; charset=utf-8", MediaType.APPLICATION_JSON + "; charset=utf-8" })
 	@HeaderParam("Accept")
 	@DefaultValue(Constants.MEDIA_TYPE_SCIM_JSON)
 	@ApiOperation(value = "Bulk Operations", notes = "Bulk Operations (https://tools.ietf.org/html/rfc7644#section-3.7)", response = BulkResponse.class)
-	public Response processBulkOperations(
-			// @Context HttpServletRequest request,
-			// @Context HttpServletResponse response,
-			@HeaderParam("Authorization") String authorization, @HeaderParam("Content-Length") int contentLength,
-			@ApiParam(value = "BulkRequest", required = true) BulkRequest bulkRequest) throws Exception {
-
-		Response authorizationResponse;
-		if (jsonConfigurationService.getOxTrustappConfiguration().isScimTestMode()) {
-			log.info(" ##### SCIM Test Mode is ACTIVE");
-			authorizationResponse = processTestModeAuthorization(authorization);
-		} else {
-			authorizationResponse = processAuthorization(authorization);
-		}
-		if (authorizationResponse != null) {
-			return authorizationResponse;
-		}
+	public void processBulkOperations(
+			@Suspended final AsyncResponse asyncResponse,
+			@HeaderParam("Authorization") final String authorization,
+			@HeaderParam("Content-Length") final int contentLength,
+			@ApiParam(value = "BulkRequest", required = true) final BulkRequest bulkRequest) {
+		execute(Workload.BULK, asyncResponse, authorization, new Callable<Response>() {
+			@Override
+			public Response call() throws Exception {
+				return processBulkOperations(contentLength, bulkRequest);
+			}
+		});
+	}
+
+	private Response processBulkOperations(int contentLength, BulkRequest bulkRequest) throws Exception {
 
 		try {
 
@@ -214,7 +217,13 @@ public class BulkWebService extends BaseScimWebService {
 
 			mapper.registerModule(customBulkOperationsModule);
 
-			String json = mapper.writeValueAsString(bulkResponse);
+			String json;
+			Timer.Context serializationContext = scimMetricsService.startPhase(ScimMetricsService.PHASE_SERIALIZATION);
+			try {
+				json = mapper.writeValueAsString(bulkResponse);
+			} finally {
+				scimMetricsService.stopPhase(serializationContext);
+			}
 
 			return Response.ok(json).location(location).build();
 
@@ -244,7 +253,12 @@ public class BulkWebService extends BaseScimWebService {
 				serializedData = serializedData.replaceAll(key, entry.getValue());
 			}
 
-			user = deserializeToUser(serializedData);
+			Timer.Context conversionContext = scimMetricsService.startPhase(ScimMetricsService.PHASE_CONVERSION);
+			try {
+				user = deserializeToUser(serializedData);
+			} finally {
+				scimMetricsService.stopPhase(conversionContext);
+			}
 		}
 
 		String userRootEndpoint = appConfiguration.getBaseEndpoint() + "/scim/v2/Users/";
@@ -406,7 +420,12 @@ public class BulkWebService extends BaseScimWebService {
 				serializedData = serializedData.replaceAll(key, entry.getValue());
 			}
 
-			group = deserializeToGroup(serializedData);
+			Timer.Context conversionContext = scimMetricsService.startPhase(ScimMetricsService.PHASE_CONVERSION);
+			try {
+				group = deserializeToGroup(serializedData);
+			} finally {
+				scimMetricsService.stopPhase(conversionContext);
+			}
 		}
 
 		String groupRootEndpoint = appConfiguration.getBaseEndpoint() + "/scim/v2/Groups/";
@@ -0,0 +1,118 @@
+/*
+ * oxTrust is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2017, Gluu
+ */
+
+package org.gluu.oxtrust.ws.rs.scim2;
+
+import java.net.URI;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.ws.rs.DefaultValue;
+import javax.ws.rs.GET;
+import javax.ws.rs.HeaderParam;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+
+import org.codehaus.jackson.Version;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.codehaus.jackson.map.SerializationConfig;
+import org.codehaus.jackson.map.module.SimpleModule;
+import org.gluu.oxtrust.ldap.service.JsonConfigurationService;
+import org.gluu.oxtrust.model.scim2.ChangeFeedResponse;
+import org.gluu.oxtrust.model.scim2.Constants;
+import org.gluu.oxtrust.model.scim2.ErrorScimType;
+import org.gluu.oxtrust.model.scim2.Group;
+import org.gluu.oxtrust.model.scim2.User;
+import org.gluu.oxtrust.service.antlr.scimFilter.util.ListResponseGroupSerializer;
+import org.gluu.oxtrust.service.antlr.scimFilter.util.ListResponseUserSerializer;
+import org.gluu.oxtrust.service.scim2.ScimChangeFeedService;
+import org.gluu.oxtrust.util.OxTrustConstants;
+import org.slf4j.Logger;
+import org.xdi.config.oxtrust.AppConfiguration;
+
+/**
+ * Returns users and groups changed or deleted since watermark from previous response
+ */
+@Named("scim2ChangeFeedEndpoint")
+@Path("/scim/v2/Changes")
+public class ChangeFeedWS extends BaseScimWebService {
+
+	public static final String QUERY_PARAMETER_WATERMARK = "watermark";
+
+	@Inject
+	private Logger log;
+
+	@Inject
+	private JsonConfigurationService jsonConfigurationService;
+
+	@Inject
+	private AppConfiguration appConfiguration;
+
+	@Inject
+	private ScimChangeFeedService scimChangeFeedService;
+
+	@GET
+	@Produces({ Constants.MEDIA_TYPE_SCIM_JSON + "; charset=utf-8", MediaType.APPLICATION_JSON + "; charset=utf-8" })
+	@HeaderParam("Accept")
+	@DefaultValue(Constants.MEDIA_TYPE_SCIM_JSON)
+	public Response getChanges(@HeaderParam("Authorization") String authorization, @QueryParam(QUERY_PARAMETER_WATERMARK) String watermark,
+			@QueryParam(OxTrustConstants.QUERY_PARAMETER_COUNT) Integer count) throws Exception {
+		Response authorizationResponse;
+		if (jsonConfigurationService.getOxTrustappConfiguration().isScimTestMode()) {
+			log.info(" ##### SCIM Test Mode is ACTIVE");
+			authorizationResponse = processTestModeAuthorization(authorization);
+		} else {
+			authorizationResponse = processAuthorization(authorization);
+		}
+		if (authorizationResponse != null) {
+			return authorizationResponse;
+		}
+
+		count = ((count == null) || (count < 1)) ? getMaxCount() : count;
+		if (count > getMaxCount()) {
+			String detail = "Too many results (=" + count + ") would be returned; max is " + getMaxCount() + " only.";
+			return getErrorResponse(Response.Status.BAD_REQUEST, ErrorScimType.TOO_MANY, detail);
+		}
+
+		if (!scimChangeFeedService.isEnabled()) {
+			return getErrorResponse(Response.Status.SERVICE_UNAVAILABLE, "SCIM change feed is disabled");
+		}
+
+		ChangeFeedResponse changeFeedResponse;
+		try {
+			if (scimChangeFeedService.isExpired(watermark)) {
+				return getErrorResponse(Response.Status.GONE, "Watermark is too old. Full resynchronization is required");
+			}
+
+			changeFeedResponse = scimChangeFeedService.getChanges(watermark, count);
+		} catch (IllegalArgumentException ex) {
+			log.debug("Invalid SCIM change feed watermark '{}'", watermark, ex);
+			return getErrorResponse(Response.Status.BAD_REQUEST, ErrorScimType.INVALID_VALUE, "Invalid watermark");
+		} catch (Exception ex) {
+			log.error("Failed to load SCIM changes", ex);
+			return getErrorResponse(Response.Status.INTERNAL_SERVER_ERROR, OxTrustConstants.INTERNAL_SERVER_ERROR_MESSAGE);
+		}
+
+		URI location = new URI(appConfiguration.getBaseEndpoint() + "/scim/v2/Changes");
+
+		return Response.ok(serializeToJson(changeFeedResponse)).location(location).build();
+	}
+
+	private String serializeToJson(ChangeFeedResponse changeFeedResponse) throws Exception {
+		ObjectMapper mapper = new ObjectMapper();
+		mapper.disable(SerializationConfig.Feature.FAIL_ON_EMPTY_BEANS);
+		SimpleModule customScimFilterModule = new SimpleModule("CustomScim2ChangeFeedModule", new Version(1, 0, 0, ""));
+		customScimFilterModule.addSerializer(User.class, new ListResponseUserSerializer());
+		customScimFilterModule.addSerializer(Group.class, new ListResponseGroupSerializer());
+		mapper.registerModule(customScimFilterModule);
+
+		return mapper.writeValueAsString(changeFeedResponse);
+	}
+
+}
@@ -0,0 +1,128 @@
+/*
+ * oxTrust is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2017, Gluu
+ */
+
+package org.gluu.oxtrust.ws.rs.scim2;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.ws.rs.GET;
+import javax.ws.rs.HeaderParam;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+
+import org.gluu.oxtrust.ldap.service.JsonConfigurationService;
+import org.gluu.oxtrust.model.GluuCustomPerson;
+import org.gluu.oxtrust.model.GluuGroup;
+import org.gluu.oxtrust.model.scim2.ErrorScimType;
+import org.gluu.oxtrust.service.scim2.ScimExportService;
+import org.gluu.oxtrust.util.OxTrustConstants;
+import org.slf4j.Logger;
+import org.xdi.util.StringHelper;
+
+import com.unboundid.ldap.sdk.Filter;
+
+/**
+ * Exports all users or groups matching filter as newline-delimited JSON in one response. Unlike search endpoints it's
+ * not limited by maxCount.
+ */
+@Named("scim2ExportEndpoint")
+@Path("/scim/v2/Export")
+public class ExportWS extends BaseScimWebService {
+
+	public static final String NDJSON_MEDIA_TYPE = "application/x-ndjson";
+
+	@Inject
+	private Logger log;
+
+	@Inject
+	private JsonConfigurationService jsonConfigurationService;
+
+	@Inject
+	private ScimExportService scimExportService;
+
+	@Path("Users")
+	@GET
+	@Produces(NDJSON_MEDIA_TYPE + "; charset=utf-8")
+	public Response exportUsers(@HeaderParam("Authorization") String authorization,
+			@QueryParam(OxTrustConstants.QUERY_PARAMETER_FILTER) final String filterString,
+			@QueryParam(OxTrustConstants.QUERY_PARAMETER_ATTRIBUTES) final String attributesArray) throws Exception {
+		return export(authorization, GluuCustomPerson.class, filterString, attributesArray);
+	}
+
+	@Path("Groups")
+	@GET
+	@Produces(NDJSON_MEDIA_TYPE + "; charset=utf-8")
+	public Response exportGroups(@HeaderParam("Authorization") String authorization,
+			@QueryParam(OxTrustConstants.QUERY_PARAMETER_FILTER) final String filterString,
+			@QueryParam(OxTrustConstants.QUERY_PARAMETER_ATTRIBUTES) final String attributesArray) throws Exception {
+		return export(authorization, GluuGroup.class, filterString, attributesArray);
+	}
+
+	private Response export(String authorization, final Class<?> entryClass, String filterString, final String attributesArray) throws Exception {
+		Response authorizationResponse;
+		if (jsonConfigurationService.getOxTrustappConfiguration().isScimTestMode()) {
+			log.info(" ##### SCIM Test Mode is ACTIVE");
+			authorizationResponse = processTestModeAuthorization(authorization);
+		} else {
+			authorizationResponse = processAuthorization(authorization);
+		}
+		if (authorizationResponse != null) {
+			return authorizationResponse;
+		}
+
+		// Errors in parameters are reported before response streaming starts
+		final Filter filter;
+		try {
+			filter = createFilter(entryClass, filterString);
+		} catch (Exception ex) {
+			log.error("Failed to parse SCIM export filter '{}'", filterString, ex);
+			return getErrorResponse(Response.Status.BAD_REQUEST, ErrorScimType.INVALID_FILTER, getFilterErrorMessage(ex, filterString));
+		}
+		final String[] ldapAttributes = getLdapAttributes(entryClass, attributesArray);
+
+		StreamingOutput streamingOutput = new StreamingOutput() {
+			@Override
+			public void write(OutputStream outputStream) throws IOException, WebApplicationException {
+				try {
+					if (GluuCustomPerson.class.equals(entryClass)) {
+						scimExportService.exportUsers(filter, ldapAttributes, attributesArray, outputStream);
+					} else {
+						scimExportService.exportGroups(filter, ldapAttributes, attributesArray, outputStream);
+					}
+				} catch (IOException ex) {
+					throw ex;
+				} catch (Exception ex) {
+					// Status is sent already, so client sees truncated stream
+					log.error("Failed to export SCIM resources", ex);
+					throw new WebApplicationException(ex);
+				}
+			}
+		};
+
+		return Response.ok(streamingOutput, NDJSON_MEDIA_TYPE + "; charset=utf-8").build();
+	}
+
+	/**
+	 * @return message of parser which explains what is wrong with filter
+	 */
+	private String getFilterErrorMessage(Exception ex, String filterString) {
+		for (Throwable cause = ex; cause != null; cause = cause.getCause()) {
+			if (StringHelper.isNotEmpty(cause.getMessage())) {
+				return cause.getMessage();
+			}
+		}
+
+		return "Invalid filter: " + filterString;
+	}
+
+}
@@ -10,6 +10,8 @@ import static org.gluu.oxtrust.util.OxTrustConstants.INTERNAL_SERVER_ERROR_MESSA
 import java.net.URI;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
 
 import javax.inject.Inject;
 import javax.inject.Named;
@@ -24,6 +26,8 @@ import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
 import javax.ws.rs.QueryParam;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.Suspended;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 
@@ -32,7 +36,6 @@ import org.codehaus.jackson.map.ObjectMapper;
 import org.codehaus.jackson.map.SerializationConfig;
 import org.codehaus.jackson.map.module.SimpleModule;
 import org.gluu.oxtrust.ldap.service.IGroupService;
-import org.gluu.oxtrust.ldap.service.JsonConfigurationService;
 import org.gluu.oxtrust.model.GluuGroup;
 import org.gluu.oxtrust.model.scim2.Constants;
 import org.gluu.oxtrust.model.scim2.ErrorScimType;
@@ -41,6 +44,8 @@ import org.gluu.oxtrust.model.scim2.ListResponse;
 import org.gluu.oxtrust.model.scim2.SearchRequest;
 import org.gluu.oxtrust.service.antlr.scimFilter.util.ListResponseGroupSerializer;
 import org.gluu.oxtrust.service.scim2.Scim2GroupService;
+import org.gluu.oxtrust.service.scim2.ScimExecutorService.Workload;
+import org.gluu.oxtrust.service.scim2.ScimMetricsService;
 import org.gluu.oxtrust.util.CopyUtils2;
 import org.gluu.oxtrust.util.OxTrustConstants;
 import org.gluu.site.ldap.exception.DuplicateEntryException;
@@ -50,6 +55,7 @@ import org.xdi.config.oxtrust.AppConfiguration;
 import org.xdi.ldap.model.SortOrder;
 import org.xdi.ldap.model.VirtualListViewResponse;
 
+import com.codahale.metrics.Timer;
 import com.wordnik.swagger.annotations.Api;
 import com.wordnik.swagger.annotations.ApiOperation;
 import com.wordnik.swagger.annotations.ApiParam;
@@ -69,9 +75,6 @@ public class GroupWebService extends BaseScimWebService {
 	@Inject
 	private AppConfiguration appConfiguration;
 
-	@Inject
-	private JsonConfigurationService jsonConfigurationService;
-
 	@Inject
 	private IGroupService groupService;
 
@@ -81,29 +84,32 @@ public class GroupWebService extends BaseScimWebService {
     @Inject
     private CopyUtils2 copyUtils2;
 
+    @Inject
+    private ScimMetricsService scimMetricsService;
+
 	@GET
 	@Produces({Constants.MEDIA_TYPE_SCIM_JSON + "; charset=utf-8", MediaType.APPLICATION_JSON + "; charset=utf-8"})
 	@HeaderParam("Accept") @DefaultValue(Constants.MEDIA_TYPE_SCIM_JSON)
 	@ApiOperation(value = "Search groups", notes = "Returns a list of groups (https://tools.ietf.org/html/rfc7644#section-3.4.2.2)", response = ListResponse.class)
-	public Response searchGroups(
-		@HeaderParam("Authorization") String authorization,
+	public void searchGroups(
+		@Suspended final AsyncResponse asyncResponse,
+		@HeaderParam("Authorization") final String authorization,
 		@QueryParam(OxTrustConstants.QUERY_PARAMETER_FILTER) final String filterString,
 		@QueryParam(OxTrustConstants.QUERY_PARAMETER_START_INDEX) final int startIndex,
 		@QueryParam(OxTrustConstants.QUERY_PARAMETER_COUNT) final int count,
 		@QueryParam(OxTrustConstants.QUERY_PARAMETER_SORT_BY) final String sortBy,
 		@QueryParam(OxTrustConstants.QUERY_PARAMETER_SORT_ORDER) final String sortOrder,
-		@QueryParam(OxTrustConstants.QUERY_PARAMETER_ATTRIBUTES) final String attributesArray) throws Exception {
-
-		Response authorizationResponse;
-		if (jsonConfigurationService.getOxTrustappConfiguration().isScimTestMode()) {
-			log.info(" ##### SCIM Test Mode is ACTIVE");
-			authorizationResponse = processTestModeAuthorization(authorization);
-		} else {
-			authorizationResponse = processAuthorization(authorization);
-		}
-		if (authorizationResponse != null) {
-			return authorizationResponse;
-		}
+		@QueryParam(OxTrustConstants.QUERY_PARAMETER_ATTRIBUTES) final String attributesArray,
+		@QueryParam(OxTrustConstants.QUERY_PARAMETER_EXCLUDED_ATTRIBUTES) final String excludedAttributesArray) {
+		execute(Workload.READ, asyncResponse, authorization, new Callable<Response>() {
+			@Override
+			public Response call() throws Exception {
+				return searchGroups(filterString, startIndex, count, sortBy, sortOrder, attributesArray, excludedAttributesArray);
+			}
+		});
+	}
+
+	private Response searchGroups(String filterString, int startIndex, int count, String sortBy, String sortOrder, String attributesArray, String excludedAttributesArray) throws Exception {
 
 		try {
 
@@ -117,7 +123,8 @@ public class GroupWebService extends BaseScimWebService {
 
 				VirtualListViewResponse vlvResponse = new VirtualListViewResponse();
 
-				List<GluuGroup> groupList = search(groupService.getDnForGroup(null), GluuGroup.class, filterString, startIndex, count, sortBy, sortOrder, vlvResponse, attributesArray);
+				List<GluuGroup> groupList = search(groupService.getDnForGroup(null), GluuGroup.class, filterString, startIndex, count, sortBy, sortOrder, vlvResponse, attributesArray, excludedAttributesArray);
+				Set<String> excludedLdapAttributes = getExcludedLdapAttributes(GluuGroup.class, excludedAttributesArray);
 				// List<GluuGroup> groupList = groupService.getAllGroupsList();
 
 				ListResponse groupsListResponse = new ListResponse();
@@ -135,15 +142,20 @@ public class GroupWebService extends BaseScimWebService {
 
 					// log.info(" LDAP group list is not empty ");
 
-					for (GluuGroup gluuGroup : groupList) {
+					Timer.Context conversionContext = scimMetricsService.startPhase(ScimMetricsService.PHASE_CONVERSION);
+					try {
+						for (GluuGroup gluuGroup : groupList) {
 
-						Group group = copyUtils2.copy(gluuGroup, null);
+							Group group = copyUtils2.copy(gluuGroup, null, excludedLdapAttributes);
 
-						log.info(" group to be added displayName : " + group.getDisplayName());
+							log.info(" group to be added displayName : " + group.getDisplayName());
 
-						groupsListResponse.getResources().add(group);
+							groupsListResponse.getResources().add(group);
 
-						log.info(" group added? : " + groupsListResponse.getResources().contains(group));
+							log.info(" group added? : " + groupsListResponse.getResources().contains(group));
+						}
+					} finally {
+						scimMetricsService.stopPhase(conversionContext);
 					}
 
 					// Set the rest of results info
@@ -172,27 +184,27 @@ public class GroupWebService extends BaseScimWebService {
 	@Produces({Constants.MEDIA_TYPE_SCIM_JSON + "; charset=utf-8", MediaType.APPLICATION_JSON + "; charset=utf-8"})
 	@HeaderParam("Accept") @DefaultValue(Constants.MEDIA_TYPE_SCIM_JSON)
 	@ApiOperation(value = "Find group by id", notes = "Returns a group by id as path param (https://tools.ietf.org/html/rfc7644#section-3.4.2.1)", response = Group.class)
-	public Response getGroupById(
-		@HeaderParam("Authorization") String authorization,
-		@PathParam("id") String id,
-		@QueryParam(OxTrustConstants.QUERY_PARAMETER_ATTRIBUTES) final String attributesArray) throws Exception {
-
-		Response authorizationResponse;
-		if (jsonConfigurationService.getOxTrustappConfiguration().isScimTestMode()) {
-			log.info(" ##### SCIM Test Mode is ACTIVE");
-			authorizationResponse = processTestModeAuthorization(authorization);
-		} else {
-			authorizationResponse = processAuthorization(authorization);
-		}
-		if (authorizationResponse != null) {
-			return authorizationResponse;
-		}
+	public void getGroupById(
+		@Suspended final AsyncResponse asyncResponse,
+		@HeaderParam("Authorization") final String authorization,
+		@PathParam("id") final String id,
+		@QueryParam(OxTrustConstants.QUERY_PARAMETER_ATTRIBUTES) final String attributesArray,
+		@QueryParam(OxTrustConstants.QUERY_PARAMETER_EXCLUDED_ATTRIBUTES) final String excludedAttributesArray) {
+		execute(Workload.READ, asyncResponse, authorization, new Callable<Response>() {
+			@Override
+			public Response call() throws Exception {
+				return getGroupById(id, attributesArray, excludedAttributesArray);
+			}
+		});
+	}
+
+	private Response getGroupById(String id, String attributesArray, String excludedAttributesArray) throws Exception {
 
 		try {
 			String filterString = "id eq \"" + id + "\"";
 			VirtualListViewResponse vlvResponse = new VirtualListViewResponse();
 
-			List<GluuGroup> groupList = search(groupService.getDnForGroup(null), GluuGroup.class, filterString, 1, 1, "id", SortOrder.ASCENDING.getValue(), vlvResponse, attributesArray);
+			List<GluuGroup> groupList = search(groupService.getDnForGroup(null), GluuGroup.class, filterString, 1, 1, "id", SortOrder.ASCENDING.getValue(), vlvResponse, attributesArray, excludedAttributesArray);
 			// GluuGroup gluuGroup = groupService.getGroupByInum(id);
 
 			if (groupList == null || groupList.isEmpty() || vlvResponse.getTotalResults() == 0) {
@@ -204,7 +216,13 @@ public class GroupWebService extends BaseScimWebService {
 
 			GluuGroup gluuGroup = groupList.get(0);
 
-			Group group = copyUtils2.copy(gluuGroup, null);
+			Group group;
+			Timer.Context conversionContext = scimMetricsService.startPhase(ScimMetricsService.PHASE_CONVERSION);
+			try {
+				group = copyUtils2.copy(gluuGroup, null, getExcludedLdapAttributes(GluuGroup.class, excludedAttributesArray));
+			} finally {
+				scimMetricsService.stopPhase(conversionContext);
+			}
 
 			// Serialize to JSON
 			String json = serializeToJson(group, attributesArray);
@@ -232,21 +250,20 @@ public class GroupWebService extends BaseScimWebService {
 	@Produces({Constants.MEDIA_TYPE_SCIM_JSON + "; charset=utf-8", MediaType.APPLICATION_JSON + "; charset=utf-8"})
 	@HeaderParam("Accept") @DefaultValue(Constants.MEDIA_TYPE_SCIM_JSON)
 	@ApiOperation(value = "Create group", notes = "Create group (https://tools.ietf.org/html/rfc7644#section-3.3)", response = Group.class)
-	public Response createGroup(
-		@HeaderParam("Authorization") String authorization,
-		@ApiParam(value = "Group", required = true) Group group,
-		@QueryParam(OxTrustConstants.QUERY_PARAMETER_ATTRIBUTES) final String attributesArray) throws Exception {
-
-		Response authorizationResponse;
-		if (jsonConfigurationService.getOxTrustappConfiguration().isScimTestMode()) {
-			log.info(" ##### SCIM Test Mode is ACTIVE");
-			authorizationResponse = processTestModeAuthorization(authorization);
-		} else {
-			authorizationResponse = processAuthorization(authorization);
-		}
-		if (authorizationResponse != null) {
-			return authorizationResponse;
-		}
+	public void createGroup(
+		@Suspended final AsyncResponse asyncResponse,
+		@HeaderParam("Authorization") final String authorization,
+		@ApiParam(value = "Group", required = true) final Group group,
+		@QueryParam(OxTrustConstants.QUERY_PARAMETER_ATTRIBUTES) final String attributesArray) {
+		execute(Workload.WRITE, asyncResponse, authorization, new Callable<Response>() {
+			@Override
+			public Response call() throws Exception {
+				return createGroup(group, attributesArray);
+			}
+		});
+	}
+
+	private Response createGroup(Group group, String attributesArray) throws Exception {
 
 		try {
 
@@ -280,22 +297,21 @@ public class GroupWebService extends BaseScimWebService {
 	@Produces({Constants.MEDIA_TYPE_SCIM_JSON + "; charset=utf-8", MediaType.APPLICATION_JSON + "; charset=utf-8"})
 	@HeaderParam("Accept") @DefaultValue(Constants.MEDIA_TYPE_SCIM_JSON)
 	@ApiOperation(value = "Update group", notes = "Update group (https://tools.ietf.org/html/rfc7644#section-3.5.1)", response = Group.class)
-	public Response updateGroup(
-		@HeaderParam("Authorization") String authorization,
-		@PathParam("id") String id,
-		@ApiParam(value = "Group", required = true) Group group,
-		@QueryParam(OxTrustConstants.QUERY_PARAMETER_ATTRIBUTES) final String attributesArray) throws Exception {
-
-		Response authorizationResponse;
-		if (jsonConfigurationService.getOxTrustappConfiguration().isScimTestMode()) {
-			log.info(" ##### SCIM Test Mode is ACTIVE");
-			authorizationResponse = processTestModeAuthorization(authorization);
-		} else {
-			authorizationResponse = processAuthorization(authorization);
-		}
-		if (authorizationResponse != null) {
-			return authorizationResponse;
-		}
+	public void updateGroup(
+		@Suspended final AsyncResponse asyncResponse,
+		@HeaderParam("Authorization") final String authorization,
+		@PathParam("id") final String id,
+		@ApiParam(value = "Group", required = true) final Group group,
+		@QueryParam(OxTrustConstants.QUERY_PARAMETER_ATTRIBUTES) final String attributesArray) {
+		execute(Workload.WRITE, asyncResponse, authorization, new Callable<Response>() {
+			@Override
+			public Response call() throws Exception {
+				return updateGroup(id, group, attributesArray);
+			}
+		});
+	}
+
+	private Response updateGroup(String id, Group group, String attributesArray) throws Exception {
 
 		try {
 
@@ -333,20 +349,19 @@ public class GroupWebService extends BaseScimWebService {
 	@Produces({Constants.MEDIA_TYPE_SCIM_JSON + "; charset=utf-8", MediaType.APPLICATION_JSON + "; charset=utf-8"})
 	@HeaderParam("Accept") @DefaultValue(Constants.MEDIA_TYPE_SCIM_JSON)
 	@ApiOperation(value = "Delete group", notes = "Delete group (https://tools.ietf.org/html/rfc7644#section-3.6)")
-	public Response deleteGroup(
-		@HeaderParam("Authorization") String authorization,
-		@PathParam("id") String id) throws Exception {
-
-		Response authorizationResponse;
-		if (jsonConfigurationService.getOxTrustappConfiguration().isScimTestMode()) {
-			log.info(" ##### SCIM Test Mode is ACTIVE");
-			authorizationResponse = processTestModeAuthorization(authorization);
-		} else {
-			authorizationResponse = processAuthorization(authorization);
-		}
-		if (authorizationResponse != null) {
-			return authorizationResponse;
-		}
+	public void deleteGroup(
+		@Suspended final AsyncResponse asyncResponse,
+		@HeaderParam("Authorization") final String authorization,
+		@PathParam("id") final String id) {
+		execute(Workload.WRITE, asyncResponse, authorization, new Callable<Response>() {
+			@Override
+			public Response call() throws Exception {
+				return deleteGroup(id);
+			}
+		});
+	}
+
+	private Response deleteGroup(String id) throws Exception {
 
 		try {
 
@@ -373,23 +388,32 @@ public class GroupWebService extends BaseScimWebService {
     @Produces({Constants.MEDIA_TYPE_SCIM_JSON, MediaType.APPLICATION_JSON})
     @HeaderParam("Accept") @DefaultValue(Constants.MEDIA_TYPE_SCIM_JSON)
     @ApiOperation(value = "Search group POST /.search", notes = "Returns a list of groups (https://tools.ietf.org/html/rfc7644#section-3.4.3)", response = ListResponse.class)
-    public Response searchGroupsPost(
-        @HeaderParam("Authorization") String authorization,
-        @ApiParam(value = "SearchRequest", required = true) SearchRequest searchRequest) throws Exception {
+    public void searchGroupsPost(
+        @Suspended final AsyncResponse asyncResponse,
+        @HeaderParam("Authorization") final String authorization,
+        @ApiParam(value = "SearchRequest", required = true) final SearchRequest searchRequest) {
+        execute(Workload.READ, asyncResponse, authorization, new Callable<Response>() {
+            @Override
+            public Response call() throws Exception {
+                return searchGroupsPost(searchRequest);
+            }
+        });
+    }
+
+    private Response searchGroupsPost(SearchRequest searchRequest) throws Exception {
 
         try {
 
             log.info("IN GroupWebService.searchGroupsPost()...");
 
-            // Authorization check is done in searchGroups()
             Response response = searchGroups(
-                authorization,
                 searchRequest.getFilter(),
                 searchRequest.getStartIndex(),
                 searchRequest.getCount(),
                 searchRequest.getSortBy(),
                 searchRequest.getSortOrder(),
-                searchRequest.getAttributesArray()
+                searchRequest.getAttributesArray(),
+                searchRequest.getExcludedAttributesArray()
             );
 
             URI location = new URI(appConfiguration.getBaseEndpoint() + "/scim/v2/Groups/.search");
@@ -440,6 +464,11 @@ public class GroupWebService extends BaseScimWebService {
 		customScimFilterModule.addSerializer(Group.class, serializer);
 		mapper.registerModule(customScimFilterModule);
 
-		return mapper.writeValueAsString(object);
+		Timer.Context serializationContext = scimMetricsService.startPhase(ScimMetricsService.PHASE_SERIALIZATION);
+		try {
+			return mapper.writeValueAsString(object);
+		} finally {
+			scimMetricsService.stopPhase(serializationContext);
+		}
 	}
 }
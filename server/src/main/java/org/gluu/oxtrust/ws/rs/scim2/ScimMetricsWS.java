@@ -0,0 +1,61 @@
+/*
+ * oxTrust is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2017, Gluu
+ */
+
+package org.gluu.oxtrust.ws.rs.scim2;
+
+import java.io.StringWriter;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.ws.rs.GET;
+import javax.ws.rs.HeaderParam;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.Response;
+
+import org.gluu.oxtrust.ldap.service.JsonConfigurationService;
+import org.gluu.oxtrust.service.scim2.ScimMetricsService;
+import org.slf4j.Logger;
+
+/**
+ * Exposes SCIM per-operation metrics in Prometheus text format. The same metrics are available over JMX.
+ */
+@Named("scimMetricsEndpoint")
+@Path("/scim/v2/Metrics")
+public class ScimMetricsWS extends BaseScimWebService {
+
+	public static final String PROMETHEUS_MEDIA_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+	@Inject
+	private Logger log;
+
+	@Inject
+	private JsonConfigurationService jsonConfigurationService;
+
+	@Inject
+	private ScimMetricsService scimMetricsService;
+
+	@GET
+	@Produces(PROMETHEUS_MEDIA_TYPE)
+	public Response getMetrics(@HeaderParam("Authorization") String authorization) throws Exception {
+		Response authorizationResponse;
+		if (jsonConfigurationService.getOxTrustappConfiguration().isScimTestMode()) {
+			log.info(" ##### SCIM Test Mode is ACTIVE");
+			authorizationResponse = processTestModeAuthorization(authorization);
+		} else {
+			authorizationResponse = processAuthorization(authorization);
+		}
+		if (authorizationResponse != null) {
+			return authorizationResponse;
+		}
+
+		StringWriter writer = new StringWriter();
+		scimMetricsService.writePrometheusText(writer);
+
+		return Response.ok(writer.toString(), PROMETHEUS_MEDIA_TYPE).build();
+	}
+
+}
@@ -10,6 +10,8 @@ import static org.gluu.oxtrust.util.OxTrustConstants.INTERNAL_SERVER_ERROR_MESSA
 import java.net.URI;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
 
 import javax.inject.Inject;
 import javax.inject.Named;
@@ -24,6 +26,8 @@ import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
 import javax.ws.rs.QueryParam;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.Suspended;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 
@@ -33,7 +37,6 @@ import org.codehaus.jackson.map.SerializationConfig;
 import org.codehaus.jackson.map.module.SimpleModule;
 import org.gluu.oxtrust.exception.PersonRequiredFieldsException;
 import org.gluu.oxtrust.ldap.service.IPersonService;
-import org.gluu.oxtrust.ldap.service.JsonConfigurationService;
 import org.gluu.oxtrust.model.GluuCustomPerson;
 import org.gluu.oxtrust.model.scim2.Constants;
 import org.gluu.oxtrust.model.scim2.ErrorScimType;
@@ -43,6 +46,8 @@ import org.gluu.oxtrust.model.scim2.SearchRequest;
 import org.gluu.oxtrust.model.scim2.User;
 import org.gluu.oxtrust.service.antlr.scimFilter.util.ListResponseUserSerializer;
 import org.gluu.oxtrust.service.scim2.Scim2UserService;
+import org.gluu.oxtrust.service.scim2.ScimExecutorService.Workload;
+import org.gluu.oxtrust.service.scim2.ScimMetricsService;
 import org.gluu.oxtrust.util.CopyUtils2;
 import org.gluu.oxtrust.util.OxTrustConstants;
 import org.gluu.oxtrust.ws.rs.scim2.validators.UserValidator;
@@ -53,6 +58,7 @@ import org.xdi.config.oxtrust.AppConfiguration;
 import org.xdi.ldap.model.SortOrder;
 import org.xdi.ldap.model.VirtualListViewResponse;
 
+import com.codahale.metrics.Timer;
 import com.wordnik.swagger.annotations.Api;
 import com.wordnik.swagger.annotations.ApiOperation;
 import com.wordnik.swagger.annotations.ApiParam;
@@ -71,9 +77,6 @@ public class UserWebService extends BaseScimWebService {
     @Inject
     private Logger log;
 
-    @Inject
-    private JsonConfigurationService jsonConfigurationService;
-
     @Inject
     private AppConfiguration appConfiguration;
 
@@ -86,30 +89,32 @@ public class UserWebService extends BaseScimWebService {
     @Inject
     private CopyUtils2 copyUtils2;
 
+    @Inject
+    private ScimMetricsService scimMetricsService;
+
     @GET
     @Produces({Constants.MEDIA_TYPE_SCIM_JSON + "; charset=utf-8", MediaType.APPLICATION_JSON + "; charset=utf-8"})
     @HeaderParam("Accept") @DefaultValue(Constants.MEDIA_TYPE_SCIM_JSON)
     @ApiOperation(value = "Search users", notes = "Returns a list of users (https://tools.ietf.org/html/rfc7644#section-3.4.2.2)", response = ListResponse.class)
-    public Response searchUsers(
-            @HeaderParam("Authorization") String authorization,
+    public void searchUsers(
+            @Suspended final AsyncResponse asyncResponse,
+            @HeaderParam("Authorization") final String authorization,
             @QueryParam(OxTrustConstants.QUERY_PARAMETER_FILTER) final String filterString,
             @QueryParam(OxTrustConstants.QUERY_PARAMETER_START_INDEX) final int startIndex,
-            @QueryParam(OxTrustConstants.QUERY_PARAMETER_COUNT)  Integer count,
+            @QueryParam(OxTrustConstants.QUERY_PARAMETER_COUNT) final Integer count,
             @QueryParam(OxTrustConstants.QUERY_PARAMETER_SORT_BY) final String sortBy,
             @QueryParam(OxTrustConstants.QUERY_PARAMETER_SORT_ORDER) final String sortOrder,
-            @QueryParam(OxTrustConstants.QUERY_PARAMETER_ATTRIBUTES) final String attributesArray) throws Exception {
-
-        Response authorizationResponse;
-        if (jsonConfigurationService.getOxTrustappConfiguration().isScimTestMode()) {
-            log.info(" ##### SCIM Test Mode is ACTIVE");
-            authorizationResponse = processTestModeAuthorization(authorization);
-        } else {
-            authorizationResponse = processAuthorization(authorization);
-        }
+            @QueryParam(OxTrustConstants.QUERY_PARAMETER_ATTRIBUTES) final String attributesArray,
+            @QueryParam(OxTrustConstants.QUERY_PARAMETER_EXCLUDED_ATTRIBUTES) final String excludedAttributesArray) {
+        execute(Workload.READ, asyncResponse, authorization, new Callable<Response>() {
+            @Override
+            public Response call() throws Exception {
+                return searchUsers(filterString, startIndex, count, sortBy, sortOrder, attributesArray, excludedAttributesArray);
+            }
+        });
+    }
 
-        if (authorizationResponse != null) {
-            return authorizationResponse;
-        }
+    private Response searchUsers(String filterString, int startIndex, Integer count, String sortBy, String sortOrder, String attributesArray, String excludedAttributesArray) throws Exception {
 
         try {
             count = (count == null) ? getMaxCount() : count;
@@ -122,7 +127,8 @@ public class UserWebService extends BaseScimWebService {
 
                 VirtualListViewResponse vlvResponse = new VirtualListViewResponse();
 
-                List<GluuCustomPerson> gluuCustomPersons = search(personService.getDnForPerson(null), GluuCustomPerson.class, filterString, startIndex, count, sortBy, sortOrder, vlvResponse, attributesArray);
+                List<GluuCustomPerson> gluuCustomPersons = search(personService.getDnForPerson(null), GluuCustomPerson.class, filterString, startIndex, count, sortBy, sortOrder, vlvResponse, attributesArray, excludedAttributesArray);
+                Set<String> excludedLdapAttributes = getExcludedLdapAttributes(GluuCustomPerson.class, excludedAttributesArray);
                 // List<GluuCustomPerson> personList = personService.findAllPersons(null);
 
                 ListResponse usersListResponse = new ListResponse();
@@ -140,15 +146,20 @@ public class UserWebService extends BaseScimWebService {
 
                     // log.info(" LDAP person list is not empty ");
 
-                    for (GluuCustomPerson gluuPerson : gluuCustomPersons) {
+                    Timer.Context conversionContext = scimMetricsService.startPhase(ScimMetricsService.PHASE_CONVERSION);
+                    try {
+                        for (GluuCustomPerson gluuPerson : gluuCustomPersons) {
 
-                        User user = copyUtils2.copy(gluuPerson, null);
+                            User user = copyUtils2.copy(gluuPerson, null, excludedLdapAttributes);
 
-                        log.info(" user to be added id : " + user.getUserName());
+                            log.info(" user to be added id : " + user.getUserName());
 
-                        usersListResponse.getResources().add(user);
+                            usersListResponse.getResources().add(user);
 
-                        log.info(" user added? : " + usersListResponse.getResources().contains(user));
+                            log.info(" user added? : " + usersListResponse.getResources().contains(user));
+                        }
+                    } finally {
+                        scimMetricsService.stopPhase(conversionContext);
                     }
 
                     // Set the rest of results info
@@ -177,27 +188,27 @@ public class UserWebService extends BaseScimWebService {
     @Produces({Constants.MEDIA_TYPE_SCIM_JSON + "; charset=utf-8", MediaType.APPLICATION_JSON + "; charset=utf-8"})
     @HeaderParam("Accept") @DefaultValue(Constants.MEDIA_TYPE_SCIM_JSON)
     @ApiOperation(value = "Find user by id", notes = "Returns a user by id as path param (https://tools.ietf.org/html/rfc7644#section-3.4.1)", response = User.class)
-    public Response getUserById(
-            @HeaderParam("Authorization") String authorization,
-            @PathParam("id") String id,
-            @QueryParam(OxTrustConstants.QUERY_PARAMETER_ATTRIBUTES) final String attributesArray) throws Exception {
-
-        Response authorizationResponse;
-        if (jsonConfigurationService.getOxTrustappConfiguration().isScimTestMode()) {
-            log.info(" ##### SCIM Test Mode is ACTIVE");
-            authorizationResponse = processTestModeAuthorization(authorization);
-        } else {
-            authorizationResponse = processAuthorization(authorization);
-        }
-        if (authorizationResponse != null) {
-            return authorizationResponse;
-        }
+    public void getUserById(
+            @Suspended final AsyncResponse asyncResponse,
+            @HeaderParam("Authorization") final String authorization,
+            @PathParam("id") final String id,
+            @QueryParam(OxTrustConstants.QUERY_PARAMETER_ATTRIBUTES) final String attributesArray,
+            @QueryParam(OxTrustConstants.QUERY_PARAMETER_EXCLUDED_ATTRIBUTES) final String excludedAttributesArray) {
+        execute(Workload.READ, asyncResponse, authorization, new Callable<Response>() {
+            @Override
+            public Response call() throws Exception {
+                return getUserById(id, attributesArray, excludedAttributesArray);
+            }
+        });
+    }
+
+    private Response getUserById(String id, String attributesArray, String excludedAttributesArray) throws Exception {
 
         try {
             String filterString = "id eq \"" + id + "\"";
             VirtualListViewResponse vlvResponse = new VirtualListViewResponse();
 
-            List<GluuCustomPerson> personList = search(personService.getDnForPerson(null), GluuCustomPerson.class, filterString, 1, 1, "id", SortOrder.ASCENDING.getValue(), vlvResponse, attributesArray);
+            List<GluuCustomPerson> personList = search(personService.getDnForPerson(null), GluuCustomPerson.class, filterString, 1, 1, "id", SortOrder.ASCENDING.getValue(), vlvResponse, attributesArray, excludedAttributesArray);
             // GluuCustomPerson gluuPerson = personService.getPersonByInum(id);
 
             if (personList == null || personList.isEmpty() || vlvResponse.getTotalResults() == 0) {
@@ -209,7 +220,13 @@ public class UserWebService extends BaseScimWebService {
 
             GluuCustomPerson gluuPerson = personList.get(0);
 
-            User user = copyUtils2.copy(gluuPerson, null);
+            User user;
+            Timer.Context conversionContext = scimMetricsService.startPhase(ScimMetricsService.PHASE_CONVERSION);
+            try {
+                user = copyUtils2.copy(gluuPerson, null, getExcludedLdapAttributes(GluuCustomPerson.class, excludedAttributesArray));
+            } finally {
+                scimMetricsService.stopPhase(conversionContext);
+            }
 
             // Serialize to JSON
             String json = serializeToJson(user, attributesArray);
@@ -237,21 +254,20 @@ public class UserWebService extends BaseScimWebService {
     @Produces({Constants.MEDIA_TYPE_SCIM_JSON + "; charset=utf-8", MediaType.APPLICATION_JSON + "; charset=utf-8"})
     @HeaderParam("Accept") @DefaultValue(Constants.MEDIA_TYPE_SCIM_JSON)
     @ApiOperation(value = "Create user", notes = "Create user (https://tools.ietf.org/html/rfc7644#section-3.3)", response = User.class)
-    public Response createUser(
-            @HeaderParam("Authorization") String authorization,
-            @ApiParam(value = "User", required = true) User user,
-            @QueryParam(OxTrustConstants.QUERY_PARAMETER_ATTRIBUTES) final String attributesArray) throws Exception {
-
-        Response authorizationResponse;
-        if (jsonConfigurationService.getOxTrustappConfiguration().isScimTestMode()) {
-            log.info(" ##### SCIM Test Mode is ACTIVE");
-            authorizationResponse = processTestModeAuthorization(authorization);
-        } else {
-            authorizationResponse = processAuthorization(authorization);
-        }
-        if (authorizationResponse != null) {
-            return authorizationResponse;
-        }
+    public void createUser(
+            @Suspended final AsyncResponse asyncResponse,
+            @HeaderParam("Authorization") final String authorization,
+            @ApiParam(value = "User", required = true) final User user,
+            @QueryParam(OxTrustConstants.QUERY_PARAMETER_ATTRIBUTES) final String attributesArray) {
+        execute(Workload.WRITE, asyncResponse, authorization, new Callable<Response>() {
+            @Override
+            public Response call() throws Exception {
+                return createUser(user, attributesArray);
+            }
+        });
+    }
+
+    private Response createUser(User user, String attributesArray) throws Exception {
 
         try {
             if (UserValidator.validate(user)) {
@@ -287,22 +303,21 @@ public class UserWebService extends BaseScimWebService {
     @Produces({Constants.MEDIA_TYPE_SCIM_JSON + "; charset=utf-8", MediaType.APPLICATION_JSON + "; charset=utf-8"})
     @HeaderParam("Accept") @DefaultValue(Constants.MEDIA_TYPE_SCIM_JSON)
     @ApiOperation(value = "Update user", notes = "Update user (https://tools.ietf.org/html/rfc7644#section-3.5.1)", response = User.class)
-    public Response updateUser(
-            @HeaderParam("Authorization") String authorization,
-            @PathParam("id") String id,
-            @ApiParam(value = "User", required = true) User user,
-            @QueryParam(OxTrustConstants.QUERY_PARAMETER_ATTRIBUTES) final String attributesArray) throws Exception {
-
-        Response authorizationResponse;
-        if (jsonConfigurationService.getOxTrustappConfiguration().isScimTestMode()) {
-            log.info(" ##### SCIM Test Mode is ACTIVE");
-            authorizationResponse = processTestModeAuthorization(authorization);
-        } else {
-            authorizationResponse = processAuthorization(authorization);
-        }
-        if (authorizationResponse != null) {
-            return authorizationResponse;
-        }
+    public void updateUser(
+            @Suspended final AsyncResponse asyncResponse,
+            @HeaderParam("Authorization") final String authorization,
+            @PathParam("id") final String id,
+            @ApiParam(value = "User", required = true) final User user,
+            @QueryParam(OxTrustConstants.QUERY_PARAMETER_ATTRIBUTES) final String attributesArray) {
+        execute(Workload.WRITE, asyncResponse, authorization, new Callable<Response>() {
+            @Override
+            public Response call() throws Exception {
+                return updateUser(id, user, attributesArray);
+            }
+        });
+    }
+
+    private Response updateUser(String id, User user, String attributesArray) throws Exception {
 
         try {
             if (UserValidator.validate(user)) {
@@ -340,20 +355,19 @@ public class UserWebService extends BaseScimWebService {
     @Produces({Constants.MEDIA_TYPE_SCIM_JSON + "; charset=utf-8", MediaType.APPLICATION_JSON + "; charset=utf-8"})
     @HeaderParam("Accept") @DefaultValue(Constants.MEDIA_TYPE_SCIM_JSON)
     @ApiOperation(value = "Delete User", notes = "Delete User (https://tools.ietf.org/html/rfc7644#section-3.6)")
-    public Response deleteUser(
-            @HeaderParam("Authorization") String authorization,
-            @PathParam("id") String id) throws Exception {
-
-        Response authorizationResponse;
-        if (jsonConfigurationService.getOxTrustappConfiguration().isScimTestMode()) {
-            log.info(" ##### SCIM Test Mode is ACTIVE");
-            authorizationResponse = processTestModeAuthorization(authorization);
-        } else {
-            authorizationResponse = processAuthorization(authorization);
-        }
-        if (authorizationResponse != null) {
-            return authorizationResponse;
-        }
+    public void deleteUser(
+            @Suspended final AsyncResponse asyncResponse,
+            @HeaderParam("Authorization") final String authorization,
+            @PathParam("id") final String id) {
+        execute(Workload.WRITE, asyncResponse, authorization, new Callable<Response>() {
+            @Override
+            public Response call() throws Exception {
+                return deleteUser(id);
+            }
+        });
+    }
+
+    private Response deleteUser(String id) throws Exception {
 
         try {
 
@@ -380,23 +394,32 @@ public class UserWebService extends BaseScimWebService {
     @Produces({Constants.MEDIA_TYPE_SCIM_JSON + "; charset=utf-8", MediaType.APPLICATION_JSON + "; charset=utf-8"})
     @HeaderParam("Accept") @DefaultValue(Constants.MEDIA_TYPE_SCIM_JSON)
     @ApiOperation(value = "Search users POST /.search", notes = "Returns a list of users (https://tools.ietf.org/html/rfc7644#section-3.4.3)", response = ListResponse.class)
-    public Response searchUsersPost(
-            @HeaderParam("Authorization") String authorization,
-            @ApiParam(value = "SearchRequest", required = true) SearchRequest searchRequest) throws Exception {
+    public void searchUsersPost(
+            @Suspended final AsyncResponse asyncResponse,
+            @HeaderParam("Authorization") final String authorization,
+            @ApiParam(value = "SearchRequest", required = true) final SearchRequest searchRequest) {
+        execute(Workload.READ, asyncResponse, authorization, new Callable<Response>() {
+            @Override
+            public Response call() throws Exception {
+                return searchUsersPost(searchRequest);
+            }
+        });
+    }
+
+    private Response searchUsersPost(SearchRequest searchRequest) throws Exception {
 
         try {
 
             log.info("IN UserWebService.searchUsersPost()...");
 
-            // Authorization check is done in searchUsers()
             Response response = searchUsers(
-                    authorization,
                     searchRequest.getFilter(),
                     searchRequest.getStartIndex(),
                     searchRequest.getCount(),
                     searchRequest.getSortBy(),
                     searchRequest.getSortOrder(),
-                    searchRequest.getAttributesArray()
+                    searchRequest.getAttributesArray(),
+                    searchRequest.getExcludedAttributesArray()
             );
 
             URI location = new URI(appConfiguration.getBaseEndpoint() + "/scim/v2/Users/.search");
@@ -446,7 +469,12 @@ public class UserWebService extends BaseScimWebService {
         customScimFilterModule.addSerializer(User.class, serializer);
         mapper.registerModule(customScimFilterModule);
 
-        return mapper.writeValueAsString(object);
+        Timer.Context serializationContext = scimMetricsService.startPhase(ScimMetricsService.PHASE_SERIALIZATION);
+        try {
+            return mapper.writeValueAsString(object);
+        } finally {
+            scimMetricsService.stopPhase(serializationContext);
+        }
     }
 
     //  PATCH WEBSERVICES
@@ -456,22 +484,21 @@ public class UserWebService extends BaseScimWebService {
     @Produces({Constants.MEDIA_TYPE_SCIM_JSON + "; charset=utf-8", MediaType.APPLICATION_JSON + "; charset=utf-8"})
     @HeaderParam("Accept") @DefaultValue(Constants.MEDIA_TYPE_SCIM_JSON)
     @ApiOperation(value = "patch user", notes = "Update user (https://tools.ietf.org/html/rfc7644#section-3.5.1)", response = User.class)
-    public Response patchUser(
-            @HeaderParam("Authorization") String authorization,
-            @PathParam("id") String id,
-            @ApiParam(value = "User", required = true) ScimPatchUser user,
-            @QueryParam(OxTrustConstants.QUERY_PARAMETER_ATTRIBUTES) final String attributesArray) throws Exception {
-
-        Response authorizationResponse;
-        if (jsonConfigurationService.getOxTrustappConfiguration().isScimTestMode()) {
-            log.info(" ##### SCIM Test Mode is ACTIVE");
-            authorizationResponse = processTestModeAuthorization(authorization);
-        } else {
-            authorizationResponse = processAuthorization(authorization);
-        }
-        if (authorizationResponse != null) {
-            return authorizationResponse;
-        }
+    public void patchUser(
+            @Suspended final AsyncResponse asyncResponse,
+            @HeaderParam("Authorization") final String authorization,
+            @PathParam("id") final String id,
+            @ApiParam(value = "User", required = true) final ScimPatchUser user,
+            @QueryParam(OxTrustConstants.QUERY_PARAMETER_ATTRIBUTES) final String attributesArray) {
+        execute(Workload.WRITE, asyncResponse, authorization, new Callable<Response>() {
+            @Override
+            public Response call() throws Exception {
+                return patchUser(id, user, attributesArray);
+            }
+        });
+    }
+
+    private Response patchUser(String id, ScimPatchUser user, String attributesArray) throws Exception {
 
         try {
             if (UserValidator.validate(user)) {
@@ -41,6 +41,7 @@ import org.gluu.oxtrust.model.scim2.SearchRequest;
 import org.gluu.oxtrust.model.scim2.fido.FidoDevice;
 import org.gluu.oxtrust.service.antlr.scimFilter.util.ListResponseFidoDeviceSerializer;
 import org.gluu.oxtrust.service.scim2.Scim2FidoDeviceService;
+import org.gluu.oxtrust.service.scim2.ScimMetricsService;
 import org.gluu.oxtrust.util.CopyUtils2;
 import org.gluu.oxtrust.util.OxTrustConstants;
 import org.gluu.oxtrust.ws.rs.scim2.BaseScimWebService;
@@ -51,6 +52,7 @@ import org.xdi.config.oxtrust.AppConfiguration;
 import org.xdi.ldap.model.SortOrder;
 import org.xdi.ldap.model.VirtualListViewResponse;
 
+import com.codahale.metrics.Timer;
 import com.wordnik.swagger.annotations.ApiOperation;
 import com.wordnik.swagger.annotations.ApiParam;
 
@@ -79,6 +81,9 @@ public class FidoDeviceWebService extends BaseScimWebService {
     @Inject
     private CopyUtils2 copyUtils2;
 
+    @Inject
+    private ScimMetricsService scimMetricsService;
+
 	@GET
 	@Produces({Constants.MEDIA_TYPE_SCIM_JSON + "; charset=utf-8", MediaType.APPLICATION_JSON + "; charset=utf-8"})
 	@HeaderParam("Accept") @DefaultValue(Constants.MEDIA_TYPE_SCIM_JSON)
@@ -133,11 +138,16 @@ public class FidoDeviceWebService extends BaseScimWebService {
 
 				if (count > 0 && gluuCustomFidoDevices != null && !gluuCustomFidoDevices.isEmpty()) {
 
-					for (GluuCustomFidoDevice gluuCustomFidoDevice : gluuCustomFidoDevices) {
+					Timer.Context conversionContext = scimMetricsService.startPhase(ScimMetricsService.PHASE_CONVERSION);
+					try {
+						for (GluuCustomFidoDevice gluuCustomFidoDevice : gluuCustomFidoDevices) {
 
-						FidoDevice fidoDevice = copyUtils2.copy(gluuCustomFidoDevice, new FidoDevice());
+							FidoDevice fidoDevice = copyUtils2.copy(gluuCustomFidoDevice, new FidoDevice());
 
-						devicesListResponse.getResources().add(fidoDevice);
+							devicesListResponse.getResources().add(fidoDevice);
+						}
+					} finally {
+						scimMetricsService.stopPhase(conversionContext);
 					}
 
 					// Set the rest of results info
@@ -201,7 +211,13 @@ public class FidoDeviceWebService extends BaseScimWebService {
 
 			GluuCustomFidoDevice gluuCustomFidoDevice = gluuCustomFidoDevices.get(0);
 
-			FidoDevice fidoDevice = copyUtils2.copy(gluuCustomFidoDevice, new FidoDevice());
+			FidoDevice fidoDevice;
+			Timer.Context conversionContext = scimMetricsService.startPhase(ScimMetricsService.PHASE_CONVERSION);
+			try {
+				fidoDevice = copyUtils2.copy(gluuCustomFidoDevice, new FidoDevice());
+			} finally {
+				scimMetricsService.stopPhase(conversionContext);
+			}
 
 			// Serialize to JSON
 			String json = serializeToJson(fidoDevice, attributesArray);
@@ -409,6 +425,11 @@ public class FidoDeviceWebService extends BaseScimWebService {
 		customScimFilterModule.addSerializer(FidoDevice.class, serializer);
 		mapper.registerModule(customScimFilterModule);
 
-		return mapper.writeValueAsString(object);
+		Timer.Context serializationContext = scimMetricsService.startPhase(ScimMetricsService.PHASE_SERIALIZATION);
+		try {
+			return mapper.writeValueAsString(object);
+		} finally {
+			scimMetricsService.stopPhase(serializationContext);
+		}
 	}
 }
@@ -0,0 +1,104 @@
+/*
+ * oxTrust is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2017, Gluu
+ */
+
+package org.gluu.oxtrust.ldap.load;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertNull;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.testng.annotations.Test;
+
+public class CsvRowReaderTest {
+
+	@Test
+	public void readRows() throws IOException {
+		RowReader reader = createReader("uid,givenName,sn\nadmin,Admin,User\n");
+		try {
+			assertRow(reader.readRow(), "uid", "givenName", "sn");
+			assertRow(reader.readRow(), "admin", "Admin", "User");
+			assertNull(reader.readRow());
+		} finally {
+			reader.close();
+		}
+	}
+
+	@Test
+	public void skipByteOrderMark() throws IOException {
+		RowReader reader = createReader("\uFEFFuid,mail\r\nadmin,admin@example.org\r\n");
+		try {
+			assertRow(reader.readRow(), "uid", "mail");
+			assertRow(reader.readRow(), "admin", "admin@example.org");
+			assertNull(reader.readRow());
+		} finally {
+			reader.close();
+		}
+	}
+
+	@Test
+	public void readEmptyValues() throws IOException {
+		RowReader reader = createReader(",a,,\n");
+		try {
+			assertRow(reader.readRow(), "", "a", "", "");
+		} finally {
+			reader.close();
+		}
+	}
+
+	@Test
+	public void readQuotedValues() throws IOException {
+		RowReader reader = createReader("\"Smith, John\",\"say \"\"hi\"\"\",plain\n");
+		try {
+			assertRow(reader.readRow(), "Smith, John", "say \"hi\"", "plain");
+		} finally {
+			reader.close();
+		}
+	}
+
+	@Test
+	public void readQuotedValueWithLineBreak() throws IOException {
+		RowReader reader = createReader("admin,\"first line\nsecond line\",last\nuser,x,y\n");
+		try {
+			assertRow(reader.readRow(), "admin", "first line\nsecond line", "last");
+			assertRow(reader.readRow(), "user", "x", "y");
+			assertNull(reader.readRow());
+		} finally {
+			reader.close();
+		}
+	}
+
+	@Test
+	public void readUtf8Values() throws IOException {
+		RowReader reader = createReader("J\u00FCrgen,\u0410\u043D\u043D\u0430\n");
+		try {
+			assertRow(reader.readRow(), "J\u00FCrgen", "\u0410\u043D\u043D\u0430");
+		} finally {
+			reader.close();
+		}
+	}
+
+	@Test(expectedExceptions = IOException.class)
+	public void unterminatedQuotedValue() throws IOException {
+		RowReader reader = createReader("admin,\"not closed\n");
+		try {
+			reader.readRow();
+		} finally {
+			reader.close();
+		}
+	}
+
+	private RowReader createReader(String content) throws IOException {
+		return new CsvRowReader(new ByteArrayInputStream(content.getBytes("UTF-8")));
+	}
+
+	private void assertRow(String[] row, String... expected) {
+		assertEquals(Arrays.asList(expected), Arrays.asList(row));
+	}
+
+}
@@ -0,0 +1,148 @@
+/*
+ * oxTrust is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2017, Gluu
+ */
+
+package org.gluu.oxtrust.ldap.load;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertNull;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.testng.annotations.Test;
+
+public class XlsxRowReaderTest {
+
+	private static final String SPREADSHEET_NS = "http://schemas.openxmlformats.org/spreadsheetml/2006/main";
+	private static final String RELATIONSHIPS_NS = "http://schemas.openxmlformats.org/officeDocument/2006/relationships";
+	private static final String PACKAGE_RELATIONSHIPS_NS = "http://schemas.openxmlformats.org/package/2006/relationships";
+
+	private static final String SHARED_STRINGS = "<sst xmlns=\"" + SPREADSHEET_NS + "\">"
+			+ "<si><t>uid</t></si>"
+			+ "<si><t>mail</t></si>"
+			+ "<si><r><t>Ad</t></r><r><t>min</t></r></si>"
+			+ "</sst>";
+
+	private static final String PERSONS_SHEET = "<worksheet xmlns=\"" + SPREADSHEET_NS + "\"><sheetData>"
+			+ "<row r=\"1\"><c r=\"A1\" t=\"s\"><v>0</v></c><c r=\"B1\" t=\"s\"><v>1</v></c><c r=\"C1\" t=\"inlineStr\"><is><t>active</t></is></c></row>"
+			+ "<row r=\"2\"><c r=\"A2\" t=\"s\"><v>2</v></c><c r=\"C2\" t=\"b\"><v>1</v></c></row>"
+			+ "<row r=\"4\"><c r=\"A4\"><v>42</v></c><c r=\"B4\" t=\"str\"><v>user@example.org</v></c></row>"
+			+ "</sheetData></worksheet>";
+
+	private static final String OTHER_SHEET = "<worksheet xmlns=\"" + SPREADSHEET_NS + "\"><sheetData>"
+			+ "<row r=\"1\"><c r=\"A1\" t=\"inlineStr\"><is><t>other</t></is></c></row>"
+			+ "</sheetData></worksheet>";
+
+	@Test
+	public void readRows() throws IOException {
+		Map<String, String> entries = new LinkedHashMap<String, String>();
+		entries.put("xl/sharedStrings.xml", SHARED_STRINGS);
+		entries.put("xl/worksheets/sheet1.xml", PERSONS_SHEET);
+
+		RowReader reader = new XlsxRowReader(createWorkbook(entries));
+		try {
+			assertRow(reader.readRow(), "uid", "mail", "active");
+			assertRow(reader.readRow(), "Admin", "", "true");
+			assertRow(reader.readRow(), "42", "user@example.org");
+			assertNull(reader.readRow());
+		} finally {
+			reader.close();
+		}
+	}
+
+	@Test
+	public void readFirstSheetOfWorkbook() throws IOException {
+		Map<String, String> entries = new LinkedHashMap<String, String>();
+		entries.put("xl/workbook.xml", createWorkbookXml("rId2", "rId1"));
+		entries.put("xl/_rels/workbook.xml.rels", createRelationshipsXml("worksheets/sheet1.xml", "worksheets/sheet2.xml"));
+		entries.put("xl/sharedStrings.xml", SHARED_STRINGS);
+		entries.put("xl/worksheets/sheet1.xml", OTHER_SHEET);
+		entries.put("xl/worksheets/sheet2.xml", PERSONS_SHEET);
+
+		RowReader reader = new XlsxRowReader(createWorkbook(entries));
+		try {
+			assertRow(reader.readRow(), "uid", "mail", "active");
+		} finally {
+			reader.close();
+		}
+	}
+
+	@Test
+	public void readFirstSheetWithAbsoluteTarget() throws IOException {
+		Map<String, String> entries = new LinkedHashMap<String, String>();
+		entries.put("xl/workbook.xml", createWorkbookXml("rId2", "rId1"));
+		entries.put("xl/_rels/workbook.xml.rels", createRelationshipsXml("/xl/worksheets/sheet1.xml", "/xl/worksheets/persons.xml"));
+		entries.put("xl/sharedStrings.xml", SHARED_STRINGS);
+		entries.put("xl/worksheets/sheet1.xml", OTHER_SHEET);
+		entries.put("xl/worksheets/persons.xml", PERSONS_SHEET);
+
+		RowReader reader = new XlsxRowReader(createWorkbook(entries));
+		try {
+			assertRow(reader.readRow(), "uid", "mail", "active");
+		} finally {
+			reader.close();
+		}
+	}
+
+	@Test(expectedExceptions = IOException.class)
+	public void workbookWithoutSheets() throws IOException {
+		Map<String, String> entries = new LinkedHashMap<String, String>();
+		entries.put("xl/sharedStrings.xml", SHARED_STRINGS);
+
+		new XlsxRowReader(createWorkbook(entries));
+	}
+
+	private String createWorkbookXml(String... relationshipIds) {
+		StringBuilder xml = new StringBuilder("<workbook xmlns=\"" + SPREADSHEET_NS + "\" xmlns:r=\"" + RELATIONSHIPS_NS + "\"><sheets>");
+		for (int i = 0; i < relationshipIds.length; i++) {
+			xml.append("<sheet name=\"Sheet").append(i + 1).append("\" sheetId=\"").append(i + 1).append("\" r:id=\"").append(relationshipIds[i])
+					.append("\"/>");
+		}
+		xml.append("</sheets></workbook>");
+
+		return xml.toString();
+	}
+
+	private String createRelationshipsXml(String... targets) {
+		StringBuilder xml = new StringBuilder("<Relationships xmlns=\"" + PACKAGE_RELATIONSHIPS_NS + "\">");
+		for (int i = 0; i < targets.length; i++) {
+			xml.append("<Relationship Id=\"rId").append(i + 1).append("\" Type=\"").append(RELATIONSHIPS_NS).append("/worksheet\" Target=\"")
+					.append(targets[i]).append("\"/>");
+		}
+		xml.append("</Relationships>");
+
+		return xml.toString();
+	}
+
+	private File createWorkbook(Map<String, String> entries) throws IOException {
+		File file = File.createTempFile("persons", ".xlsx");
+		file.deleteOnExit();
+
+		ZipOutputStream zos = new ZipOutputStream(new FileOutputStream(file));
+		try {
+			for (Map.Entry<String, String> entry : entries.entrySet()) {
+				zos.putNextEntry(new ZipEntry(entry.getKey()));
+				zos.write(entry.getValue().getBytes("UTF-8"));
+				zos.closeEntry();
+			}
+		} finally {
+			zos.close();
+		}
+
+		return file;
+	}
+
+	private void assertRow(String[] row, String... expected) {
+		assertEquals(Arrays.asList(expected), Arrays.asList(row));
+	}
+
+}
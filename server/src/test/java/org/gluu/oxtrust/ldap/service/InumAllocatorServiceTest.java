@@ -0,0 +1,66 @@
+/*
+ * oxTrust is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2017, Gluu
+ */
+
+package org.gluu.oxtrust.ldap.service;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertFalse;
+import static org.testng.AssertJUnit.assertTrue;
+
+import org.testng.annotations.Test;
+
+public class InumAllocatorServiceTest {
+
+	private static final String PREFIX = "@!1234.5678!0000!";
+
+	@Test
+	public void formatValue() {
+		assertEquals("0000.0000.0000.0100", InumAllocatorService.formatInum(256, 4));
+		assertEquals("0000.0001.A2F0.0100", InumAllocatorService.formatInum(0x1A2F00100L, 4));
+		assertEquals("00FF", InumAllocatorService.formatInum(255, 1));
+	}
+
+	@Test
+	public void formatValueKeepsLowerGroups() {
+		assertEquals("5678", InumAllocatorService.formatInum(0x12345678L, 1));
+		assertEquals("FFFF.FFFF", InumAllocatorService.formatInum(-1L, 2));
+	}
+
+	@Test
+	public void formatInumWithRandomPart() {
+		assertEquals(PREFIX + "0000.0100.9C1E.04B7", InumAllocatorService.formatInum(PREFIX, 256, 2, 0x9C1E04B7L, 2));
+		assertEquals(PREFIX + "0100.04B7", InumAllocatorService.formatInum(PREFIX, 256, 1, 0x9C1E04B7L, 1));
+	}
+
+	@Test
+	public void formatInumWithoutRandomPart() {
+		assertEquals(PREFIX + "0100", InumAllocatorService.formatInum(PREFIX, 256, 1, 0x9C1E04B7L, 0));
+	}
+
+	@Test
+	public void counterSize() {
+		assertEquals(1, InumAllocatorService.getCounterSize(1));
+		assertEquals(1, InumAllocatorService.getCounterSize(2));
+		assertEquals(2, InumAllocatorService.getCounterSize(3));
+		assertEquals(2, InumAllocatorService.getCounterSize(4));
+	}
+
+	@Test
+	public void maxValue() {
+		assertEquals(0x10000L, InumAllocatorService.getMaxValue(1));
+		assertEquals(0x100000000L, InumAllocatorService.getMaxValue(2));
+		assertEquals(Long.MAX_VALUE, InumAllocatorService.getMaxValue(4));
+	}
+
+	@Test
+	public void rangeAvailability() {
+		assertTrue(InumAllocatorService.isRangeAvailable(0xFF00L, 1));
+		assertFalse(InumAllocatorService.isRangeAvailable(0x10000L, 1));
+		assertTrue(InumAllocatorService.isRangeAvailable(0x10000L, 2));
+		assertFalse(InumAllocatorService.isRangeAvailable(Long.MAX_VALUE - 255, 4));
+	}
+
+}
@@ -0,0 +1,111 @@
+/*
+ * oxTrust is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2017, Gluu
+ */
+
+package org.gluu.oxtrust.ldap.service;
+
+import static org.testng.AssertJUnit.assertFalse;
+import static org.testng.AssertJUnit.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.apache.commons.io.IOUtils;
+import org.gluu.oxtrust.util.TestInjector;
+import org.slf4j.LoggerFactory;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+import org.xdi.xml.GluuErrorHandler;
+
+public class MetadataSchemaServiceTest {
+
+	// Module is built from server folder
+	private static final String SCHEMA_DIR = "../configuration/template/shibboleth3/idp/schema";
+
+	private static final String SAMPLE_METADATA = "/metadata/sp-metadata.xml";
+
+	private MetadataSchemaService metadataSchemaService;
+	private String sampleMetadata;
+
+	@BeforeClass
+	public void createService() throws IOException {
+		metadataSchemaService = createService(new File(SCHEMA_DIR).getAbsolutePath() + File.separator);
+
+		InputStream is = MetadataSchemaServiceTest.class.getResourceAsStream(SAMPLE_METADATA);
+		try {
+			sampleMetadata = IOUtils.toString(is, "UTF-8");
+		} finally {
+			IOUtils.closeQuietly(is);
+		}
+	}
+
+	@Test
+	public void validMetadata() throws IOException {
+		GluuErrorHandler errorHandler = validate(metadataSchemaService, sampleMetadata);
+
+		assertTrue(String.valueOf(errorHandler.getLog()), errorHandler.isValid());
+		assertFalse(errorHandler.isInternalError());
+	}
+
+	@Test
+	public void missingRequiredAttribute() throws IOException {
+		String metadata = sampleMetadata.replace(" protocolSupportEnumeration=\"urn:oasis:names:tc:SAML:2.0:protocol\"", "");
+
+		GluuErrorHandler errorHandler = validate(metadataSchemaService, metadata);
+
+		assertFalse(errorHandler.isValid());
+		assertFalse(errorHandler.isInternalError());
+		assertTrue(String.valueOf(errorHandler.getLog()), String.valueOf(errorHandler.getLog()).contains("protocolSupportEnumeration"));
+	}
+
+	@Test
+	public void unexpectedElement() throws IOException {
+		String metadata = sampleMetadata.replace("<md:NameIDFormat>", "<md:NameIdFormat>").replace("</md:NameIDFormat>", "</md:NameIdFormat>");
+
+		GluuErrorHandler errorHandler = validate(metadataSchemaService, metadata);
+
+		assertFalse(errorHandler.isValid());
+		assertFalse(errorHandler.getLog().isEmpty());
+	}
+
+	@Test
+	public void malformedMetadata() throws IOException {
+		String metadata = sampleMetadata.substring(0, sampleMetadata.indexOf("</md:SPSSODescriptor>"));
+
+		GluuErrorHandler errorHandler = validate(metadataSchemaService, metadata);
+
+		assertFalse(errorHandler.isValid());
+		assertFalse(errorHandler.isInternalError());
+	}
+
+	@Test
+	public void missingSchema() throws IOException {
+		MetadataSchemaService service = createService(new File("target", "missing-schema").getAbsolutePath() + File.separator);
+
+		GluuErrorHandler errorHandler = validate(service, sampleMetadata);
+
+		assertFalse(errorHandler.isValid());
+		assertTrue(errorHandler.isInternalError());
+	}
+
+	private MetadataSchemaService createService(final String schemaDir) {
+		MetadataSchemaService service = new MetadataSchemaService() {
+			@Override
+			String getSchemaDir() {
+				return schemaDir;
+			}
+		};
+		TestInjector.inject(service, "log", LoggerFactory.getLogger(MetadataSchemaService.class));
+
+		return service;
+	}
+
+	private GluuErrorHandler validate(MetadataSchemaService service, String metadata) throws IOException {
+		return service.validateMetadata(new ByteArrayInputStream(metadata.getBytes("UTF-8")));
+	}
+
+}
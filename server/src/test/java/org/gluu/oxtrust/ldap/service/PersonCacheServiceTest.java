@@ -0,0 +1,133 @@
+/*
+ * oxTrust is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2017, Gluu
+ */
+
+package org.gluu.oxtrust.ldap.service;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertFalse;
+import static org.testng.AssertJUnit.assertNotNull;
+import static org.testng.AssertJUnit.assertNull;
+import static org.testng.AssertJUnit.assertTrue;
+
+import org.gluu.oxtrust.model.GluuCustomPerson;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class PersonCacheServiceTest {
+
+	private static final String DN = "inum=@!1234!0000!0001.A2F0,ou=people,o=@!1234,o=gluu";
+	private static final String OTHER_DN = "inum=@!1234!0000!0002.9C1E,ou=people,o=@!1234,o=gluu";
+
+	private PersonCacheService personCacheService;
+
+	@BeforeMethod
+	public void createService() {
+		personCacheService = new PersonCacheService();
+		personCacheService.init(160, 30);
+	}
+
+	@AfterMethod
+	public void destroyService() {
+		personCacheService.destroy();
+	}
+
+	@Test
+	public void putAndGet() {
+		personCacheService.put(createPerson(DN, "admin", "@!1234!0000!0001.A2F0"), personCacheService.getVersion());
+
+		assertEquals("admin", personCacheService.getByDn(DN.toUpperCase()).getUid());
+		assertEquals("admin", personCacheService.getByUid("Admin").getUid());
+		assertEquals("admin", personCacheService.getByInum("@!1234!0000!0001.a2f0").getUid());
+		assertNull(personCacheService.getByDn(OTHER_DN));
+		assertNull(personCacheService.getByUid("user"));
+	}
+
+	@Test
+	public void getReturnsCopy() {
+		personCacheService.put(createPerson(DN, "admin", "@!1234!0000!0001.A2F0"), personCacheService.getVersion());
+
+		personCacheService.getByDn(DN).setUid("changed");
+
+		assertEquals("admin", personCacheService.getByDn(DN).getUid());
+	}
+
+	@Test
+	public void invalidateRemovesPerson() {
+		personCacheService.put(createPerson(DN, "admin", "@!1234!0000!0001.A2F0"), personCacheService.getVersion());
+
+		personCacheService.invalidate(DN);
+
+		assertNull(personCacheService.getByDn(DN));
+		assertNull(personCacheService.getByUid("admin"));
+		assertNull(personCacheService.getByInum("@!1234!0000!0001.A2F0"));
+	}
+
+	@Test
+	public void invalidateIncrementsVersion() {
+		long version = personCacheService.getVersion();
+
+		personCacheService.invalidate(OTHER_DN);
+
+		assertTrue(personCacheService.getVersion() > version);
+	}
+
+	@Test
+	public void personLoadedBeforeInvalidationIsNotCached() {
+		long version = personCacheService.getVersion();
+
+		// Other thread modifies some person while this one loads person from LDAP
+		personCacheService.invalidate(OTHER_DN);
+		personCacheService.put(createPerson(DN, "admin", "@!1234!0000!0001.A2F0"), version);
+
+		assertNull(personCacheService.getByDn(DN));
+	}
+
+	@Test
+	public void personLoadedBeforeClearIsNotCached() {
+		long version = personCacheService.getVersion();
+
+		personCacheService.clear();
+		personCacheService.put(createPerson(DN, "admin", "@!1234!0000!0001.A2F0"), version);
+
+		assertNull(personCacheService.getByDn(DN));
+
+		personCacheService.put(createPerson(DN, "admin", "@!1234!0000!0001.A2F0"), personCacheService.getVersion());
+
+		assertNotNull(personCacheService.getByDn(DN));
+	}
+
+	@Test
+	public void uidIndexFollowsRenamedPerson() {
+		personCacheService.put(createPerson(DN, "admin", "@!1234!0000!0001.A2F0"), personCacheService.getVersion());
+		personCacheService.put(createPerson(DN, "root", "@!1234!0000!0001.A2F0"), personCacheService.getVersion());
+
+		assertNull(personCacheService.getByUid("admin"));
+		assertEquals("root", personCacheService.getByUid("root").getUid());
+	}
+
+	@Test
+	public void disabledCache() {
+		personCacheService.destroy();
+		personCacheService = new PersonCacheService();
+		personCacheService.init(0, 30);
+
+		personCacheService.put(createPerson(DN, "admin", "@!1234!0000!0001.A2F0"), personCacheService.getVersion());
+
+		assertFalse(personCacheService.isEnabled());
+		assertNull(personCacheService.getByDn(DN));
+	}
+
+	private GluuCustomPerson createPerson(String dn, String uid, String inum) {
+		GluuCustomPerson person = new GluuCustomPerson();
+		person.setDn(dn);
+		person.setUid(uid);
+		person.setInum(inum);
+
+		return person;
+	}
+
+}
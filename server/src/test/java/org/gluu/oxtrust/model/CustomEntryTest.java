@@ -0,0 +1,153 @@
+/*
+ * oxTrust is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2017, Gluu
+ */
+
+package org.gluu.oxtrust.model;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.testng.annotations.Test;
+
+public class CustomEntryTest {
+
+	@Test
+	public void findAttributeIgnoringCase() {
+		TestEntry entry = createEntry(new GluuCustomAttribute("uid", "admin"), new GluuCustomAttribute("mail", "admin@example.org"));
+
+		assertEquals("admin", entry.getAttribute("UID"));
+		assertEquals("admin@example.org", entry.getAttribute("Mail"));
+		assertNull(entry.getAttribute("sn"));
+		assertNull(entry.getAttribute(""));
+		assertNull(entry.getAttribute(null));
+	}
+
+	@Test
+	public void findAllValues() {
+		TestEntry entry = createEntry(new GluuCustomAttribute("memberOf", new String[] { "group1", "group2" }));
+
+		assertEquals(Arrays.asList("group1", "group2"), Arrays.asList(entry.getAttributes("memberof")));
+		assertNull(entry.getAttributes("uid"));
+	}
+
+	@Test
+	public void findFirstOfDuplicateAttributes() {
+		TestEntry entry = createEntry(new GluuCustomAttribute("uid", "first"), new GluuCustomAttribute("UID", "second"));
+
+		assertEquals("first", entry.getAttribute("uid"));
+	}
+
+	@Test
+	public void findAttributeAddedToList() {
+		TestEntry entry = createEntry(new GluuCustomAttribute("uid", "admin"));
+		assertNull(entry.getAttribute("mail"));
+
+		entry.getCustomAttributes().add(new GluuCustomAttribute("mail", "admin@example.org"));
+
+		assertEquals("admin@example.org", entry.getAttribute("mail"));
+	}
+
+	@Test
+	public void findAttributeReplacedInList() {
+		TestEntry entry = createEntry(new GluuCustomAttribute("uid", "admin"), new GluuCustomAttribute("mail", "admin@example.org"));
+		assertEquals("admin", entry.getAttribute("uid"));
+
+		// Size stays the same, so index is checked by name at found position
+		entry.getCustomAttributes().set(0, new GluuCustomAttribute("sn", "User"));
+		entry.getCustomAttributes().set(1, new GluuCustomAttribute("uid", "root"));
+
+		assertEquals("root", entry.getAttribute("uid"));
+		assertEquals("User", entry.getAttribute("sn"));
+		assertNull(entry.getAttribute("mail"));
+	}
+
+	@Test
+	public void findAttributeMissingInIndex() {
+		TestEntry entry = createEntry(new GluuCustomAttribute("uid", "admin"), new GluuCustomAttribute("mail", "admin@example.org"));
+		assertEquals("admin@example.org", entry.getAttribute("mail"));
+
+		// Name isn't in index built before change
+		entry.getCustomAttributes().set(1, new GluuCustomAttribute("sn", "User"));
+
+		assertEquals("User", entry.getAttribute("sn"));
+		assertEquals(1, entry.findCustomAttributePosition("sn"));
+		assertNull(entry.getAttribute("mail"));
+		assertEquals(-1, entry.findCustomAttributePosition("mail"));
+	}
+
+	@Test
+	public void findRenamedAttribute() {
+		TestEntry entry = createEntry(new GluuCustomAttribute("uid", "admin"), new GluuCustomAttribute("mail", "admin@example.org"));
+		assertEquals("admin", entry.getAttribute("uid"));
+
+		entry.getCustomAttributes().get(0).setName("cn");
+
+		assertEquals("admin", entry.getAttribute("cn"));
+		assertNull(entry.getAttribute("uid"));
+		assertEquals("admin@example.org", entry.getAttribute("mail"));
+	}
+
+	@Test
+	public void findAttributeInNewList() {
+		TestEntry entry = createEntry(new GluuCustomAttribute("uid", "admin"));
+		assertEquals("admin", entry.getAttribute("uid"));
+
+		entry.setCustomAttributes(new ArrayList<GluuCustomAttribute>(Arrays.asList(new GluuCustomAttribute("uid", "root"))));
+
+		assertEquals("root", entry.getAttribute("uid"));
+	}
+
+	@Test
+	public void setAttribute() {
+		TestEntry entry = createEntry(new GluuCustomAttribute("uid", "admin"), new GluuCustomAttribute("mail", "admin@example.org"));
+		assertEquals("admin", entry.getAttribute("uid"));
+
+		entry.setAttribute("UID", "root");
+		entry.setAttribute("sn", "User");
+
+		assertEquals("root", entry.getAttribute("uid"));
+		assertEquals("User", entry.getAttribute("sn"));
+		assertEquals("admin@example.org", entry.getAttribute("mail"));
+		assertEquals(3, entry.getCustomAttributes().size());
+	}
+
+	@Test
+	public void defaultValue() {
+		TestEntry entry = createEntry(new GluuCustomAttribute("uid", ""));
+
+		assertEquals("none", entry.getAttribute("uid", "none"));
+		assertEquals("none", entry.getAttribute("mail", "none"));
+	}
+
+	private TestEntry createEntry(GluuCustomAttribute... attributes) {
+		TestEntry entry = new TestEntry();
+		entry.setCustomAttributes(new ArrayList<GluuCustomAttribute>(Arrays.asList(attributes)));
+
+		return entry;
+	}
+
+	private static class TestEntry extends CustomEntry {
+
+		private static final long serialVersionUID = 1L;
+
+		private List<GluuCustomAttribute> customAttributes;
+
+		@Override
+		public List<GluuCustomAttribute> getCustomAttributes() {
+			return customAttributes;
+		}
+
+		@Override
+		public void setCustomAttributes(List<GluuCustomAttribute> customAttributes) {
+			this.customAttributes = customAttributes;
+		}
+
+	}
+
+}
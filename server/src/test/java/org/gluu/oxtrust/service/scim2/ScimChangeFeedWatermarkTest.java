@@ -0,0 +1,88 @@
+/*
+ * oxTrust is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2017, Gluu
+ */
+
+package org.gluu.oxtrust.service.scim2;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertFalse;
+import static org.testng.AssertJUnit.assertTrue;
+
+import java.util.Arrays;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.apache.commons.codec.binary.Base64;
+import org.apache.commons.codec.binary.StringUtils;
+import org.gluu.oxtrust.service.scim2.ScimChangeFeedService.Watermark;
+import org.testng.annotations.Test;
+
+public class ScimChangeFeedWatermarkTest {
+
+	private static final String TIMESTAMP = "2017-06-01T10:15:30.123Z";
+
+	@Test
+	public void encodeAndDecode() {
+		Set<String> returnedKeys = new TreeSet<String>(Arrays.asList("+users:@!1234!0000!0001.A2F0", "-groups:@!1234!0003!00AB.0C1E"));
+
+		Watermark watermark = Watermark.decode(new Watermark(TIMESTAMP, returnedKeys).encode());
+
+		assertEquals(TIMESTAMP, watermark.getTimestamp());
+		assertEquals(returnedKeys, watermark.getReturnedKeys());
+	}
+
+	@Test
+	public void encodeAndDecodeWithoutKeys() {
+		Watermark watermark = Watermark.decode(new Watermark(TIMESTAMP, new TreeSet<String>()).encode());
+
+		assertEquals(TIMESTAMP, watermark.getTimestamp());
+		assertTrue(watermark.getReturnedKeys().isEmpty());
+	}
+
+	@Test
+	public void encodedWatermarkIsUrlSafe() {
+		Set<String> returnedKeys = new TreeSet<String>(Arrays.asList("+users:@!1234!0000!0001.FFFF"));
+
+		String encoded = new Watermark(TIMESTAMP, returnedKeys).encode();
+
+		assertFalse(encoded.contains("+"));
+		assertFalse(encoded.contains("/"));
+		assertFalse(encoded.contains("="));
+	}
+
+	@Test
+	public void decodeNormalizesTimestamp() {
+		Watermark watermark = Watermark.decode(encode("2|2017-06-01T12:15:30.123+02:00|"));
+
+		assertEquals(TIMESTAMP, watermark.getTimestamp());
+	}
+
+	@Test(expectedExceptions = IllegalArgumentException.class)
+	public void decodeUnknownVersion() {
+		Watermark.decode(encode("3|" + TIMESTAMP + "|"));
+	}
+
+	@Test(expectedExceptions = IllegalArgumentException.class)
+	public void decodeInvalidTimestamp() {
+		Watermark.decode(encode("2|yesterday|"));
+	}
+
+	@Test(expectedExceptions = IllegalArgumentException.class)
+	public void decodeGarbage() {
+		Watermark.decode("not a watermark");
+	}
+
+	@Test
+	public void isTimestamp() {
+		assertTrue(ScimChangeFeedService.isTimestamp(TIMESTAMP));
+		assertFalse(ScimChangeFeedService.isTimestamp("Thu Jun 01 10:15:30 UTC 2017"));
+		assertFalse(ScimChangeFeedService.isTimestamp(null));
+	}
+
+	private String encode(String value) {
+		return Base64.encodeBase64URLSafeString(StringUtils.getBytesUtf8(value));
+	}
+
+}
@@ -0,0 +1,129 @@
+/*
+ * oxTrust is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2017, Gluu
+ */
+
+package org.gluu.oxtrust.service.scim2;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertFalse;
+import static org.testng.AssertJUnit.assertTrue;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.concurrent.TimeUnit;
+
+import org.gluu.oxtrust.util.TestInjector;
+import org.slf4j.LoggerFactory;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.codahale.metrics.Timer;
+
+public class ScimMetricsServiceTest {
+
+	private ScimMetricsService metricsService;
+
+	@BeforeMethod
+	public void createService() {
+		metricsService = new ScimMetricsService();
+		TestInjector.inject(metricsService, "log", LoggerFactory.getLogger(ScimMetricsService.class));
+		metricsService.init();
+	}
+
+	@AfterMethod
+	public void destroyService() {
+		metricsService.destroy();
+	}
+
+	@Test
+	public void emptyRegistry() throws IOException {
+		assertEquals("", writePrometheusText());
+	}
+
+	@Test
+	public void timerIsWrittenAsSummary() throws IOException {
+		String operationName = metricsService.getOperationName("users", "get");
+		metricsService.timer(operationName + "." + ScimMetricsService.PHASE_TOTAL).update(2, TimeUnit.SECONDS);
+
+		String text = writePrometheusText();
+
+		String labels = "resource=\"users\",operation=\"get\",phase=\"total\"";
+		assertTrue(text.contains("# TYPE scim_request_duration_seconds summary\n"));
+		assertTrue(text.contains("scim_request_duration_seconds{" + labels + ",quantile=\"0.5\"} 2.0\n"));
+		assertTrue(text.contains("scim_request_duration_seconds{" + labels + ",quantile=\"0.99\"} 2.0\n"));
+		assertTrue(text.contains("scim_request_duration_seconds_sum{" + labels + "} 2.0\n"));
+		assertTrue(text.contains("scim_request_duration_seconds_count{" + labels + "} 1.0\n"));
+	}
+
+	@Test
+	public void sumIsCumulative() throws IOException {
+		Timer timer = metricsService.timer(metricsService.getOperationName("users", "search") + "." + ScimMetricsService.PHASE_LDAP_SEARCH);
+		timer.update(1, TimeUnit.SECONDS);
+		timer.update(500, TimeUnit.MILLISECONDS);
+		timer.update(3, TimeUnit.SECONDS);
+
+		assertTrue(writePrometheusText().contains("scim_request_duration_seconds_sum{resource=\"users\",operation=\"search\",phase=\"ldapSearch\"} 4.5\n"));
+	}
+
+	@Test
+	public void sumIsSkippedForPlainTimer() throws IOException {
+		metricsService.getRegistry().timer("scim.users.get.total").update(2, TimeUnit.SECONDS);
+
+		String text = writePrometheusText();
+
+		assertTrue(text.contains("scim_request_duration_seconds_count{resource=\"users\",operation=\"get\",phase=\"total\"} 1.0\n"));
+		assertFalse(text.contains("scim_request_duration_seconds_sum{"));
+	}
+
+	@Test
+	public void responsesAreWrittenAsCounter() throws IOException {
+		String operationName = metricsService.getOperationName("groups", "search");
+		for (int i = 0; i < 3; i++) {
+			Timer.Context context = metricsService.startOperation(operationName);
+			metricsService.stopOperation(context, operationName, 200);
+		}
+		metricsService.stopOperation(null, operationName, 404);
+
+		String text = writePrometheusText();
+
+		assertTrue(text.contains("# TYPE scim_responses_total counter\n"));
+		assertTrue(text.contains("scim_responses_total{resource=\"groups\",operation=\"search\",status=\"200\"} 3.0\n"));
+		assertTrue(text.contains("scim_responses_total{resource=\"groups\",operation=\"search\",status=\"404\"} 1.0\n"));
+		assertTrue(text.contains("scim_request_duration_seconds_count{resource=\"groups\",operation=\"search\",phase=\"total\"} 3.0\n"));
+	}
+
+	@Test
+	public void phaseOutsideOfOperation() throws IOException {
+		metricsService.stopPhase(metricsService.startPhase(ScimMetricsService.PHASE_LDAP_SEARCH));
+
+		assertTrue(writePrometheusText().contains("{resource=\"unknown\",operation=\"unknown\",phase=\"ldapSearch\"}"));
+	}
+
+	@Test
+	public void metricWithUnexpectedNameIsSkipped() throws IOException {
+		metricsService.getRegistry().timer("scim.users").update(1, TimeUnit.SECONDS);
+
+		assertFalse(writePrometheusText().contains("scim_request_duration_seconds{"));
+	}
+
+	@Test
+	public void counterNameIsSanitized() throws IOException {
+		metricsService.getRegistry().counter("scim.outbox.queue-size").inc(4);
+
+		String text = writePrometheusText();
+
+		assertTrue(text.contains("# TYPE scim_outbox_queue_size gauge\n"));
+		assertTrue(text.contains("scim_outbox_queue_size 4\n"));
+	}
+
+	private String writePrometheusText() throws IOException {
+		StringWriter writer = new StringWriter();
+		metricsService.writePrometheusText(writer);
+
+		return writer.toString();
+	}
+
+}
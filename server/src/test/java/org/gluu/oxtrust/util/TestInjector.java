@@ -0,0 +1,36 @@
+/*
+ * oxTrust is available under the MIT License (2008). See http://opensource.org/licenses/MIT for full text.
+ *
+ * Copyright (c) 2017, Gluu
+ */
+
+package org.gluu.oxtrust.util;
+
+import java.lang.reflect.Field;
+
+/**
+ * Sets injected fields of beans created outside of CDI container in unit tests
+ */
+public final class TestInjector {
+
+	private TestInjector() {
+	}
+
+	public static void inject(Object bean, String fieldName, Object value) {
+		for (Class<?> clazz = bean.getClass(); clazz != null; clazz = clazz.getSuperclass()) {
+			try {
+				Field field = clazz.getDeclaredField(fieldName);
+				field.setAccessible(true);
+				field.set(bean, value);
+				return;
+			} catch (NoSuchFieldException ex) {
+				// Field is declared in superclass
+			} catch (IllegalAccessException ex) {
+				throw new IllegalStateException("Failed to inject field '" + fieldName + "'", ex);
+			}
+		}
+
+		throw new IllegalArgumentException("There is no field '" + fieldName + "' in " + bean.getClass());
+	}
+
+}